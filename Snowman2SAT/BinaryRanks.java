@@ -0,0 +1,88 @@
+/**
+ * @class BinaryRanks
+ * @author Miquel Bofill
+ * @version 1.0
+ * @date 2023-06-25
+ * @brief Binary ranks of the locations of a grid, for acyclicity
+ *
+ * At each time step, each valid location gets a rank of bits() bits (families
+ * prefix<k>_<loc>_<t>, bit k = 0 being the most significant one). A literal can be
+ * made to imply that the rank of a location is smaller than the rank of one of its
+ * neighbours (see Comparators.less), through a comparator with bits() - 1 auxiliary
+ * variables per location and direction, so that edges implying such comparisons form
+ * no cycle. Hence acyclicity takes O(|V| log |V|) variables and clauses per time step,
+ * instead of the O(|V|^2) variables and O(|V|^3) clauses of a transitive closure.
+*/
+
+public class BinaryRanks {
+
+    private static final String[] DIRECTIONS = {"n", "s", "e", "w"}; ///< names of Geometry.N, S, E, W
+
+    private final String _prefix;
+    private final int _bits;
+
+    /// @pre \p nValues >= 1 different ranks are needed (at least the length of a longest path)
+    public BinaryRanks(String prefix, int nValues) {
+        _prefix = prefix;
+        _bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(nValues - 1));
+    }
+
+    /// @returns Number of bits of a rank
+    public int bits() {
+        return _bits;
+    }
+
+    /// @post The families of the ranks and of the comparators are declared in \p v
+    public void declare(VariableRegistry v) {
+        for (int k = 0; k < _bits; ++k)
+            v.declareLocations(_prefix + k);
+        for (String d : DIRECTIONS)
+            for (int k = 1; k < _bits; ++k)
+                v.declareLocations(_prefix + "lt" + d + k);
+    }
+
+    /// @pre The families are declared in \p v (see declare)
+    /// @returns The comparators on the ranks, with the families of \p v
+    public Comparators comparators(VariableRegistry v) {
+        return new Comparators(v);
+    }
+
+    /// @brief Comparators on the ranks of the locations
+    public class Comparators {
+        private final VariableRegistry.Family[] _rank; ///< bits of the ranks, most significant first
+        private final VariableRegistry.Family[][] _lt; ///< [direction][k], k >= 1: bits k .. of the rank of the neighbour in direction are smaller
+
+        private Comparators(VariableRegistry v) {
+            _rank = new VariableRegistry.Family[_bits];
+            _lt = new VariableRegistry.Family[DIRECTIONS.length][_bits];
+            for (int k = 0; k < _bits; ++k)
+                _rank[k] = v.locations(_prefix + k);
+            for (int d = 0; d < DIRECTIONS.length; ++d)
+                for (int k = 1; k < _bits; ++k)
+                    _lt[d][k] = v.locations(_prefix + "lt" + DIRECTIONS[d] + k);
+        }
+
+        /// @pre \p q is the neighbour of location \p p in direction \p d (see Geometry)
+        /// @post Adds to \p f clauses stating that \p literal implies that, at time \p t, the rank of
+        ///       \p q is smaller than the rank of \p p
+        public void less(int literal, int q, int p, int d, int t, DIMACSFormula f) {
+            // lt_k: bits k .. bits-1 of the rank of q are smaller than those of p (lt_0 = literal, lt_bits = false)
+            int lt = literal;
+            for (int k = 0; k < _bits; ++k) {
+                int qk = _rank[k].at(q, t), pk = _rank[k].at(p, t);
+                if (k + 1 < _bits) {
+                    int ltNext = _lt[d][k + 1].at(p, t);
+                    f.addClause(-lt, -qk, pk);
+                    f.addClause(-lt, -qk, ltNext);
+                    f.addClause(-lt, pk, ltNext);
+                    lt = ltNext;
+                }
+                else {
+                    f.addClause(-lt, -qk);
+                    f.addClause(-lt, pk);
+                }
+            }
+        }
+    }
+
+}
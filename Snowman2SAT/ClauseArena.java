@@ -0,0 +1,126 @@
+/**
+ * @class ClauseArena
+ * @author Miquel Bofill
+ * @version 1.0
+ * @date 2023-06-14
+ * @brief A compact store of clauses
+ *
+ * Literals of all clauses are kept consecutively in a single growable <tt>int[]</tt>
+ * pool, and clause <tt>i</tt> spans positions <tt>start(i)</tt> to <tt>start(i + 1) - 1</tt>
+ * of it. Hence memory is about 4 bytes per literal plus 4 bytes per clause.
+*/
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ClauseArena {
+
+    private static final int INITIAL_CAPACITY = 1 << 10;
+
+    private int[] _literals; ///< literal pool
+    private int _nLiterals;  ///< number of literals in the pool (including those of an open clause)
+    private int[] _starts;   ///< position in the pool of the first literal of each clause (and of the next clause)
+    private int _nClauses;   ///< number of (closed) clauses
+
+    public ClauseArena() {
+        _literals = new int[INITIAL_CAPACITY];
+        _starts = new int[INITIAL_CAPACITY];
+    }
+
+    // @returns an array with the contents of \p a and room for at least \p needed elements
+    private static int[] grow(int[] a, long needed) {
+        if (needed > Integer.MAX_VALUE - 8)
+            throw new IllegalStateException("Clause arena is full");
+        int capacity = (int) Math.min(Math.max((long) a.length * 2, needed), Integer.MAX_VALUE - 8);
+        return Arrays.copyOf(a, capacity);
+    }
+
+    /// @brief Appends \p literal to the clause being built
+    public void push(int literal) {
+        if (_nLiterals == _literals.length)
+            _literals = grow(_literals, (long) _nLiterals + 1);
+        _literals[_nLiterals++] = literal;
+    }
+
+    /// @brief Closes the clause being built (empty clauses are discarded)
+    public void endClause() {
+        if (_nLiterals == _starts[_nClauses])
+            return;
+        if (_nClauses + 1 == _starts.length)
+            _starts = grow(_starts, (long) _nClauses + 2);
+        _starts[++_nClauses] = _nLiterals;
+    }
+
+    /// @brief Adds the clause of literals \p clause (empty clauses are discarded)
+    public void add(int... clause) {
+        if (_nLiterals + clause.length > _literals.length)
+            _literals = grow(_literals, (long) _nLiterals + clause.length);
+        System.arraycopy(clause, 0, _literals, _nLiterals, clause.length);
+        _nLiterals += clause.length;
+        endClause();
+    }
+
+    /// @returns Number of clauses
+    public int size() {
+        return _nClauses;
+    }
+
+    /// @returns Number of literals of all clauses
+    public long nLiterals() {
+        return _starts[_nClauses];
+    }
+
+    /// @returns Number of literals of clause \p i
+    public int length(int i) {
+        return _starts[i + 1] - _starts[i];
+    }
+
+    /// @returns Literal \p k of clause \p i
+    public int literal(int i, int k) {
+        return _literals[_starts[i] + k];
+    }
+
+    /// @returns A copy of clause \p i
+    public int[] clause(int i) {
+        return Arrays.copyOfRange(_literals, _starts[i], _starts[i + 1]);
+    }
+
+    /// @post No clauses (the pool is kept for reuse)
+    public void clear() {
+        _nLiterals = 0;
+        _nClauses = 0;
+    }
+
+    /// @returns A read-only view of the clauses, without copying them
+    public List<List<Integer>> asList() {
+        return new AbstractList<List<Integer>>() {
+            @Override
+            public List<Integer> get(int i) {
+                if (i < 0 || i >= _nClauses)
+                    throw new IndexOutOfBoundsException("Clause " + i);
+                final int from = _starts[i];
+                final int size = _starts[i + 1] - from;
+                return new AbstractList<Integer>() {
+                    @Override
+                    public Integer get(int k) {
+                        if (k < 0 || k >= size)
+                            throw new IndexOutOfBoundsException("Literal " + k);
+                        return _literals[from + k];
+                    }
+
+                    @Override
+                    public int size() {
+                        return size;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return _nClauses;
+            }
+        };
+    }
+
+}
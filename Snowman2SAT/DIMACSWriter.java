@@ -0,0 +1,94 @@
+/**
+ * @class DIMACSWriter
+ * @author Miquel Bofill
+ * @version 1.0
+ * @date 2023-06-16
+ * @brief Buffered writer of DIMACS text
+ *
+ * Integers are formatted straight into a reusable byte buffer, which is written
+ * to a channel when full, so that no String is allocated per literal.
+*/
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+public class DIMACSWriter {
+
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    private final WritableByteChannel _out; ///< destination
+    private final ByteBuffer _buffer;       ///< pending bytes
+    private final byte[] _digits = new byte[11]; ///< scratch for formatting an int
+
+    /// @pre \p bufferSize >= 16
+    public DIMACSWriter(WritableByteChannel out, int bufferSize) {
+        if (bufferSize < 16)
+            throw new IllegalArgumentException("Buffer size " + bufferSize + " too small");
+        _out = out;
+        _buffer = ByteBuffer.allocate(bufferSize);
+    }
+
+    public DIMACSWriter(WritableByteChannel out) {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    private void reserve(int n) throws IOException {
+        if (_buffer.remaining() < n)
+            drain();
+    }
+
+    private void drain() throws IOException {
+        _buffer.flip();
+        while (_buffer.hasRemaining())
+            _out.write(_buffer);
+        _buffer.clear();
+    }
+
+    public void write(char c) throws IOException {
+        reserve(1);
+        _buffer.put((byte) c);
+    }
+
+    /// @pre \p s is ASCII
+    public void write(String s) throws IOException {
+        for (int i = 0; i < s.length(); ++i)
+            write(s.charAt(i));
+    }
+
+    public void write(int n) throws IOException {
+        reserve(_digits.length);
+        if (n == Integer.MIN_VALUE) {
+            write(Integer.toString(n));
+            return;
+        }
+        if (n < 0) {
+            _buffer.put((byte) '-');
+            n = -n;
+        }
+        int k = _digits.length;
+        do {
+            _digits[--k] = (byte) ('0' + n % 10);
+            n /= 10;
+        } while (n != 0);
+        _buffer.put(_digits, k, _digits.length - k);
+    }
+
+    /// @brief Writes \p literal followed by a space
+    public void literal(int literal) throws IOException {
+        write(literal);
+        write(' ');
+    }
+
+    /// @brief Writes the end of a clause
+    public void endClause() throws IOException {
+        write("0\n");
+    }
+
+    /// @post Pending bytes are written to the channel
+    public void flush() throws IOException {
+        if (_buffer.position() > 0)
+            drain();
+    }
+
+}
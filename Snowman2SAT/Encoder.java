@@ -0,0 +1,298 @@
+/**
+ * @class Encoder
+ * @author Miquel Bofill
+ * @version 1.8
+ * @date 2023-07-08
+ * @brief Translation to CNF of an instance already read, for any number of time steps
+ *
+ * Clauses are generated by time layers, so that a formula for n steps can be turned
+ * into one for m > n steps by adding only the clauses of time steps n .. m - 1 (see
+ * extend). As the goal only holds at the last time step, the goal clauses for each
+ * number of steps are guarded by an activation literal, to be assumed by an
+ * incremental SAT solver. A whole range of numbers of steps can be output this way
+ * as an iCNF file (see encodeIncremental), or solved in the same JVM, the clauses
+ * going to the solver as integers (see solveIncremental).
+ *
+ * As the clauses of a time step only differ from those of the previous one in the
+ * time of their variables, which the registry lays out with a fixed stride, the
+ * clauses of time steps 0 and 1 and those of the goal are generated only once, as
+ * templates, and those of any other time step are stamped out by shifting their
+ * variables (see stamp). Hence generating a formula takes time linear in its size,
+ * whatever the cost of the encoding. The templates are checked against time step 2,
+ * and the goal at times 1 and 3 (stamped back and forth), generated directly; should
+ * they differ, every formula is generated directly instead.
+ *
+ * Literals known in advance, such as those of locations out of reach at some time
+ * step, can be fixed by a Pruning, so that the clauses with them are simplified as
+ * they are added (see DIMACSFormula.fix). Being time dependent, they are added apart
+ * from the templates: those that hold in every plan reaching time step t are fixed
+ * as soon as t is, and those that depend on the goal are guarded like the goal.
+ * A lower bound on the number of time steps of a plan can be given as well, for
+ * the search of the shortest one to start from it (see minSteps).
+*/
+
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class Encoder {
+
+    /// Name of the step family of goal activation literals
+    public static final String GOAL = "goal";
+
+    @FunctionalInterface
+    public interface Layers {
+        /// @post Clauses of the initial state (if \p first == 0), of time steps \p first .. \p nSteps - 1,
+        ///       and of the goal at time \p nSteps (with literal  -guard  added, if \p guard != 0) belong to \p f
+        void add(DIMACSFormula f, int first, int nSteps, int guard) throws Exception;
+    }
+
+    public interface Pruning {
+        /// @returns Literals of time step \p t >= 1, or of the actions of time step \p t - 1 leading to it,
+        ///          that hold in every plan of t time steps or more
+        int[] reached(int t);
+
+        /// @returns Literals of time step \p t <= \p nSteps that hold in every plan of \p nSteps time steps
+        ///          (as they follow from the goal, but not from the clauses of the time steps alone)
+        int[] reaching(int t, int nSteps);
+    }
+
+    private final VariableRegistry _registry;
+    private final Layers _layers;
+    private final Pruning _pruning; ///< null if none
+    private final int _minSteps;    ///< no plan has fewer time steps
+    private boolean _recorded;   ///< whether the templates below have been built
+    private ClauseArena _initial; ///< clauses of the initial state and of time step 0 (null if no templates)
+    private ClauseArena _step;    ///< clauses of time step 1
+    private ClauseArena _goal;    ///< clauses of the goal at time 2, without their guard
+
+    /// @pre No variable of \p registry has been looked up yet
+    /// @post A step family of goal activation literals is declared in \p registry
+    public Encoder(VariableRegistry registry, Layers layers) {
+        this(registry, layers, null);
+    }
+
+    /// @brief An encoder with no lower bound on the number of time steps (see below)
+    public Encoder(VariableRegistry registry, Layers layers, Pruning pruning) {
+        this(registry, layers, pruning, 0);
+    }
+
+    /// @pre No variable of \p registry has been looked up yet, nor is by \p pruning before encoding,
+    ///      and no plan has fewer than \p minSteps time steps
+    /// @post A step family of goal activation literals is declared in \p registry, and the literals
+    ///       given by \p pruning (unless null) are fixed in the formulas
+    public Encoder(VariableRegistry registry, Layers layers, Pruning pruning, int minSteps) {
+        _registry = registry;
+        _layers = layers;
+        _pruning = pruning;
+        _minSteps = minSteps;
+        _registry.declareSteps(GOAL);
+    }
+
+    public VariableRegistry registry() {
+        return _registry;
+    }
+
+    /// @returns A lower bound on the number of time steps of a plan (Geometry.UNREACHABLE if there is none)
+    public int minSteps() {
+        return _minSteps;
+    }
+
+    /// @post Outputs to \p out a CNF for plans of \p nSteps time steps; clauses are written to a
+    ///       temporary file as they are generated if \p stream, atoms are named in comment
+    ///       lines if \p comments, and the variable map is written to file \p map if not null
+    public void encode(int nSteps, PrintStream out, boolean stream, boolean comments, String map) throws Exception {
+		DIMACSFormula f = new DIMACSFormula(_registry, stream);
+		add(f, 0, nSteps, 0);
+		f.print(out, comments);
+
+		// Variable map
+		if (map != null)
+			try (PrintStream m = new PrintStream(map)) {
+				_registry.write(m);
+			}
+    }
+
+    /// @post Outputs to \p out an iCNF for plans of \p min .. \p max time steps: a block of clauses
+    ///       for each number of steps n, followed by the line  a g 0  where  g  enables the goal
+    ///       at time n; clauses are written to a temporary file as they are generated if \p stream,
+    ///       and the variable map is written to file \p map if not null
+    public void encodeIncremental(int min, int max, PrintStream out, boolean stream, String map) throws Exception {
+		if (min < 0 || min > max)
+			throw new IllegalArgumentException("No numbers of steps from " + min + " to " + max);
+		DIMACSFormula f = new DIMACSFormula(_registry, stream);
+		out.flush();
+		WritableByteChannel channel = Channels.newChannel(out);
+		for (int n = min, first = 0; n <= max; first = n++)
+			f.printBlock(channel, n == min, extend(f, first, n));
+		out.flush();
+
+		// Variable map
+		if (map != null)
+			try (PrintStream m = new PrintStream(map)) {
+				_registry.write(m);
+			}
+    }
+
+    /// @post Solves with \p solver the formulas for plans of \p min, \p min + \p step, ... <= \p max time
+    ///       steps, incrementally: only the clauses of the time steps added are given to \p solver for each
+    ///       number of steps n, and the goal at time n is assumed; a line with n, the time taken to encode,
+    ///       the result and the time taken to solve is written to \p log for each n tried
+    /// @returns The first n whose formula is satisfiable, with its model in \p solver, or -1 if none
+    public int solveIncremental(CdclSolver solver, int min, int max, int step, PrintStream log) throws Exception {
+		if (min < 0 || min > max || step < 1)
+			throw new IllegalArgumentException("No numbers of steps from " + min + " to " + max + " by " + step);
+		DIMACSFormula f = new DIMACSFormula(_registry);
+		for (int n = min, first = 0; n <= max; first = n, n += step) {
+			long start = System.currentTimeMillis();
+			int guard = extend(f, first, n);
+			solver.addClauses(f);
+			f.clear();
+			long encoded = System.currentTimeMillis();
+			int result = solver.solve(guard);
+			long solved = System.currentTimeMillis();
+			log.println(n + " " + (encoded - start) + " ms " + (result == SatSolver.SAT ? "SAT" : "UNSAT") + " " + (solved - encoded) + " ms");
+			if (result == SatSolver.SAT)
+				return n;
+		}
+		return -1;
+    }
+
+    /// @pre \p f holds the clauses for \p first time steps (none, if \p first == 0), and \p first <= \p nSteps
+    /// @post Adds to \p f the clauses of time steps \p first .. \p nSteps - 1, and those of the
+    ///       goal at time \p nSteps guarded by the returned literal
+    /// @returns The literal to be assumed for the goal at time \p nSteps to be required
+    public int extend(DIMACSFormula f, int first, int nSteps) throws Exception {
+		if (first < 0 || first > nSteps)
+			throw new IllegalArgumentException("No time steps from " + first + " to " + nSteps);
+		int guard = _registry.steps(GOAL).at(nSteps);
+		add(f, first, nSteps, guard);
+		return guard;
+    }
+
+    // Same as Layers.add, from the templates if any, after the literals fixed by the pruning
+    private void add(DIMACSFormula f, int first, int nSteps, int guard) throws Exception {
+		prune(f, first, nSteps, guard);
+		if (nSteps == 0 || !templates()) {
+			_layers.add(f, first, nSteps, guard);
+			return;
+		}
+		if (first == 0)
+			stamp(_initial, 0, 0, f);
+		for (int i = Math.max(first, 1); i < nSteps; ++i)
+			stamp(_step, i - 1, 0, f);
+		stamp(_goal, nSteps - 2, guard, f);
+    }
+
+    // @post The literals reached at time steps  first + 1 .. nSteps  are fixed in  f , and those reaching
+    //       the goal at time  nSteps  as well if  guard == 0 , or else added to  f  preceded by  -guard
+    private void prune(DIMACSFormula f, int first, int nSteps, int guard) {
+		if (_pruning == null)
+			return;
+		for (int t = first + 1; t <= nSteps; ++t)
+			for (int literal : _pruning.reached(t))
+				f.fix(literal);
+		for (int t = 0; t <= nSteps; ++t)
+			for (int literal : _pruning.reaching(t, nSteps))
+				if (guard == 0)
+					f.fix(literal);
+				else
+					f.addClause(-guard, literal);
+    }
+
+    // @returns whether the templates can be used (built on first call; the registry is frozen then)
+    private synchronized boolean templates() throws Exception {
+		if (!_recorded) {
+			_recorded = true;
+			ClauseArena initial = new ClauseArena(), step = new ClauseArena(), goal = new ClauseArena();
+			ClauseArena goal1 = new ClauseArena();
+			record(0, 1, initial, goal1);
+			record(1, 2, step, goal);
+			ClauseArena step2 = new ClauseArena(), goal3 = new ClauseArena();
+			record(2, 3, step2, goal3);
+			DIMACSFormula stamped = new DIMACSFormula(_registry), stampedGoal = new DIMACSFormula(_registry);
+			DIMACSFormula stampedGoal1 = new DIMACSFormula(_registry);
+			stamp(step, 1, 0, stamped);
+			stamp(goal, 1, 0, stampedGoal);
+			stamp(goal, -1, 0, stampedGoal1); // As for plans of 1 time step
+			if (sameClauses(stamped.getClauses(), step2.asList()) && sameClauses(stampedGoal.getClauses(), goal3.asList())
+				&& sameClauses(stampedGoal1.getClauses(), goal1.asList())) {
+				_initial = initial;
+				_step = step;
+				_goal = goal;
+			}
+		}
+		return _initial != null;
+    }
+
+    // @post The clauses generated for time steps  first .. nSteps - 1  are added to  layer, and those
+    //       of the goal at time  nSteps , without their guard, to  goal  (unless null)
+    private void record(int first, int nSteps, ClauseArena layer, ClauseArena goal) throws Exception {
+		DIMACSFormula f = new DIMACSFormula(_registry);
+		int guard = _registry.steps(GOAL).at(nSteps);
+		_layers.add(f, first, nSteps, guard);
+		for (List<Integer> clause : f.getClauses()) {
+			ClauseArena to = clause.contains(-guard) ? goal : layer;
+			if (to == null)
+				continue;
+			for (int literal : clause)
+				if (literal != -guard)
+					to.push(literal);
+			to.endClause();
+		}
+    }
+
+    /// @pre No variable of \p template is shifted to a time step before 0 (\p shift is -1 for the goal at
+    ///      time 1, checked against the one generated directly in templates)
+    /// @post Adds to \p f the clauses of \p template with the variables of time steps shifted by
+    ///       \p shift time steps (time-independent ones are kept), preceded by literal  -guard  if \p guard != 0
+    private void stamp(ClauseArena template, int shift, int guard, DIMACSFormula f) {
+		int prelude = _registry.prelude();
+		int offset = shift * _registry.stride();
+		int g = guard == 0 ? 0 : 1;
+		int[][] scratch = new int[16][]; // A reusable clause for each length (addClause keeps no reference)
+		for (int i = 0; i < template.size(); ++i) {
+			int length = template.length(i);
+			if (length + g >= scratch.length)
+				scratch = Arrays.copyOf(scratch, 2 * (length + g));
+			int[] clause = scratch[length + g];
+			if (clause == null)
+				clause = scratch[length + g] = new int[length + g];
+			if (g == 1)
+				clause[0] = -guard;
+			for (int k = 0; k < length; ++k) {
+				int literal = template.literal(i, k);
+				int v = Math.abs(literal);
+				if (v > prelude) {
+					v += offset;
+					assert v > prelude : "Literal " + literal + " shifted before time step 0";
+				}
+				clause[g + k] = literal < 0 ? -v : v;
+			}
+			f.addClause(clause);
+		}
+    }
+
+    // @returns whether  a  and  b  have the same clauses, regardless of their order
+    private static boolean sameClauses(List<List<Integer>> a, List<List<Integer>> b) {
+		if (a.size() != b.size())
+			return false;
+		List<int[]> sa = sorted(a), sb = sorted(b);
+		for (int i = 0; i < sa.size(); ++i)
+			if (!Arrays.equals(sa.get(i), sb.get(i)))
+				return false;
+		return true;
+    }
+
+    private static List<int[]> sorted(List<List<Integer>> clauses) {
+		List<int[]> l = new ArrayList<>(clauses.size());
+		for (List<Integer> clause : clauses)
+			l.add(clause.stream().mapToInt(Integer::intValue).toArray());
+		l.sort(Arrays::compare);
+		return l;
+    }
+
+}
@@ -0,0 +1,91 @@
+/**
+ * @class LocationSet
+ * @author Miquel Bofill
+ * @version 1.0
+ * @date 2023-06-24
+ * @brief Set of locations of a grid, as a bitmap indexed by location
+ *
+ * Membership is checked on an int, without boxing nor traversing a tree, and
+ * locations are iterated in increasing order (as in a TreeSet) over a cached
+ * array of their Integer objects, so that no Integer is allocated per step.
+*/
+
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+public class LocationSet extends AbstractSet<Integer> {
+
+    private final int _nLocs;
+    private final BitSet _members;  ///< bit  loc  set iff location  loc  belongs to the set
+    private int _size;
+    private volatile Integer[] _elements; ///< members in increasing order (null if to be rebuilt); published once filled, as encodings may iterate from several threads
+
+    /// @post Empty set of locations 1 .. \p nLocs
+    public LocationSet(int nLocs) {
+        _nLocs = nLocs;
+        _members = new BitSet(nLocs + 1);
+    }
+
+    /// @returns Whether \p loc belongs to the set (false for any number out of 1 .. nLocs, such as -1)
+    public boolean contains(int loc) {
+        return loc > 0 && loc <= _nLocs && _members.get(loc);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof Integer && contains(((Integer) o).intValue());
+    }
+
+    /// @pre 1 <= \p loc <= nLocs
+    public boolean add(int loc) {
+        if (loc < 1 || loc > _nLocs)
+            throw new IllegalArgumentException("Location " + loc + " out of 1.." + _nLocs);
+        if (_members.get(loc))
+            return false;
+        _members.set(loc);
+        ++_size;
+        _elements = null;
+        return true;
+    }
+
+    @Override
+    public boolean add(Integer loc) {
+        return add(loc.intValue());
+    }
+
+    @Override
+    public int size() {
+        return _size;
+    }
+
+    @Override
+    public Iterator<Integer> iterator() {
+        Integer[] cached = _elements;
+        if (cached == null) {
+            cached = new Integer[_size];
+            int k = 0;
+            for (int loc = _members.nextSetBit(0); loc >= 0; loc = _members.nextSetBit(loc + 1))
+                cached[k++] = loc;
+            _elements = cached;
+        }
+        final Integer[] elements = cached;
+        return new Iterator<Integer>() {
+            private int _next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return _next < elements.length;
+            }
+
+            @Override
+            public Integer next() {
+                if (_next >= elements.length)
+                    throw new NoSuchElementException();
+                return elements[_next++];
+            }
+        };
+    }
+
+}
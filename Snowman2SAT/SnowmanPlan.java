@@ -0,0 +1,196 @@
+/**
+ * @class SnowmanPlan
+ * @author Miquel Bofill
+ * @version 1.1
+ * @date 2023-07-08
+ * @brief A Snowman plan, decoded from a model of any of the encodings
+ *
+ * The state at each time step is read from the true variables of families #bs, #bm
+ * and #bl (small, medium and large balls), #s or #snow (snow) and #c (character), as
+ * numbered by the VariableRegistry of the encoding (e.g. read back from a variable map),
+ * so that only the true variables are visited, each of them in time logarithmic in the
+ * number of families (to find its family), and no atom names are built nor parsed. The moves of each time step are the differences
+ * between consecutive states: each ball leaving a location is matched with one of the
+ * same size, or of the next one (if it grew on snow), arriving at a neighbouring location.
+ * Jumps of the character are read from the variables jump_<loc>_<t> of the encodings with
+ * reachability, where the character is not located after time 0 (then it is not drawn).
+ * Walls are taken from the grid of the instance.
+*/
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+public class SnowmanPlan {
+
+    private static final String[] SIZES = {"", "small", "medium", "", "large"}; ///< by bit of the size
+
+    private final char[][] _grid;    ///< grid of the instance
+    private final int _nCols;
+    private final int _nLocs;
+    private final List<int[]> _balls = new ArrayList<>(); ///< sizes of the balls (1 | 2 | 4) at each location and time step
+    private final List<BitSet> _snow = new ArrayList<>();  ///< locations with snow at each time step
+    private int[] _character = new int[1]; ///< location of the character at each time step (0 if unknown)
+    private int[] _jump = new int[1];      ///< location the character jumps to at each time step (0 if none)
+
+    /// @pre \p grid is the Snowman grid (see readGrid) of the instance whose variables are numbered by \p v,
+    ///      and \p model the variables true in a model of one of its encodings
+    public SnowmanPlan(char[][] grid, VariableRegistry v, BitSet model) {
+        _grid = grid;
+        _nCols = grid[0].length;
+        _nLocs = grid.length * _nCols;
+        for (int x = model.nextSetBit(1); x >= 0; x = model.nextSetBit(x + 1)) {
+            VariableRegistry.Family fam = v.familyOf(x);
+            String prefix = fam.prefix();
+            int t = v.time(x), loc = v.location(fam, x);
+            switch (prefix) {
+            case "#bs":
+                balls(t)[loc] |= 1;
+                break;
+            case "#bm":
+                balls(t)[loc] |= 2;
+                break;
+            case "#bl":
+                balls(t)[loc] |= 4;
+                break;
+            case "#s":
+            case "#snow":
+                snow(t).set(loc);
+                break;
+            case "#c":
+                _character = set(_character, t, loc);
+                break;
+            case "jump":
+                if (loc != -1)
+                    _jump = set(_jump, t, loc);
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    /// @returns The number of time steps of the plan
+    public int nSteps() {
+        return _balls.size() - 1;
+    }
+
+    /// @post Writes the plan to \p out: the initial grid, and then, for each time step, its moves and
+    ///       the resulting grid
+    public void print(PrintStream out) {
+        out.println("Time 0");
+        printGrid(0, out);
+        for (int t = 1; t <= nSteps(); ++t) {
+            List<String> moves = moves(t - 1);
+            out.println("Time " + t + ": " + (moves.isEmpty() ? "no moves" : String.join(", ", moves)));
+            printGrid(t, out);
+        }
+    }
+
+    // @returns the moves from time  t  to time  t + 1
+    private List<String> moves(int t) {
+        List<String> moves = new ArrayList<>();
+        int[] before = balls(t), after = balls(t + 1);
+        int[] left = new int[_nLocs + 1], arrived = new int[_nLocs + 1];
+        for (int loc = 1; loc <= _nLocs; ++loc) {
+            left[loc] = before[loc] & ~after[loc];
+            arrived[loc] = after[loc] & ~before[loc];
+        }
+        for (int p = 1; p <= _nLocs; ++p)
+            for (int size = 1; size <= 4; size <<= 1)
+                if ((left[p] & size) != 0)
+                    for (int q : new int[] {p - _nCols, p + _nCols, p + 1, p - 1}) {
+                        int grown = size < 4 ? size << 1 : 0;
+                        int match = q < 1 || q > _nLocs ? 0 : (arrived[q] & size) != 0 ? size : (arrived[q] & grown) != 0 ? grown : 0;
+                        if (match != 0) {
+                            moves.add(SIZES[size] + " ball " + p + " -> " + q + " " + direction(p, q) + (match != size ? " (grows to " + SIZES[match] + ")" : ""));
+                            left[p] &= ~size;
+                            arrived[q] &= ~match;
+                            break;
+                        }
+                    }
+        for (int p = 1; p <= _nLocs; ++p)
+            for (int size = 1; size <= 4; size <<= 1) {
+                if ((left[p] & size) != 0)
+                    moves.add(SIZES[size] + " ball leaves " + p);
+                if ((arrived[p] & size) != 0)
+                    moves.add(SIZES[size] + " ball reaches " + p);
+            }
+        int from = at(_character, t), to = at(_character, t + 1), jump = at(_jump, t);
+        if (jump != 0)
+            moves.add("character jumps to " + jump);
+        else if (from != 0 && to != 0 && from != to)
+            moves.add("character " + from + " -> " + to + (Math.abs(to - from) == 1 || Math.abs(to - from) == _nCols ? " " + direction(from, to) : ""));
+        return moves;
+    }
+
+    // @returns n, s, e or w for neighbouring locations  p  and  q
+    private String direction(int p, int q) {
+        return q == p - _nCols ? "n" : q == p + _nCols ? "s" : q == p + 1 ? "e" : "w";
+    }
+
+    // Cells are drawn as in the instances: a digit for the balls (the sum of their sizes), p (q) for the
+    // character on (off) snow, . for snow and ' for grass
+    private void printGrid(int t, PrintStream out) {
+        int[] balls = balls(t);
+        BitSet snow = snow(t);
+        int c = at(_character, t);
+        for (int i = 0; i < _grid.length; ++i) {
+            char[] row = _grid[i].clone();
+            for (int j = 0; j < _nCols; ++j) {
+                int loc = i * _nCols + j + 1;
+                if (row[j] == '#' || row[j] == 'x')
+                    continue;
+                row[j] = balls[loc] != 0 ? (char) ('0' + balls[loc]) : loc == c ? (snow.get(loc) ? 'p' : 'q') : snow.get(loc) ? '.' : '\'';
+            }
+            out.println(new String(row));
+        }
+    }
+
+    // @returns the balls at time  t , added as empty up to  t  if not there yet
+    private int[] balls(int t) {
+        while (_balls.size() <= t)
+            _balls.add(new int[_nLocs + 1]);
+        return _balls.get(t);
+    }
+
+    // @returns the snow at time  t , added as empty up to  t  if not there yet
+    private BitSet snow(int t) {
+        while (_snow.size() <= t)
+            _snow.add(new BitSet());
+        return _snow.get(t);
+    }
+
+    // @returns  a  (or a larger copy) with  value  at position  t
+    private static int[] set(int[] a, int t, int value) {
+        if (t >= a.length)
+            a = Arrays.copyOf(a, Math.max(t + 1, 2 * a.length));
+        a[t] = value;
+        return a;
+    }
+
+    private static int at(int[] a, int t) {
+        return t < a.length ? a[t] : 0;
+    }
+
+    /// @post Reads the description of the initial state and returns it
+    public static char[][] readGrid(InputStream in) throws Exception {
+		BufferedReader buffer = new BufferedReader(new InputStreamReader(in));
+		List<String> l = new ArrayList<>();
+		String line = buffer.readLine();
+		while (line != null && line.length() != 0) {
+			l.add(line);
+			line = buffer.readLine();
+		}
+		char[][] grid = new char[l.size()][];
+		for (int i = 0; i < l.size(); ++i)
+			grid[i] = l.get(i).toCharArray();
+		return grid;
+    }
+
+}
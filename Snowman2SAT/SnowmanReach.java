@@ -0,0 +1,192 @@
+/**
+ * @class SnowmanReach
+ * @author Miquel Bofill
+ * @version 1.0
+ * @date 2023-07-08
+ * @brief Locations out of reach of the balls (and of the character) at each time step of a Snowman plan
+ *
+ * The counterpart of RelaxedReach in Sokoban2SAT, ignoring every other object on the grid:
+ * a time step moves a ball one location at most, pushed, rolled or popped off a stack, so
+ * that at time t no ball is farther than t pushes from every initial ball (see
+ * Geometry.pushDistances). As balls only grow, a small ball is not farther than t from every
+ * initial small ball either, nor a medium ball from every initial small or medium one.
+ * In a plan of n time steps, every ball ends in a snowman, at a location within n pushes of
+ * three initial balls at least, so that no ball is farther than n - t from all of them.
+ * Likewise, if the character walks one location per time step, it is not farther than
+ * t moves from where it starts.
+ *
+ * The variables of #bs, #bm and #bl (and of #c) at such locations are fixed to false
+ * (see Encoder.Pruning), as well as those of ball and of the actions moving a ball from
+ * there, which are only in the formula of a plan up to its last but one time step.
+*/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class SnowmanReach implements Encoder.Pruning {
+
+    private static final String[] DIRECTIONS = {"n", "s", "e", "w"}; ///< in the order of Geometry.N, S, E, W
+
+    /// Prefixes of the actions moving a ball next to their location in each direction, with
+    /// the least size of ball they move (0 for any): push_s_n, for instance, a small ball north
+    private static final String[] MOVES = {"push_", "roll_", "roll_ball_", "pop_", "pop_ball_",
+        "push_s_", "roll_s_", "pop_s_", "push_m_", "roll_m_", "pop_m_", "roll_l_"};
+    private static final int[] MOVE_SIZES = {0, 0, 0, 0, 0, 1, 1, 1, 2, 2, 2, 3};
+
+    /// Same, only in the parallel encodings: the action itself, e.g.  n , and push_ball
+    private static final String[] PARALLEL_MOVES = {"", "push_ball_"};
+
+    private final VariableRegistry _registry;
+    private final LocationSet _locations;
+    private final int[][] _next;        ///< location next to each location, indexed [direction][location]
+    private final int[][] _fromBalls;   ///< pushes from the initial balls of size up to 1 (small), 2 (medium) and 3 (large), indexed [size - 1][location]
+    private final int[] _gathering;     ///< pushes from the third closest initial ball, indexed by location
+    private final int[] _fromCharacter; ///< moves from the initial character, indexed by location (null if not walking)
+    private final boolean _parallel;    ///< whether the encoding declares PARALLEL_MOVES and ballbis
+    private final String[] _moves;      ///< prefixes of the actions moving a ball, MOVES then PARALLEL_MOVES if parallel
+    private final Geometry _geometry;
+    private final Map<Integer,int[]> _toSnowmen = new ConcurrentHashMap<>(); ///< pushes to the locations of the snowmen, by number of time steps
+    private volatile VariableRegistry.Family[] _families; ///< #bs, #bm, #bl, ball, #c, ballbis (null if not parallel), then the moves by prefix and direction; looked up on first use, not to freeze the registry before, and published once all are set, as encodings may prune from several threads
+
+    /// @pre \p grid is the Snowman grid of \p geo, whose valid locations are \p l, numbered by \p v,
+    ///      which declares the location families of MOVES, and of PARALLEL_MOVES and ballbis if \p parallel
+    /// @post The character is also pruned if \p walking, i.e., it moves one location per time step
+    public SnowmanReach(char[][] grid, LocationSet l, Geometry geo, VariableRegistry v, boolean walking, boolean parallel) {
+        _registry = v;
+        _locations = l;
+        _geometry = geo;
+        _next = geo.next();
+        List<Integer> balls = new ArrayList<>(); // Location of each ball (once per ball in a stack)
+        List<List<Integer>> bySize = List.of(new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+        int character = -1;
+        int nCols = grid[0].length;
+        for (int i = 0; i < grid.length; ++i)
+            for (int j = 0; j < nCols; ++j) {
+                int loc = i * nCols + j + 1;
+                char x = grid[i][j];
+                if (x >= '1' && x <= '7')
+                    for (int size = 1; size <= 3; ++size)
+                        if (((x - '0') & 1 << (size - 1)) != 0) {
+                            balls.add(loc);
+                            for (int k = size - 1; k < 3; ++k)
+                                bySize.get(k).add(loc);
+                        }
+                if (x == 'p' || x == 'q')
+                    character = loc;
+            }
+        _fromBalls = new int[3][];
+        for (int k = 0; k < 3; ++k)
+            _fromBalls[k] = geo.pushDistances(bySize.get(k), false);
+        _gathering = new int[_fromBalls[2].length];
+        Arrays.fill(_gathering, Geometry.UNREACHABLE);
+        int[][] fromBall = new int[balls.size()][];
+        for (int i = 0; i < balls.size(); ++i)
+            fromBall[i] = geo.pushDistances(List.of(balls.get(i)), false);
+        int[] closest = new int[balls.size()];
+        for (int loc : l)
+            if (balls.size() >= 3) {
+                for (int i = 0; i < balls.size(); ++i)
+                    closest[i] = fromBall[i][loc];
+                Arrays.sort(closest);
+                _gathering[loc] = closest[2];
+            }
+        _fromCharacter = walking && character != -1 ? geo.walkDistances(character) : null;
+        _parallel = parallel;
+        _moves = parallel ? concat(MOVES, PARALLEL_MOVES) : MOVES;
+    }
+
+    /// @returns Negations of the balls (and of the character) farther than \p t from where they start,
+    ///          and of ball and the actions of time step \p t - 1 for the balls farther than \p t - 1
+    @Override
+    public int[] reached(int t) {
+        VariableRegistry.Family[] fams = families();
+        int[] literals = new int[fams.length * _locations.size()];
+        int n = 0;
+        for (int loc : _locations) {
+            for (int k = 0; k < 3; ++k)
+                if (_fromBalls[k][loc] > t)
+                    literals[n++] = -fams[k].at(loc, t);
+            if (_fromCharacter != null && _fromCharacter[loc] > t)
+                literals[n++] = -fams[4].at(loc, t);
+            if (_fromBalls[2][loc] > t - 1)
+                literals[n++] = -fams[3].at(loc, t - 1);
+            if (fams[5] != null && _fromBalls[2][loc] > t) // A ball there at time t - 1 or t
+                literals[n++] = -fams[5].at(loc, t - 1);
+            for (int d = 0; d < 4; ++d) {
+                int q = _next[d][loc];
+                if (q == -1 || !_locations.contains(q))
+                    continue;
+                for (int m = 0; m < _moves.length; ++m) {
+                    int size = m < MOVE_SIZES.length ? MOVE_SIZES[m] : 0;
+                    if (_fromBalls[size == 0 ? 2 : size - 1][q] > t - 1)
+                        literals[n++] = -fams[6 + 4 * m + d].at(loc, t - 1);
+                }
+            }
+        }
+        return Arrays.copyOf(literals, n);
+    }
+
+    /// @returns Negations of the balls farther than \p nSteps - \p t from the locations where a snowman
+    ///          can be built in \p nSteps, and of ball and the actions moving a ball from there (if \p t < \p nSteps)
+    @Override
+    public int[] reaching(int t, int nSteps) {
+        VariableRegistry.Family[] fams = families();
+        int[] toSnowmen = _toSnowmen.computeIfAbsent(nSteps, this::toSnowmen);
+        int[] literals = new int[fams.length * _locations.size()];
+        int n = 0;
+        for (int loc : _locations) {
+            if (toSnowmen[loc] > nSteps - t) {
+                for (int k = 0; k < 3; ++k)
+                    literals[n++] = -fams[k].at(loc, t);
+                if (t < nSteps)
+                    literals[n++] = -fams[3].at(loc, t);
+                if (fams[5] != null && t < nSteps) // A ball there at time t or t + 1, and farther than nSteps - t - 1 then
+                    literals[n++] = -fams[5].at(loc, t);
+            }
+            for (int d = 0; d < 4 && t < nSteps; ++d) {
+                int q = _next[d][loc];
+                if (q != -1 && _locations.contains(q) && toSnowmen[q] > nSteps - t)
+                    for (int m = 0; m < _moves.length; ++m)
+                        literals[n++] = -fams[6 + 4 * m + d].at(loc, t);
+            }
+        }
+        return Arrays.copyOf(literals, n);
+    }
+
+    // @returns Pushes to the locations within  nSteps  pushes of three initial balls at least, indexed by location
+    private int[] toSnowmen(int nSteps) {
+        List<Integer> snowmen = new ArrayList<>();
+        for (int loc : _locations)
+            if (_gathering[loc] <= nSteps)
+                snowmen.add(loc);
+        return _geometry.pushDistances(snowmen, true);
+    }
+
+    // @returns the families #bs, #bm, #bl, ball, #c, ballbis (or null), and those of the moves
+    private VariableRegistry.Family[] families() {
+        VariableRegistry.Family[] cached = _families;
+        if (cached == null) {
+            cached = new VariableRegistry.Family[6 + 4 * _moves.length];
+            String[] states = {"#bs", "#bm", "#bl", "ball", "#c"};
+            for (int k = 0; k < states.length; ++k)
+                cached[k] = _registry.locations(states[k]);
+            if (_parallel)
+                cached[5] = _registry.locations("ballbis");
+            for (int m = 0; m < _moves.length; ++m)
+                for (int d = 0; d < 4; ++d)
+                    cached[6 + 4 * m + d] = _registry.locations(_moves[m] + DIRECTIONS[d]);
+            _families = cached;
+        }
+        return cached;
+    }
+
+    private static String[] concat(String[] a, String[] b) {
+        String[] c = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, c, a.length, b.length);
+        return c;
+    }
+
+}
@@ -0,0 +1,85 @@
+/**
+ * @class StackingBound
+ * @author Miquel Bofill
+ * @version 1.0
+ * @date 2023-07-03
+ * @brief Lower bound on the number of time steps of a Snowman plan
+ *
+ * Each snowman is a stack of three balls, so that the balls have to be split into
+ * triples, each of them gathered at some location. Ignoring sizes and every other
+ * object on the grid, a ball needs at least as many time steps as pushes to get there
+ * (see Geometry.pushDistances): their sum over all the balls in a sequential plan, one
+ * push per time step, or their maximum in a parallel one, several balls being pushed
+ * at once but one location per time step at most. The best split is found by dynamic
+ * programming over the subsets of balls, for up to MAX_BALLS of them.
+*/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class StackingBound {
+
+    public static final int MAX_BALLS = 18; ///< bound not computed (0) for more balls
+
+    /// @pre \p grid is the Snowman grid of \p geo, whose valid locations are \p l, with a number
+    ///      of balls multiple of three
+    /// @returns Least number of time steps to gather the balls into triples, with several balls
+    ///          pushed at each time step if \p parallel (Geometry.UNREACHABLE if no plan exists)
+    public static int of(char[][] grid, LocationSet l, Geometry geo, boolean parallel) {
+        List<Integer> balls = new ArrayList<>(); // Location of each ball (once per ball in a stack)
+        int nCols = grid[0].length;
+        for (int i = 0; i < grid.length; ++i)
+            for (int j = 0; j < nCols; ++j) {
+                char x = grid[i][j];
+                int n = x == '1' || x == '2' || x == '4' ? 1 : x == '3' || x == '5' || x == '6' ? 2 : x == '7' ? 3 : 0;
+                for (int k = 0; k < n; ++k)
+                    balls.add(i * nCols + j + 1);
+            }
+        int n = balls.size();
+        if (n > MAX_BALLS)
+            return 0;
+
+        int[][] pushes = new int[n][]; // pushes[i][loc]: from ball i to location loc
+        for (int i = 0; i < n; ++i)
+            pushes[i] = geo.pushDistances(List.of(balls.get(i)), false);
+        int[][][] triples = new int[n][n][n]; // [a][b][c], a < b < c: bound for balls a, b and c
+        for (int a = 0; a < n; ++a)
+            for (int b = a + 1; b < n; ++b)
+                for (int c = b + 1; c < n; ++c)
+                    triples[a][b][c] = triple(pushes[a], pushes[b], pushes[c], l, parallel);
+
+        // best[s]: bound for the subset s of balls (a bit per ball), split into triples
+        int[] best = new int[1 << n];
+        Arrays.fill(best, Geometry.UNREACHABLE);
+        best[0] = 0;
+        for (int s = 0; s < best.length; ++s) {
+            if (best[s] == Geometry.UNREACHABLE)
+                continue;
+            int a = Integer.numberOfTrailingZeros(~s); // First ball not in s, always in the triple
+            if (a >= n)
+                continue;
+            for (int b = a + 1; b < n; ++b)
+                for (int c = b + 1; c < n; ++c)
+                    if ((s & (1 << b)) == 0 && (s & (1 << c)) == 0) {
+                        int t = triples[a][b][c];
+                        if (t == Geometry.UNREACHABLE)
+                            continue;
+                        int u = s | 1 << a | 1 << b | 1 << c;
+                        best[u] = Math.min(best[u], parallel ? Math.max(best[s], t) : best[s] + t);
+                    }
+        }
+        return best[(1 << n) - 1];
+    }
+
+    // @returns Least number of pushes gathering three balls at a location, whose pushes to each location
+    //          are  a ,  b  and  c : their sum, or their maximum if  parallel  (UNREACHABLE if none)
+    private static int triple(int[] a, int[] b, int[] c, LocationSet l, boolean parallel) {
+        int least = Geometry.UNREACHABLE;
+        for (int loc : l)
+            if (a[loc] != Geometry.UNREACHABLE && b[loc] != Geometry.UNREACHABLE && c[loc] != Geometry.UNREACHABLE)
+                least = Math.min(least, parallel ? Math.max(a[loc], Math.max(b[loc], c[loc])) : a[loc] + b[loc] + c[loc]);
+        return least;
+    }
+
+}
@@ -6,21 +6,22 @@
  * @brief Translation of "A good snowman is hard to build" instance to CNF
 */
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.LinkedList;
-import java.util.Map;
-import java.util.TreeMap;
 import java.util.Set;
-import java.util.TreeSet;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.BufferedReader;
-import java.io.PrintStream;
 
 public class snowman2sat_cnf {
 
     /// @pre Program has been called with argument <tt> n </tt> where n >= 0 is the
-    ///      number of time steps of the desired plan
+    ///      number of time steps of the desired plan, optionally followed by <tt> -stream </tt>
+    ///      to write clauses to a temporary file as they are generated (see DIMACSFormula),
+    ///      <tt> -nocomments </tt> to omit the comment lines naming the atoms,
+    ///      <tt> -map file </tt> to write the variable map to  file  instead (see VariableRegistry),
+    ///      and <tt> -icnf m </tt> to output an iCNF for n .. m time steps instead (see Encoder)
     ///
     ///      A problem instance is available in the standard input with the format:
     ///
@@ -55,15 +56,39 @@ public class snowman2sat_cnf {
     ///       State variables are prefixed by #
     public static void main(String[] args) throws Exception {
 		int nSteps = 0;
+		boolean stream = false;
+		boolean comments = true;
+		String map = null;
+		int last = -1;
 		try {
 			nSteps = Integer.parseInt(args[0]);
 			assert nSteps >= 0;
+			for (int i = 1; i < args.length; ++i)
+				if (args[i].equals("-stream"))
+					stream = true;
+				else if (args[i].equals("-nocomments"))
+					comments = false;
+				else if (args[i].equals("-map") && i + 1 < args.length) {
+					map = args[++i];
+					comments = false;
+				}
+				else if (args[i].equals("-icnf") && i + 1 < args.length) {
+					last = Integer.parseInt(args[++i]);
+					if (last < nSteps)
+						throw new IllegalArgumentException(args[i]);
+				}
+				else
+					throw new IllegalArgumentException(args[i]);
 		}
 		catch (Exception e) {
-			System.err.println("The program needs an integer n >= 0 as argument denoting the number of steps of the desired plan.");
+			System.err.println("The program needs an integer n >= 0 as argument denoting the number of steps of the desired plan (options: -stream, -nocomments, -map file, -icnf m).");
 			System.exit(0);
 		}
-		translate(System.in, System.out, nSteps);
+		Encoder e = encoder(System.in);
+		if (last >= 0)
+			e.encodeIncremental(nSteps, last, System.out, stream, map);
+		else
+			e.encode(nSteps, System.out, stream, comments, map);
     }
 
     /// @post Reads the description of the initial state and returns it
@@ -85,16 +110,15 @@ public class snowman2sat_cnf {
 		return grid;
     }
 
-    // Returns <number of snowmans, assertions for the initial state>
+    // Returns number of snowmans
     // Replaces 'x' by '#' in the grid
-    private static Pair<Integer,String> initialState(char[][] grid) throws Exception {
+    private static int initialState(char[][] grid) throws Exception {
 		int nRows = grid.length;
 		int nCols = grid[0].length;
 		int nChar = 0; // Number of characters (players)
 		int nBall = 0; // Number of balls
 		int nSmall = 0; // Number of small balls
 		int nLarge = 0; // Number of large balls
-		String s = ""; // = "\n;; Initial state\n";
 		for (int i = 0; i < nRows; ++i) {
 			for (int j = 0; j < nCols; ++j) {
 				int loc = i * nCols + j + 1;
@@ -106,89 +130,34 @@ public class snowman2sat_cnf {
 					break;
 				case 'p':
 					nChar++;
-					s += "#c_" + loc + "_0 & ";
-					s += "#s_" + loc + "_0 & ";
-					s += "!#bs_" + loc + "_0 & ";
-					s += "!#bm_" + loc + "_0 & ";
-					s += "!#bl_" + loc + "_0 & ";
 					break;
 				case 'q':
 					nChar++;
-					s += "#c_" + loc + "_0 & ";
-					s += "!#s_" + loc + "_0 & ";
-					s += "!#bs_" + loc + "_0 & ";
-					s += "!#bm_" + loc + "_0 & ";
-					s += "!#bl_" + loc + "_0 & ";
 					break;
 				case '1':
 					nBall++; nSmall++;
-					s += "!#c_" + loc + "_0 & ";
-					s += "!#s_" + loc + "_0 & ";
-					s += "#bs_" + loc + "_0 & ";
-					s += "!#bm_" + loc + "_0 & ";
-					s += "!#bl_" + loc + "_0 & ";
 					break;
 				case '2':
 					nBall++;
-					s += "!#c_" + loc + "_0 & ";
-					s += "!#s_" + loc + "_0 & ";
-					s += "!#bs_" + loc + "_0 & ";
-					s += "#bm_" + loc + "_0 & ";
-					s += "!#bl_" + loc + "_0 & ";
 					break;
 				case '3':
 					nBall += 2; nSmall++;
-					s += "!#c_" + loc + "_0 & ";
-					s += "!#s_" + loc + "_0 & ";
-					s += "#bs_" + loc + "_0 & ";
-					s += "#bm_" + loc + "_0 & ";
-					s += "!#bl_" + loc + "_0 & ";
 					break;
 				case '4':
 					nBall++; nLarge++;
-					s += "!#c_" + loc + "_0 & ";
-					s += "!#s_" + loc + "_0 & ";
-					s += "!#bs_" + loc + "_0 & ";
-					s += "!#bm_" + loc + "_0 & ";
-					s += "#bl_" + loc + "_0 & ";
 					break;
 				case '5':
 					nBall += 2; nSmall++; nLarge++;
-					s += "!#c_" + loc + "_0 & ";
-					s += "!#s_" + loc + "_0 & ";
-					s += "#bs_" + loc + "_0 & ";
-					s += "!#bm_" + loc + "_0 & ";
-					s += "#bl_" + loc + "_0 & ";
 					break;
 				case '6':
 					nBall += 2; nLarge++;
-					s += "!#c_" + loc + "_0 & ";
-					s += "!#s_" + loc + "_0 & ";
-					s += "!#bs_" + loc + "_0 & ";
-					s += "#bm_" + loc + "_0 & ";
-					s += "#bl_" + loc + "_0 & ";
 					break;
 				case '7':
 					nBall += 3; nSmall++; nLarge++;
-					s += "!#c_" + loc + "_0 & ";
-					s += "!#s_" + loc + "_0 & ";
-					s += "#bs_" + loc + "_0 & ";
-					s += "#bm_" + loc + "_0 & ";
-					s += "#bl_" + loc + "_0 & ";
 					break;
 				case '\'':
-					s += "!#c_" + loc + "_0 & ";
-					s += "!#s_" + loc + "_0 & ";
-					s += "!#bs_" + loc + "_0 & ";
-					s += "!#bm_" + loc + "_0 & ";
-					s += "!#bl_" + loc + "_0 & ";
 					break;
 				case '.':
-					s += "!#c_" + loc + "_0 & ";
-					s += "#s_" + loc + "_0 & ";
-					s += "!#bs_" + loc + "_0 & ";
-					s += "!#bm_" + loc + "_0 & ";
-					s += "!#bl_" + loc + "_0 & ";
 					break;
 				default:
 					throw new Exception("Symbol '" + grid[i][j] + "' invalid in grid");
@@ -210,281 +179,263 @@ public class snowman2sat_cnf {
 		if (nLarge > nSnowman)
 			throw new Exception("Trivially unsatisfiable (" + nLarge + " are too many large balls)");
 	
-		return new Pair<Integer,String>(nSnowman, s);
-    }
-
-    // Key = d + l where  d  is a direction ('n', 's', 'e', 'w') and  l  is the number of the location; Value is the number of the location next to  l  in the direction  d
-    private static Map<String,Integer> computeNextRelation(int nRows, int nCols) {
-		TreeMap<String,Integer> m = new TreeMap<>();
-		int loc = 1;
-		for (int i = 0; i < nRows; ++i) {
-			for (int j = 1; j <= nCols; ++j, ++loc) {
-				if (loc > nCols) // Not first row
-					m.put("n" + loc, loc - nCols);
-				if (loc <= nCols * (nRows - 1)) // Not last row
-					m.put("s" + loc, loc + nCols);
-				if (loc % nCols != 1) // Not first column
-					m.put("w" + loc, loc - 1);
-				if (loc % nCols != 0) // Not last column
-					m.put("e" + loc, loc + 1);
-			}
-		}
-		return m;
-    }
-
-    // Next to the next (in the same direction)
-    private static Map<String,Integer> computeNext2Relation(Map<String,Integer> next) {
-		TreeMap<String,Integer> m = new TreeMap<>();
-		for (Map.Entry<String,Integer> e : next.entrySet()) {
-			String k = e.getKey();
-			Integer j = next.get(k.substring(0,1) + e.getValue());
-			if (j != null)
-				m.put(k, j);
-		}
-		return m;
+		return nSnowman;
     }
 
-    private static void	computeSetsNext2Wall(Set<Integer> l, Set<Integer> ln, Set<Integer> lnn, String d, Map<String,Integer> next, Map<String,Integer> next2, char[][] grid) {
+    // Assertions for the initial state
+    // c for character, s for snow, bs/bm/bl for small/medium/large balls
+    // @pre 'x' has already been replaced by '#' in the grid
+    private static void initialStateClauses(char[][] grid, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family c = v.locations("#c"), snow = v.locations("#s");
+		VariableRegistry.Family bs = v.locations("#bs"), bm = v.locations("#bm"), bl = v.locations("#bl");
 		int nCols = grid[0].length;
-		for(Integer i : l)
-			if (grid[(i - 1) / nCols][(i - 1) % nCols] != '#') {
-				Integer j = next.get(d + i);
-				Integer k = next2.get(d + i);
-				if (j != null && grid[(j - 1) / nCols][(j - 1) % nCols] == '#')
-					ln.add(i);
-				if (k != null && grid[(k - 1) / nCols][(k - 1) % nCols] == '#')
-					lnn.add(i);
+		for (int i = 0; i < grid.length; ++i) {
+			for (int j = 0; j < nCols; ++j) {
+				int loc = i * nCols + j + 1;
+				char x = grid[i][j];
+				if (x != '#') {
+					f.addClause((x == 'p' || x == 'q') ? c.at(loc, 0) : -c.at(loc, 0));
+					f.addClause((x == 'p' || x == '.') ? snow.at(loc, 0) : -snow.at(loc, 0));
+					f.addClause((x == '1' || x == '3' || x == '5' || x == '7') ? bs.at(loc, 0) : -bs.at(loc, 0));
+					f.addClause((x == '2' || x == '3' || x == '6' || x == '7') ? bm.at(loc, 0) : -bm.at(loc, 0));
+					f.addClause((x >= '4' && x <= '7') ? bl.at(loc, 0) : -bl.at(loc, 0));
+				}
 			}
+		}
     }
 
-	private static void exactlyOneAction(int nSteps, DIMACSFormula f) {
-		for (int i = 0; i < nSteps; ++i) {
-			f.addClause(List.of("n_" + i, "s_" + i, "e_" + i, "w_" + i));
-			f.addClause(List.of("!n_" + i, "!s_" + i));
-			f.addClause(List.of("!n_" + i, "!e_" + i));
-			f.addClause(List.of("!n_" + i, "!w_" + i));
-			f.addClause(List.of("!s_" + i, "!e_" + i));
-			f.addClause(List.of("!s_" + i, "!w_" + i));
-			f.addClause(List.of("!e_" + i, "!w_" + i));
+	private static void exactlyOneAction(int first, int nSteps, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family n = v.steps("n"), s = v.steps("s"), e = v.steps("e"), w = v.steps("w");
+		for (int i = first; i < nSteps; ++i) {
+			f.addClause(n.at(i), s.at(i), e.at(i), w.at(i));
+			f.addClause(-n.at(i), -s.at(i));
+			f.addClause(-n.at(i), -e.at(i));
+			f.addClause(-n.at(i), -w.at(i));
+			f.addClause(-s.at(i), -e.at(i));
+			f.addClause(-s.at(i), -w.at(i));
+			f.addClause(-e.at(i), -w.at(i));
 		}
 	}
 
-	/// @pre \p antecedent denotes a disjunction of literals, \p consequent denotes a conjunction of literals
-	/// @returns corresponding CNF
-	private static List<List<String>> implication2cnf(List<String> antecedent, List<String> consequent) {
-		List<List<String>> cnf = new LinkedList<>();
-		for (String a : antecedent)
-			for (String c : consequent) {
-				List<String> clause = new LinkedList<>();
-				if (a.charAt(0) == '!')
-					clause.add(a);
-				else
-					clause.add("!" + a);
-				clause.add(c);
-				cnf.add(clause);
-			}
-		return cnf;
+	private static int[] concat(int[] a, int... b) {
+		int[] c = Arrays.copyOf(a, a.length + b.length);
+		System.arraycopy(b, 0, c, a.length, b.length);
+		return c;
 	}
 
-	private static void add2DIMACSFormula(List<List<String>> cnf, DIMACSFormula f) {
-		for (List<String> clause : cnf)
-			f.addClause(clause);
+	/// @pre \p antecedent denotes a disjunction of literals, \p consequent denotes a conjunction of literals
+	/// @post corresponding CNF belongs to \p f
+	private static void implication2cnf(int[] antecedent, int[] consequent, DIMACSFormula f) {
+		for (int a : antecedent)
+			for (int c : consequent)
+				f.addClause(-a, c);
 	}
 
-	private static void actionTransitions(int nSteps, int nSnowman, Set<Integer> l, Set<Integer> lwall, Set<Integer> lwall2, String d, Map<String,Integer> next, Map<String,Integer> next2, DIMACSFormula f) {
-		for (int i = 0; i < nSteps; ++i) {
-			String t = "_" + i; String t1 = "_" + (i + 1);
+	private static void actionTransitions(int first, int nSteps, int nSnowman, LocationSet l, boolean[] lwall, boolean[] lwall2, String d, int[][] next, int[][] next2, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family c = v.locations("#c"), snow = v.locations("#s"), bs = v.locations("#bs");
+		VariableRegistry.Family bm = v.locations("#bm"), bl = v.locations("#bl");
+		VariableRegistry.Family ball = v.locations("ball"), ball_m_l = v.locations("ball_m_l");
+		VariableRegistry.Family grow_s = v.locations("grow_s"), grow_m = v.locations("grow_m");
+		VariableRegistry.Family action = v.steps(d), movec = v.locations("movec_" + d);
+		int dir = Geometry.direction(d);
+		VariableRegistry.Family move = v.locations("move_" + d), push = v.locations("push_" + d);
+		VariableRegistry.Family roll = v.locations("roll_" + d), pop = v.locations("pop_" + d);
+		VariableRegistry.Family push_s = v.locations("push_s_" + d), push_m = v.locations("push_m_" + d);
+		VariableRegistry.Family roll_ball = v.locations("roll_ball_" + d);
+		VariableRegistry.Family roll_s = v.locations("roll_s_" + d), roll_m = v.locations("roll_m_" + d);
+		VariableRegistry.Family roll_l = v.locations("roll_l_" + d);
+		VariableRegistry.Family pop_ball = v.locations("pop_ball_" + d), pop_s = v.locations("pop_s_" + d);
+		VariableRegistry.Family pop_m = v.locations("pop_m_" + d);
+		for (int i = first; i < nSteps; ++i) {
+			int t = i, t1 = i + 1;
 
 			// Auxiliary variables
 			for (Integer j : l) {
-				String lj = "_" + j;
 
-				f.addClause(List.of("!ball" + lj + t, "#bs" + lj + t, "#bm" + lj + t, "#bl" + lj + t));
-				add2DIMACSFormula(implication2cnf(List.of("#bs" + lj + t, "#bm" + lj + t, "#bl" + lj + t), List.of("ball" + lj + t)), f);
+				f.addClause(-ball.at(j, t), bs.at(j, t), bm.at(j, t), bl.at(j, t));
+				implication2cnf(new int[] {bs.at(j, t), bm.at(j, t), bl.at(j, t)}, new int[] {ball.at(j, t)}, f);
 
-				f.addClause(List.of("!ball_m_l" + lj + t, "#bm" + lj + t, "#bl" + lj + t));
-				add2DIMACSFormula(implication2cnf(List.of("#bm" + lj + t, "#bl" + lj + t), List.of("ball_m_l" + lj + t)), f); // Unnecessary but helping
+				f.addClause(-ball_m_l.at(j, t), bm.at(j, t), bl.at(j, t));
+				implication2cnf(new int[] {bm.at(j, t), bl.at(j, t)}, new int[] {ball_m_l.at(j, t)}, f); // Unnecessary but helping
 
-				if (!lwall.contains(j)) {
-					String ljn = "_" + next.get(d + j);
-					add2DIMACSFormula(implication2cnf(List.of("movec_" + d + lj + t), List.of("!#c" + lj + t1, "#c" + ljn + t1)), f);
-					f.addClause(List.of("#c" + lj + t1, "!#c" + ljn + t1, "movec_" + d + lj + t)); // Unnecessary but helping
+				if (!lwall[j]) {
+					int jn = next[dir][j];
+					implication2cnf(new int[] {movec.at(j, t)}, new int[] {-c.at(j, t1), c.at(jn, t1)}, f);
+					f.addClause(c.at(j, t1), -c.at(jn, t1), movec.at(j, t)); // Unnecessary but helping
 				}
 
-				f.addClause(List.of("!grow_s" + lj + t, "#s" + lj + t, "#bs" + lj + t1));
-				f.addClause(List.of("!grow_s" + lj + t, "!#s" + lj + t, "#bm" + lj + t1));
+				f.addClause(-grow_s.at(j, t), snow.at(j, t), bs.at(j, t1));
+				f.addClause(-grow_s.at(j, t), -snow.at(j, t), bm.at(j, t1));
 
-				f.addClause(List.of("!grow_m" + lj + t, "#s" + lj + t, "#bm" + lj + t1));
-				f.addClause(List.of("!grow_m" + lj + t, "!#s" + lj + t, "#bl" + lj + t1));
+				f.addClause(-grow_m.at(j, t), snow.at(j, t), bm.at(j, t1));
+				f.addClause(-grow_m.at(j, t), -snow.at(j, t), bl.at(j, t1));
 
 			}
 
 			// No action allowed
-			for (Integer j : lwall)
-				f.addClause(List.of("!#c_" + j + t, "!" + d + t));
+			for (Integer j : l)
+				if (lwall[j])
+					f.addClause(-c.at(j, t), -action.at(t));
 
 			// Only move allowed
-			for (Integer j : lwall2)
-				if (!lwall.contains(j)) {
-					String ln = "_" + next.get(d + j);
-					f.addClause(List.of("!#c_" + j + t, "!" + d + t, "!#c_" + j + t1));
-					f.addClause(List.of("!#c_" + j + t, "!" + d + t, "#c" + ln + t1));
-					f.addClause(List.of("!#c_" + j + t, "!" + d + t, "!#bs" + ln + t));
-					f.addClause(List.of("!#c_" + j + t, "!" + d + t, "!#bm" + ln + t));
-					f.addClause(List.of("!#c_" + j + t, "!" + d + t, "!#bl" + ln + t));
+			for (Integer j : l)
+				if (lwall2[j] && !lwall[j]) {
+					int jn = next[dir][j];
+					f.addClause(-c.at(j, t), -action.at(t), -c.at(j, t1));
+					f.addClause(-c.at(j, t), -action.at(t), c.at(jn, t1));
+					f.addClause(-c.at(j, t), -action.at(t), -bs.at(jn, t));
+					f.addClause(-c.at(j, t), -action.at(t), -bm.at(jn, t));
+					f.addClause(-c.at(j, t), -action.at(t), -bl.at(jn, t));
 				}
 
 			for (Integer j : l)
-				if (!lwall.contains(j) && !lwall2.contains(j)) {
-					String lj = "_" + j;
-					String ljn = "_" + next.get(d + j);
-					String ljnn = "_" + next2.get(d + j);
-					f.addClause(List.of("!#c" + lj + t, "!" + d + t, "move_" + d + lj + t, "push_" + d + lj + t, "roll_" + d + lj + t, "pop_" + d + lj + t));
-					add2DIMACSFormula(implication2cnf(List.of("move_" + d + lj + t), List.of("movec_" + d + lj + t, "!ball" + ljn + t)), f);
-					f.addClause(List.of("!push_" + d + lj + t, "movec_" + d + lj + t));
-					f.addClause(List.of("!push_" + d + lj + t, "push_s_" + d + lj + t, "push_m_" + d + lj + t));
-					add2DIMACSFormula(implication2cnf(List.of("push_s_" + d + lj + t), List.of("#bs" + ljn + t, "!#bm" + ljn + t, "!#bl" + ljn + t, "!#bs" + ljnn + t, "ball_m_l" + ljnn + t, "!#bs" + ljn + t1, "#bs" + ljnn + t1)), f);
-					add2DIMACSFormula(implication2cnf(List.of("push_m_" + d + lj + t), List.of("!#bs" + ljn + t, "#bm" + ljn + t, "!#bl" + ljn + t, "!#bs" + ljnn + t, "!#bm" + ljnn + t, "#bl" + ljnn + t, "!#bm" + ljn + t1, "#bm" + ljnn + t1)), f);
-					add2DIMACSFormula(implication2cnf(List.of("roll_" + d + lj + t), List.of("movec_" + d + lj + t, "!ball" + ljnn + t, "!#s" + ljnn + t1, "roll_ball_" + d + lj + t)), f);
-					f.addClause(List.of("!roll_ball_" + d + lj + t, "roll_s_" + d + lj + t, "roll_m_" + d + lj + t, "roll_l_" + d + lj + t));
-					add2DIMACSFormula(implication2cnf(List.of("roll_s_" + d + lj + t), List.of("#bs" + ljn + t, "!#bm" + ljn + t, "!#bl" + ljn + t, "!#bs" + ljn + t1, "grow_s" + ljnn + t)), f);
-					add2DIMACSFormula(implication2cnf(List.of("roll_m_" + d + lj + t), List.of("!#bs" + ljn + t, "#bm" + ljn + t, "!#bl" + ljn + t, "!#bm" + ljn + t1, "grow_m" + ljnn + t)), f);
-					add2DIMACSFormula(implication2cnf(List.of("roll_l_" + d + lj + t), List.of("!#bs" + ljn + t, "!#bm" + ljn + t, "#bl" + ljn + t, "!#bl" + ljn + t1, "#bl" + ljnn + t1)), f);
-					add2DIMACSFormula(implication2cnf(List.of("pop_" + d + lj + t), List.of("#c" + lj + t1, "!ball" + ljnn + t, "!#s" + ljnn + t1, "pop_ball_" + d + lj + t)), f);
-					f.addClause(List.of("!pop_ball_" + d + lj + t, "pop_s_" + d + lj + t, "pop_m_" + d + lj + t));
-					add2DIMACSFormula(implication2cnf(List.of("pop_s_" + d + lj + t), List.of("#bs" + ljn + t, "ball_m_l" + ljn + t, "!#bs" + ljn + t1, "grow_s" + ljnn + t)), f);
-					add2DIMACSFormula(implication2cnf(List.of("pop_m_" + d + lj + t), List.of("!#bs" + ljn + t, "#bm" + ljn + t, "#bl" + ljn + t, "!#bm" + ljn + t1, "grow_m" + ljnn + t)), f);
+				if (!lwall[j] && !lwall2[j]) {
+					int jn = next[dir][j];
+					int jnn = next2[dir][j];
+					f.addClause(-c.at(j, t), -action.at(t), move.at(j, t), push.at(j, t), roll.at(j, t), pop.at(j, t));
+					implication2cnf(new int[] {move.at(j, t)}, new int[] {movec.at(j, t), -ball.at(jn, t)}, f);
+					f.addClause(-push.at(j, t), movec.at(j, t));
+					f.addClause(-push.at(j, t), push_s.at(j, t), push_m.at(j, t));
+					implication2cnf(new int[] {push_s.at(j, t)}, new int[] {bs.at(jn, t), -bm.at(jn, t), -bl.at(jn, t), -bs.at(jnn, t), ball_m_l.at(jnn, t), -bs.at(jn, t1), bs.at(jnn, t1)}, f);
+					implication2cnf(new int[] {push_m.at(j, t)}, new int[] {-bs.at(jn, t), bm.at(jn, t), -bl.at(jn, t), -bs.at(jnn, t), -bm.at(jnn, t), bl.at(jnn, t), -bm.at(jn, t1), bm.at(jnn, t1)}, f);
+					implication2cnf(new int[] {roll.at(j, t)}, new int[] {movec.at(j, t), -ball.at(jnn, t), -snow.at(jnn, t1), roll_ball.at(j, t)}, f);
+					f.addClause(-roll_ball.at(j, t), roll_s.at(j, t), roll_m.at(j, t), roll_l.at(j, t));
+					implication2cnf(new int[] {roll_s.at(j, t)}, new int[] {bs.at(jn, t), -bm.at(jn, t), -bl.at(jn, t), -bs.at(jn, t1), grow_s.at(jnn, t)}, f);
+					implication2cnf(new int[] {roll_m.at(j, t)}, new int[] {-bs.at(jn, t), bm.at(jn, t), -bl.at(jn, t), -bm.at(jn, t1), grow_m.at(jnn, t)}, f);
+					implication2cnf(new int[] {roll_l.at(j, t)}, new int[] {-bs.at(jn, t), -bm.at(jn, t), bl.at(jn, t), -bl.at(jn, t1), bl.at(jnn, t1)}, f);
+					implication2cnf(new int[] {pop.at(j, t)}, new int[] {c.at(j, t1), -ball.at(jnn, t), -snow.at(jnn, t1), pop_ball.at(j, t)}, f);
+					f.addClause(-pop_ball.at(j, t), pop_s.at(j, t), pop_m.at(j, t));
+					implication2cnf(new int[] {pop_s.at(j, t)}, new int[] {bs.at(jn, t), ball_m_l.at(jn, t), -bs.at(jn, t1), grow_s.at(jnn, t)}, f);
+					implication2cnf(new int[] {pop_m.at(j, t)}, new int[] {-bs.at(jn, t), bm.at(jn, t), bl.at(jn, t), -bm.at(jn, t1), grow_m.at(jnn, t)}, f);
 				}
 		}
 	}
 
-    private static void frameAxioms(int nSteps, Set<Integer> l, DIMACSFormula f) {
-		for (int i = 0; i < nSteps; ++i) {
-			String t = "_" + i; String t1 = "_" + (i + 1);
+    private static void frameAxioms(int first, int nSteps, LocationSet l, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family snow = v.locations("#s"), bs = v.locations("#bs"), bm = v.locations("#bm");
+		VariableRegistry.Family bl = v.locations("#bl");
+		for (int i = first; i < nSteps; ++i) {
+			int t = i, t1 = i + 1;
 
 			for (Integer j : l) {
-				f.addClause(List.of("#s_" + j + t, "!#s_" + j + t1));
-				f.addClause(List.of("!#s_" + j + t, "#s_" + j + t1, "#bs_" + j + t1, "#bm_" + j + t1, "#bl_" + j + t1));
+				f.addClause(snow.at(j, t), -snow.at(j, t1));
+				f.addClause(-snow.at(j, t), snow.at(j, t1), bs.at(j, t1), bm.at(j, t1), bl.at(j, t1));
 
 				// At most one ball can appear in a location at a time
-				f.addClause(List.of("#bs_" + j + t, "!#bs_" + j + t1, "#bm_" + j + t, "!#bm_" + j + t1));
-				f.addClause(List.of("#bs_" + j + t, "!#bs_" + j + t1, "#bl_" + j + t, "!#bl_" + j + t1));
-				f.addClause(List.of("#bm_" + j + t, "!#bm_" + j + t1, "#bl_" + j + t, "!#bl_" + j + t1));
-			}
-		}
-    }
-
-    // returns k such that next.get(d + k) is j
-    private static Integer inext(char d, Integer j, Map<String,Integer> next) {
-		Integer k = null;
-		for (Map.Entry<String,Integer> e : next.entrySet()) {
-			if (e.getValue().equals(j)) {
-				String key = e.getKey();
-				if (key.charAt(0) == d)
-					return Integer.parseInt(key.substring(1));
+				f.addClause(bs.at(j, t), -bs.at(j, t1), bm.at(j, t), -bm.at(j, t1));
+				f.addClause(bs.at(j, t), -bs.at(j, t1), bl.at(j, t), -bl.at(j, t1));
+				f.addClause(bm.at(j, t), -bm.at(j, t1), bl.at(j, t), -bl.at(j, t1));
 			}
 		}
-		return k;
     }
 
-    private static void frameAxioms(int nSteps, Set<Integer> l, String d, Map<String,Integer> next, Map<String,Integer> next2, DIMACSFormula f) {
-		for (int i = 0; i < nSteps; ++i) {
-			String t = "_" + i; String t1 = "_" + (i + 1);
+    private static void frameAxioms(int first, int nSteps, LocationSet l, String d, int[][] next, int[][] next2, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family c = v.locations("#c"), snow = v.locations("#s"), bs = v.locations("#bs");
+		VariableRegistry.Family bm = v.locations("#bm"), bl = v.locations("#bl"), action = v.steps(d);
+		int dir = Geometry.direction(d);
+		VariableRegistry.Family emerge_m = v.locations("emerge_m_" + d);
+		VariableRegistry.Family emerge_l = v.locations("emerge_l_" + d);
+		for (int i = first; i < nSteps; ++i) {
+			int t = i, t1 = i + 1;
 	    
 			for (Integer j : l) {
-				Integer jn = next.get(d + j);
-				Integer jo = inext(d.charAt(0), j, next);
-				Integer joo = inext(d.charAt(0), j, next2);
-				String lj = "_" + j;
-				String ljn = "_" + jn;
-				String ljo = "_" + jo;
-				String ljoo = "_" + joo;
+				Integer jn = next[dir][j];
+				int jo = next[Geometry.opposite(dir)][j];
+				int joo = next2[Geometry.opposite(dir)][j];
 
 				// Auxiliary variables
-				if (jo != null && l.contains(jo)) {
-					f.addClause(List.of("!emerge_m_" + d + lj + t, "#bs" + ljo + t, "#bm" + ljo + t));
-					f.addClause(List.of("!emerge_m_" + d + lj + t, "#bs" + ljo + t, "!#s" + lj + t));
+				if (jo != -1 && l.contains(jo)) {
+					f.addClause(-emerge_m.at(j, t), bs.at(jo, t), bm.at(jo, t));
+					f.addClause(-emerge_m.at(j, t), bs.at(jo, t), -snow.at(j, t));
 
-					f.addClause(List.of("!emerge_m_" + d + lj + t, "!#bs" + ljo + t, "#s" + lj + t));
+					f.addClause(-emerge_m.at(j, t), -bs.at(jo, t), snow.at(j, t));
 
-					f.addClause(List.of("!emerge_l_" + d + lj + t, "#bm" + ljo + t, "!#bs" + ljo + t));
-					f.addClause(List.of("!emerge_l_" + d + lj + t, "#bm" + ljo + t, "#bl" + ljo + t));
+					f.addClause(-emerge_l.at(j, t), bm.at(jo, t), -bs.at(jo, t));
+					f.addClause(-emerge_l.at(j, t), bm.at(jo, t), bl.at(jo, t));
 
-					f.addClause(List.of("!emerge_l_" + d + lj + t, "!#bm" + ljo + t, "!#bs" + ljo + t));
-					f.addClause(List.of("!emerge_l_" + d + lj + t, "!#bm" + ljo + t, "#s" + lj + t));
+					f.addClause(-emerge_l.at(j, t), -bm.at(jo, t), -bs.at(jo, t));
+					f.addClause(-emerge_l.at(j, t), -bm.at(jo, t), snow.at(j, t));
 				}
 
 				// Axioms
 				if (jn != null && l.contains(jn))
-					f.addClause(List.of("!#c" + lj + t, "#c" + lj + t1, "!" + d + t, "#c" + ljn + t1));
+					f.addClause(-c.at(j, t), c.at(j, t1), -action.at(t), c.at(jn, t1));
 				else
-					f.addClause(List.of("!#c" + lj + t, "#c" + lj + t1, "!" + d + t));
+					f.addClause(-c.at(j, t), c.at(j, t1), -action.at(t));
 
-				if (jo != null && l.contains(jo)) {
+				if (jo != -1 && l.contains(jo)) {
 
-					f.addClause(List.of("#c" + lj + t, "!#c" + lj + t1, "!" + d + t, "#c" + ljo + t));
+					f.addClause(c.at(j, t), -c.at(j, t1), -action.at(t), c.at(jo, t));
 
-					f.addClause(List.of("!#bs" + lj + t, "#bs" + lj + t1, "!" + d + t, "#c" + ljo + t));
+					f.addClause(-bs.at(j, t), bs.at(j, t1), -action.at(t), c.at(jo, t));
 
-					f.addClause(List.of("!#bm" + lj + t, "#bm" + lj + t1, "!" + d + t, "#c" + ljo + t));
-					f.addClause(List.of("!#bm" + lj + t, "#bm" + lj + t1, "!" + d + t, "!#bs" + lj + t));
+					f.addClause(-bm.at(j, t), bm.at(j, t1), -action.at(t), c.at(jo, t));
+					f.addClause(-bm.at(j, t), bm.at(j, t1), -action.at(t), -bs.at(j, t));
 
-					f.addClause(List.of("!#bl" + lj + t, "#bl" + lj + t1, "!" + d + t, "#c" + ljo + t));
-					f.addClause(List.of("!#bl" + lj + t, "#bl" + lj + t1, "!" + d + t, "!#bs" + lj + t));
-					f.addClause(List.of("!#bl" + lj + t, "#bl" + lj + t1, "!" + d + t, "!#bm" + lj + t));
+					f.addClause(-bl.at(j, t), bl.at(j, t1), -action.at(t), c.at(jo, t));
+					f.addClause(-bl.at(j, t), bl.at(j, t1), -action.at(t), -bs.at(j, t));
+					f.addClause(-bl.at(j, t), bl.at(j, t1), -action.at(t), -bm.at(j, t));
 
-					if (joo != null && l.contains(joo)) {
+					if (joo != -1 && l.contains(joo)) {
 
-						f.addClause(List.of("#bs" + lj + t, "!#bs" + lj + t1, "!" + d + t, "#c" + ljoo + t));
-						f.addClause(List.of("#bs" + lj + t, "!#bs" + lj + t1, "!" + d + t, "#bs" + ljo + t));
+						f.addClause(bs.at(j, t), -bs.at(j, t1), -action.at(t), c.at(joo, t));
+						f.addClause(bs.at(j, t), -bs.at(j, t1), -action.at(t), bs.at(jo, t));
 
-						f.addClause(List.of("#bm" + lj + t, "!#bm" + lj + t1, "!" + d + t, "#c" + ljoo + t));
-						f.addClause(List.of("#bm" + lj + t, "!#bm" + lj + t1, "!" + d + t, "emerge_m_" + d + lj + t));
+						f.addClause(bm.at(j, t), -bm.at(j, t1), -action.at(t), c.at(joo, t));
+						f.addClause(bm.at(j, t), -bm.at(j, t1), -action.at(t), emerge_m.at(j, t));
 
-						f.addClause(List.of("#bl" + lj + t, "!#bl" + lj + t1, "!" + d + t, "#c" + ljoo + t));
-						f.addClause(List.of("#bl" + lj + t, "!#bl" + lj + t1, "!" + d + t, "emerge_l_" + d + lj + t));
+						f.addClause(bl.at(j, t), -bl.at(j, t1), -action.at(t), c.at(joo, t));
+						f.addClause(bl.at(j, t), -bl.at(j, t1), -action.at(t), emerge_l.at(j, t));
 
 					}
 					else {
 
-						f.addClause(List.of("#bs" + lj + t, "!#bs" + lj + t1, "!" + d + t));
-						f.addClause(List.of("#bm" + lj + t, "!#bm" + lj + t1, "!" + d + t));
-						f.addClause(List.of("#bl" + lj + t, "!#bl" + lj + t1, "!" + d + t));
+						f.addClause(bs.at(j, t), -bs.at(j, t1), -action.at(t));
+						f.addClause(bm.at(j, t), -bm.at(j, t1), -action.at(t));
+						f.addClause(bl.at(j, t), -bl.at(j, t1), -action.at(t));
 
 					}
 				}
 				else {
 
-					f.addClause(List.of("#c" + lj + t, "!#c" + lj + t1, "!" + d + t));
-					f.addClause(List.of("!#bs" + lj + t, "#bs" + lj + t1, "!" + d + t));
-					f.addClause(List.of("!#bm" + lj + t, "#bm" + lj + t1, "!" + d + t));
-					f.addClause(List.of("!#bl" + lj + t, "#bl" + lj + t1, "!" + d + t));
-					f.addClause(List.of("#bs" + lj + t, "!#bs" + lj + t1, "!" + d + t));
-					f.addClause(List.of("#bm" + lj + t, "!#bm" + lj + t1, "!" + d + t));
-					f.addClause(List.of("#bl" + lj + t, "!#bl" + lj + t1, "!" + d + t));
+					f.addClause(c.at(j, t), -c.at(j, t1), -action.at(t));
+					f.addClause(-bs.at(j, t), bs.at(j, t1), -action.at(t));
+					f.addClause(-bm.at(j, t), bm.at(j, t1), -action.at(t));
+					f.addClause(-bl.at(j, t), bl.at(j, t1), -action.at(t));
+					f.addClause(bs.at(j, t), -bs.at(j, t1), -action.at(t));
+					f.addClause(bm.at(j, t), -bm.at(j, t1), -action.at(t));
+					f.addClause(bl.at(j, t), -bl.at(j, t1), -action.at(t));
 
 				}
 			}
 		}
 	}
 
-    private static void goal(int nSteps, Set<Integer> validLocations, DIMACSFormula f) {
+    private static void goal(int nSteps, LocationSet validLocations, int guard, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		int[] g = guard == 0 ? new int[0] : new int[] {-guard};
+		VariableRegistry.Family bs = v.locations("#bs"), bm = v.locations("#bm"), bl = v.locations("#bl");
 		for (Integer loc : validLocations) {
-			f.addClause(List.of("!#bs_" + loc + "_" + nSteps, "#bm_" + loc + "_" + nSteps));
-			f.addClause(List.of("#bs_" + loc + "_" + nSteps, "!#bm_" + loc + "_" + nSteps));
+			f.addClause(concat(g, -bs.at(loc, nSteps), bm.at(loc, nSteps)));
+			f.addClause(concat(g, bs.at(loc, nSteps), -bm.at(loc, nSteps)));
 
-			f.addClause(List.of("!#bm_" + loc + "_" + nSteps, "#bl_" + loc + "_" + nSteps));
-			f.addClause(List.of("#bm_" + loc + "_" + nSteps, "!#bl_" + loc + "_" + nSteps));
+			f.addClause(concat(g, -bm.at(loc, nSteps), bl.at(loc, nSteps)));
+			f.addClause(concat(g, bm.at(loc, nSteps), -bl.at(loc, nSteps)));
 		}
     }
     
-    private static void translate(InputStream in, PrintStream out, int nSteps) throws Exception {
-		DIMACSFormula f = new DIMACSFormula();
+    /// @returns An encoder of the instance available in \p in, for any number of time steps
+    public static Encoder encoder(InputStream in) throws Exception {
 		char[][] grid = readGrid(in);
 		int nRows = grid.length;
 		int nCols = grid[0].length;
 		int nLocs = nRows * nCols;
-		Set<Integer> l = new TreeSet<>(); // Set of valid locations
+		LocationSet l = new LocationSet(nLocs); // Set of valid locations
 
 		int loc = 1;
 		for (int i = 0; i < nRows; i++) {
@@ -494,51 +445,60 @@ public class snowman2sat_cnf {
 			}
 		}
 
-		Map<String,Integer> next = computeNextRelation(nRows, nCols); // Key = d + l where  d  is a direction ('n', 's', 'e', 'w') and  l  is the number of the location; Value is the number of the location next to  l  in the direction  d
-		Map<String,Integer> next2 = computeNext2Relation(next); // Next to the next (in the same direction)
-		Set<Integer> ln = new TreeSet<>(); // Set of valid positions with a wall in the north
-		Set<Integer> lnn = new TreeSet<>(); // Set of valid positions with a wall two steps ahead in the north
-		Set<Integer> ls = new TreeSet<>(); // Set of valid positions with a wall in the south
-		Set<Integer> lss = new TreeSet<>(); // Set of valid positions with a wall two steps ahead in the south
-		Set<Integer> le = new TreeSet<>(); // Set of valid positions with a wall in the east
-		Set<Integer> lee = new TreeSet<>(); // Set of valid positions with a wall two steps ahead in the east
-		Set<Integer> lw = new TreeSet<>(); // Set of valid positions with a wall in the west
-		Set<Integer> lww = new TreeSet<>(); // Set of valid positions with a wall two steps ahead in the west
-
-		computeSetsNext2Wall(l, ln, lnn, "n", next, next2, grid);
-		computeSetsNext2Wall(l, ls, lss, "s", next, next2, grid);
-		computeSetsNext2Wall(l, le, lee, "e", next, next2, grid);
-		computeSetsNext2Wall(l, lw, lww, "w", next, next2, grid);
-
-		Pair<Integer,String> p  = initialState(grid);
-		int nSnowman = p.first;
+		Geometry geo = new Geometry(grid, l);
+		int[][] next = geo.next(); // next[d][l] is the number of the location next to  l  in the direction  d  (Geometry.N, S, E, W), or -1
+		int[][] next2 = geo.next2(); // Next to the next (in the same direction)
+		boolean[] ln = geo.wall(Geometry.N); // Valid positions with a wall in the north
+		boolean[] lnn = geo.wall2(Geometry.N); // Valid positions with a wall two steps ahead in the north
+		boolean[] ls = geo.wall(Geometry.S); // Valid positions with a wall in the south
+		boolean[] lss = geo.wall2(Geometry.S); // Valid positions with a wall two steps ahead in the south
+		boolean[] le = geo.wall(Geometry.E); // Valid positions with a wall in the east
+		boolean[] lee = geo.wall2(Geometry.E); // Valid positions with a wall two steps ahead in the east
+		boolean[] lw = geo.wall(Geometry.W); // Valid positions with a wall in the west
+		boolean[] lww = geo.wall2(Geometry.W); // Valid positions with a wall two steps ahead in the west
+
+		int nSnowman = initialState(grid);
 		int nBall = nSnowman * 3;
 
-		// Initial state to CNF
-		String ini[] = p.second.split(" & ");
-		for (String s : ini)
-			f.addClause(List.of(s));
-
-		// Exactly one action per time step
-		exactlyOneAction(nSteps, f);
-
-		// Action transitions
-		actionTransitions(nSteps, nSnowman, l, ln, lnn, "n", next, next2, f);
-		actionTransitions(nSteps, nSnowman, l, ls, lss, "s", next, next2, f);
-		actionTransitions(nSteps, nSnowman, l, le, lee, "e", next, next2, f);
-		actionTransitions(nSteps, nSnowman, l, lw, lww, "w", next, next2, f);
-
-		// Frame axioms
-		frameAxioms(nSteps, l, f);
-		frameAxioms(nSteps, l, "n", next, next2, f);
-		frameAxioms(nSteps, l, "s", next, next2, f);
-		frameAxioms(nSteps, l, "e", next, next2, f);
-		frameAxioms(nSteps, l, "w", next, next2, f);
-
-		// Goal
-		goal(nSteps, l, f);
-
-		f.print(out);
+		// Variables
+		VariableRegistry v = new VariableRegistry(nLocs, l);
+		v.declareLocations("#c", "#s", "#bs", "#bm", "#bl", "ball", "ball_m_l", "grow_s", "grow_m");
+		for (String d : List.of("n", "s", "e", "w")) {
+			v.declareLocations("movec_" + d, "move_" + d, "push_" + d, "push_s_" + d, "push_m_" + d);
+			v.declareLocations("roll_" + d, "roll_ball_" + d, "roll_s_" + d, "roll_m_" + d, "roll_l_" + d);
+			v.declareLocations("pop_" + d, "pop_ball_" + d, "pop_s_" + d, "pop_m_" + d, "emerge_m_" + d, "emerge_l_" + d);
+		}
+		v.declareSteps("n", "s", "e", "w");
+
+		SnowmanReach reach = new SnowmanReach(grid, l, geo, v, true, false); // Locations out of reach
+
+		// Clauses of the initial state (if first == 0), of time steps first .. nSteps - 1,
+		// and of the goal at time nSteps (guarded by  guard  if not 0), with the balls and the character
+		// out of reach at each time step, and the moves of them, fixed to false (see SnowmanReach)
+		return new Encoder(v, (f, first, nSteps, guard) -> {
+			// Initial state to CNF
+			if (first == 0)
+				initialStateClauses(grid, f);
+
+			// Exactly one action per time step
+			exactlyOneAction(first, nSteps, f);
+
+			// Action transitions
+			actionTransitions(first, nSteps, nSnowman, l, ln, lnn, "n", next, next2, f);
+			actionTransitions(first, nSteps, nSnowman, l, ls, lss, "s", next, next2, f);
+			actionTransitions(first, nSteps, nSnowman, l, le, lee, "e", next, next2, f);
+			actionTransitions(first, nSteps, nSnowman, l, lw, lww, "w", next, next2, f);
+
+			// Frame axioms
+			frameAxioms(first, nSteps, l, f);
+			frameAxioms(first, nSteps, l, "n", next, next2, f);
+			frameAxioms(first, nSteps, l, "s", next, next2, f);
+			frameAxioms(first, nSteps, l, "e", next, next2, f);
+			frameAxioms(first, nSteps, l, "w", next, next2, f);
+
+			// Goal
+			goal(nSteps, l, guard, f);
+		}, reach, StackingBound.of(grid, l, geo, false)); // Least number of time steps
     }
 
 }
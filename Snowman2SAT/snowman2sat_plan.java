@@ -0,0 +1,45 @@
+/**
+ * @class snowman2sat_plan
+ * @author Miquel Bofill
+ * @version 1.0
+ * @date 2023-07-07
+ * @brief Plan of a "A good snowman is hard to build" instance, decoded from a model of its CNF
+ *
+ * The model is read from the output of a SAT solver, and decoded with the variable
+ * map written by the translators with -map (see SnowmanPlan), so that the comments of
+ * the CNF, with the atom names, are not needed.
+*/
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.BitSet;
+
+public class snowman2sat_plan {
+
+    /// @pre Program has been called with arguments <tt> map out </tt>, the variable map of a CNF (see
+    ///      option -map of the translators) and the output of a SAT solver with a model of that CNF
+    ///
+    ///      A problem instance is available in the standard input (the one of the CNF)
+
+    /// @post Writes the plan to the standard output: the initial grid, and then, for each time step,
+    ///       its moves and the resulting grid
+    public static void main(String[] args) throws Exception {
+		if (args.length != 2) {
+			System.err.println("The program needs as arguments the variable map of a CNF and the output of a SAT solver for it.");
+			System.exit(0);
+		}
+		char[][] grid = SnowmanPlan.readGrid(System.in);
+		VariableRegistry v;
+		try (InputStream in = new FileInputStream(args[0])) {
+			v = VariableRegistry.read(in);
+		}
+		BitSet model = SatSolver.model(new File(args[1]));
+		if (model.isEmpty()) {
+			System.err.println("No model in " + args[1]);
+			System.exit(1);
+		}
+		new SnowmanPlan(grid, v, model).print(System.out);
+    }
+
+}
@@ -3,25 +3,26 @@
  * @author Miquel Bofill
  * @version 1.1
  * @date 2023-01-02
- * @brief Translation of "A good snowman is hard to build" instance to CNF, with reachability (without move actions), ensuring acyclicity by counting neighbours in path, and with ball invariants using sequential counters
+ * @brief Translation of "A good snowman is hard to build" instance to CNF, with reachability (without move actions), ensuring acyclicity by counting neighbours in path, and with ball invariants using cardinality constraints
 */
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
-import java.util.Map;
-import java.util.TreeMap;
 import java.util.Set;
-import java.util.TreeSet;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.BufferedReader;
-import java.io.PrintStream;
 
 public class snowman2sat_reachability_counting_cnf_invariants {
 
     /// @pre Program has been called with argument <tt> n </tt> where n >= 0 is the
-    ///      number of time steps of the desired plan
+    ///      number of time steps of the desired plan, optionally followed by <tt> -stream </tt>
+    ///      to write clauses to a temporary file as they are generated (see DIMACSFormula),
+    ///      <tt> -nocomments </tt> to omit the comment lines naming the atoms,
+    ///      <tt> -map file </tt> to write the variable map to  file  instead (see VariableRegistry),
+    ///      and <tt> -icnf m </tt> to output an iCNF for n .. m time steps instead (see Encoder)
     ///
     ///      A problem instance is available in the standard input with the format:
     ///
@@ -52,21 +53,46 @@ public class snowman2sat_reachability_counting_cnf_invariants {
     ///
     ///       The grid is assumed to be rectangular and closed
 
-	static int aux = 0; // For naming auxiliary variables
-
     /// @post Outputs a CNF for the problem instance described by the input
     ///       State variables are prefixed by #
     public static void main(String[] args) throws Exception {
 		int nSteps = 0;
+		boolean stream = false;
+		boolean comments = true;
+		String map = null;
+		int last = -1;
+		Cardinality.AtMostOne amo = null;
 		try {
 			nSteps = Integer.parseInt(args[0]);
 			assert nSteps >= 0;
+			for (int i = 1; i < args.length; ++i)
+				if (args[i].equals("-stream"))
+					stream = true;
+				else if (args[i].equals("-nocomments"))
+					comments = false;
+				else if (args[i].equals("-map") && i + 1 < args.length) {
+					map = args[++i];
+					comments = false;
+				}
+				else if (args[i].equals("-icnf") && i + 1 < args.length) {
+					last = Integer.parseInt(args[++i]);
+					if (last < nSteps)
+						throw new IllegalArgumentException(args[i]);
+				}
+				else if (args[i].equals("-amo") && i + 1 < args.length)
+					amo = Cardinality.AtMostOne.valueOf(args[++i].toUpperCase());
+				else
+					throw new IllegalArgumentException(args[i]);
 		}
 		catch (Exception e) {
-			System.err.println("The program needs an integer n >= 0 as argument denoting the number of steps of the desired plan.");
+			System.err.println("The program needs an integer n >= 0 as argument denoting the number of steps of the desired plan (options: -stream, -nocomments, -map file, -icnf m, -amo pairwise|ladder|commander|product|bimander).");
 			System.exit(0);
 		}
-		translate(System.in, System.out, nSteps);
+		Encoder e = encoder(System.in, amo);
+		if (last >= 0)
+			e.encodeIncremental(nSteps, last, System.out, stream, map);
+		else
+			e.encode(nSteps, System.out, stream, comments, map);
     }
 
     /// @post Reads the description of the initial state and returns it
@@ -88,16 +114,15 @@ public class snowman2sat_reachability_counting_cnf_invariants {
 		return grid;
     }
 
-    // Returns <number of snowmans, assertions for the initial state>
+    // Returns number of snowmans
     // Replaces 'x' by '#' in the grid
-    private static Pair<Integer,String> initialState(char[][] grid) throws Exception {
+    private static int initialState(char[][] grid) throws Exception {
 		int nRows = grid.length;
 		int nCols = grid[0].length;
 		int nChar = 0; // Number of characters (players)
 		int nBall = 0; // Number of balls
 		int nSmall = 0; // Number of small balls
 		int nLarge = 0; // Number of large balls
-		String s = ""; // = "\n;; Initial state\n";
 		for (int i = 0; i < nRows; ++i) {
 			for (int j = 0; j < nCols; ++j) {
 				int loc = i * nCols + j + 1;
@@ -109,89 +134,34 @@ public class snowman2sat_reachability_counting_cnf_invariants {
 					break;
 				case 'p':
 					nChar++;
-					s += "#c_" + loc + "_0 & ";
-					s += "#s_" + loc + "_0 & ";
-					s += "!#bs_" + loc + "_0 & ";
-					s += "!#bm_" + loc + "_0 & ";
-					s += "!#bl_" + loc + "_0 & ";
 					break;
 				case 'q':
 					nChar++;
-					s += "#c_" + loc + "_0 & ";
-					s += "!#s_" + loc + "_0 & ";
-					s += "!#bs_" + loc + "_0 & ";
-					s += "!#bm_" + loc + "_0 & ";
-					s += "!#bl_" + loc + "_0 & ";
 					break;
 				case '1':
 					nBall++; nSmall++;
-					s += "!#c_" + loc + "_0 & ";
-					s += "!#s_" + loc + "_0 & ";
-					s += "#bs_" + loc + "_0 & ";
-					s += "!#bm_" + loc + "_0 & ";
-					s += "!#bl_" + loc + "_0 & ";
 					break;
 				case '2':
 					nBall++;
-					s += "!#c_" + loc + "_0 & ";
-					s += "!#s_" + loc + "_0 & ";
-					s += "!#bs_" + loc + "_0 & ";
-					s += "#bm_" + loc + "_0 & ";
-					s += "!#bl_" + loc + "_0 & ";
 					break;
 				case '3':
 					nBall += 2; nSmall++;
-					s += "!#c_" + loc + "_0 & ";
-					s += "!#s_" + loc + "_0 & ";
-					s += "#bs_" + loc + "_0 & ";
-					s += "#bm_" + loc + "_0 & ";
-					s += "!#bl_" + loc + "_0 & ";
 					break;
 				case '4':
 					nBall++; nLarge++;
-					s += "!#c_" + loc + "_0 & ";
-					s += "!#s_" + loc + "_0 & ";
-					s += "!#bs_" + loc + "_0 & ";
-					s += "!#bm_" + loc + "_0 & ";
-					s += "#bl_" + loc + "_0 & ";
 					break;
 				case '5':
 					nBall += 2; nSmall++; nLarge++;
-					s += "!#c_" + loc + "_0 & ";
-					s += "!#s_" + loc + "_0 & ";
-					s += "#bs_" + loc + "_0 & ";
-					s += "!#bm_" + loc + "_0 & ";
-					s += "#bl_" + loc + "_0 & ";
 					break;
 				case '6':
 					nBall += 2; nLarge++;
-					s += "!#c_" + loc + "_0 & ";
-					s += "!#s_" + loc + "_0 & ";
-					s += "!#bs_" + loc + "_0 & ";
-					s += "#bm_" + loc + "_0 & ";
-					s += "#bl_" + loc + "_0 & ";
 					break;
 				case '7':
 					nBall += 3; nSmall++; nLarge++;
-					s += "!#c_" + loc + "_0 & ";
-					s += "!#s_" + loc + "_0 & ";
-					s += "#bs_" + loc + "_0 & ";
-					s += "#bm_" + loc + "_0 & ";
-					s += "#bl_" + loc + "_0 & ";
 					break;
 				case '\'':
-					s += "!#c_" + loc + "_0 & ";
-					s += "!#s_" + loc + "_0 & ";
-					s += "!#bs_" + loc + "_0 & ";
-					s += "!#bm_" + loc + "_0 & ";
-					s += "!#bl_" + loc + "_0 & ";
 					break;
 				case '.':
-					s += "!#c_" + loc + "_0 & ";
-					s += "#s_" + loc + "_0 & ";
-					s += "!#bs_" + loc + "_0 & ";
-					s += "!#bm_" + loc + "_0 & ";
-					s += "!#bl_" + loc + "_0 & ";
 					break;
 				default:
 					throw new Exception("Symbol '" + grid[i][j] + "' invalid in grid");
@@ -213,221 +183,72 @@ public class snowman2sat_reachability_counting_cnf_invariants {
 		if (nLarge > nSnowman)
 			throw new Exception("Trivially unsatisfiable (" + nLarge + " are too many large balls)");
 	
-		return new Pair<Integer,String>(nSnowman, s);
-    }
-
-    // Key = d + l where  d  is a direction ('n', 's', 'e', 'w') and  l  is the number of the location; Value is the number of the location next to  l  in the direction  d
-    private static Map<String,Integer> computeNextRelation(int nRows, int nCols) {
-		TreeMap<String,Integer> m = new TreeMap<>();
-		int loc = 1;
-		for (int i = 0; i < nRows; ++i) {
-			for (int j = 1; j <= nCols; ++j, ++loc) {
-				if (loc > nCols) // Not first row
-					m.put("n" + loc, loc - nCols);
-				if (loc <= nCols * (nRows - 1)) // Not last row
-					m.put("s" + loc, loc + nCols);
-				if (loc % nCols != 1) // Not first column
-					m.put("w" + loc, loc - 1);
-				if (loc % nCols != 0) // Not last column
-					m.put("e" + loc, loc + 1);
-			}
-		}
-		return m;
+		return nSnowman;
     }
 
-    // Next to the next (in the same direction)
-    private static Map<String,Integer> computeNext2Relation(Map<String,Integer> next) {
-		TreeMap<String,Integer> m = new TreeMap<>();
-		for (Map.Entry<String,Integer> e : next.entrySet()) {
-			String k = e.getKey();
-			Integer j = next.get(k.substring(0,1) + e.getValue());
-			if (j != null)
-				m.put(k, j);
-		}
-		return m;
-    }
-
-    private static void	computeSetsNext2Wall(Set<Integer> l, Set<Integer> ln, Set<Integer> lnn, String d, Map<String,Integer> next, Map<String,Integer> next2, char[][] grid) {
+    // Assertions for the initial state
+    // c for character, s for snow, bs/bm/bl for small/medium/large balls
+    // @pre 'x' has already been replaced by '#' in the grid
+    private static void initialStateClauses(char[][] grid, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family c = v.locations("#c"), snow = v.locations("#s");
+		VariableRegistry.Family bs = v.locations("#bs"), bm = v.locations("#bm"), bl = v.locations("#bl");
 		int nCols = grid[0].length;
-		for(Integer i : l)
-			if (grid[(i - 1) / nCols][(i - 1) % nCols] != '#') {
-				Integer j = next.get(d + i);
-				Integer k = next2.get(d + i);
-				if (j != null && grid[(j - 1) / nCols][(j - 1) % nCols] == '#')
-					ln.add(i);
-				if (k != null && grid[(k - 1) / nCols][(k - 1) % nCols] == '#')
-					lnn.add(i);
-			}
-    }
-
-	private static void exactlyOneAction(int nSteps, DIMACSFormula f) {
-		for (int i = 0; i < nSteps; ++i) {
-			f.addClause(List.of("n_" + i, "s_" + i, "e_" + i, "w_" + i));
-			f.addClause(List.of("!n_" + i, "!s_" + i));
-			f.addClause(List.of("!n_" + i, "!e_" + i));
-			f.addClause(List.of("!n_" + i, "!w_" + i));
-			f.addClause(List.of("!s_" + i, "!e_" + i));
-			f.addClause(List.of("!s_" + i, "!w_" + i));
-			f.addClause(List.of("!e_" + i, "!w_" + i));
-		}
-	}
-
-	/// @pre \p antecedent denotes a disjunction of literals, \p consequent denotes a conjunction of literals
-	/// @returns corresponding CNF
-	private static List<List<String>> implication2cnf(List<String> antecedent, List<String> consequent) {
-		List<List<String>> cnf = new LinkedList<>();
-		for (String a : antecedent)
-			for (String c : consequent) {
-				List<String> clause = new LinkedList<>();
-				if (a.charAt(0) == '!')
-					clause.add(a);
-				else
-					clause.add("!" + a);
-				clause.add(c);
-				cnf.add(clause);
+		for (int i = 0; i < grid.length; ++i) {
+			for (int j = 0; j < nCols; ++j) {
+				int loc = i * nCols + j + 1;
+				char x = grid[i][j];
+				if (x != '#') {
+					f.addClause((x == 'p' || x == 'q') ? c.at(loc, 0) : -c.at(loc, 0));
+					f.addClause((x == 'p' || x == '.') ? snow.at(loc, 0) : -snow.at(loc, 0));
+					f.addClause((x == '1' || x == '3' || x == '5' || x == '7') ? bs.at(loc, 0) : -bs.at(loc, 0));
+					f.addClause((x == '2' || x == '3' || x == '6' || x == '7') ? bm.at(loc, 0) : -bm.at(loc, 0));
+					f.addClause((x >= '4' && x <= '7') ? bl.at(loc, 0) : -bl.at(loc, 0));
+				}
 			}
-		return cnf;
-	}
-
-	private static void add2DIMACSFormula(List<List<String>> cnf, DIMACSFormula f) {
-		for (List<String> clause : cnf)
-			f.addClause(clause);
-	}
-
-	private static Map<Integer,List<Integer>> computeValidNeighbours(Set<Integer> validLocations, Map<String,Integer> next) {
-		TreeMap<Integer,List<Integer>> r = new TreeMap<>();
-		for (Integer p : validLocations) {
-			ArrayList<Integer> validNeighbours = new ArrayList<>();
-			Integer n1 = next.get("n" + p);
-			Integer n2 = next.get("s" + p);
-			Integer n3 = next.get("e" + p);
-			Integer n4 = next.get("w" + p);
-			if (validLocations.contains(n1))
-				validNeighbours.add(n1);
-			if (validLocations.contains(n2))
-				validNeighbours.add(n2);
-			if (validLocations.contains(n3))
-				validNeighbours.add(n3);
-			if (validLocations.contains(n4))
-				validNeighbours.add(n4);
-			r.put(p,validNeighbours);
-		}
-		return r;
-	}
-
-	private static String literal(String lit, Integer index, int time) {
-		return lit + "_" + index + "_" + time;
-	}
-
-	// @returns "At-Most-k(var_{i_1}^time, ..., var_{i_n}^time)" for i_1, ..., i_n in indexes
-	private static List<List<String>> binomial_at_most(int k, String var, List<Integer> indexes, Integer time) {
-		return binomial_at_most(k, var, indexes, time, false);
-	}
-
-	// @returns "At-Least-k(var_{i_1}^time, ..., var_{i_n}^time)" for i_1, ..., i_n in indexes
-	private static List<List<String>> binomial_at_least(int k, String var, List<Integer> indexes, Integer time) {
-		return binomial_at_most(indexes.size() - k, var, indexes, time, true);
-	}
-
-	// @returns list of lists of literals (binomial encoding)
-	private static List<List<String>> binomial_at_most(int k, String var, List<Integer> indexes, Integer time, boolean negated) {
-		LinkedList<List<String>> r = new LinkedList<>();
-		String neg = (negated? "" : "!");
-		List<List<Integer>> ll = lists(k + 1, indexes);
-		for (List<Integer> l : ll) {
-			LinkedList<String> r1 = new LinkedList<>();
-			for (Integer i : l)
-				r1.add(literal(neg + var, i, time));
-			r.add(r1);
 		}
-		return r;
-	}
+    }
 
-    // @returns the list of subsets of  k  elements of  l
-	private static List<List<Integer>> lists(int k, List<Integer> l) {
-		List<List<Integer>> ll = new LinkedList<List<Integer>>();
-		if (k == 0)
-			ll.add(new LinkedList<>());
-		else if (l.size() >= k) {
-			List<Integer> lr = l.subList(1,l.size());
-			List<List<Integer>> lm = lists(k - 1, lr);
-			for (List<Integer> m : lm) {
-				LinkedList<Integer> lt = new LinkedList<>();
-				lt.add(l.get(0));
-				lt.addAll(m);
-				ll.add(lt);
-			}
-			ll.addAll(lists(k,lr));
+	private static void exactlyOneAction(int first, int nSteps, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family n = v.steps("n"), s = v.steps("s"), e = v.steps("e"), w = v.steps("w");
+		for (int i = first; i < nSteps; ++i) {
+			f.addClause(n.at(i), s.at(i), e.at(i), w.at(i));
+			f.addClause(-n.at(i), -s.at(i));
+			f.addClause(-n.at(i), -e.at(i));
+			f.addClause(-n.at(i), -w.at(i));
+			f.addClause(-s.at(i), -e.at(i));
+			f.addClause(-s.at(i), -w.at(i));
+			f.addClause(-e.at(i), -w.at(i));
 		}
-		return ll;
 	}
 
-	// @returns "At-Most-k(var_{i_1}^time, ..., var_{i_n}^time)" for i_1, ..., i_n in indexes
-	private static List<List<String>> seq_at_most(int k, String var, List<Integer> indexes, Integer time) {
-		return seq_at_most(k, var, indexes, time, false);
+	private static int[] concat(int[] a, int... b) {
+		int[] c = Arrays.copyOf(a, a.length + b.length);
+		System.arraycopy(b, 0, c, a.length, b.length);
+		return c;
 	}
 
-	// @returns "At-Least-k(var_{i_1}^time, ..., var_{i_n}^time)" for i_1, ..., i_n in indexes
-	private static List<List<String>> seq_at_least(int k, String var, List<Integer> indexes, Integer time) {
-		return seq_at_most(indexes.size() - k, var, indexes, time, true);
+	/// @pre \p antecedent denotes a disjunction of literals, \p consequent denotes a conjunction of literals
+	/// @post corresponding CNF belongs to \p f
+	private static void implication2cnf(int[] antecedent, int[] consequent, DIMACSFormula f) {
+		for (int a : antecedent)
+			for (int c : consequent)
+				f.addClause(-a, c);
 	}
 
-	// @pre 0 <= k < n, n > 0;
-	// @returns list of lists of literals (Sequential Counter Encoding by Sinz); aux is used for naming of auxiliary variables
-	private static List<List<String>> seq_at_most(int k, String var, List<Integer> indexes, Integer time, boolean negated) {
-		LinkedList<List<String>> r = new LinkedList<>();
-		String v = (negated? "" : "!") + var;
-		String suma = "suma_" + (++aux);
-		int n = indexes.size();
-
-		if (k == n - 1 && negated) {
-			// at-least-one
-			List<String> r1 = new LinkedList<>();
-			for (Integer i : indexes)
-				r1.add(literal(v, i, time));
-			r.add(r1);
-		}
-		else {
-			assert (k < n);
-			if (k > 0) {
-				r.add(List.of(literal(v, indexes.get(0), time), suma + "_1_1_" + time));
-
-				for (int j = 2; j <= k; ++j)
-					r.add(List.of("!" + suma + "_1_" + j + "_" + time));
-
-				for (int i = 2; i < n; ++i) {
-					r.add(List.of(literal(v, indexes.get(i - 1), time), suma + "_" + i + "_1_" + time));
-					r.add(List.of("!" + suma + "_" + (i - 1) + "_1_" + time, suma + "_" + i + "_1_" + time));
+	private static void reachabilityConstraints(int first, int nSteps, LocationSet validLocations, List<List<Integer>> validNeighbours, DIMACSFormula f) {
 
-					for (int j = 2; j <= k; ++j) {
-						r.add(List.of(literal(v, indexes.get(i - 1), time), "!" + suma + "_" + (i - 1) + "_" + (j - 1) + "_" + time, suma + "_" + i + "_" + j + "_" + time));
-						r.add(List.of("!" + suma + "_" + (i - 1) + "_" + j + "_" + time, suma + "_" + i + "_" + j + "_" + time));
-					}
-
-					r.add(List.of(literal(v, indexes.get(i - 1), time), "!" + suma + "_" + (i - 1) + "_" + k + "_" + time));
-				}
-
-				r.add(List.of(literal(v, indexes.get(n - 1), time), "!" + suma + "_" + (n - 1) + "_" + k + "_" + time));
-			}
-			else {
-				// k = 0 => at-least-n
-				for (Integer i : indexes)
-					r.add(List.of(literal(v, i, time)));
-			}
-		}
-
-		return r;
-	}
-
-	private static void reachabilityConstraints(PrintStream out, int nSteps, Set<Integer> validLocations, Map<Integer, List<Integer>> validNeighbours, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family c = v.locations("#c"), ball = v.locations("ball"), path = v.locations("p");
 
 		for (Integer l : validLocations) {
 			List<Integer> neighbours = validNeighbours.get(l);
-			for (int t = 0; t < nSteps; ++t) {
+			for (int t = first; t < nSteps; ++t) {
 				int t1 = t + 1;
 
 				// Balls not in path
-				f.addClause(List.of(literal("!ball", l, t), literal("!p", l, t1)));
+				f.addClause(-ball.at(l, t), -path.at(l, t1));
 
 				// OLD
 				// Character always next to a ball: unnecessary, gets worse (already covered by actions)
@@ -437,59 +258,24 @@ public class snowman2sat_reachability_counting_cnf_invariants {
 				// out.print(") & ");
 
 		        // Path constraints
-				f.addClause(List.of(literal("!#c", l, t), literal("p", l, t1)));
-				f.addClause(List.of(literal("!#c", l, t1), literal("p", l, t1)));
-
-				List<String> antecedent1 = new LinkedList<>();
-				List<String> antecedent2 = new LinkedList<>();
-				List<String> clause = new LinkedList<>();
-				String l1 = literal("#c", l, t);
-				String l2 = literal("#c", l, t1);
-				antecedent1.add("!" + l1);
-				antecedent1.add(l2);
-				antecedent2.add(l1);
-				antecedent2.add("!" + l2);
+				f.addClause(-c.at(l, t), path.at(l, t1));
+				f.addClause(-c.at(l, t1), path.at(l, t1));
+
+				int[] antecedent1 = {-c.at(l, t), c.at(l, t1)};
+				int[] antecedent2 = {c.at(l, t), -c.at(l, t1)};
 				// Binomial encoding best suited for small at-most-k
-				for (List<String> succedent : binomial_at_least(1, "p", neighbours, t1)) {
-					clause.clear();
-					clause.addAll(antecedent1);
-					clause.addAll(succedent);
-					f.addClause(clause);
-					clause.clear();
-					clause.addAll(antecedent2);
-					clause.addAll(succedent);
-					f.addClause(clause);
+				Cardinality.atLeast(1, path, neighbours, t1, antecedent1, f);
+				Cardinality.atLeast(1, path, neighbours, t1, antecedent2, f);
+				if (neighbours.size() > 1) {
+					Cardinality.atMost(1, path, neighbours, t1, antecedent1, f);
+					Cardinality.atMost(1, path, neighbours, t1, antecedent2, f);
 				}
-				if (neighbours.size() > 1)
-					for (List<String> succedent : binomial_at_most(1, "p", neighbours, t1)) {
-						clause.clear();
-						clause.addAll(antecedent1);
-						clause.addAll(succedent);
-						f.addClause(clause);
-						clause.clear();
-						clause.addAll(antecedent2);
-						clause.addAll(succedent);
-						f.addClause(clause);
-					}
 
-				antecedent1.clear();
-				antecedent1.add(literal("#c", l, t));
-				antecedent1.add(literal("#c", l, t1));
-				antecedent1.add(literal("!p", l, t1));
+				antecedent1 = new int[] {c.at(l, t), c.at(l, t1), -path.at(l, t1)};
 				if (neighbours.size() >= 2) {
-					for (List<String> succedent : binomial_at_least(2, "p", neighbours, t1)) {
-						clause.clear();
-						clause.addAll(antecedent1);
-						clause.addAll(succedent);
-						f.addClause(clause);
-					}
+					Cardinality.atLeast(2, path, neighbours, t1, antecedent1, f);
 					if (neighbours.size() > 2)
-						for (List<String> succedent : binomial_at_most(2, "p", neighbours, t1)) {
-							clause.clear();
-							clause.addAll(antecedent1);
-							clause.addAll(succedent);
-							f.addClause(clause);
-						}
+						Cardinality.atMost(2, path, neighbours, t1, antecedent1, f);
 				}
 				else
 					f.addClause(antecedent1);
@@ -499,204 +285,227 @@ public class snowman2sat_reachability_counting_cnf_invariants {
 
 	}
 
-	private static void auxiliaryVariables(int nSteps, Set<Integer> l, DIMACSFormula f) {
-		for (int i = 0; i < nSteps; ++i) {
-			String t = "_" + i; String t1 = "_" + (i + 1);
+	private static void auxiliaryVariables(int first, int nSteps, LocationSet l, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family snow = v.locations("#s"), bs = v.locations("#bs"), bm = v.locations("#bm");
+		VariableRegistry.Family bl = v.locations("#bl"), ball = v.locations("ball");
+		VariableRegistry.Family ball_m_l = v.locations("ball_m_l"), grow_s = v.locations("grow_s");
+		VariableRegistry.Family grow_m = v.locations("grow_m");
+		for (int i = first; i < nSteps; ++i) {
+			int t = i, t1 = i + 1;
 
 			for (Integer j : l) {
-				String lj = "_" + j;
 
-				f.addClause(List.of("!ball" + lj + t, "#bs" + lj + t, "#bm" + lj + t, "#bl" + lj + t));
-				add2DIMACSFormula(implication2cnf(List.of("#bs" + lj + t, "#bm" + lj + t, "#bl" + lj + t), List.of("ball" + lj + t)), f);
+				f.addClause(-ball.at(j, t), bs.at(j, t), bm.at(j, t), bl.at(j, t));
+				implication2cnf(new int[] {bs.at(j, t), bm.at(j, t), bl.at(j, t)}, new int[] {ball.at(j, t)}, f);
 
-				f.addClause(List.of("!ball_m_l" + lj + t, "#bm" + lj + t, "#bl" + lj + t));
-				add2DIMACSFormula(implication2cnf(List.of("#bm" + lj + t, "#bl" + lj + t), List.of("ball_m_l" + lj + t)), f); // Unnecessary but helping
+				f.addClause(-ball_m_l.at(j, t), bm.at(j, t), bl.at(j, t));
+				implication2cnf(new int[] {bm.at(j, t), bl.at(j, t)}, new int[] {ball_m_l.at(j, t)}, f); // Unnecessary but helping
 
-				f.addClause(List.of("!grow_s" + lj + t, "#s" + lj + t, "#bs" + lj + t1));
-				f.addClause(List.of("!grow_s" + lj + t, "!#s" + lj + t, "#bm" + lj + t1));
+				f.addClause(-grow_s.at(j, t), snow.at(j, t), bs.at(j, t1));
+				f.addClause(-grow_s.at(j, t), -snow.at(j, t), bm.at(j, t1));
 
-				f.addClause(List.of("!grow_m" + lj + t, "#s" + lj + t, "#bm" + lj + t1));
-				f.addClause(List.of("!grow_m" + lj + t, "!#s" + lj + t, "#bl" + lj + t1));
+				f.addClause(-grow_m.at(j, t), snow.at(j, t), bm.at(j, t1));
+				f.addClause(-grow_m.at(j, t), -snow.at(j, t), bl.at(j, t1));
 			}
 		}
 	}
 
-	private static void actionTransitions(int nSteps, int nSnowman, Set<Integer> l, Set<Integer> lwall, Set<Integer> lwall2, String d, Map<String,Integer> next, Map<String,Integer> next2, DIMACSFormula f) {
-		for (int i = 0; i < nSteps; ++i) {
-			String t = "_" + i; String t1 = "_" + (i + 1);
+	private static void actionTransitions(int first, int nSteps, int nSnowman, LocationSet l, boolean[] lwall, boolean[] lwall2, String d, int[][] next, int[][] next2, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family c = v.locations("#c"), snow = v.locations("#s"), bs = v.locations("#bs");
+		VariableRegistry.Family bm = v.locations("#bm"), bl = v.locations("#bl");
+		VariableRegistry.Family ball_m_l = v.locations("ball_m_l"), ball = v.locations("ball");
+		VariableRegistry.Family grow_s = v.locations("grow_s"), grow_m = v.locations("grow_m");
+		VariableRegistry.Family action = v.steps(d), push = v.locations("push_" + d);
+		int dir = Geometry.direction(d);
+		VariableRegistry.Family roll = v.locations("roll_" + d), pop = v.locations("pop_" + d);
+		VariableRegistry.Family push_s = v.locations("push_s_" + d), push_m = v.locations("push_m_" + d);
+		VariableRegistry.Family roll_ball = v.locations("roll_ball_" + d);
+		VariableRegistry.Family roll_s = v.locations("roll_s_" + d), roll_m = v.locations("roll_m_" + d);
+		VariableRegistry.Family roll_l = v.locations("roll_l_" + d);
+		VariableRegistry.Family pop_ball = v.locations("pop_ball_" + d), pop_s = v.locations("pop_s_" + d);
+		VariableRegistry.Family pop_m = v.locations("pop_m_" + d);
+		for (int i = first; i < nSteps; ++i) {
+			int t = i, t1 = i + 1;
 
 			// No action allowed
-			for (Integer j : lwall)
-				f.addClause(List.of("!#c_" + j + t1, "!" + d + t));
+			for (Integer j : l)
+				if (lwall[j])
+					f.addClause(-c.at(j, t1), -action.at(t));
 
 			// No action allowed
-			for (Integer j : lwall2)
-				if (!lwall.contains(j))
-					f.addClause(List.of("!#c_" + j + t1, "!" + d + t));
+			for (Integer j : l)
+				if (lwall2[j] && !lwall[j])
+					f.addClause(-c.at(j, t1), -action.at(t));
 
 			for (Integer j : l)
-				if (!lwall.contains(j) && !lwall2.contains(j)) {
-					String lj = "_" + j;
-					String ljn = "_" + next.get(d + j);
-					String ljnn = "_" + next2.get(d + j);
-					f.addClause(List.of("!#c" + lj + t1, "!" + d + t, "push_" + d + lj + t, "roll_" + d + lj + t, "pop_" + d + lj + t));
-					f.addClause(List.of("!push_" + d + lj + t, "push_s_" + d + lj + t, "push_m_" + d + lj + t));
-					add2DIMACSFormula(implication2cnf(List.of("push_s_" + d + lj + t), List.of("#bs" + ljn + t, "!#bm" + ljn + t, "!#bl" + ljn + t, "!#bs" + ljnn + t, "ball_m_l" + ljnn + t, "!#bs" + ljn + t1, "#bs" + ljnn + t1)), f);
-					add2DIMACSFormula(implication2cnf(List.of("push_m_" + d + lj + t), List.of("!#bs" + ljn + t, "#bm" + ljn + t, "!#bl" + ljn + t, "!#bs" + ljnn + t, "!#bm" + ljnn + t, "#bl" + ljnn + t, "!#bm" + ljn + t1, "#bm" + ljnn + t1)), f);
-					add2DIMACSFormula(implication2cnf(List.of("roll_" + d + lj + t), List.of("!ball" + ljnn + t, "!#s" + ljnn + t1, "roll_ball_" + d + lj + t)), f);
-					f.addClause(List.of("!roll_ball_" + d + lj + t, "roll_s_" + d + lj + t, "roll_m_" + d + lj + t, "roll_l_" + d + lj + t));
-					add2DIMACSFormula(implication2cnf(List.of("roll_s_" + d + lj + t), List.of("#bs" + ljn + t, "!#bm" + ljn + t, "!#bl" + ljn + t, "!#bs" + ljn + t1, "grow_s" + ljnn + t)), f);
-					add2DIMACSFormula(implication2cnf(List.of("roll_m_" + d + lj + t), List.of("!#bs" + ljn + t, "#bm" + ljn + t, "!#bl" + ljn + t, "!#bm" + ljn + t1, "grow_m" + ljnn + t)), f);
-					add2DIMACSFormula(implication2cnf(List.of("roll_l_" + d + lj + t), List.of("!#bs" + ljn + t, "!#bm" + ljn + t, "#bl" + ljn + t, "!#bl" + ljn + t1, "#bl" + ljnn + t1)), f);
-					add2DIMACSFormula(implication2cnf(List.of("pop_" + d + lj + t), List.of("!ball" + ljnn + t, "!#s" + ljnn + t1, "pop_ball_" + d + lj + t)), f);
-					f.addClause(List.of("!pop_ball_" + d + lj + t, "pop_s_" + d + lj + t, "pop_m_" + d + lj + t));
-					add2DIMACSFormula(implication2cnf(List.of("pop_s_" + d + lj + t), List.of("#bs" + ljn + t, "ball_m_l" + ljn + t, "!#bs" + ljn + t1, "grow_s" + ljnn + t)), f);
-					add2DIMACSFormula(implication2cnf(List.of("pop_m_" + d + lj + t), List.of("!#bs" + ljn + t, "#bm" + ljn + t, "#bl" + ljn + t, "!#bm" + ljn + t1, "grow_m" + ljnn + t)), f);
+				if (!lwall[j] && !lwall2[j]) {
+					int jn = next[dir][j];
+					int jnn = next2[dir][j];
+					f.addClause(-c.at(j, t1), -action.at(t), push.at(j, t), roll.at(j, t), pop.at(j, t));
+					f.addClause(-push.at(j, t), push_s.at(j, t), push_m.at(j, t));
+					implication2cnf(new int[] {push_s.at(j, t)}, new int[] {bs.at(jn, t), -bm.at(jn, t), -bl.at(jn, t), -bs.at(jnn, t), ball_m_l.at(jnn, t), -bs.at(jn, t1), bs.at(jnn, t1)}, f);
+					implication2cnf(new int[] {push_m.at(j, t)}, new int[] {-bs.at(jn, t), bm.at(jn, t), -bl.at(jn, t), -bs.at(jnn, t), -bm.at(jnn, t), bl.at(jnn, t), -bm.at(jn, t1), bm.at(jnn, t1)}, f);
+					implication2cnf(new int[] {roll.at(j, t)}, new int[] {-ball.at(jnn, t), -snow.at(jnn, t1), roll_ball.at(j, t)}, f);
+					f.addClause(-roll_ball.at(j, t), roll_s.at(j, t), roll_m.at(j, t), roll_l.at(j, t));
+					implication2cnf(new int[] {roll_s.at(j, t)}, new int[] {bs.at(jn, t), -bm.at(jn, t), -bl.at(jn, t), -bs.at(jn, t1), grow_s.at(jnn, t)}, f);
+					implication2cnf(new int[] {roll_m.at(j, t)}, new int[] {-bs.at(jn, t), bm.at(jn, t), -bl.at(jn, t), -bm.at(jn, t1), grow_m.at(jnn, t)}, f);
+					implication2cnf(new int[] {roll_l.at(j, t)}, new int[] {-bs.at(jn, t), -bm.at(jn, t), bl.at(jn, t), -bl.at(jn, t1), bl.at(jnn, t1)}, f);
+					implication2cnf(new int[] {pop.at(j, t)}, new int[] {-ball.at(jnn, t), -snow.at(jnn, t1), pop_ball.at(j, t)}, f);
+					f.addClause(-pop_ball.at(j, t), pop_s.at(j, t), pop_m.at(j, t));
+					implication2cnf(new int[] {pop_s.at(j, t)}, new int[] {bs.at(jn, t), ball_m_l.at(jn, t), -bs.at(jn, t1), grow_s.at(jnn, t)}, f);
+					implication2cnf(new int[] {pop_m.at(j, t)}, new int[] {-bs.at(jn, t), bm.at(jn, t), bl.at(jn, t), -bm.at(jn, t1), grow_m.at(jnn, t)}, f);
 				}
 		}
 	}
 
-    private static void frameAxioms(int nSteps, Set<Integer> l, DIMACSFormula f) {
-		for (int i = 0; i < nSteps; ++i) {
-			String t = "_" + i; String t1 = "_" + (i + 1);
+    private static void frameAxioms(int first, int nSteps, LocationSet l, Cardinality.AtMostOne amo, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family aux = v.block("amo_c");
+		VariableRegistry.Family c = v.locations("#c"), snow = v.locations("#s"), bs = v.locations("#bs");
+		VariableRegistry.Family bm = v.locations("#bm"), bl = v.locations("#bl");
+		for (int i = first; i < nSteps; ++i) {
+			int t = i, t1 = i + 1;
 
 			for (Integer j : l) {
-				f.addClause(List.of("#s_" + j + t, "!#s_" + j + t1));
-				f.addClause(List.of("!#s_" + j + t, "#s_" + j + t1, "#bs_" + j + t1, "#bm_" + j + t1, "#bl_" + j + t1));
+				f.addClause(snow.at(j, t), -snow.at(j, t1));
+				f.addClause(-snow.at(j, t), snow.at(j, t1), bs.at(j, t1), bm.at(j, t1), bl.at(j, t1));
 
 				// At most one ball can appear in a location at a time
-				f.addClause(List.of("#bs_" + j + t, "!#bs_" + j + t1, "#bm_" + j + t, "!#bm_" + j + t1));
-				f.addClause(List.of("#bs_" + j + t, "!#bs_" + j + t1, "#bl_" + j + t, "!#bl_" + j + t1));
-				f.addClause(List.of("#bm_" + j + t, "!#bm_" + j + t1, "#bl_" + j + t, "!#bl_" + j + t1));
+				f.addClause(bs.at(j, t), -bs.at(j, t1), bm.at(j, t), -bm.at(j, t1));
+				f.addClause(bs.at(j, t), -bs.at(j, t1), bl.at(j, t), -bl.at(j, t1));
+				f.addClause(bm.at(j, t), -bm.at(j, t1), bl.at(j, t), -bl.at(j, t1));
 			}
 		}
 
 		// Character at most in one place
-		for (int i = 1; i <= nSteps; ++i) {
-			String t = "_" + i;
-			for (int j : l)
-				for (int k : l)
-					if (j < k)
-						f.addClause(List.of("!#c_" + j + t, "!#c_" + k + t));
+		for (int i = first + 1; i <= nSteps; ++i) {
+			int t = i;
+			for (int[] clause : Cardinality.atMostOne(amo, c, l, t, aux))
+				f.addClause(clause);
 		}
 
     }
 
-    // returns k such that next.get(d + k) is j
-    private static Integer inext(char d, Integer j, Map<String,Integer> next) {
-		Integer k = null;
-		for (Map.Entry<String,Integer> e : next.entrySet()) {
-			if (e.getValue().equals(j)) {
-				String key = e.getKey();
-				if (key.charAt(0) == d)
-					return Integer.parseInt(key.substring(1));
-			}
-		}
-		return k;
-    }
-
-    private static void frameAxioms(int nSteps, Set<Integer> l, String d, Map<String,Integer> next, Map<String,Integer> next2, DIMACSFormula f) {
-		for (int i = 0; i < nSteps; ++i) {
-			String t = "_" + i; String t1 = "_" + (i + 1);
+    private static void frameAxioms(int first, int nSteps, LocationSet l, String d, int[][] next, int[][] next2, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family c = v.locations("#c"), snow = v.locations("#s"), bs = v.locations("#bs");
+		VariableRegistry.Family bm = v.locations("#bm"), bl = v.locations("#bl"), action = v.steps(d);
+		int dir = Geometry.direction(d);
+		VariableRegistry.Family emerge_m = v.locations("emerge_m_" + d);
+		VariableRegistry.Family emerge_l = v.locations("emerge_l_" + d);
+		for (int i = first; i < nSteps; ++i) {
+			int t = i, t1 = i + 1;
 	    
 			for (Integer j : l) {
-				Integer jo = inext(d.charAt(0), j, next);
-				Integer joo = inext(d.charAt(0), j, next2);
-				String lj = "_" + j;
-				String ljo = "_" + jo;
-				String ljoo = "_" + joo;
+				int jo = next[Geometry.opposite(dir)][j];
+				int joo = next2[Geometry.opposite(dir)][j];
 
 				// Auxiliary variables
-				if (jo != null && l.contains(jo)) {
-					f.addClause(List.of("!emerge_m_" + d + lj + t, "#bs" + ljo + t, "#bm" + ljo + t));
-					f.addClause(List.of("!emerge_m_" + d + lj + t, "#bs" + ljo + t, "!#s" + lj + t));
+				if (jo != -1 && l.contains(jo)) {
+					f.addClause(-emerge_m.at(j, t), bs.at(jo, t), bm.at(jo, t));
+					f.addClause(-emerge_m.at(j, t), bs.at(jo, t), -snow.at(j, t));
 
-					f.addClause(List.of("!emerge_m_" + d + lj + t, "!#bs" + ljo + t, "#s" + lj + t));
+					f.addClause(-emerge_m.at(j, t), -bs.at(jo, t), snow.at(j, t));
 
-					f.addClause(List.of("!emerge_l_" + d + lj + t, "#bm" + ljo + t, "!#bs" + ljo + t));
-					f.addClause(List.of("!emerge_l_" + d + lj + t, "#bm" + ljo + t, "#bl" + ljo + t));
+					f.addClause(-emerge_l.at(j, t), bm.at(jo, t), -bs.at(jo, t));
+					f.addClause(-emerge_l.at(j, t), bm.at(jo, t), bl.at(jo, t));
 
-					f.addClause(List.of("!emerge_l_" + d + lj + t, "!#bm" + ljo + t, "!#bs" + ljo + t));
-					f.addClause(List.of("!emerge_l_" + d + lj + t, "!#bm" + ljo + t, "#s" + lj + t));
+					f.addClause(-emerge_l.at(j, t), -bm.at(jo, t), -bs.at(jo, t));
+					f.addClause(-emerge_l.at(j, t), -bm.at(jo, t), snow.at(j, t));
 				}
 
 				// Axioms
 
-				if (jo != null && l.contains(jo)) {
+				if (jo != -1 && l.contains(jo)) {
 
-					f.addClause(List.of("!#bs" + lj + t, "#bs" + lj + t1, "!" + d + t, "#c" + ljo + t1));
+					f.addClause(-bs.at(j, t), bs.at(j, t1), -action.at(t), c.at(jo, t1));
 
-					f.addClause(List.of("!#bm" + lj + t, "#bm" + lj + t1, "!" + d + t, "#c" + ljo + t1));
-					f.addClause(List.of("!#bm" + lj + t, "#bm" + lj + t1, "!" + d + t, "!#bs" + lj + t));
+					f.addClause(-bm.at(j, t), bm.at(j, t1), -action.at(t), c.at(jo, t1));
+					f.addClause(-bm.at(j, t), bm.at(j, t1), -action.at(t), -bs.at(j, t));
 
-					f.addClause(List.of("!#bl" + lj + t, "#bl" + lj + t1, "!" + d + t, "#c" + ljo + t1));
-					f.addClause(List.of("!#bl" + lj + t, "#bl" + lj + t1, "!" + d + t, "!#bs" + lj + t));
-					f.addClause(List.of("!#bl" + lj + t, "#bl" + lj + t1, "!" + d + t, "!#bm" + lj + t));
+					f.addClause(-bl.at(j, t), bl.at(j, t1), -action.at(t), c.at(jo, t1));
+					f.addClause(-bl.at(j, t), bl.at(j, t1), -action.at(t), -bs.at(j, t));
+					f.addClause(-bl.at(j, t), bl.at(j, t1), -action.at(t), -bm.at(j, t));
 
-					if (joo != null && l.contains(joo)) {
+					if (joo != -1 && l.contains(joo)) {
 
-						f.addClause(List.of("#bs" + lj + t, "!#bs" + lj + t1, "!" + d + t, "#c" + ljoo + t1));
-						f.addClause(List.of("#bs" + lj + t, "!#bs" + lj + t1, "!" + d + t, "#bs" + ljo + t));
+						f.addClause(bs.at(j, t), -bs.at(j, t1), -action.at(t), c.at(joo, t1));
+						f.addClause(bs.at(j, t), -bs.at(j, t1), -action.at(t), bs.at(jo, t));
 
-						f.addClause(List.of("#bm" + lj + t, "!#bm" + lj + t1, "!" + d + t, "#c" + ljoo + t1));
-						f.addClause(List.of("#bm" + lj + t, "!#bm" + lj + t1, "!" + d + t, "emerge_m_" + d + lj + t));
+						f.addClause(bm.at(j, t), -bm.at(j, t1), -action.at(t), c.at(joo, t1));
+						f.addClause(bm.at(j, t), -bm.at(j, t1), -action.at(t), emerge_m.at(j, t));
 
-						f.addClause(List.of("#bl" + lj + t, "!#bl" + lj + t1, "!" + d + t, "#c" + ljoo + t1));
-						f.addClause(List.of("#bl" + lj + t, "!#bl" + lj + t1, "!" + d + t, "emerge_l_" + d + lj + t));
+						f.addClause(bl.at(j, t), -bl.at(j, t1), -action.at(t), c.at(joo, t1));
+						f.addClause(bl.at(j, t), -bl.at(j, t1), -action.at(t), emerge_l.at(j, t));
 
 					}
 					else {
 
-						f.addClause(List.of("#bs" + lj + t, "!#bs" + lj + t1, "!" + d + t));
-						f.addClause(List.of("#bm" + lj + t, "!#bm" + lj + t1, "!" + d + t));
-						f.addClause(List.of("#bl" + lj + t, "!#bl" + lj + t1, "!" + d + t));
+						f.addClause(bs.at(j, t), -bs.at(j, t1), -action.at(t));
+						f.addClause(bm.at(j, t), -bm.at(j, t1), -action.at(t));
+						f.addClause(bl.at(j, t), -bl.at(j, t1), -action.at(t));
 
 					}
 				}
 				else {
 
-					f.addClause(List.of("!#bs" + lj + t, "#bs" + lj + t1, "!" + d + t));
-					f.addClause(List.of("!#bm" + lj + t, "#bm" + lj + t1, "!" + d + t));
-					f.addClause(List.of("!#bl" + lj + t, "#bl" + lj + t1, "!" + d + t));
-					f.addClause(List.of("#bs" + lj + t, "!#bs" + lj + t1, "!" + d + t));
-					f.addClause(List.of("#bm" + lj + t, "!#bm" + lj + t1, "!" + d + t));
-					f.addClause(List.of("#bl" + lj + t, "!#bl" + lj + t1, "!" + d + t));
+					f.addClause(-bs.at(j, t), bs.at(j, t1), -action.at(t));
+					f.addClause(-bm.at(j, t), bm.at(j, t1), -action.at(t));
+					f.addClause(-bl.at(j, t), bl.at(j, t1), -action.at(t));
+					f.addClause(bs.at(j, t), -bs.at(j, t1), -action.at(t));
+					f.addClause(bm.at(j, t), -bm.at(j, t1), -action.at(t));
+					f.addClause(bl.at(j, t), -bl.at(j, t1), -action.at(t));
 
 				}
 			}
 		}
 	}
 
-	private static void invariants(int nSteps, int nSnowman, List<Integer> l, DIMACSFormula f) {
+	private static void invariants(int first, int nSteps, int nSnowman, List<Integer> l, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family bs = v.locations("#bs"), bm = v.locations("#bm"), bl = v.locations("#bl");
+		VariableRegistry.Family suma_bs = v.block("suma_bs"), suma_bm = v.block("suma_bm"), suma_bl = v.block("suma_bl");
 		// #small balls >= #snowman
 		// #large balls <= #snowman
-		for (int i = 1; i < nSteps; ++i) { // The invariant is useless in the start and end states
-			for (List<String> c : seq_at_most(nSnowman, "#bl", l, i))
+		for (int i = Math.max(first, 1); i < nSteps; ++i) { // The invariant is useless in the start and end states
+			for (int[] c : Cardinality.atMost(nSnowman, bl, l, i, suma_bl))
 				f.addClause(c);
-			for (List<String> c : seq_at_most(nSnowman * 2, "#bm", l, i)) // Redundant
+			for (int[] c : Cardinality.atMost(nSnowman * 2, bm, l, i, suma_bm)) // Redundant
 				f.addClause(c);
-			for (List<String> c : seq_at_least(nSnowman, "#bs", l, i))
+			for (int[] c : Cardinality.atLeast(nSnowman, bs, l, i, suma_bs))
 				f.addClause(c);
 		}
 	}
 
-    private static void goal(int nSteps, Set<Integer> validLocations, DIMACSFormula f) {
+    private static void goal(int nSteps, LocationSet validLocations, int guard, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		int[] g = guard == 0 ? new int[0] : new int[] {-guard};
+		VariableRegistry.Family bs = v.locations("#bs"), bm = v.locations("#bm"), bl = v.locations("#bl");
 		for (Integer loc : validLocations) {
-			f.addClause(List.of("!#bs_" + loc + "_" + nSteps, "#bm_" + loc + "_" + nSteps));
-			f.addClause(List.of("#bs_" + loc + "_" + nSteps, "!#bm_" + loc + "_" + nSteps));
+			f.addClause(concat(g, -bs.at(loc, nSteps), bm.at(loc, nSteps)));
+			f.addClause(concat(g, bs.at(loc, nSteps), -bm.at(loc, nSteps)));
 
-			f.addClause(List.of("!#bm_" + loc + "_" + nSteps, "#bl_" + loc + "_" + nSteps));
-			f.addClause(List.of("#bm_" + loc + "_" + nSteps, "!#bl_" + loc + "_" + nSteps));
+			f.addClause(concat(g, -bm.at(loc, nSteps), bl.at(loc, nSteps)));
+			f.addClause(concat(g, bm.at(loc, nSteps), -bl.at(loc, nSteps)));
 		}
     }
     
-    private static void translate(InputStream in, PrintStream out, int nSteps) throws Exception {
-		DIMACSFormula f = new DIMACSFormula();
+    /// @returns An encoder of the instance available in \p in, for any number of time steps
+    public static Encoder encoder(InputStream in) throws Exception {
+		return encoder(in, null);
+    }
+
+    /// @returns An encoder of the instance available in \p in, for any number of time steps, with encoding
+    ///          \p amo of the at-most-one constraints over the locations (if null, pairwise for
+    ///          the character)
+    public static Encoder encoder(InputStream in, Cardinality.AtMostOne amo) throws Exception {
 		char[][] grid = readGrid(in);
 		int nRows = grid.length;
 		int nCols = grid[0].length;
 		int nLocs = nRows * nCols;
-		Set<Integer> l = new TreeSet<>(); // Set of valid locations
+		LocationSet l = new LocationSet(nLocs); // Set of valid locations
 
 		int loc = 1;
 		for (int i = 0; i < nRows; i++) {
@@ -706,61 +515,78 @@ public class snowman2sat_reachability_counting_cnf_invariants {
 			}
 		}
 
-		Map<String,Integer> next = computeNextRelation(nRows, nCols); // Key = d + l where  d  is a direction ('n', 's', 'e', 'w') and  l  is the number of the location; Value is the number of the location next to  l  in the direction  d
-		Map<String,Integer> next2 = computeNext2Relation(next); // Next to the next (in the same direction)
-		Set<Integer> ln = new TreeSet<>(); // Set of valid positions with a wall in the north
-		Set<Integer> lnn = new TreeSet<>(); // Set of valid positions with a wall two steps ahead in the north
-		Set<Integer> ls = new TreeSet<>(); // Set of valid positions with a wall in the south
-		Set<Integer> lss = new TreeSet<>(); // Set of valid positions with a wall two steps ahead in the south
-		Set<Integer> le = new TreeSet<>(); // Set of valid positions with a wall in the east
-		Set<Integer> lee = new TreeSet<>(); // Set of valid positions with a wall two steps ahead in the east
-		Set<Integer> lw = new TreeSet<>(); // Set of valid positions with a wall in the west
-		Set<Integer> lww = new TreeSet<>(); // Set of valid positions with a wall two steps ahead in the west
-
-		computeSetsNext2Wall(l, ln, lnn, "n", next, next2, grid);
-		computeSetsNext2Wall(l, ls, lss, "s", next, next2, grid);
-		computeSetsNext2Wall(l, le, lee, "e", next, next2, grid);
-		computeSetsNext2Wall(l, lw, lww, "w", next, next2, grid);
-
-		Pair<Integer,String> p  = initialState(grid);
-		int nSnowman = p.first;
+		Geometry geo = new Geometry(grid, l);
+		int[][] next = geo.next(); // next[d][l] is the number of the location next to  l  in the direction  d  (Geometry.N, S, E, W), or -1
+		int[][] next2 = geo.next2(); // Next to the next (in the same direction)
+		boolean[] ln = geo.wall(Geometry.N); // Valid positions with a wall in the north
+		boolean[] lnn = geo.wall2(Geometry.N); // Valid positions with a wall two steps ahead in the north
+		boolean[] ls = geo.wall(Geometry.S); // Valid positions with a wall in the south
+		boolean[] lss = geo.wall2(Geometry.S); // Valid positions with a wall two steps ahead in the south
+		boolean[] le = geo.wall(Geometry.E); // Valid positions with a wall in the east
+		boolean[] lee = geo.wall2(Geometry.E); // Valid positions with a wall two steps ahead in the east
+		boolean[] lw = geo.wall(Geometry.W); // Valid positions with a wall in the west
+		boolean[] lww = geo.wall2(Geometry.W); // Valid positions with a wall two steps ahead in the west
+
+		int nSnowman = initialState(grid);
 		int nBall = nSnowman * 3;
 
-		// Initial state to CNF
-		String ini[] = p.second.split(" & ");
-		for (String s : ini)
-			f.addClause(List.of(s));
-
-		// Exactly one action per time step
-		exactlyOneAction(nSteps, f);
-
-		// Reachability constraints
-		Map<Integer,List<Integer>> validNeighbours = computeValidNeighbours(l, next);
-		reachabilityConstraints(out, nSteps, l, validNeighbours, f);
-
-		// Auxiliary variables
-		auxiliaryVariables(nSteps, l, f);
-
-		// Action transitions
-		actionTransitions(nSteps, nSnowman, l, ln, lnn, "n", next, next2, f);
-		actionTransitions(nSteps, nSnowman, l, ls, lss, "s", next, next2, f);
-		actionTransitions(nSteps, nSnowman, l, le, lee, "e", next, next2, f);
-		actionTransitions(nSteps, nSnowman, l, lw, lww, "w", next, next2, f);
-
-		// Frame axioms
-		frameAxioms(nSteps, l, f);
-		frameAxioms(nSteps, l, "n", next, next2, f);
-		frameAxioms(nSteps, l, "s", next, next2, f);
-		frameAxioms(nSteps, l, "e", next, next2, f);
-		frameAxioms(nSteps, l, "w", next, next2, f);
-
-		// Invariants
-		invariants(nSteps, nSnowman, new ArrayList<>(l), f);
-
-		// Goal
-		goal(nSteps, l, f);
-
-		f.print(out);
+		// Variables
+		VariableRegistry v = new VariableRegistry(nLocs, l);
+		v.declareLocations("#c", "#s", "#bs", "#bm", "#bl", "p", "ball", "ball_m_l", "grow_s", "grow_m");
+		for (String d : List.of("n", "s", "e", "w")) {
+			v.declareLocations("push_" + d, "push_s_" + d, "push_m_" + d);
+			v.declareLocations("roll_" + d, "roll_ball_" + d, "roll_s_" + d, "roll_m_" + d, "roll_l_" + d);
+			v.declareLocations("pop_" + d, "pop_ball_" + d, "pop_s_" + d, "pop_m_" + d, "emerge_m_" + d, "emerge_l_" + d);
+		}
+		v.declareSteps("n", "s", "e", "w");
+		// Auxiliary variables of the cardinality constraints in the invariants
+		Cardinality.declare(v, "suma_bl", l.size(), nSnowman, false);
+		Cardinality.declare(v, "suma_bm", l.size(), nSnowman * 2, false);
+		Cardinality.declare(v, "suma_bs", l.size(), nSnowman, true);
+		Cardinality.AtMostOne amoC = amo == null ? Cardinality.AtMostOne.PAIRWISE : amo; // Character at most in one location
+		Cardinality.declare(v, "amo_c", amoC, l.size());
+		if (amo != null)
+			System.err.print(Cardinality.statistics(amo, l.size()));
+
+		SnowmanReach reach = new SnowmanReach(grid, l, geo, v, false, false); // Locations out of reach
+
+		// Clauses of the initial state (if first == 0), of time steps first .. nSteps - 1,
+		// and of the goal at time nSteps (guarded by  guard  if not 0), with the balls
+		// out of reach at each time step, and the moves of them, fixed to false (see SnowmanReach)
+		return new Encoder(v, (f, first, nSteps, guard) -> {
+			// Initial state to CNF
+			if (first == 0)
+				initialStateClauses(grid, f);
+
+			// Exactly one action per time step
+			exactlyOneAction(first, nSteps, f);
+
+			// Reachability constraints
+			List<List<Integer>> validNeighbours = geo.validNeighbours();
+			reachabilityConstraints(first, nSteps, l, validNeighbours, f);
+
+			// Auxiliary variables
+			auxiliaryVariables(first, nSteps, l, f);
+
+			// Action transitions
+			actionTransitions(first, nSteps, nSnowman, l, ln, lnn, "n", next, next2, f);
+			actionTransitions(first, nSteps, nSnowman, l, ls, lss, "s", next, next2, f);
+			actionTransitions(first, nSteps, nSnowman, l, le, lee, "e", next, next2, f);
+			actionTransitions(first, nSteps, nSnowman, l, lw, lww, "w", next, next2, f);
+
+			// Frame axioms
+			frameAxioms(first, nSteps, l, amoC, f);
+			frameAxioms(first, nSteps, l, "n", next, next2, f);
+			frameAxioms(first, nSteps, l, "s", next, next2, f);
+			frameAxioms(first, nSteps, l, "e", next, next2, f);
+			frameAxioms(first, nSteps, l, "w", next, next2, f);
+
+			// Invariants
+			invariants(first, nSteps, nSnowman, new ArrayList<>(l), f);
+
+			// Goal
+			goal(nSteps, l, guard, f);
+		}, reach, StackingBound.of(grid, l, geo, false)); // Least number of time steps
     }
 
 }
@@ -3,25 +3,28 @@
  * @author Miquel Bofill
  * @version 1.4
  * @date 2023-04-08
- * @brief Translation of "A good snowman is hard to build" instance to CNF, with reachability (without move actions) ensuring acyclicity by counting neighbours in path, parallel version, with ball invariants using sequential counters
+ * @brief Translation of "A good snowman is hard to build" instance to CNF, with reachability (without move actions) ensuring acyclicity by counting neighbours in path, parallel version, with ball invariants using cardinality constraints
 */
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
-import java.util.Map;
-import java.util.TreeMap;
 import java.util.Set;
-import java.util.TreeSet;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.BufferedReader;
-import java.io.PrintStream;
 
 public class snowman2sat_reachability_counting_cnf_parallel_invariants {
 
     /// @pre Program has been called with argument <tt> n </tt> where n >= 0 is the
-    ///      number of time steps of the desired plan
+    ///      number of time steps of the desired plan, optionally followed by <tt> -stream </tt>
+    ///      to write clauses to a temporary file as they are generated (see DIMACSFormula),
+    ///      <tt> -nocomments </tt> to omit the comment lines naming the atoms,
+    ///      <tt> -map file </tt> to write the variable map to  file  instead (see VariableRegistry),
+    ///      <tt> -icnf m </tt> to output an iCNF for n .. m time steps instead (see Encoder),
+    ///      and <tt> -sym </tt> to break the symmetries among the copies of the reachability of the
+    ///      ball actions (see Symmetry)
     ///
     ///      A problem instance is available in the standard input with the format:
     ///
@@ -58,15 +61,45 @@ public class snowman2sat_reachability_counting_cnf_parallel_invariants {
     ///       State variables are prefixed by #
     public static void main(String[] args) throws Exception {
 		int nSteps = 0;
+		boolean stream = false;
+		boolean comments = true;
+		String map = null;
+		int last = -1;
+		Cardinality.AtMostOne amo = null;
+		boolean symmetry = false;
 		try {
 			nSteps = Integer.parseInt(args[0]);
 			assert nSteps >= 0;
+			for (int i = 1; i < args.length; ++i)
+				if (args[i].equals("-stream"))
+					stream = true;
+				else if (args[i].equals("-nocomments"))
+					comments = false;
+				else if (args[i].equals("-map") && i + 1 < args.length) {
+					map = args[++i];
+					comments = false;
+				}
+				else if (args[i].equals("-icnf") && i + 1 < args.length) {
+					last = Integer.parseInt(args[++i]);
+					if (last < nSteps)
+						throw new IllegalArgumentException(args[i]);
+				}
+				else if (args[i].equals("-amo") && i + 1 < args.length)
+					amo = Cardinality.AtMostOne.valueOf(args[++i].toUpperCase());
+				else if (args[i].equals("-sym"))
+					symmetry = true;
+				else
+					throw new IllegalArgumentException(args[i]);
 		}
 		catch (Exception e) {
-			System.err.println("The program needs an integer n >= 0 as argument denoting the number of steps of the desired plan.");
+			System.err.println("The program needs an integer n >= 0 as argument denoting the number of steps of the desired plan (options: -stream, -nocomments, -map file, -icnf m, -amo pairwise|ladder|commander|product|bimander, -sym).");
 			System.exit(0);
 		}
-		translate(System.in, System.out, nSteps);
+		Encoder e = encoder(System.in, amo, symmetry);
+		if (last >= 0)
+			e.encodeIncremental(nSteps, last, System.out, stream, map);
+		else
+			e.encode(nSteps, System.out, stream, comments, map);
     }
 
     /// @post Reads the description of the initial state and returns it
@@ -88,16 +121,15 @@ public class snowman2sat_reachability_counting_cnf_parallel_invariants {
 		return grid;
     }
 
-    // Returns <number of snowmans, assertions for the initial state>
+    // Returns number of snowmans
     // Replaces 'x' by '#' in the grid
-    private static Pair<Integer,String> initialState(char[][] grid) throws Exception {
+    private static int initialState(char[][] grid) throws Exception {
 		int nRows = grid.length;
 		int nCols = grid[0].length;
 		int nChar = 0; // Number of characters (players)
 		int nBall = 0; // Number of balls
 		int nSmall = 0; // Number of small balls
 		int nLarge = 0; // Number of large balls
-		String s = ""; // = "\n;; Initial state\n";
 		for (int i = 0; i < nRows; ++i) {
 			for (int j = 0; j < nCols; ++j) {
 				int loc = i * nCols + j + 1;
@@ -109,89 +141,34 @@ public class snowman2sat_reachability_counting_cnf_parallel_invariants {
 					break;
 				case 'p':
 					nChar++;
-					s += "#c_" + loc + "_0 & ";
-					s += "#snow_" + loc + "_0 & ";
-					s += "!#bs_" + loc + "_0 & ";
-					s += "!#bm_" + loc + "_0 & ";
-					s += "!#bl_" + loc + "_0 & ";
 					break;
 				case 'q':
 					nChar++;
-					s += "#c_" + loc + "_0 & ";
-					s += "!#snow_" + loc + "_0 & ";
-					s += "!#bs_" + loc + "_0 & ";
-					s += "!#bm_" + loc + "_0 & ";
-					s += "!#bl_" + loc + "_0 & ";
 					break;
 				case '1':
 					nBall++; nSmall++;
-					s += "!#c_" + loc + "_0 & ";
-					s += "!#snow_" + loc + "_0 & ";
-					s += "#bs_" + loc + "_0 & ";
-					s += "!#bm_" + loc + "_0 & ";
-					s += "!#bl_" + loc + "_0 & ";
 					break;
 				case '2':
 					nBall++;
-					s += "!#c_" + loc + "_0 & ";
-					s += "!#snow_" + loc + "_0 & ";
-					s += "!#bs_" + loc + "_0 & ";
-					s += "#bm_" + loc + "_0 & ";
-					s += "!#bl_" + loc + "_0 & ";
 					break;
 				case '3':
 					nBall += 2; nSmall++;
-					s += "!#c_" + loc + "_0 & ";
-					s += "!#snow_" + loc + "_0 & ";
-					s += "#bs_" + loc + "_0 & ";
-					s += "#bm_" + loc + "_0 & ";
-					s += "!#bl_" + loc + "_0 & ";
 					break;
 				case '4':
 					nBall++; nLarge++;
-					s += "!#c_" + loc + "_0 & ";
-					s += "!#snow_" + loc + "_0 & ";
-					s += "!#bs_" + loc + "_0 & ";
-					s += "!#bm_" + loc + "_0 & ";
-					s += "#bl_" + loc + "_0 & ";
 					break;
 				case '5':
 					nBall += 2; nSmall++; nLarge++;
-					s += "!#c_" + loc + "_0 & ";
-					s += "!#snow_" + loc + "_0 & ";
-					s += "#bs_" + loc + "_0 & ";
-					s += "!#bm_" + loc + "_0 & ";
-					s += "#bl_" + loc + "_0 & ";
 					break;
 				case '6':
 					nBall += 2; nLarge++;
-					s += "!#c_" + loc + "_0 & ";
-					s += "!#snow_" + loc + "_0 & ";
-					s += "!#bs_" + loc + "_0 & ";
-					s += "#bm_" + loc + "_0 & ";
-					s += "#bl_" + loc + "_0 & ";
 					break;
 				case '7':
 					nBall += 3; nSmall++; nLarge++;
-					s += "!#c_" + loc + "_0 & ";
-					s += "!#snow_" + loc + "_0 & ";
-					s += "#bs_" + loc + "_0 & ";
-					s += "#bm_" + loc + "_0 & ";
-					s += "#bl_" + loc + "_0 & ";
 					break;
 				case '\'':
-					s += "!#c_" + loc + "_0 & ";
-					s += "!#snow_" + loc + "_0 & ";
-					s += "!#bs_" + loc + "_0 & ";
-					s += "!#bm_" + loc + "_0 & ";
-					s += "!#bl_" + loc + "_0 & ";
 					break;
 				case '.':
-					s += "!#c_" + loc + "_0 & ";
-					s += "#snow_" + loc + "_0 & ";
-					s += "!#bs_" + loc + "_0 & ";
-					s += "!#bm_" + loc + "_0 & ";
-					s += "!#bl_" + loc + "_0 & ";
 					break;
 				default:
 					throw new Exception("Symbol '" + grid[i][j] + "' invalid in grid");
@@ -213,267 +190,100 @@ public class snowman2sat_reachability_counting_cnf_parallel_invariants {
 		if (nLarge > nSnowman)
 			throw new Exception("Trivially unsatisfiable (" + nLarge + " are too many large balls)");
 	
-		return new Pair<Integer,String>(nSnowman, s);
-    }
-
-    // Key = d + l where  d  is a direction ('n', 's', 'e', 'w') and  l  is the number of the location; Value is the number of the location next to  l  in the direction  d
-    private static Map<String,Integer> computeNextRelation(int nRows, int nCols) {
-		TreeMap<String,Integer> m = new TreeMap<>();
-		int loc = 1;
-		for (int i = 0; i < nRows; ++i) {
-			for (int j = 1; j <= nCols; ++j, ++loc) {
-				if (loc > nCols) // Not first row
-					m.put("n" + loc, loc - nCols);
-				if (loc <= nCols * (nRows - 1)) // Not last row
-					m.put("s" + loc, loc + nCols);
-				if (loc % nCols != 1) // Not first column
-					m.put("w" + loc, loc - 1);
-				if (loc % nCols != 0) // Not last column
-					m.put("e" + loc, loc + 1);
-			}
-		}
-		return m;
+		return nSnowman;
     }
 
-    // Next to the next (in the same direction)
-    private static Map<String,Integer> computeNext2Relation(Map<String,Integer> next) {
-		TreeMap<String,Integer> m = new TreeMap<>();
-		for (Map.Entry<String,Integer> e : next.entrySet()) {
-			String k = e.getKey();
-			Integer j = next.get(k.substring(0,1) + e.getValue());
-			if (j != null)
-				m.put(k, j);
-		}
-		return m;
-    }
-
-    private static void	computeSetsNext2Wall(Set<Integer> l, Set<Integer> ln, Set<Integer> lnn, String d, Map<String,Integer> next, Map<String,Integer> next2, char[][] grid) {
+    // Assertions for the initial state
+    // c for character, snow for snow, bs/bm/bl for small/medium/large balls
+    // @pre 'x' has already been replaced by '#' in the grid
+    private static void initialStateClauses(char[][] grid, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family c = v.locations("#c"), snow = v.locations("#snow");
+		VariableRegistry.Family bs = v.locations("#bs"), bm = v.locations("#bm"), bl = v.locations("#bl");
 		int nCols = grid[0].length;
-		for(Integer i : l)
-			if (grid[(i - 1) / nCols][(i - 1) % nCols] != '#') {
-				Integer j = next.get(d + i);
-				Integer k = next2.get(d + i);
-				if (j != null && grid[(j - 1) / nCols][(j - 1) % nCols] == '#')
-					ln.add(i);
-				if (k != null && grid[(k - 1) / nCols][(k - 1) % nCols] == '#')
-					lnn.add(i);
+		for (int i = 0; i < grid.length; ++i) {
+			for (int j = 0; j < nCols; ++j) {
+				int loc = i * nCols + j + 1;
+				char x = grid[i][j];
+				if (x != '#') {
+					f.addClause((x == 'p' || x == 'q') ? c.at(loc, 0) : -c.at(loc, 0));
+					f.addClause((x == 'p' || x == '.') ? snow.at(loc, 0) : -snow.at(loc, 0));
+					f.addClause((x == '1' || x == '3' || x == '5' || x == '7') ? bs.at(loc, 0) : -bs.at(loc, 0));
+					f.addClause((x == '2' || x == '3' || x == '6' || x == '7') ? bm.at(loc, 0) : -bm.at(loc, 0));
+					f.addClause((x >= '4' && x <= '7') ? bl.at(loc, 0) : -bl.at(loc, 0));
+				}
 			}
+		}
     }
 
-	private static String literal(String lit, Integer index, int time) {
-		return lit + "_" + index + "_" + time;
-	}
-
-	private static void atMostOneAction(int nSteps, Set<Integer> l, DIMACSFormula f) {
-		for (int i = 0; i < nSteps; ++i)
+	private static void atMostOneAction(int first, int nSteps, LocationSet l, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family n = v.locations("n"), s = v.locations("s"), e = v.locations("e"), w = v.locations("w");
+		for (int i = first; i < nSteps; ++i)
 			for (Integer loc: l) {
-				f.addClause(List.of(literal("!n", loc, i), literal("!s", loc, i)));
-				f.addClause(List.of(literal("!n", loc, i), literal("!e", loc, i)));
-				f.addClause(List.of(literal("!n", loc, i), literal("!w", loc, i)));
-				f.addClause(List.of(literal("!s", loc, i), literal("!e", loc, i)));
-				f.addClause(List.of(literal("!s", loc, i), literal("!w", loc, i)));
-				f.addClause(List.of(literal("!e", loc, i), literal("!w", loc, i)));
+				f.addClause(-n.at(loc, i), -s.at(loc, i));
+				f.addClause(-n.at(loc, i), -e.at(loc, i));
+				f.addClause(-n.at(loc, i), -w.at(loc, i));
+				f.addClause(-s.at(loc, i), -e.at(loc, i));
+				f.addClause(-s.at(loc, i), -w.at(loc, i));
+				f.addClause(-e.at(loc, i), -w.at(loc, i));
 			}
 	}
 
-	/// @pre \p antecedent denotes a disjunction of literals, \p consequent denotes a conjunction of literals
-	/// @returns corresponding CNF
-	private static List<List<String>> implication2cnf(List<String> antecedent, List<String> consequent) {
-		List<List<String>> cnf = new LinkedList<>();
-		for (String a : antecedent)
-			for (String c : consequent) {
-				List<String> clause = new LinkedList<>();
-				if (a.charAt(0) == '!')
-					clause.add(a);
-				else
-					clause.add("!" + a);
-				clause.add(c);
-				cnf.add(clause);
-			}
-		return cnf;
+	private static int[] concat(int[] a, int... b) {
+		int[] c = Arrays.copyOf(a, a.length + b.length);
+		System.arraycopy(b, 0, c, a.length, b.length);
+		return c;
 	}
 
-	private static void add2DIMACSFormula(List<List<String>> cnf, DIMACSFormula f) {
-		for (List<String> clause : cnf)
-			f.addClause(clause);
+	/// @pre \p antecedent denotes a disjunction of literals, \p consequent denotes a conjunction of literals
+	/// @post corresponding CNF belongs to \p f
+	private static void implication2cnf(int[] antecedent, int[] consequent, DIMACSFormula f) {
+		for (int a : antecedent)
+			for (int c : consequent)
+				f.addClause(-a, c);
 	}
 
 	// There is a ball at location  l  at time  t (or  t+1, if  next)
-    private static List<String> ball_now_or_next(Integer l, int t, boolean next, Set<Integer> validLocations, Map<String,Integer> next2) {
-		List<String> ls = new LinkedList<>();
-		ls.add("#bs_" + l + "_" + t);
-		ls.add("#bm_" + l + "_" + t);
-		ls.add("#bl_" + l + "_" + t);
+    private static int[] ball_now_or_next(Integer l, int t, boolean next, LocationSet validLocations, int[][] next2, VariableRegistry v) {
+		int[] ls = new int[7];
+		int k = 0;
+		ls[k++] = v.locations("#bs").at(l, t);
+		ls[k++] = v.locations("#bm").at(l, t);
+		ls[k++] = v.locations("#bl").at(l, t);
 		if (next) {
-			Integer lnn = next2.get("n" + l);
-			Integer lss = next2.get("s" + l);
-			Integer lee = next2.get("e" + l);
-			Integer lww = next2.get("w" + l);
-			if (lnn != null && validLocations.contains(lnn))
-				ls.add("s_" + lnn + "_" + t);
-			if (lss != null && validLocations.contains(lss))
-				ls.add("n_" + lss + "_" + t);
-			if (lee != null && validLocations.contains(lee))
-				ls.add("w_" + lee + "_" + t);
-			if (lww != null && validLocations.contains(lww))
-				ls.add("e_" + lww + "_" + t);
+			int lnn = next2[Geometry.N][l];
+			int lss = next2[Geometry.S][l];
+			int lee = next2[Geometry.E][l];
+			int lww = next2[Geometry.W][l];
+			if (lnn != -1 && validLocations.contains(lnn))
+				ls[k++] = v.locations("s").at(lnn, t);
+			if (lss != -1 && validLocations.contains(lss))
+				ls[k++] = v.locations("n").at(lss, t);
+			if (lee != -1 && validLocations.contains(lee))
+				ls[k++] = v.locations("w").at(lee, t);
+			if (lww != -1 && validLocations.contains(lww))
+				ls[k++] = v.locations("e").at(lww, t);
 		}
-		return ls;
+		return Arrays.copyOf(ls, k);
     }
 
-	private static Map<Integer,List<Integer>> computeValidNeighbours(Set<Integer> validLocations, Map<String,Integer> next) {
-		TreeMap<Integer,List<Integer>> r = new TreeMap<>();
-		for (Integer p : validLocations) {
-			ArrayList<Integer> validNeighbours = new ArrayList<>();
-			Integer n1 = next.get("n" + p);
-			Integer n2 = next.get("s" + p);
-			Integer n3 = next.get("e" + p);
-			Integer n4 = next.get("w" + p);
-			if (validLocations.contains(n1))
-				validNeighbours.add(n1);
-			if (validLocations.contains(n2))
-				validNeighbours.add(n2);
-			if (validLocations.contains(n3))
-				validNeighbours.add(n3);
-			if (validLocations.contains(n4))
-				validNeighbours.add(n4);
-			r.put(p,validNeighbours);
-		}
-		return r;
-	}
-
-	// @returns "At-Most-k(var_{i_1}^time, ..., var_{i_n}^time)" for i_1, ..., i_n in indexes (binomial encoding)
-	private static List<List<String>> binomial_at_most(int k, String var, List<Integer> indexes, Integer time) {
-		return binomial_at_most(k, var, indexes, time, false);
-	}
-
-	// @returns "At-Least-k(var_{i_1}^time, ..., var_{i_n}^time)" for i_1, ..., i_n in indexes
-	private static List<List<String>> binomial_at_least(int k, String var, List<Integer> indexes, Integer time) {
-		return binomial_at_most(indexes.size() - k, var, indexes, time, true);
-	}
-
-	// @returns "Exactly-k(var_{i_1}^time, ..., var_{i_n}^time)" for i_1, ..., i_n in indexes
-	private static List<List<String>> binomial_exactly(int k, String var, List<Integer> indexes, Integer time) {
-		List<List<String>> l = new LinkedList<>();
-		l.addAll(binomial_at_most(k, var, indexes, time));
-		l.addAll(binomial_at_least(k, var, indexes, time));
-		return l;
-	}
-
-	// @returns list of lists of literals
-	private static List<List<String>> binomial_at_most(int k, String var, List<Integer> indexes, Integer time, boolean negated) {
-		LinkedList<List<String>> r = new LinkedList<>();
-		String neg = (negated? "" : "!");
-		List<List<Integer>> ll = lists(k + 1, indexes);
-		for (List<Integer> l : ll) {
-			LinkedList<String> r1 = new LinkedList<>();
-			for (Integer i : l)
-				r1.add(literal(neg + var, i, time));
-			r.add(r1);
-		}
-		return r;
-	}
-
-    // @returns the list of subsets of  k  elements of  l
-	private static List<List<Integer>> lists(int k, List<Integer> l) {
-		List<List<Integer>> ll = new LinkedList<List<Integer>>();
-		if (k == 0)
-			ll.add(new LinkedList<>());
-		else if (l.size() >= k) {
-			List<Integer> lr = l.subList(1,l.size());
-			List<List<Integer>> lm = lists(k - 1, lr);
-			for (List<Integer> m : lm) {
-				LinkedList<Integer> lt = new LinkedList<>();
-				lt.add(l.get(0));
-				lt.addAll(m);
-				ll.add(lt);
-			}
-			ll.addAll(lists(k,lr));
-		}
-		return ll;
-	}
-
-	// @returns "At-Most-k(var_{i_1}^time, ..., var_{i_n}^time)" for i_1, ..., i_n in indexes
-	private static List<List<String>> seq_at_most(int k, String var, List<Integer> indexes, Integer time) {
-		return seq_at_most(k, var, indexes, time, false);
-	}
-
-	// @returns "At-Least-k(var_{i_1}^time, ..., var_{i_n}^time)" for i_1, ..., i_n in indexes
-	private static List<List<String>> seq_at_least(int k, String var, List<Integer> indexes, Integer time) {
-		return seq_at_most(indexes.size() - k, var, indexes, time, true);
-	}
-
-	// @returns "Exactly-k(var_{i_1}^time, ..., var_{i_n}^time)" for i_1, ..., i_n in indexes
-	private static List<List<String>> seq_exactly(int k, String var, List<Integer> indexes, Integer time) {
-		List<List<String>> l = new LinkedList<>();
-		l.addAll(seq_at_most(k, var, indexes, time));
-		l.addAll(seq_at_least(k, var, indexes, time));
-		return l;
-	}
-
-	// @pre 0 <= k < n, n > 0;
-	// @returns list of lists of literals (Sequential Counter Encoding by Sinz); aux is used for naming of auxiliary variables
-	private static List<List<String>> seq_at_most(int k, String var, List<Integer> indexes, Integer time, boolean negated) {
-		LinkedList<List<String>> r = new LinkedList<>();
-		String v = (negated? "" : "!") + var;
-		String suma = "suma_" + (++aux);
-		int n = indexes.size();
-
-		if (k == n - 1 && negated) {
-			// at-least-one
-			List<String> r1 = new LinkedList<>();
-			for (Integer i : indexes)
-				r1.add(literal(v, i, time));
-			r.add(r1);
-		}
-		else {
-			assert (k < n);
-			if (k > 0) {
-				r.add(List.of(literal(v, indexes.get(0), time), suma + "_1_1_" + time));
-
-				for (int j = 2; j <= k; ++j)
-					r.add(List.of("!" + suma + "_1_" + j + "_" + time));
-
-				for (int i = 2; i < n; ++i) {
-					r.add(List.of(literal(v, indexes.get(i - 1), time), suma + "_" + i + "_1_" + time));
-					r.add(List.of("!" + suma + "_" + (i - 1) + "_1_" + time, suma + "_" + i + "_1_" + time));
-
-					for (int j = 2; j <= k; ++j) {
-						r.add(List.of(literal(v, indexes.get(i - 1), time), "!" + suma + "_" + (i - 1) + "_" + (j - 1) + "_" + time, suma + "_" + i + "_" + j + "_" + time));
-						r.add(List.of("!" + suma + "_" + (i - 1) + "_" + j + "_" + time, suma + "_" + i + "_" + j + "_" + time));
-					}
-
-					r.add(List.of(literal(v, indexes.get(i - 1), time), "!" + suma + "_" + (i - 1) + "_" + k + "_" + time));
-				}
-
-				r.add(List.of(literal(v, indexes.get(n - 1), time), "!" + suma + "_" + (n - 1) + "_" + k + "_" + time));
-			}
-			else {
-				// k = 0 => at-least-n
-				for (Integer i : indexes)
-					r.add(List.of(literal(v, i, time)));
-			}
-		}
-
-		return r;
-	}
-
-	private static void ballVariables(boolean bis, int nSteps, Set<Integer> validLocations, Map<String,Integer> next2, DIMACSFormula f) {
+	private static void ballVariables(boolean bis, int first, int nSteps, LocationSet validLocations, int[][] next2, DIMACSFormula f) {
 
 		String suffix = bis? "bis" : "";
-		String ball = "ball" + suffix;
-		List<String> ls;
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family ball = v.locations("ball" + suffix);
+		int[] ls;
 
 		for (Integer l : validLocations) {
 
-			for (int t = 0; t < nSteps; ++t) {
+			for (int t = first; t < nSteps; ++t) {
 
 				// Definition of  ball  variable
-				ls = ball_now_or_next(l, t, bis, validLocations, next2);
-				String b = ball + "_" + l + "_" + t;
-				add2DIMACSFormula(implication2cnf(ls, List.of(b)), f);
-				ls.add("!" + b);
-				f.addClause(ls);
+				ls = ball_now_or_next(l, t, bis, validLocations, next2, v);
+				int b = ball.at(l, t);
+				implication2cnf(ls, new int[] {b}, f);
+				f.addClause(concat(ls, -b));
 			}
 		}
 	}
@@ -481,27 +291,29 @@ public class snowman2sat_reachability_counting_cnf_parallel_invariants {
 	// bis = reachability considering next ball positions as occupied as well
 	// target = prefix for the variable representing the target
 	// nPath = number of path
-	private static void reachabilityConstraints(boolean bis, int nSteps, String target, String nPath, Set<Integer> validLocations, Map<String,Integer> next2, Map<Integer, List<Integer>> validNeighbours, DIMACSFormula f) {
+	private static void reachabilityConstraints(boolean bis, int first, int nSteps, String target, String nPath, LocationSet validLocations, int[][] next2, List<List<Integer>> validNeighbours, Cardinality.AtMostOne amo, DIMACSFormula f) {
 
 		String suffix = bis? "bis" : "";
-		String ball = "ball" + suffix;
 		String path_suffix = nPath.isEmpty()? "" : "_" + nPath;
-		String path = "p" + suffix + path_suffix;
-		String target_n = target + path_suffix;
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family c = v.locations("#c"), ball = v.locations("ball" + suffix);
+		VariableRegistry.Family path = v.locations("p" + suffix + path_suffix);
+		VariableRegistry.Family target_n = v.locations(target + path_suffix);
+		VariableRegistry.Family suma = v.block("suma_" + target + path_suffix);
 
 	    // Exactly one target
-		for (int t = 0; t < nSteps; ++t)
-			for (List<String> clause : seq_exactly(1, target_n, new LinkedList<>(validLocations), t))
+		for (int t = first; t < nSteps; ++t)
+			for (int[] clause : Cardinality.exactlyOne(amo, target_n, validLocations, t, suma))
 				f.addClause(clause);
 
 		for (Integer l : validLocations) {
 
 			List<Integer> neighbours = validNeighbours.get(l);
 
-			for (int t = 0; t < nSteps; ++t) {
+			for (int t = first; t < nSteps; ++t) {
 
 				// Balls not in path
-				f.addClause(List.of(literal("!" + ball, l, t), literal("!" + path, l, t)));
+				f.addClause(-ball.at(l, t), -path.at(l, t));
 
 				// OLD
 				// Character always next to a ball: unnecessary, gets worse (already covered by actions)
@@ -511,40 +323,17 @@ public class snowman2sat_reachability_counting_cnf_parallel_invariants {
 				// out.print(") & ");
 
 		        // Path constraints
-				f.addClause(List.of(literal("!#c", l, t), literal(path, l, t)));
-				f.addClause(List.of(literal("!" + target_n, l, t), literal(path, l, t)));
-
-				List<String> antecedent1 = new LinkedList<>();
-				List<String> antecedent2 = new LinkedList<>();
-				List<String> clause = new LinkedList<>();
-				String l1 = literal("#c", l, t);
-				String l2 = literal(target_n, l, t);
-				antecedent1.add("!" + l1);
-				antecedent1.add(l2);
-				antecedent2.add(l1);
-				antecedent2.add("!" + l2);
-				for (List<String> succedent : binomial_exactly(1, path, neighbours, t)) {
-					clause.clear();
-					clause.addAll(antecedent1);
-					clause.addAll(succedent);
-					f.addClause(clause);
-					clause.clear();
-					clause.addAll(antecedent2);
-					clause.addAll(succedent);
-					f.addClause(clause);
-				}
+				f.addClause(-c.at(l, t), path.at(l, t));
+				f.addClause(-target_n.at(l, t), path.at(l, t));
+
+				int[] antecedent1 = {-c.at(l, t), target_n.at(l, t)};
+				int[] antecedent2 = {c.at(l, t), -target_n.at(l, t)};
+				Cardinality.exactly(1, path, neighbours, t, antecedent1, f);
+				Cardinality.exactly(1, path, neighbours, t, antecedent2, f);
 
-				antecedent1.clear();
-				antecedent1.add(literal("#c", l, t));
-				antecedent1.add(literal(target_n, l, t));
-				antecedent1.add(literal("!" + path, l, t));
+				antecedent1 = new int[] {c.at(l, t), target_n.at(l, t), -path.at(l, t)};
 				if (neighbours.size() >= 2) {
-					for (List<String> succedent : binomial_exactly(2, path, neighbours, t)) {
-						clause.clear();
-						clause.addAll(antecedent1);
-						clause.addAll(succedent);
-						f.addClause(clause);
-					}
+					Cardinality.exactly(2, path, neighbours, t, antecedent1, f);
 				}
 				else
 					f.addClause(antecedent1);
@@ -554,183 +343,180 @@ public class snowman2sat_reachability_counting_cnf_parallel_invariants {
 
     }
 
-	private static void auxiliaryVariables(int nSteps, Set<Integer> l, DIMACSFormula f) {
-		List<String> ls = new LinkedList<>();
-		for (int i = 0; i < nSteps; ++i) {
-			String t = "_" + i; String t1 = "_" + (i + 1);
+	private static void auxiliaryVariables(int first, int nSteps, LocationSet l, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family snow = v.locations("#snow"), bs = v.locations("#bs"), bm = v.locations("#bm"), bl = v.locations("#bl");
+		VariableRegistry.Family ball_m_l = v.locations("ball_m_l"), staym = v.locations("staym"), stayl = v.locations("stayl");
+		VariableRegistry.Family grow_s = v.locations("grow_s"), grow_m = v.locations("grow_m");
+		for (int i = first; i < nSteps; ++i) {
+			int t = i, t1 = i + 1;
 
 			for (Integer j : l) {
-				String lj = "_" + j;
 
-				ls.clear();
-				ls.add("#bm" + lj + t); ls.add("#bl" + lj + t);
-				add2DIMACSFormula(implication2cnf(ls, List.of("ball_m_l" + lj + t)), f); // Unnecessary but helping
-				ls.add("!ball_m_l" + lj + t);
-				f.addClause(ls);
+				implication2cnf(new int[] {bm.at(j, t), bl.at(j, t)}, new int[] {ball_m_l.at(j, t)}, f); // Unnecessary but helping
+				f.addClause(bm.at(j, t), bl.at(j, t), -ball_m_l.at(j, t));
 
-				String s = "#snow" + lj + t; String ns = "!" + s;
-				String bm = "#bm" + lj + t; String nbm = "!" + bm;
-				String bl = "#bl" + lj + t; String nbl = "!" + bl;
-				String bs1 = "#bs" + lj + t1; String nbs1 = "!" + bs1;
-				String bm1 = "#bm" + lj + t1; String nbm1 = "!" + bm1;
-				String bl1 = "#bl" + lj + t1; String nbl1 = "!" + bl1;
+				int s = snow.at(j, t);
+				int bm0 = bm.at(j, t), bl0 = bl.at(j, t);
+				int bs1 = bs.at(j, t1), bm1 = bm.at(j, t1), bl1 = bl.at(j, t1);
 
-				f.addClause(List.of("!staym" + lj + t, nbm, bm1));
-				f.addClause(List.of("!staym" + lj + t, nbm1, bm));
-				f.addClause(List.of("!stayl" + lj + t, nbl, bl1));
-				f.addClause(List.of("!stayl" + lj + t, nbl1, bl));
+				f.addClause(-staym.at(j, t), -bm0, bm1);
+				f.addClause(-staym.at(j, t), -bm1, bm0);
+				f.addClause(-stayl.at(j, t), -bl0, bl1);
+				f.addClause(-stayl.at(j, t), -bl1, bl0);
 
-				ls.clear();
-				ls.add("!grow_s" + lj + t); ls.add(s); ls.add(bs1);
-				f.addClause(ls);
-				ls.remove(ls.size() - 1); ls.add(nbm1);
-				f.addClause(ls);
-				ls.remove(ls.size() - 1); ls.add(nbl1);
-				f.addClause(ls);
+				int g = -grow_s.at(j, t);
+				f.addClause(g, s, bs1);
+				f.addClause(g, s, -bm1);
+				f.addClause(g, s, -bl1);
 
-				ls.remove(ls.size() - 1);
-				ls.remove(ls.size() - 1);
-				ls.add(ns); ls.add(nbs1);
-				f.addClause(ls);
-				ls.remove(ls.size() - 1); ls.add(bm1);
-				f.addClause(ls);
-				ls.remove(ls.size() - 1); ls.add(nbl1);
-				f.addClause(ls);
+				f.addClause(g, -s, -bs1);
+				f.addClause(g, -s, bm1);
+				f.addClause(g, -s, -bl1);
 
-				ls.clear();
-				ls.add("!grow_m" + lj + t); ls.add(s); ls.add(nbs1);
-				f.addClause(ls);
-				ls.remove(ls.size() - 1); ls.add(bm1);
-				f.addClause(ls);
-				ls.remove(ls.size() - 1); ls.add(nbl1);
-				f.addClause(ls);
+				g = -grow_m.at(j, t);
+				f.addClause(g, s, -bs1);
+				f.addClause(g, s, bm1);
+				f.addClause(g, s, -bl1);
 
-				ls.remove(ls.size() - 1);
-				ls.remove(ls.size() - 1);
-				ls.add(ns); ls.add(nbs1);
-				f.addClause(ls);
-				ls.remove(ls.size() - 1); ls.add(nbm1);
-				f.addClause(ls);
-				ls.remove(ls.size() - 1); ls.add(bl1);
-				f.addClause(ls);
+				f.addClause(g, -s, -bs1);
+				f.addClause(g, -s, -bm1);
+				f.addClause(g, -s, bl1);
 			}
 		}
 	}
 
- 	private static void actionTransitions(int nSteps, int nSnowman, Set<Integer> l, Set<Integer> lwall, Set<Integer> lwall2, String d, Map<String,Integer> next, Map<String,Integer> next2, DIMACSFormula f) {
+ 	private static void actionTransitions(int first, int nSteps, int nSnowman, LocationSet l, boolean[] lwall, boolean[] lwall2, String d, int[][] next, int[][] next2, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family snow = v.locations("#snow"), bs = v.locations("#bs");
+		VariableRegistry.Family bm = v.locations("#bm"), bl = v.locations("#bl");
+		VariableRegistry.Family jump = v.locations("jump"), jumpStep = v.steps("jump");
+		VariableRegistry.Family jump_pos = v.locations("jump_pos"), baction = v.locations("baction");
+		VariableRegistry.Family bactionStep = v.steps("baction"), ball = v.locations("ball");
+		VariableRegistry.Family ball_m_l = v.locations("ball_m_l"), staym = v.locations("staym");
+		VariableRegistry.Family stayl = v.locations("stayl"), grow_s = v.locations("grow_s");
+		VariableRegistry.Family grow_m = v.locations("grow_m"), action = v.locations(d);
+		int dir = Geometry.direction(d);
+		VariableRegistry.Family push = v.locations("push_" + d), push_ball = v.locations("push_ball_" + d);
+		VariableRegistry.Family push_s = v.locations("push_s_" + d), push_m = v.locations("push_m_" + d);
+		VariableRegistry.Family roll = v.locations("roll_" + d), roll_ball = v.locations("roll_ball_" + d);
+		VariableRegistry.Family roll_s = v.locations("roll_s_" + d), roll_m = v.locations("roll_m_" + d);
+		VariableRegistry.Family roll_l = v.locations("roll_l_" + d), pop = v.locations("pop_" + d);
+		VariableRegistry.Family pop_ball = v.locations("pop_ball_" + d), pop_s = v.locations("pop_s_" + d);
+		VariableRegistry.Family pop_m = v.locations("pop_m_" + d);
 
 		int nBall = nSnowman * 3;
+		VariableRegistry.Family[] baction_pos = new VariableRegistry.Family[nBall];
+		for (int n = 1; n <= nBall; ++n)
+			baction_pos[n - 1] = v.locations("baction_pos_" + n);
 
 		// No action allowed
-		for (Integer j : lwall) {
-			String s = "!" + d + "_" + j + "_";
-			for (int i = 0; i < nSteps; ++i)
-				f.addClause(List.of(s + i));
-		}
+		for (Integer j : l)
+			if (lwall[j])
+				for (int i = first; i < nSteps; ++i)
+					f.addClause(-action.at(j, i));
 
 		// No action allowed
-		for (Integer j : lwall2)
-			if (!lwall.contains(j)) {
-				String s = "!" + d + "_" + j + "_";
-				for (int i = 0; i < nSteps; ++i)
-					f.addClause(List.of(s + i));
-			}
+		for (Integer j : l)
+			if (lwall2[j] && !lwall[j])
+				for (int i = first; i < nSteps; ++i)
+					f.addClause(-action.at(j, i));
 
 		// Moving a ball -> not jumping
-		for (int i = 0; i < nSteps; ++i) {
-			String t = "_" + i;
-			f.addClause(List.of("!baction" + t, "!jump" + t));
-		}
+		for (int i = first; i < nSteps; ++i)
+			f.addClause(-bactionStep.at(i), -jumpStep.at(i));
 
 		for (Integer j : l) {
-			List<String> ls = new LinkedList<>();
-
-			for (int i = 0; i < nSteps; ++i) {
-				String s = j + "_" + i;
+			int[] ls = new int[nBall + 1];
 
+			for (int i = first; i < nSteps; ++i) {
 				// Actions require reachability
-				f.addClause(List.of("jump_pos_" + s, "!jump_" + s));
-				List<String> reachable = new LinkedList<String>();
+				f.addClause(jump_pos.at(j, i), -jump.at(j, i));
+				ls[0] = -baction.at(j, i);
 				for (int n = 1; n <= nBall; ++n)
-					reachable.add("baction_pos_" + String.valueOf(n) + "_" + s);
-				ls.clear();
-				ls.add("!baction_" + s);
-				ls.addAll(reachable);
+					ls[n] = baction_pos[n - 1].at(j, i);
 				f.addClause(ls);
 
-				f.addClause(List.of("!jump_" + s, "jump_" + i)); // Jumping somewhere
+				f.addClause(-jump.at(j, i), jumpStep.at(i)); // Jumping somewhere
 			}
 
 			// Rest of preconditions and effects of ball movement actions
-			if (!lwall.contains(j) && !lwall2.contains(j)) {
-				for (int i = 0; i < nSteps; ++i) {
-					String t = "_" + i;
-					String t1 = "_" + (i + 1);
-					String lj = "_" + j;
-					String ljn = "_" + next.get(d + j);
-					String ljnn = "_" + next2.get(d + j);
-
-					ls.clear();
-					ls.add("push_" + d + lj + t); ls.add("roll_" + d + lj + t); ls.add("pop_" + d + lj + t);
-					add2DIMACSFormula(implication2cnf(ls, List.of(d + lj + t)), f);
-					ls.add("!" + d + lj + t);
-					f.addClause(ls);
-
-					f.addClause(List.of("!" + d + lj + t, "baction" + lj + t)); // Moving a ball
-					f.addClause(List.of("!" + d + lj + t, "baction" + t));
+			if (!lwall[j] && !lwall2[j]) {
+				int jn = next[dir][j];
+				int jnn = next2[dir][j];
+				for (int i = first; i < nSteps; ++i) {
+					int t = i, t1 = i + 1;
+
+					int[] moves = {push.at(j, t), roll.at(j, t), pop.at(j, t)};
+					implication2cnf(moves, new int[] {action.at(j, t)}, f);
+					f.addClause(concat(moves, -action.at(j, t)));
+
+					f.addClause(-action.at(j, t), baction.at(j, t)); // Moving a ball
+					f.addClause(-action.at(j, t), bactionStep.at(t));
 
 					// Push
-					add2DIMACSFormula(implication2cnf(List.of("push_" + d + lj + t), List.of("!ball" + ljn + t1, "push_ball_" + d + lj + t)), f);
-					f.addClause(List.of("!push_ball_" + d + lj + t, "push_s_" + d + lj + t, "push_m_" + d + lj + t));
-					add2DIMACSFormula(implication2cnf(List.of("push_s_" + d + lj + t), List.of("#bs" + ljn + t, "!#bm" + ljn + t, "!#bl" + ljn + t, "!#bs" + ljnn + t, "ball_m_l" + ljnn + t, "#bs" + ljnn + t1, "staym" + ljnn + t, "stayl" + ljnn + t)), f);
-					add2DIMACSFormula(implication2cnf(List.of("push_m_" + d + lj + t), List.of("!#bs" + ljn + t, "#bm" + ljn + t, "!#bl" + ljn + t, "!#bs" + ljnn + t, "!#bm" + ljnn + t, "#bl" + ljnn + t, "!#bs" + ljnn + t1, "#bm" + ljnn + t1, "#bl" + ljnn + t1)), f);
+					implication2cnf(new int[] {push.at(j, t)}, new int[] {-ball.at(jn, t1), push_ball.at(j, t)}, f);
+					f.addClause(-push_ball.at(j, t), push_s.at(j, t), push_m.at(j, t));
+					implication2cnf(new int[] {push_s.at(j, t)}, new int[] {bs.at(jn, t), -bm.at(jn, t), -bl.at(jn, t), -bs.at(jnn, t), ball_m_l.at(jnn, t), bs.at(jnn, t1), staym.at(jnn, t), stayl.at(jnn, t)}, f);
+					implication2cnf(new int[] {push_m.at(j, t)}, new int[] {-bs.at(jn, t), bm.at(jn, t), -bl.at(jn, t), -bs.at(jnn, t), -bm.at(jnn, t), bl.at(jnn, t), -bs.at(jnn, t1), bm.at(jnn, t1), bl.at(jnn, t1)}, f);
 
 					// Roll
-					add2DIMACSFormula(implication2cnf(List.of("roll_" + d + lj + t), List.of("!ball" + ljn + t1, "!ball" + ljnn + t, "!#snow" + ljnn + t1, "roll_ball_" + d + lj + t)), f);
-					f.addClause(List.of("!roll_ball_" + d + lj + t, "roll_s_" + d + lj + t, "roll_m_" + d + lj + t, "roll_l_" + d + lj + t));
-					add2DIMACSFormula(implication2cnf(List.of("roll_s_" + d + lj + t), List.of("#bs" + ljn + t, "!#bm" + ljn + t, "!#bl" + ljn + t, "grow_s" + ljnn + t)), f);
-					add2DIMACSFormula(implication2cnf(List.of("roll_m_" + d + lj + t), List.of("!#bs" + ljn + t, "#bm" + ljn + t, "!#bl" + ljn + t, "grow_m" + ljnn + t)), f);
-					add2DIMACSFormula(implication2cnf(List.of("roll_l_" + d + lj + t), List.of("!#bs" + ljn + t, "!#bm" + ljn + t, "#bl" + ljn + t, "!#bs" + ljnn + t1, "!#bm" + ljnn + t1, "#bl" + ljnn + t1)), f);
+					implication2cnf(new int[] {roll.at(j, t)}, new int[] {-ball.at(jn, t1), -ball.at(jnn, t), -snow.at(jnn, t1), roll_ball.at(j, t)}, f);
+					f.addClause(-roll_ball.at(j, t), roll_s.at(j, t), roll_m.at(j, t), roll_l.at(j, t));
+					implication2cnf(new int[] {roll_s.at(j, t)}, new int[] {bs.at(jn, t), -bm.at(jn, t), -bl.at(jn, t), grow_s.at(jnn, t)}, f);
+					implication2cnf(new int[] {roll_m.at(j, t)}, new int[] {-bs.at(jn, t), bm.at(jn, t), -bl.at(jn, t), grow_m.at(jnn, t)}, f);
+					implication2cnf(new int[] {roll_l.at(j, t)}, new int[] {-bs.at(jn, t), -bm.at(jn, t), bl.at(jn, t), -bs.at(jnn, t1), -bm.at(jnn, t1), bl.at(jnn, t1)}, f);
 
 					// Pop
-					add2DIMACSFormula(implication2cnf(List.of("pop_" + d + lj + t), List.of("!ball" + ljnn + t, "!#snow" + ljnn + t1, "pop_ball_" + d + lj + t)), f);
-					f.addClause(List.of("!pop_ball_" + d + lj + t, "pop_s_" + d + lj + t, "pop_m_" + d + lj + t));
-					add2DIMACSFormula(implication2cnf(List.of("pop_s_" + d + lj + t), List.of("#bs" + ljn + t, "ball_m_l" + ljn + t, "staym" + ljn + t, "stayl" + ljn + t, "!#bs" + ljn + t1, "grow_s" + ljnn + t)), f);
-					add2DIMACSFormula(implication2cnf(List.of("pop_m_" + d + lj + t), List.of("!#bs" + ljn + t, "#bm" + ljn + t, "#bl" + ljn + t, "!#bs" + ljn + t1, "!#bm" + ljn + t1, "#bl" + ljn + t1, "grow_m" + ljnn + t)), f);
+					implication2cnf(new int[] {pop.at(j, t)}, new int[] {-ball.at(jnn, t), -snow.at(jnn, t1), pop_ball.at(j, t)}, f);
+					f.addClause(-pop_ball.at(j, t), pop_s.at(j, t), pop_m.at(j, t));
+					implication2cnf(new int[] {pop_s.at(j, t)}, new int[] {bs.at(jn, t), ball_m_l.at(jn, t), staym.at(jn, t), stayl.at(jn, t), -bs.at(jn, t1), grow_s.at(jnn, t)}, f);
+					implication2cnf(new int[] {pop_m.at(j, t)}, new int[] {-bs.at(jn, t), bm.at(jn, t), bl.at(jn, t), -bs.at(jn, t1), -bm.at(jn, t1), bl.at(jn, t1), grow_m.at(jnn, t)}, f);
 				}
 			}
 		}
 
 	}
 
-	private static void uselessJumps(int nSteps, Set<Integer> l,
-									 Set<Integer> ln, Set<Integer> lnn,
-									 Set<Integer> ls, Set<Integer> lss,
-									 Set<Integer> le, Set<Integer> lee,
-									 Set<Integer> lw, Set<Integer> lww,
-									 Map<String,Integer> next,
-									 Map<String,Integer> next2,
-									 Map<Integer, List<Integer>> validNeighbours,
+	// The copies of the reachability of the ball actions are interchangeable
+	private static void symmetryBreaking(int first, int nSteps, int nBall, LocationSet l, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family[] baction_pos = new VariableRegistry.Family[nBall];
+		for (int n = 1; n <= nBall; ++n)
+			baction_pos[n - 1] = v.locations("baction_pos_" + n);
+		for (int t = first; t < nSteps; ++t)
+			Symmetry.nonDecreasing(baction_pos, l, t, "baction_pos_le", f);
+	}
+
+	private static void uselessJumps(int first, int nSteps, LocationSet l,
+									 boolean[] ln, boolean[] lnn,
+									 boolean[] ls, boolean[] lss,
+									 boolean[] le, boolean[] lee,
+									 boolean[] lw, boolean[] lww,
+									 int[][] next,
+									 int[][] next2,
+									 List<List<Integer>> validNeighbours,
 									 DIMACSFormula f) {
 
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family jump = v.locations("jump");
+
 		for (Integer j : l) {
-			for (int i = 0; i < nSteps; ++i) {
-				String t = "_" + i;
-				if ((ln.contains(j) || lnn.contains(j)) &&
-					(ls.contains(j) || lss.contains(j)) &&
-					(le.contains(j) || lee.contains(j)) &&
-					(lw.contains(j) || lww.contains(j)))
-					f.addClause(List.of("!jump_" + j + t));
+			for (int i = first; i < nSteps; ++i) {
+				if ((ln[j] || lnn[j]) &&
+					(ls[j] || lss[j]) &&
+					(le[j] || lee[j]) &&
+					(lw[j] || lww[j]))
+					f.addClause(-jump.at(j, i));
 				else {
 					// Other useless jumps due to ball locations can be identified. Incomplete list:
 
 					// Location is no next to a ball
 					List<Integer> vn = validNeighbours.get(j); // There is at least one valid neighbour location
-					List<String> lits = new LinkedList<>();
+					int[] lits = new int[0];
 					for (Integer k : vn)
-						lits.addAll(ball_now_or_next(k, i, false, l, next2));
-					lits.add("!jump_" + j + t);
-					f.addClause(lits);
+						lits = concat(lits, ball_now_or_next(k, i, false, l, next2, v));
+					f.addClause(concat(lits, -jump.at(j, i)));
 
 				}
 			}
@@ -738,79 +524,66 @@ public class snowman2sat_reachability_counting_cnf_parallel_invariants {
 
 	}
 
-	private static List<String> surroundingActions(Integer loc, Set<Integer> l, Map<String,Integer> next, int t) {
-		Integer north = next.get("n" + loc);
-		Integer south = next.get("s" + loc);
-		Integer east = next.get("e" + loc);
-		Integer west = next.get("w" + loc);
-		List<String> lits = new LinkedList<>();
-		if (north != null && l.contains(north)) lits.add("s_" + north + "_" + t);
-		if (south != null && l.contains(south)) lits.add("n_" + south + "_" + t);
-		if (east != null && l.contains(east)) lits.add("w_" + east + "_" + t);
-		if (west != null && l.contains(west)) lits.add("e_" + west + "_" + t);
-		return lits;
+	private static int[] surroundingActions(Integer loc, LocationSet l, int[][] next, int t, VariableRegistry v) {
+		int north = next[Geometry.N][loc];
+		int south = next[Geometry.S][loc];
+		int east = next[Geometry.E][loc];
+		int west = next[Geometry.W][loc];
+		int[] lits = new int[4];
+		int k = 0;
+		if (north != -1 && l.contains(north)) lits[k++] = v.locations("s").at(north, t);
+		if (south != -1 && l.contains(south)) lits[k++] = v.locations("n").at(south, t);
+		if (east != -1 && l.contains(east)) lits[k++] = v.locations("w").at(east, t);
+		if (west != -1 && l.contains(west)) lits[k++] = v.locations("e").at(west, t);
+		return Arrays.copyOf(lits, k);
 	}
 
-    private static void frameAxioms(int nSteps, Set<Integer> l,  Map<String,Integer> next, Map<String,Integer> next2, int nBall, DIMACSFormula f) {
-		LinkedList<String> ls = new LinkedList<>();
-		for (int i = 0; i < nSteps; ++i) {
-			String t = "_" + i; String t1 = "_" + (i + 1);
+    private static void frameAxioms(int first, int nSteps, LocationSet l,  int[][] next, int[][] next2, int nBall, Cardinality.AtMostOne amo, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family aux = v.block("amo_c");
+		VariableRegistry.Family c = v.locations("#c"), snow = v.locations("#snow");
+		VariableRegistry.Family bs = v.locations("#bs"), bm = v.locations("#bm"), bl = v.locations("#bl");
+		VariableRegistry.Family jump = v.locations("jump");
+		for (int i = first; i < nSteps; ++i) {
+			int t = i, t1 = i + 1;
 
 			for (Integer j : l) {
 				// Snow axioms
-				f.addClause(List.of("#snow_" + j + t, "!#snow_" + j + t1));
-				f.addClause(List.of("!#snow_" + j + t, "#snow_" + j + t1, "#bs_" + j + t1, "#bm_" + j + t1, "#bl_" + j + t1));
+				f.addClause(snow.at(j, t), -snow.at(j, t1));
+				f.addClause(-snow.at(j, t), snow.at(j, t1), bs.at(j, t1), bm.at(j, t1), bl.at(j, t1));
 
 				// Changes in balls require action
-				List<String> s1 = surroundingActions(j, l, next, i);
-				List<String> s2 = surroundingActions(j, l, next2, i);
-				ls.clear();
-				ls.add("!#bs_" + j + t); ls.add("#bs_" + j + t1); ls.addAll(s1);
-				f.addClause(ls);
-				ls.clear();
-				ls.add("!#bm_" + j + t); ls.add("#bm_" + j + t1); ls.addAll(s1);
-				f.addClause(ls);
-				ls.clear();
-				ls.add("!#bl_" + j + t); ls.add("#bl_" + j + t1); ls.addAll(s1);
-				f.addClause(ls);
-				if (!s2.isEmpty()) { // There exists some valid position at distance 2
-					ls.clear();
-					ls.add("#bs_" + j + t); ls.add("!#bs_" + j + t1); ls.addAll(s2);
-					f.addClause(ls);
-					ls.clear();
-					ls.add("#bm_" + j + t); ls.add("!#bm_" + j + t1); ls.addAll(s2);
-					f.addClause(ls);
-					ls.clear();
-					ls.add("#bl_" + j + t); ls.add("!#bl_" + j + t1); ls.addAll(s2);
-					f.addClause(ls);
+				int[] s1 = surroundingActions(j, l, next, i, v);
+				int[] s2 = surroundingActions(j, l, next2, i, v);
+				f.addClause(concat(new int[] {-bs.at(j, t), bs.at(j, t1)}, s1));
+				f.addClause(concat(new int[] {-bm.at(j, t), bm.at(j, t1)}, s1));
+				f.addClause(concat(new int[] {-bl.at(j, t), bl.at(j, t1)}, s1));
+				if (s2.length != 0) { // There exists some valid position at distance 2
+					f.addClause(concat(new int[] {bs.at(j, t), -bs.at(j, t1)}, s2));
+					f.addClause(concat(new int[] {bm.at(j, t), -bm.at(j, t1)}, s2));
+					f.addClause(concat(new int[] {bl.at(j, t), -bl.at(j, t1)}, s2));
 				}
 				else { // No ball can appear
-					f.addClause(List.of("#bs_" + j + t, "!#bs_" + j + t1));
-					f.addClause(List.of("#bm_" + j + t, "!#bm_" + j + t1));
-					f.addClause(List.of("#bl_" + j + t, "!#bl_" + j + t1));
+					f.addClause(bs.at(j, t), -bs.at(j, t1));
+					f.addClause(bm.at(j, t), -bm.at(j, t1));
+					f.addClause(bl.at(j, t), -bl.at(j, t1));
 				}
 
 				// At most one ball can appear in a location at a time
-				f.addClause(List.of("#bs_" + j + t, "!#bs_" + j + t1, "#bm_" + j + t, "!#bm_" + j + t1));
-				f.addClause(List.of("#bs_" + j + t, "!#bs_" + j + t1, "#bl_" + j + t, "!#bl_" + j + t1));
-				f.addClause(List.of("#bm_" + j + t, "!#bm_" + j + t1, "#bl_" + j + t, "!#bl_" + j + t1));
+				f.addClause(bs.at(j, t), -bs.at(j, t1), bm.at(j, t), -bm.at(j, t1));
+				f.addClause(bs.at(j, t), -bs.at(j, t1), bl.at(j, t), -bl.at(j, t1));
+				f.addClause(bm.at(j, t), -bm.at(j, t1), bl.at(j, t), -bl.at(j, t1));
 
 			}
 		}
 
-		for (int i = 1; i <= nSteps; ++i) {
-			String t = "_" + i;
-			String t0 = "_" + (i - 1);
-
+		for (int i = first + 1; i <= nSteps; ++i) {
 			// Character at most in one location
-			ls.clear();
+			for (int[] clause : Cardinality.atMostOne(amo, c, l, i, aux))
+				f.addClause(clause);
 			for (int j : l) {
-				ls.add("#c_" + j + t);
-				for (int k : l)
-					if (j < k)
-						f.addClause(List.of("!#c_" + j + t, "!#c_" + k + t));
 				// Character only moves when jumping
-				f.addClause(List.of("!#c_" + j + t, "jump_" + j + t0, "#c_" + j + t0));
+				f.addClause(-c.at(j, i), jump.at(j, i - 1), c.at(j, i - 1));
 			}
 
 			// Character at least in one location
@@ -819,96 +592,114 @@ public class snowman2sat_reachability_counting_cnf_parallel_invariants {
 
     }
 
-	private static void mutexes(Integer l, String n, String s, List<Integer> ln, int t, DIMACSFormula f) {
+   	private static void mutexes(Integer l, VariableRegistry.Family n, VariableRegistry.Family s, List<Integer> ln, int t, DIMACSFormula f) {
 		for (Integer p : ln)
-			f.addClause(List.of(literal("!" + n, l, t),  literal("!" + s, p, t)));
-	}
+			f.addClause(-n.at(l, t), -s.at(p, t));
+   	}
 
-	private static void incompatibilities(int nSteps, Set<Integer> validLocations, String n, String s, String e, String w, Map<String,Integer> next, Map<String,Integer> next2, DIMACSFormula f) {
+	private static void incompatibilities(int first, int nSteps, LocationSet validLocations, String n, String s, String e, String w, int[][] next, int[][] next2, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family an = v.locations(n), as = v.locations(s), ae = v.locations(e), aw = v.locations(w);
+		int dn = Geometry.direction(n), de = Geometry.direction(e), dw = Geometry.direction(w);
 		for (Integer l : validLocations) {
 			List<Integer> ln = new LinkedList<>();
 			List<Integer> le = new LinkedList<>();
 			List<Integer> lw = new LinkedList<>();
-			Integer lball = next.get(n+l);
-			if (lball != null && validLocations.contains(lball)) {
-				Integer lnn = next.get(n+lball);
-				if (lnn != null && validLocations.contains(lnn)) {
-					String n_lnn = n + lnn;
-					String e_lnn = e + lnn;
-					String w_lnn = w + lnn;
-					String e_lball = e + lball;
-					String w_lball = w + lball;
-					Integer next_n_lnn = next.get(n_lnn);
-					Integer next_e_lnn = next.get(e_lnn);
-					Integer next_w_lnn = next.get(w_lnn);
-					Integer next2_n_lnn = next2.get(n_lnn);
-					Integer next2_e_lnn = next2.get(e_lnn);
-					Integer next2_w_lnn = next2.get(w_lnn);
-					Integer next_e_lball = next.get(e_lball);
-					Integer next_w_lball = next.get(w_lball);
-					Integer next2_e_lball = next2.get(e_lball);
-					Integer next2_w_lball = next2.get(w_lball);
+			int lball = next[dn][l];
+			if (lball != -1 && validLocations.contains(lball)) {
+				int lnn = next[dn][lball];
+				if (lnn != -1 && validLocations.contains(lnn)) {
+					int next_n_lnn = next[dn][lnn];
+					int next_e_lnn = next[de][lnn];
+					int next_w_lnn = next[dw][lnn];
+					int next2_n_lnn = next2[dn][lnn];
+					int next2_e_lnn = next2[de][lnn];
+					int next2_w_lnn = next2[dw][lnn];
+					int next_e_lball = next[de][lball];
+					int next_w_lball = next[dw][lball];
+					int next2_e_lball = next2[de][lball];
+					int next2_w_lball = next2[dw][lball];
 					ln.add(lnn);
-					if (next_n_lnn != null && validLocations.contains(next_n_lnn))
+					if (next_n_lnn != -1 && validLocations.contains(next_n_lnn))
 						ln.add(next_n_lnn);
-					if (next2_n_lnn != null && validLocations.contains(next2_n_lnn))
+					if (next2_n_lnn != -1 && validLocations.contains(next2_n_lnn))
 						ln.add(next2_n_lnn);
-					if (next_w_lball != null && validLocations.contains(next_w_lball))
+					if (next_w_lball != -1 && validLocations.contains(next_w_lball))
 						lw.add(next_w_lball);
-					if (next2_w_lball != null && validLocations.contains(next2_w_lball))
+					if (next2_w_lball != -1 && validLocations.contains(next2_w_lball))
 						lw.add(next2_w_lball);
-					if (next_w_lnn != null && validLocations.contains(next_w_lnn))
+					if (next_w_lnn != -1 && validLocations.contains(next_w_lnn))
 						lw.add(next_w_lnn);
-					if (next2_w_lnn != null && validLocations.contains(next2_w_lnn))
+					if (next2_w_lnn != -1 && validLocations.contains(next2_w_lnn))
 						lw.add(next2_w_lnn);
-					if (next_e_lball != null && validLocations.contains(next_e_lball))
+					if (next_e_lball != -1 && validLocations.contains(next_e_lball))
 						le.add(next_e_lball);
-					if (next2_e_lball != null && validLocations.contains(next2_e_lball))
+					if (next2_e_lball != -1 && validLocations.contains(next2_e_lball))
 						le.add(next2_e_lball);
-					if (next_e_lnn != null && validLocations.contains(next_e_lnn))
+					if (next_e_lnn != -1 && validLocations.contains(next_e_lnn))
 						le.add(next_e_lnn);
-					if (next2_e_lnn != null && validLocations.contains(next2_e_lnn))
+					if (next2_e_lnn != -1 && validLocations.contains(next2_e_lnn))
 						le.add(next2_e_lnn);
-					for (int i = 0; i < nSteps; ++i) {
-						mutexes(l, n, s, ln, i, f);
-						mutexes(l, n, e, lw, i, f);
-						mutexes(l, n, w, le, i, f);
+					for (int i = first; i < nSteps; ++i) {
+						mutexes(l, an, as, ln, i, f);
+						mutexes(l, an, ae, lw, i, f);
+						mutexes(l, an, aw, le, i, f);
 					}
 				} // otherwise action not possible
 			} // otherwise action not possible
 		}
 	}
 
-	private static void invariants(int nSteps, int nSnowman, List<Integer> l, DIMACSFormula f) {
+	private static void invariants(int first, int nSteps, int nSnowman, List<Integer> l, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family bs = v.locations("#bs"), bm = v.locations("#bm"), bl = v.locations("#bl");
+		VariableRegistry.Family suma_bs = v.block("suma_bs"), suma_bm = v.block("suma_bm"), suma_bl = v.block("suma_bl");
 		// #small balls >= #snowman
 		// #large balls <= #snowman
-		for (int i = 1; i < nSteps; ++i) { // The invariant is useless in the start and end states
-			for (List<String> c : seq_at_most(nSnowman, "#bl", l, i))
+		for (int i = Math.max(first, 1); i < nSteps; ++i) { // The invariant is useless in the start and end states
+			for (int[] c : Cardinality.atMost(nSnowman, bl, l, i, suma_bl))
 				f.addClause(c);
-			for (List<String> c : seq_at_most(nSnowman * 2, "#bm", l, i)) // Redundant
+			for (int[] c : Cardinality.atMost(nSnowman * 2, bm, l, i, suma_bm)) // Redundant
 				f.addClause(c);
-			for (List<String> c : seq_at_least(nSnowman, "#bs", l, i))
+			for (int[] c : Cardinality.atLeast(nSnowman, bs, l, i, suma_bs))
 				f.addClause(c);
 		}
 	}
 
-    private static void goal(int nSteps, Set<Integer> validLocations, DIMACSFormula f) {
+    private static void goal(int nSteps, LocationSet validLocations, int guard, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		int[] g = guard == 0 ? new int[0] : new int[] {-guard};
+		VariableRegistry.Family bs = v.locations("#bs"), bm = v.locations("#bm"), bl = v.locations("#bl");
 		for (Integer loc : validLocations) {
-			f.addClause(List.of("!#bs_" + loc + "_" + nSteps, "#bm_" + loc + "_" + nSteps));
-			f.addClause(List.of("#bs_" + loc + "_" + nSteps, "!#bm_" + loc + "_" + nSteps));
+			f.addClause(concat(g, -bs.at(loc, nSteps), bm.at(loc, nSteps)));
+			f.addClause(concat(g, bs.at(loc, nSteps), -bm.at(loc, nSteps)));
 
-			f.addClause(List.of("!#bm_" + loc + "_" + nSteps, "#bl_" + loc + "_" + nSteps));
-			f.addClause(List.of("#bm_" + loc + "_" + nSteps, "!#bl_" + loc + "_" + nSteps));
+			f.addClause(concat(g, -bm.at(loc, nSteps), bl.at(loc, nSteps)));
+			f.addClause(concat(g, bm.at(loc, nSteps), -bl.at(loc, nSteps)));
 		}
     }
     
-    private static void translate(InputStream in, PrintStream out, int nSteps) throws Exception {
-		DIMACSFormula f = new DIMACSFormula();
+    /// @returns An encoder of the instance available in \p in, for any number of time steps
+    public static Encoder encoder(InputStream in) throws Exception {
+		return encoder(in, null);
+    }
+
+    /// @returns An encoder of the instance available in \p in, for any number of time steps, with encoding
+    ///          \p amo of the at-most-one constraints over the locations (if null, pairwise for
+    ///          the character, and the chosen cardinality encoding for the targets)
+    public static Encoder encoder(InputStream in, Cardinality.AtMostOne amo) throws Exception {
+		return encoder(in, amo, false);
+    }
+
+    /// @returns An encoder of the instance available in \p in, for any number of time steps, with encoding
+    ///          \p amo of the at-most-one constraints (see above), and, if \p symmetry, the targets of the
+    ///          copies of the reachability of the ball actions in non-decreasing order (see Symmetry)
+    public static Encoder encoder(InputStream in, Cardinality.AtMostOne amo, boolean symmetry) throws Exception {
 		char[][] grid = readGrid(in);
 		int nRows = grid.length;
 		int nCols = grid[0].length;
 		int nLocs = nRows * nCols;
-		Set<Integer> l = new TreeSet<>(); // Set of valid locations
+		LocationSet l = new LocationSet(nLocs); // Set of valid locations
 
 		int loc = 1;
 		for (int i = 0; i < nRows; i++) {
@@ -918,72 +709,99 @@ public class snowman2sat_reachability_counting_cnf_parallel_invariants {
 			}
 		}
 
-		Map<String,Integer> next = computeNextRelation(nRows, nCols); // Key = d + l where  d  is a direction ('n', 's', 'e', 'w') and  l  is the number of the location; Value is the number of the location next to  l  in the direction  d
-		Map<String,Integer> next2 = computeNext2Relation(next); // Next to the next (in the same direction)
-		Set<Integer> ln = new TreeSet<>(); // Set of valid positions with a wall in the north
-		Set<Integer> lnn = new TreeSet<>(); // Set of valid positions with a wall two steps ahead in the north
-		Set<Integer> ls = new TreeSet<>(); // Set of valid positions with a wall in the south
-		Set<Integer> lss = new TreeSet<>(); // Set of valid positions with a wall two steps ahead in the south
-		Set<Integer> le = new TreeSet<>(); // Set of valid positions with a wall in the east
-		Set<Integer> lee = new TreeSet<>(); // Set of valid positions with a wall two steps ahead in the east
-		Set<Integer> lw = new TreeSet<>(); // Set of valid positions with a wall in the west
-		Set<Integer> lww = new TreeSet<>(); // Set of valid positions with a wall two steps ahead in the west
-
-		computeSetsNext2Wall(l, ln, lnn, "n", next, next2, grid);
-		computeSetsNext2Wall(l, ls, lss, "s", next, next2, grid);
-		computeSetsNext2Wall(l, le, lee, "e", next, next2, grid);
-		computeSetsNext2Wall(l, lw, lww, "w", next, next2, grid);
-
-		Pair<Integer,String> p  = initialState(grid);
-		int nSnowman = p.first;
+		Geometry geo = new Geometry(grid, l);
+		int[][] next = geo.next(); // next[d][l] is the number of the location next to  l  in the direction  d  (Geometry.N, S, E, W), or -1
+		int[][] next2 = geo.next2(); // Next to the next (in the same direction)
+		boolean[] ln = geo.wall(Geometry.N); // Valid positions with a wall in the north
+		boolean[] lnn = geo.wall2(Geometry.N); // Valid positions with a wall two steps ahead in the north
+		boolean[] ls = geo.wall(Geometry.S); // Valid positions with a wall in the south
+		boolean[] lss = geo.wall2(Geometry.S); // Valid positions with a wall two steps ahead in the south
+		boolean[] le = geo.wall(Geometry.E); // Valid positions with a wall in the east
+		boolean[] lee = geo.wall2(Geometry.E); // Valid positions with a wall two steps ahead in the east
+		boolean[] lw = geo.wall(Geometry.W); // Valid positions with a wall in the west
+		boolean[] lww = geo.wall2(Geometry.W); // Valid positions with a wall two steps ahead in the west
+
+		int nSnowman = initialState(grid);
 		int nBall = nSnowman * 3;
 
-		// Initial state to CNF
-		String ini[] = p.second.split(" & ");
-		for (String s : ini)
-			f.addClause(List.of(s));
-
-		// At most one action per location
-		//		atMostOneAction(nSteps, l, f);
-
-		// Incompatibilities
-		incompatibilities(nSteps, l, "n", "s", "e", "w", next, next2, f);
-		incompatibilities(nSteps, l, "s", "n", "e", "w", next, next2, f);
-		incompatibilities(nSteps, l, "e", "w", "n", "s", next, next2, f);
-		incompatibilities(nSteps, l, "w", "e", "n", "s", next, next2, f);
-
-		// Ball variables
-		ballVariables(false, nSteps, l, next2, f);
-		ballVariables(true, nSteps, l, next2, f);
-
-		// Reachability constraints
-		Map<Integer,List<Integer>> validNeighbours = computeValidNeighbours(l, next);
-		reachabilityConstraints(false, nSteps, "jump_pos", "", l, next2, validNeighbours, f);
-		for (int n = 1; n <= nBall; ++n)
-			reachabilityConstraints(true, nSteps, "baction_pos", String.valueOf(n), l, next2, validNeighbours, f);
-
-		// Auxiliary variables
-		auxiliaryVariables(nSteps, l, f);
-
-		// Action transitions
-		actionTransitions(nSteps, nSnowman, l, ln, lnn, "n", next, next2, f);
-		actionTransitions(nSteps, nSnowman, l, ls, lss, "s", next, next2, f);
-		actionTransitions(nSteps, nSnowman, l, le, lee, "e", next, next2, f);
-		actionTransitions(nSteps, nSnowman, l, lw, lww, "w", next, next2, f);
-
-		// Useless jumps
-		uselessJumps(nSteps, l, ln, lnn, ls, lss, le, lee, lw, lww, next, next2, validNeighbours, f);
-
-		// Frame axioms
-		frameAxioms(nSteps, l, next, next2, nBall, f);
-
-		// Invariants
-		invariants(nSteps, nSnowman, new ArrayList<>(l), f);
-
-		// Goal
-		goal(nSteps, l, f);
-
-		f.print(out);
+		// Variables
+		VariableRegistry v = new VariableRegistry(nLocs, l);
+		v.declareLocations("#c", "#snow", "#bs", "#bm", "#bl", "ball", "ballbis", "ball_m_l", "staym", "stayl", "grow_s", "grow_m");
+		v.declareLocations("jump", "jump_pos", "p", "baction", "n", "s", "e", "w");
+		for (String d : List.of("n", "s", "e", "w")) {
+			v.declareLocations("push_" + d, "push_ball_" + d, "push_s_" + d, "push_m_" + d);
+			v.declareLocations("roll_" + d, "roll_ball_" + d, "roll_s_" + d, "roll_m_" + d, "roll_l_" + d);
+			v.declareLocations("pop_" + d, "pop_ball_" + d, "pop_s_" + d, "pop_m_" + d);
+		}
+		Cardinality.declare(v, "suma_jump_pos", amo, l.size());
+		for (int n = 1; n <= nBall; ++n) {
+			v.declareLocations("baction_pos_" + n, "pbis_" + n);
+			Cardinality.declare(v, "suma_baction_pos_" + n, amo, l.size());
+		}
+		if (symmetry)
+			Symmetry.declare(v, "baction_pos_le", nBall);
+		v.declareSteps("jump", "baction");
+		// Auxiliary variables of the cardinality constraints in the invariants
+		Cardinality.declare(v, "suma_bl", l.size(), nSnowman, false);
+		Cardinality.declare(v, "suma_bm", l.size(), nSnowman * 2, false);
+		Cardinality.declare(v, "suma_bs", l.size(), nSnowman, true);
+		Cardinality.AtMostOne amoC = amo == null ? Cardinality.AtMostOne.PAIRWISE : amo; // Character at most in one location
+		Cardinality.declare(v, "amo_c", amoC, l.size());
+		if (amo != null)
+			System.err.print(Cardinality.statistics(amo, l.size()));
+
+		SnowmanReach reach = new SnowmanReach(grid, l, geo, v, false, true); // Locations out of reach
+
+		// Clauses of the initial state (if first == 0), of time steps first .. nSteps - 1,
+		// and of the goal at time nSteps (guarded by  guard  if not 0), with the balls
+		// out of reach at each time step, and the moves of them, fixed to false (see SnowmanReach)
+		return new Encoder(v, (f, first, nSteps, guard) -> {
+			// Initial state to CNF
+			if (first == 0)
+				initialStateClauses(grid, f);
+
+			// At most one action per location
+			//		atMostOneAction(first, nSteps, l, f);
+
+			// Incompatibilities
+			incompatibilities(first, nSteps, l, "n", "s", "e", "w", next, next2, f);
+			incompatibilities(first, nSteps, l, "s", "n", "e", "w", next, next2, f);
+			incompatibilities(first, nSteps, l, "e", "w", "n", "s", next, next2, f);
+			incompatibilities(first, nSteps, l, "w", "e", "n", "s", next, next2, f);
+
+			// Ball variables
+			ballVariables(false, first, nSteps, l, next2, f);
+			ballVariables(true, first, nSteps, l, next2, f);
+
+			// Reachability constraints
+			List<List<Integer>> validNeighbours = geo.validNeighbours();
+			reachabilityConstraints(false, first, nSteps, "jump_pos", "", l, next2, validNeighbours, amo, f);
+			for (int n = 1; n <= nBall; ++n)
+				reachabilityConstraints(true, first, nSteps, "baction_pos", String.valueOf(n), l, next2, validNeighbours, amo, f);
+			if (symmetry)
+				symmetryBreaking(first, nSteps, nBall, l, f);
+
+			// Auxiliary variables
+			auxiliaryVariables(first, nSteps, l, f);
+
+			// Action transitions
+			actionTransitions(first, nSteps, nSnowman, l, ln, lnn, "n", next, next2, f);
+			actionTransitions(first, nSteps, nSnowman, l, ls, lss, "s", next, next2, f);
+			actionTransitions(first, nSteps, nSnowman, l, le, lee, "e", next, next2, f);
+			actionTransitions(first, nSteps, nSnowman, l, lw, lww, "w", next, next2, f);
+
+			// Useless jumps
+			uselessJumps(first, nSteps, l, ln, lnn, ls, lss, le, lee, lw, lww, next, next2, validNeighbours, f);
+
+			// Frame axioms
+			frameAxioms(first, nSteps, l, next, next2, nBall, amoC, f);
+
+			// Invariants
+			invariants(first, nSteps, nSnowman, new ArrayList<>(l), f);
+
+			// Goal
+			goal(nSteps, l, guard, f);
+		}, reach, StackingBound.of(grid, l, geo, true)); // Least number of time steps
     }
 
 }
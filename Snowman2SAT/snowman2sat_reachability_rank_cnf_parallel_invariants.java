@@ -0,0 +1,759 @@
+/**
+ * @class snowman2sat_reachability_rank_cnf_parallel_invariants
+ * @author Miquel Bofill
+ * @version 1.0
+ * @date 2023-06-26
+ * @brief Translation of "A good snowman is hard to build" instance to CNF, with reachability (without move actions) ensuring acyclicity with binary ranks of the locations, parallel version, with ball invariants using cardinality constraints
+*/
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Set;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.BufferedReader;
+
+public class snowman2sat_reachability_rank_cnf_parallel_invariants {
+
+    /// @pre Program has been called with argument <tt> n </tt> where n >= 0 is the
+    ///      number of time steps of the desired plan, optionally followed by <tt> -stream </tt>
+    ///      to write clauses to a temporary file as they are generated (see DIMACSFormula),
+    ///      <tt> -nocomments </tt> to omit the comment lines naming the atoms,
+    ///      <tt> -map file </tt> to write the variable map to  file  instead (see VariableRegistry),
+    ///      and <tt> -icnf m </tt> to output an iCNF for n .. m time steps instead (see Encoder)
+    ///
+    ///      A problem instance is available in the standard input with the format:
+    ///
+    ///      xx#######
+    ///      ##..1...#
+    ///      #.##.##.#
+    ///      #...'2..#
+    ///      #..#.#..#
+    ///      #...1...#
+    ///      ##..q..##
+    ///      ######### 
+    ///
+    ///      where
+    ///
+    ///       x : out of grid
+    ///       # : wall
+    ///       p : character with snow on the floor
+    ///       q : character
+    ///       1 : small ball
+    ///       2 : medium ball
+    ///       3 : small ball on top of a medium ball
+    ///       4 : large ball
+    ///       5 : small ball on top of a large ball
+    ///       6 : medium ball on top of a large ball
+    ///       7 : small ball on top of a medium ball on top of a large ball
+    ///       ' : grass
+    ///       . : snow
+    ///
+    ///       The grid is assumed to be rectangular and closed
+
+    static int aux = 0; // For naming auxiliary variables
+    
+    /// @post Outputs a CNF for the problem instance described by the input
+    ///       State variables are prefixed by #
+    public static void main(String[] args) throws Exception {
+		int nSteps = 0;
+		boolean stream = false;
+		boolean comments = true;
+		String map = null;
+		int last = -1;
+		Cardinality.AtMostOne amo = null;
+		try {
+			nSteps = Integer.parseInt(args[0]);
+			assert nSteps >= 0;
+			for (int i = 1; i < args.length; ++i)
+				if (args[i].equals("-stream"))
+					stream = true;
+				else if (args[i].equals("-nocomments"))
+					comments = false;
+				else if (args[i].equals("-map") && i + 1 < args.length) {
+					map = args[++i];
+					comments = false;
+				}
+				else if (args[i].equals("-icnf") && i + 1 < args.length) {
+					last = Integer.parseInt(args[++i]);
+					if (last < nSteps)
+						throw new IllegalArgumentException(args[i]);
+				}
+				else if (args[i].equals("-amo") && i + 1 < args.length)
+					amo = Cardinality.AtMostOne.valueOf(args[++i].toUpperCase());
+				else
+					throw new IllegalArgumentException(args[i]);
+		}
+		catch (Exception e) {
+			System.err.println("The program needs an integer n >= 0 as argument denoting the number of steps of the desired plan (options: -stream, -nocomments, -map file, -icnf m, -amo pairwise|ladder|commander|product|bimander).");
+			System.exit(0);
+		}
+		Encoder e = encoder(System.in, amo);
+		if (last >= 0)
+			e.encodeIncremental(nSteps, last, System.out, stream, map);
+		else
+			e.encode(nSteps, System.out, stream, comments, map);
+    }
+
+    /// @post Reads the description of the initial state and returns it
+    private static char[][] readGrid(InputStream in) throws Exception {
+		BufferedReader buffer = new BufferedReader(new InputStreamReader(in));
+		LinkedList<String> l = new LinkedList<String>();
+		String line = buffer.readLine();
+		int nColumns = line.length();
+	    l.add(line);
+	    line = buffer.readLine();
+	    while (line != null && line.length() != 0) {
+			l.add(line);
+			line = buffer.readLine();
+	    }
+		char[][] grid = new char[l.size()][];
+		int i = 0;
+		for (String s : l)
+			grid[i++] = s.toCharArray();
+		return grid;
+    }
+
+    // Returns number of snowmans
+    // Replaces 'x' by '#' in the grid
+    private static int initialState(char[][] grid) throws Exception {
+		int nRows = grid.length;
+		int nCols = grid[0].length;
+		int nChar = 0; // Number of characters (players)
+		int nBall = 0; // Number of balls
+		int nSmall = 0; // Number of small balls
+		int nLarge = 0; // Number of large balls
+		for (int i = 0; i < nRows; ++i) {
+			for (int j = 0; j < nCols; ++j) {
+				int loc = i * nCols + j + 1;
+				switch (grid[i][j]) {
+				case 'x':
+					grid[i][j] = '#';
+					break;
+				case '#':
+					break;
+				case 'p':
+					nChar++;
+					break;
+				case 'q':
+					nChar++;
+					break;
+				case '1':
+					nBall++; nSmall++;
+					break;
+				case '2':
+					nBall++;
+					break;
+				case '3':
+					nBall += 2; nSmall++;
+					break;
+				case '4':
+					nBall++; nLarge++;
+					break;
+				case '5':
+					nBall += 2; nSmall++; nLarge++;
+					break;
+				case '6':
+					nBall += 2; nLarge++;
+					break;
+				case '7':
+					nBall += 3; nSmall++; nLarge++;
+					break;
+				case '\'':
+					break;
+				case '.':
+					break;
+				default:
+					throw new Exception("Symbol '" + grid[i][j] + "' invalid in grid");
+				}
+			}
+		}
+
+		if (nChar != 1)
+			throw new Exception("There must be one and only one character");
+
+		if (nBall % 3 != 0)
+			throw new Exception("Found " + nBall + " balls (should be a multiple of three)");
+
+		int nSnowman = nBall / 3;
+	
+		if (nSmall < nSnowman)
+			throw new Exception("Trivially unsatisfiable (" + nSmall + " are too few small balls)");
+	
+		if (nLarge > nSnowman)
+			throw new Exception("Trivially unsatisfiable (" + nLarge + " are too many large balls)");
+	
+		return nSnowman;
+    }
+
+    // Assertions for the initial state
+    // c for character, snow for snow, bs/bm/bl for small/medium/large balls
+    // @pre 'x' has already been replaced by '#' in the grid
+    private static void initialStateClauses(char[][] grid, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family c = v.locations("#c"), snow = v.locations("#snow");
+		VariableRegistry.Family bs = v.locations("#bs"), bm = v.locations("#bm"), bl = v.locations("#bl");
+		int nCols = grid[0].length;
+		for (int i = 0; i < grid.length; ++i) {
+			for (int j = 0; j < nCols; ++j) {
+				int loc = i * nCols + j + 1;
+				char x = grid[i][j];
+				if (x != '#') {
+					f.addClause((x == 'p' || x == 'q') ? c.at(loc, 0) : -c.at(loc, 0));
+					f.addClause((x == 'p' || x == '.') ? snow.at(loc, 0) : -snow.at(loc, 0));
+					f.addClause((x == '1' || x == '3' || x == '5' || x == '7') ? bs.at(loc, 0) : -bs.at(loc, 0));
+					f.addClause((x == '2' || x == '3' || x == '6' || x == '7') ? bm.at(loc, 0) : -bm.at(loc, 0));
+					f.addClause((x >= '4' && x <= '7') ? bl.at(loc, 0) : -bl.at(loc, 0));
+				}
+			}
+		}
+    }
+
+	private static void atMostOneAction(int first, int nSteps, LocationSet l, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family n = v.locations("n"), s = v.locations("s"), e = v.locations("e"), w = v.locations("w");
+		for (int i = first; i < nSteps; ++i)
+			for (Integer loc: l) {
+				f.addClause(-n.at(loc, i), -s.at(loc, i));
+				f.addClause(-n.at(loc, i), -e.at(loc, i));
+				f.addClause(-n.at(loc, i), -w.at(loc, i));
+				f.addClause(-s.at(loc, i), -e.at(loc, i));
+				f.addClause(-s.at(loc, i), -w.at(loc, i));
+				f.addClause(-e.at(loc, i), -w.at(loc, i));
+			}
+	}
+
+	private static int[] concat(int[] a, int... b) {
+		int[] c = Arrays.copyOf(a, a.length + b.length);
+		System.arraycopy(b, 0, c, a.length, b.length);
+		return c;
+	}
+
+	/// @pre \p antecedent denotes a disjunction of literals, \p consequent denotes a conjunction of literals
+	/// @post corresponding CNF belongs to \p f
+	private static void implication2cnf(int[] antecedent, int[] consequent, DIMACSFormula f) {
+		for (int a : antecedent)
+			for (int c : consequent)
+				f.addClause(-a, c);
+	}
+
+	// There is a ball at location  l  at time  t (or  t+1, if  next)
+    private static int[] ball_now_or_next(Integer l, int t, boolean next, LocationSet validLocations, int[][] next2, VariableRegistry v) {
+		int[] ls = new int[7];
+		int k = 0;
+		ls[k++] = v.locations("#bs").at(l, t);
+		ls[k++] = v.locations("#bm").at(l, t);
+		ls[k++] = v.locations("#bl").at(l, t);
+		if (next) {
+			int lnn = next2[Geometry.N][l];
+			int lss = next2[Geometry.S][l];
+			int lee = next2[Geometry.E][l];
+			int lww = next2[Geometry.W][l];
+			if (lnn != -1 && validLocations.contains(lnn))
+				ls[k++] = v.locations("s").at(lnn, t);
+			if (lss != -1 && validLocations.contains(lss))
+				ls[k++] = v.locations("n").at(lss, t);
+			if (lee != -1 && validLocations.contains(lee))
+				ls[k++] = v.locations("w").at(lee, t);
+			if (lww != -1 && validLocations.contains(lww))
+				ls[k++] = v.locations("e").at(lww, t);
+		}
+		return Arrays.copyOf(ls, k);
+    }
+
+	private static void ballVariables(boolean bis, int first, int nSteps, LocationSet validLocations, int[][] next2, DIMACSFormula f) {
+
+		String suffix = bis? "bis" : "";
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family ball = v.locations("ball" + suffix);
+		int[] ls;
+
+		for (Integer l : validLocations) {
+
+			for (int t = first; t < nSteps; ++t) {
+
+				// Definition of  ball  variable
+				ls = ball_now_or_next(l, t, bis, validLocations, next2, v);
+				int b = ball.at(l, t);
+				implication2cnf(ls, new int[] {b}, f);
+				f.addClause(concat(ls, -b));
+			}
+		}
+	}
+
+	// bis = reachability considering next ball positions as occupied as well
+	private static void reachabilityConstraints(boolean bis, int first, int nSteps, LocationSet validLocations, int[][] next, BinaryRanks ranks, DIMACSFormula f) {
+
+		String suffix = bis? "bis" : "";
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family ball = v.locations("ball" + suffix);
+		VariableRegistry.Family r = v.locations("r" + suffix);
+		VariableRegistry.Family[] e = new VariableRegistry.Family[4]; // Edge into a location from its neighbour, indexed by direction (Geometry.N, S, E, W)
+		e[Geometry.N] = v.locations("edge" + suffix + "_n");
+		e[Geometry.S] = v.locations("edge" + suffix + "_s");
+		e[Geometry.E] = v.locations("edge" + suffix + "_e");
+		e[Geometry.W] = v.locations("edge" + suffix + "_w");
+		BinaryRanks.Comparators rank = ranks.comparators(v);
+		VariableRegistry.Family c = v.locations("#c");
+
+		for (Integer p : validLocations) {
+
+			for (int t = first; t < nSteps; ++t) {
+
+				// Position  p  reachable only if source or reached from some neighbour  q
+				int[] ls = new int[] {-r.at(p, t), c.at(p, t)};
+				for (int d = 0; d < 4; ++d) {
+					int q = next[d][p];
+					if (validLocations.contains(q)) {
+						ls = concat(ls, e[d].at(p, t));
+
+						// Locations in the path are reachable and of increasing rank (hence edges form a DAG)
+						f.addClause(-e[d].at(p, t), r.at(q, t));
+						rank.less(e[d].at(p, t), q, p, d, t, f);
+					}
+				}
+				f.addClause(ls);
+
+				// Balls unreachable
+				f.addClause(-ball.at(p, t), -r.at(p, t));
+			}
+
+		}
+	}
+
+	private static void auxiliaryVariables(int first, int nSteps, LocationSet l, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family snow = v.locations("#snow"), bs = v.locations("#bs"), bm = v.locations("#bm"), bl = v.locations("#bl");
+		VariableRegistry.Family ball_m_l = v.locations("ball_m_l"), staym = v.locations("staym"), stayl = v.locations("stayl");
+		VariableRegistry.Family grow_s = v.locations("grow_s"), grow_m = v.locations("grow_m");
+		for (int i = first; i < nSteps; ++i) {
+			int t = i, t1 = i + 1;
+
+			for (Integer j : l) {
+
+				implication2cnf(new int[] {bm.at(j, t), bl.at(j, t)}, new int[] {ball_m_l.at(j, t)}, f); // Unnecessary but helping
+				f.addClause(bm.at(j, t), bl.at(j, t), -ball_m_l.at(j, t));
+
+				int s = snow.at(j, t);
+				int bm0 = bm.at(j, t), bl0 = bl.at(j, t);
+				int bs1 = bs.at(j, t1), bm1 = bm.at(j, t1), bl1 = bl.at(j, t1);
+
+				f.addClause(-staym.at(j, t), -bm0, bm1);
+				f.addClause(-staym.at(j, t), -bm1, bm0);
+				f.addClause(-stayl.at(j, t), -bl0, bl1);
+				f.addClause(-stayl.at(j, t), -bl1, bl0);
+
+				int g = -grow_s.at(j, t);
+				f.addClause(g, s, bs1);
+				f.addClause(g, s, -bm1);
+				f.addClause(g, s, -bl1);
+
+				f.addClause(g, -s, -bs1);
+				f.addClause(g, -s, bm1);
+				f.addClause(g, -s, -bl1);
+
+				g = -grow_m.at(j, t);
+				f.addClause(g, s, -bs1);
+				f.addClause(g, s, bm1);
+				f.addClause(g, s, -bl1);
+
+				f.addClause(g, -s, -bs1);
+				f.addClause(g, -s, -bm1);
+				f.addClause(g, -s, bl1);
+			}
+		}
+	}
+
+ 	private static void actionTransitions(int first, int nSteps, int nSnowman, LocationSet l, boolean[] lwall, boolean[] lwall2, String d, int[][] next, int[][] next2, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family snow = v.locations("#snow"), bs = v.locations("#bs");
+		VariableRegistry.Family bm = v.locations("#bm"), bl = v.locations("#bl");
+		VariableRegistry.Family jump = v.locations("jump"), jumpStep = v.steps("jump");
+		VariableRegistry.Family r = v.locations("r"), rbis = v.locations("rbis"), n = v.locations("n");
+		VariableRegistry.Family s = v.locations("s"), e = v.locations("e"), w = v.locations("w");
+		VariableRegistry.Family ball = v.locations("ball"), ball_m_l = v.locations("ball_m_l");
+		VariableRegistry.Family staym = v.locations("staym"), stayl = v.locations("stayl");
+		VariableRegistry.Family grow_s = v.locations("grow_s"), grow_m = v.locations("grow_m");
+		VariableRegistry.Family action = v.locations(d), push = v.locations("push_" + d);
+		int dir = Geometry.direction(d);
+		VariableRegistry.Family push_ball = v.locations("push_ball_" + d);
+		VariableRegistry.Family push_s = v.locations("push_s_" + d), push_m = v.locations("push_m_" + d);
+		VariableRegistry.Family roll = v.locations("roll_" + d), roll_ball = v.locations("roll_ball_" + d);
+		VariableRegistry.Family roll_s = v.locations("roll_s_" + d), roll_m = v.locations("roll_m_" + d);
+		VariableRegistry.Family roll_l = v.locations("roll_l_" + d), pop = v.locations("pop_" + d);
+		VariableRegistry.Family pop_ball = v.locations("pop_ball_" + d), pop_s = v.locations("pop_s_" + d);
+		VariableRegistry.Family pop_m = v.locations("pop_m_" + d);
+
+		// No action allowed
+		for (Integer j : l)
+			if (lwall[j])
+				for (int i = first; i < nSteps; ++i)
+					f.addClause(-action.at(j, i));
+
+		// No action allowed
+		for (Integer j : l)
+			if (lwall2[j] && !lwall[j])
+				for (int i = first; i < nSteps; ++i)
+					f.addClause(-action.at(j, i));
+
+		for (Integer j : l) {
+			for (int i = first; i < nSteps; ++i) {
+				// Actions require reachability
+				f.addClause(r.at(j, i), -jump.at(j, i));
+				f.addClause(rbis.at(j, i), -n.at(j, i));
+				f.addClause(rbis.at(j, i), -s.at(j, i));
+				f.addClause(rbis.at(j, i), -e.at(j, i));
+				f.addClause(rbis.at(j, i), -w.at(j, i));
+
+				// Jumping is an exclusive action
+				f.addClause(-jump.at(j, i), jumpStep.at(i));
+			}
+
+			// Rest of preconditions and effects of ball movement actions
+			if (!lwall[j] && !lwall2[j]) {
+				int jn = next[dir][j];
+				int jnn = next2[dir][j];
+				for (int i = first; i < nSteps; ++i) {
+					int t = i, t1 = i + 1;
+
+					int[] moves = {push.at(j, t), roll.at(j, t), pop.at(j, t)};
+					implication2cnf(moves, new int[] {action.at(j, t)}, f);
+					f.addClause(concat(moves, -action.at(j, t)));
+
+					f.addClause(-action.at(j, t), -jumpStep.at(t));
+
+					// Push
+					implication2cnf(new int[] {push.at(j, t)}, new int[] {-ball.at(jn, t1), push_ball.at(j, t)}, f);
+					f.addClause(-push_ball.at(j, t), push_s.at(j, t), push_m.at(j, t));
+					implication2cnf(new int[] {push_s.at(j, t)}, new int[] {bs.at(jn, t), -bm.at(jn, t), -bl.at(jn, t), -bs.at(jnn, t), ball_m_l.at(jnn, t), bs.at(jnn, t1), staym.at(jnn, t), stayl.at(jnn, t)}, f);
+					implication2cnf(new int[] {push_m.at(j, t)}, new int[] {-bs.at(jn, t), bm.at(jn, t), -bl.at(jn, t), -bs.at(jnn, t), -bm.at(jnn, t), bl.at(jnn, t), -bs.at(jnn, t1), bm.at(jnn, t1), bl.at(jnn, t1)}, f);
+
+					// Roll
+					implication2cnf(new int[] {roll.at(j, t)}, new int[] {-ball.at(jn, t1), -ball.at(jnn, t), -snow.at(jnn, t1), roll_ball.at(j, t)}, f);
+					f.addClause(-roll_ball.at(j, t), roll_s.at(j, t), roll_m.at(j, t), roll_l.at(j, t));
+					implication2cnf(new int[] {roll_s.at(j, t)}, new int[] {bs.at(jn, t), -bm.at(jn, t), -bl.at(jn, t), grow_s.at(jnn, t)}, f);
+					implication2cnf(new int[] {roll_m.at(j, t)}, new int[] {-bs.at(jn, t), bm.at(jn, t), -bl.at(jn, t), grow_m.at(jnn, t)}, f);
+					implication2cnf(new int[] {roll_l.at(j, t)}, new int[] {-bs.at(jn, t), -bm.at(jn, t), bl.at(jn, t), -bs.at(jnn, t1), -bm.at(jnn, t1), bl.at(jnn, t1)}, f);
+
+					// Pop
+					implication2cnf(new int[] {pop.at(j, t)}, new int[] {-ball.at(jnn, t), -snow.at(jnn, t1), pop_ball.at(j, t)}, f);
+					f.addClause(-pop_ball.at(j, t), pop_s.at(j, t), pop_m.at(j, t));
+					implication2cnf(new int[] {pop_s.at(j, t)}, new int[] {bs.at(jn, t), ball_m_l.at(jn, t), staym.at(jn, t), stayl.at(jn, t), -bs.at(jn, t1), grow_s.at(jnn, t)}, f);
+					implication2cnf(new int[] {pop_m.at(j, t)}, new int[] {-bs.at(jn, t), bm.at(jn, t), bl.at(jn, t), -bs.at(jn, t1), -bm.at(jn, t1), bl.at(jn, t1), grow_m.at(jnn, t)}, f);
+				}
+			}
+		}
+
+	}
+
+	private static void uselessJumps(int first, int nSteps, LocationSet l,
+									 boolean[] ln, boolean[] lnn,
+									 boolean[] ls, boolean[] lss,
+									 boolean[] le, boolean[] lee,
+									 boolean[] lw, boolean[] lww,
+									 int[][] next,
+									 int[][] next2,
+									 List<List<Integer>> validNeighbours,
+									 DIMACSFormula f) {
+
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family jump = v.locations("jump");
+
+		for (Integer j : l) {
+			for (int i = first; i < nSteps; ++i) {
+				if ((ln[j] || lnn[j]) &&
+					(ls[j] || lss[j]) &&
+					(le[j] || lee[j]) &&
+					(lw[j] || lww[j]))
+					f.addClause(-jump.at(j, i));
+				else {
+					// Other useless jumps due to ball locations can be identified. Incomplete list:
+
+					// Location is no next to a ball
+					List<Integer> vn = validNeighbours.get(j); // There is at least one valid neighbour location
+					int[] lits = new int[0];
+					for (Integer k : vn)
+						lits = concat(lits, ball_now_or_next(k, i, false, l, next2, v));
+					f.addClause(concat(lits, -jump.at(j, i)));
+
+				}
+			}
+		}
+
+	}
+
+	private static int[] surroundingActions(Integer loc, LocationSet l, int[][] next, int t, VariableRegistry v) {
+		int north = next[Geometry.N][loc];
+		int south = next[Geometry.S][loc];
+		int east = next[Geometry.E][loc];
+		int west = next[Geometry.W][loc];
+		int[] lits = new int[4];
+		int k = 0;
+		if (north != -1 && l.contains(north)) lits[k++] = v.locations("s").at(north, t);
+		if (south != -1 && l.contains(south)) lits[k++] = v.locations("n").at(south, t);
+		if (east != -1 && l.contains(east)) lits[k++] = v.locations("w").at(east, t);
+		if (west != -1 && l.contains(west)) lits[k++] = v.locations("e").at(west, t);
+		return Arrays.copyOf(lits, k);
+	}
+
+    private static void frameAxioms(int first, int nSteps, LocationSet l,  int[][] next, int[][] next2, Cardinality.AtMostOne amo, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family aux = v.block("amo_c");
+		VariableRegistry.Family c = v.locations("#c"), snow = v.locations("#snow");
+		VariableRegistry.Family bs = v.locations("#bs"), bm = v.locations("#bm"), bl = v.locations("#bl");
+		VariableRegistry.Family jump = v.locations("jump");
+		VariableRegistry.Family r = v.locations("r"), rbis = v.locations("rbis");
+		for (int i = first; i < nSteps; ++i) {
+			int t = i, t1 = i + 1;
+
+			for (Integer j : l) {
+				// Snow axioms
+				f.addClause(snow.at(j, t), -snow.at(j, t1));
+				f.addClause(-snow.at(j, t), snow.at(j, t1), bs.at(j, t1), bm.at(j, t1), bl.at(j, t1));
+
+				// Changes in balls require action
+				int[] s1 = surroundingActions(j, l, next, i, v);
+				int[] s2 = surroundingActions(j, l, next2, i, v);
+				f.addClause(concat(new int[] {-bs.at(j, t), bs.at(j, t1)}, s1));
+				f.addClause(concat(new int[] {-bm.at(j, t), bm.at(j, t1)}, s1));
+				f.addClause(concat(new int[] {-bl.at(j, t), bl.at(j, t1)}, s1));
+				if (s2.length != 0) { // There exists some valid position at distance 2
+					f.addClause(concat(new int[] {bs.at(j, t), -bs.at(j, t1)}, s2));
+					f.addClause(concat(new int[] {bm.at(j, t), -bm.at(j, t1)}, s2));
+					f.addClause(concat(new int[] {bl.at(j, t), -bl.at(j, t1)}, s2));
+				}
+				else { // No ball can appear
+					f.addClause(bs.at(j, t), -bs.at(j, t1));
+					f.addClause(bm.at(j, t), -bm.at(j, t1));
+					f.addClause(bl.at(j, t), -bl.at(j, t1));
+				}
+
+				// At most one ball can appear in a location at a time
+				f.addClause(bs.at(j, t), -bs.at(j, t1), bm.at(j, t), -bm.at(j, t1));
+				f.addClause(bs.at(j, t), -bs.at(j, t1), bl.at(j, t), -bl.at(j, t1));
+				f.addClause(bm.at(j, t), -bm.at(j, t1), bl.at(j, t), -bl.at(j, t1));
+
+				// Reachability bis only if reachability
+				f.addClause(r.at(j, t), -rbis.at(j, t));
+
+			}
+		}
+
+		for (int i = first + 1; i <= nSteps; ++i) {
+			// Character at most in one location
+			for (int[] clause : Cardinality.atMostOne(amo, c, l, i, aux))
+				f.addClause(clause);
+			for (int j : l) {
+				// Character only moves when jumping
+				f.addClause(-c.at(j, i), jump.at(j, i - 1), c.at(j, i - 1));
+			}
+
+			// Character at least in one location
+			//f.addClause(ls);
+		}
+
+    }
+
+   	private static void mutexes(Integer l, VariableRegistry.Family n, VariableRegistry.Family s, List<Integer> ln, int t, DIMACSFormula f) {
+		for (Integer p : ln)
+			f.addClause(-n.at(l, t), -s.at(p, t));
+   	}
+
+	private static void incompatibilities(int first, int nSteps, LocationSet validLocations, String n, String s, String e, String w, int[][] next, int[][] next2, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family an = v.locations(n), as = v.locations(s), ae = v.locations(e), aw = v.locations(w);
+		int dn = Geometry.direction(n), de = Geometry.direction(e), dw = Geometry.direction(w);
+		for (Integer l : validLocations) {
+			List<Integer> ln = new LinkedList<>();
+			List<Integer> le = new LinkedList<>();
+			List<Integer> lw = new LinkedList<>();
+			int lball = next[dn][l];
+			if (lball != -1 && validLocations.contains(lball)) {
+				int lnn = next[dn][lball];
+				if (lnn != -1 && validLocations.contains(lnn)) {
+					int next_n_lnn = next[dn][lnn];
+					int next_e_lnn = next[de][lnn];
+					int next_w_lnn = next[dw][lnn];
+					int next2_n_lnn = next2[dn][lnn];
+					int next2_e_lnn = next2[de][lnn];
+					int next2_w_lnn = next2[dw][lnn];
+					int next_e_lball = next[de][lball];
+					int next_w_lball = next[dw][lball];
+					int next2_e_lball = next2[de][lball];
+					int next2_w_lball = next2[dw][lball];
+					ln.add(lnn);
+					if (next_n_lnn != -1 && validLocations.contains(next_n_lnn))
+						ln.add(next_n_lnn);
+					if (next2_n_lnn != -1 && validLocations.contains(next2_n_lnn))
+						ln.add(next2_n_lnn);
+					if (next_w_lball != -1 && validLocations.contains(next_w_lball))
+						lw.add(next_w_lball);
+					if (next2_w_lball != -1 && validLocations.contains(next2_w_lball))
+						lw.add(next2_w_lball);
+					if (next_w_lnn != -1 && validLocations.contains(next_w_lnn))
+						lw.add(next_w_lnn);
+					if (next2_w_lnn != -1 && validLocations.contains(next2_w_lnn))
+						lw.add(next2_w_lnn);
+					if (next_e_lball != -1 && validLocations.contains(next_e_lball))
+						le.add(next_e_lball);
+					if (next2_e_lball != -1 && validLocations.contains(next2_e_lball))
+						le.add(next2_e_lball);
+					if (next_e_lnn != -1 && validLocations.contains(next_e_lnn))
+						le.add(next_e_lnn);
+					if (next2_e_lnn != -1 && validLocations.contains(next2_e_lnn))
+						le.add(next2_e_lnn);
+					for (int i = first; i < nSteps; ++i) {
+						mutexes(l, an, as, ln, i, f);
+						mutexes(l, an, ae, lw, i, f);
+						mutexes(l, an, aw, le, i, f);
+					}
+				} // otherwise action not possible
+			} // otherwise action not possible
+		}
+	}
+
+	private static void invariants(int first, int nSteps, int nSnowman, List<Integer> l, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family bs = v.locations("#bs"), bm = v.locations("#bm"), bl = v.locations("#bl");
+		VariableRegistry.Family suma_bs = v.block("suma_bs"), suma_bm = v.block("suma_bm"), suma_bl = v.block("suma_bl");
+		// #small balls >= #snowman
+		// #large balls <= #snowman
+		for (int i = Math.max(first, 1); i < nSteps; ++i) { // The invariant is useless in the start and end states
+			for (int[] c : Cardinality.atMost(nSnowman, bl, l, i, suma_bl))
+				f.addClause(c);
+			for (int[] c : Cardinality.atMost(nSnowman * 2, bm, l, i, suma_bm)) // Redundant
+				f.addClause(c);
+			for (int[] c : Cardinality.atLeast(nSnowman, bs, l, i, suma_bs))
+				f.addClause(c);
+		}
+	}
+
+    private static void goal(int nSteps, LocationSet validLocations, int guard, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		int[] g = guard == 0 ? new int[0] : new int[] {-guard};
+		VariableRegistry.Family bs = v.locations("#bs"), bm = v.locations("#bm"), bl = v.locations("#bl");
+		for (Integer loc : validLocations) {
+			f.addClause(concat(g, -bs.at(loc, nSteps), bm.at(loc, nSteps)));
+			f.addClause(concat(g, bs.at(loc, nSteps), -bm.at(loc, nSteps)));
+
+			f.addClause(concat(g, -bm.at(loc, nSteps), bl.at(loc, nSteps)));
+			f.addClause(concat(g, bm.at(loc, nSteps), -bl.at(loc, nSteps)));
+		}
+    }
+    
+    /// @returns An encoder of the instance available in \p in, for any number of time steps
+    public static Encoder encoder(InputStream in) throws Exception {
+		return encoder(in, null);
+    }
+
+    /// @returns An encoder of the instance available in \p in, for any number of time steps, with encoding
+    ///          \p amo of the at-most-one constraints over the locations (if null, pairwise for
+    ///          the character)
+    public static Encoder encoder(InputStream in, Cardinality.AtMostOne amo) throws Exception {
+		char[][] grid = readGrid(in);
+		int nRows = grid.length;
+		int nCols = grid[0].length;
+		int nLocs = nRows * nCols;
+		LocationSet l = new LocationSet(nLocs); // Set of valid locations
+
+		int loc = 1;
+		for (int i = 0; i < nRows; i++) {
+			for (int j = 0; j < nCols; j++, ++loc) {
+				if (grid[i][j] != '#' && grid[i][j] != 'x')
+					l.add(loc);
+			}
+		}
+
+		Geometry geo = new Geometry(grid, l);
+		int[][] next = geo.next(); // next[d][l] is the number of the location next to  l  in the direction  d  (Geometry.N, S, E, W), or -1
+		int[][] next2 = geo.next2(); // Next to the next (in the same direction)
+		boolean[] ln = geo.wall(Geometry.N); // Valid positions with a wall in the north
+		boolean[] lnn = geo.wall2(Geometry.N); // Valid positions with a wall two steps ahead in the north
+		boolean[] ls = geo.wall(Geometry.S); // Valid positions with a wall in the south
+		boolean[] lss = geo.wall2(Geometry.S); // Valid positions with a wall two steps ahead in the south
+		boolean[] le = geo.wall(Geometry.E); // Valid positions with a wall in the east
+		boolean[] lee = geo.wall2(Geometry.E); // Valid positions with a wall two steps ahead in the east
+		boolean[] lw = geo.wall(Geometry.W); // Valid positions with a wall in the west
+		boolean[] lww = geo.wall2(Geometry.W); // Valid positions with a wall two steps ahead in the west
+
+		int nSnowman = initialState(grid);
+		int nBall = nSnowman * 3;
+
+		// Variables
+		VariableRegistry v = new VariableRegistry(nLocs, l);
+		v.declareLocations("#c", "#snow", "#bs", "#bm", "#bl", "ball", "ballbis", "ball_m_l", "staym", "stayl", "grow_s", "grow_m");
+		v.declareLocations("jump", "r", "rbis", "n", "s", "e", "w");
+		for (String d : List.of("n", "s", "e", "w")) {
+			v.declareLocations("push_" + d, "push_ball_" + d, "push_s_" + d, "push_m_" + d);
+			v.declareLocations("roll_" + d, "roll_ball_" + d, "roll_s_" + d, "roll_m_" + d, "roll_l_" + d);
+			v.declareLocations("pop_" + d, "pop_ball_" + d, "pop_s_" + d, "pop_m_" + d);
+		}
+		v.declareLocations("edge_n", "edge_s", "edge_e", "edge_w", "edgebis_n", "edgebis_s", "edgebis_e", "edgebis_w");
+		// Ranks of the locations in the reachability DAGs (with auxiliary variables of their comparators)
+		BinaryRanks ranks = new BinaryRanks("rk", l.size()), ranksbis = new BinaryRanks("rkbis", l.size());
+		ranks.declare(v);
+		ranksbis.declare(v);
+		v.declareSteps("jump");
+		// Auxiliary variables of the cardinality constraints in the invariants
+		Cardinality.declare(v, "suma_bl", l.size(), nSnowman, false);
+		Cardinality.declare(v, "suma_bm", l.size(), nSnowman * 2, false);
+		Cardinality.declare(v, "suma_bs", l.size(), nSnowman, true);
+		Cardinality.AtMostOne amoC = amo == null ? Cardinality.AtMostOne.PAIRWISE : amo; // Character at most in one location
+		Cardinality.declare(v, "amo_c", amoC, l.size());
+		if (amo != null)
+			System.err.print(Cardinality.statistics(amo, l.size()));
+
+		SnowmanReach reach = new SnowmanReach(grid, l, geo, v, false, true); // Locations out of reach
+
+		// Clauses of the initial state (if first == 0), of time steps first .. nSteps - 1,
+		// and of the goal at time nSteps (guarded by  guard  if not 0), with the balls
+		// out of reach at each time step, and the moves of them, fixed to false (see SnowmanReach)
+		return new Encoder(v, (f, first, nSteps, guard) -> {
+			// Initial state to CNF
+			if (first == 0)
+				initialStateClauses(grid, f);
+
+			// At most one action per location
+			//		atMostOneAction(first, nSteps, l, f);
+
+			// Incompatibilities
+			incompatibilities(first, nSteps, l, "n", "s", "e", "w", next, next2, f);
+			incompatibilities(first, nSteps, l, "s", "n", "e", "w", next, next2, f);
+			incompatibilities(first, nSteps, l, "e", "w", "n", "s", next, next2, f);
+			incompatibilities(first, nSteps, l, "w", "e", "n", "s", next, next2, f);
+
+			// Ball variables
+			ballVariables(false, first, nSteps, l, next2, f);
+			ballVariables(true, first, nSteps, l, next2, f);
+
+			// Reachability constraints
+			List<List<Integer>> validNeighbours = geo.validNeighbours();
+			reachabilityConstraints(false, first, nSteps, l, next, ranks, f);
+			reachabilityConstraints(true, first, nSteps, l, next, ranksbis, f);
+
+			// Auxiliary variables
+			auxiliaryVariables(first, nSteps, l, f);
+
+			// Action transitions
+			actionTransitions(first, nSteps, nSnowman, l, ln, lnn, "n", next, next2, f);
+			actionTransitions(first, nSteps, nSnowman, l, ls, lss, "s", next, next2, f);
+			actionTransitions(first, nSteps, nSnowman, l, le, lee, "e", next, next2, f);
+			actionTransitions(first, nSteps, nSnowman, l, lw, lww, "w", next, next2, f);
+
+			// Useless jumps
+			uselessJumps(first, nSteps, l, ln, lnn, ls, lss, le, lee, lw, lww, next, next2, validNeighbours, f);
+
+			// Frame axioms
+			frameAxioms(first, nSteps, l, next, next2, amoC, f);
+
+			// Invariants
+			invariants(first, nSteps, nSnowman, new ArrayList<>(l), f);
+
+			// Goal
+			goal(nSteps, l, guard, f);
+		}, reach, StackingBound.of(grid, l, geo, true)); // Least number of time steps
+    }
+
+}
@@ -0,0 +1,128 @@
+/**
+ * @class Assignment
+ * @author Miquel Bofill
+ * @version 1.0
+ * @date 2023-07-03
+ * @brief Optimal assignments of n objects to n places, for lower bounds on makespans
+ *
+ * Costs are given by an n x n matrix, Geometry.UNREACHABLE meaning that an object
+ * cannot go to a place. The least total cost is found by the Hungarian method, in
+ * O(n^3) time, and the least largest cost (bottleneck) by a binary search on the
+ * costs, looking for a perfect matching with the costs not above each one.
+*/
+
+import java.util.Arrays;
+
+public class Assignment {
+
+    /// @pre \p cost is a square matrix of non-negative costs
+    /// @returns Least total cost of assigning each object i to a different place j at cost[i][j]
+    ///          (Geometry.UNREACHABLE if there is no such assignment)
+    public static int minSum(int[][] cost) {
+        int n = cost.length;
+        if (!perfect(cost, Geometry.UNREACHABLE - 1))
+            return Geometry.UNREACHABLE;
+        long big = 1; // Above the cost of any assignment avoiding UNREACHABLE
+        for (int[] row : cost)
+            for (int c : row)
+                if (c != Geometry.UNREACHABLE)
+                    big += c;
+
+        // Potentials u (objects) and v (places), 1-based, with place 0 as a sentinel
+        long[] u = new long[n + 1], v = new long[n + 1];
+        int[] object = new int[n + 1]; // object assigned to each place (0 if none)
+        int[] way = new int[n + 1];    // previous place on the augmenting path
+        for (int i = 1; i <= n; ++i) {
+            object[0] = i;
+            int j0 = 0;
+            long[] minv = new long[n + 1];
+            Arrays.fill(minv, Long.MAX_VALUE);
+            boolean[] used = new boolean[n + 1];
+            do {
+                used[j0] = true;
+                int i0 = object[j0], j1 = 0;
+                long delta = Long.MAX_VALUE;
+                for (int j = 1; j <= n; ++j)
+                    if (!used[j]) {
+                        long reduced = weight(cost, big, i0 - 1, j - 1) - u[i0] - v[j];
+                        if (reduced < minv[j]) {
+                            minv[j] = reduced;
+                            way[j] = j0;
+                        }
+                        if (minv[j] < delta) {
+                            delta = minv[j];
+                            j1 = j;
+                        }
+                    }
+                for (int j = 0; j <= n; ++j)
+                    if (used[j]) {
+                        u[object[j]] += delta;
+                        v[j] -= delta;
+                    }
+                    else
+                        minv[j] -= delta;
+                j0 = j1;
+            } while (object[j0] != 0);
+            do {
+                int j1 = way[j0];
+                object[j0] = object[j1];
+                j0 = j1;
+            } while (j0 != 0);
+        }
+
+        int sum = 0;
+        for (int j = 1; j <= n; ++j)
+            sum += cost[object[j] - 1][j - 1];
+        return sum;
+    }
+
+    /// @pre \p cost is a square matrix of non-negative costs
+    /// @returns Least largest cost cost[i][j] of assigning each object i to a different place j
+    ///          (Geometry.UNREACHABLE if there is no such assignment)
+    public static int minMax(int[][] cost) {
+        if (cost.length == 0)
+            return 0;
+        int[] values = Arrays.stream(cost).flatMapToInt(Arrays::stream)
+            .filter(c -> c != Geometry.UNREACHABLE).distinct().sorted().toArray();
+        if (values.length == 0 || !perfect(cost, values[values.length - 1]))
+            return Geometry.UNREACHABLE;
+        int lo = 0, hi = values.length - 1; // perfect(cost, values[hi])
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (perfect(cost, values[mid]))
+                hi = mid;
+            else
+                lo = mid + 1;
+        }
+        return values[hi];
+    }
+
+    private static long weight(int[][] cost, long big, int i, int j) {
+        return cost[i][j] == Geometry.UNREACHABLE ? big : cost[i][j];
+    }
+
+    // @returns whether each object can be assigned to a different place at cost at most  bound
+    private static boolean perfect(int[][] cost, int bound) {
+        int n = cost.length;
+        int[] object = new int[n]; // object assigned to each place (-1 if none)
+        Arrays.fill(object, -1);
+        for (int i = 0; i < n; ++i)
+            if (!augment(cost, bound, i, new boolean[n], object))
+                return false;
+        return true;
+    }
+
+    // @returns whether object  i  gets a place, by an augmenting path through the places not yet visited
+    private static boolean augment(int[][] cost, int bound, int i, boolean[] visited, int[] object) {
+        for (int j = 0; j < cost.length; ++j)
+            if (cost[i][j] <= bound && !visited[j]) {
+                visited[j] = true;
+                if (object[j] == -1 || augment(cost, bound, object[j], visited, object)) {
+                    object[j] = i;
+                    return true;
+                }
+            }
+        return false;
+    }
+
+}
@@ -0,0 +1,666 @@
+/**
+ * @class Cardinality
+ * @author Miquel Bofill
+ * @version 1.3
+ * @date 2023-07-08
+ * @brief Cardinality constraints (at most, at least or exactly k of n literals) to CNF
+ *
+ * Available encodings are the binomial one (a clause per subset, no auxiliary variables),
+ * the sequential counter (Sinz 2005), the totalizer (Bailleux and Boufkhad 2003), the
+ * modulo totalizer (Ogawa et al. 2013) and a cardinality network, i.e., an odd-even merge
+ * sorting network truncated to its first k + 1 outputs (Asín et al. 2011). Counters and
+ * networks only get the half of their clauses needed for the bound (at most or at least),
+ * and outputs are capped at the bound. Auxiliary variables are numbered from 1 and mapped
+ * to variables of the formula by the caller, e.g., to a block of the registry (see declare).
+ * Binomial constraints can also be added straight to a formula, each clause preceded by
+ * some given literals, as a reused array (see atMost(int, Family, List, int, int[], DIMACSFormula)).
+ *
+ * The chooser picks, for given n and k, the encoding with fewest clauses (then fewest
+ * auxiliary variables), counting them without building the clauses.
+ *
+ * At-Most-1 has its own selectable encodings: pairwise (no auxiliary variables), ladder
+ * (i.e., the sequential counter for k = 1), commander (Klieber and Kwon 2007), product
+ * (Chen 2010) and bimander (Nguyen and Mai 2015).
+*/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntUnaryOperator;
+
+public class Cardinality {
+
+    public enum Encoding { BINOMIAL, SEQUENTIAL, TOTALIZER, MODULO_TOTALIZER, CARDINALITY_NETWORK }
+
+    public enum AtMostOne { PAIRWISE, LADDER, COMMANDER, PRODUCT, BIMANDER }
+
+    private static final ConcurrentHashMap<Long,Encoding> _chosen = new ConcurrentHashMap<>(); ///< encodings chosen, by (n, k, atLeast)
+
+    // Clauses and auxiliary variables of an encoding (only counted if no clauses are kept nor added)
+    private static final class Sink {
+        private final IntUnaryOperator _aux; ///< variable for each auxiliary variable number (null if only counting)
+        private final List<int[]> _clauses;  ///< null unless kept
+        private final DIMACSFormula _formula; ///< formula the clauses are added to, preceded by _prefix (null if none)
+        private final int[] _prefix;
+        private int[] _buffer;               ///< _prefix followed by the clause being added to _formula
+        private int _nAux;
+        private long _nClauses;
+
+        private Sink(IntUnaryOperator aux, List<int[]> clauses) {
+            this(aux, clauses, null, new int[0]);
+        }
+
+        private Sink(IntUnaryOperator aux, List<int[]> clauses, DIMACSFormula formula, int[] prefix) {
+            _aux = aux;
+            _clauses = clauses;
+            _formula = formula;
+            _prefix = prefix;
+            _buffer = prefix;
+        }
+
+        private int fresh() {
+            ++_nAux;
+            if (_clauses == null && _formula == null)
+                return _nAux;
+            if (_aux == null)
+                throw new IllegalArgumentException("No auxiliary variables given for a cardinality constraint");
+            return _aux.applyAsInt(_nAux);
+        }
+
+        private void add(int... clause) {
+            if (_formula == null) {
+                ++_nClauses;
+                if (_clauses != null)
+                    _clauses.add(clause);
+                return;
+            }
+            int[] b = buffer(clause.length);
+            System.arraycopy(clause, 0, b, _prefix.length, clause.length);
+            addBuffer(b);
+        }
+
+        // @returns an array with the prefix followed by room for  length  literals, for addBuffer (reused)
+        private int[] buffer(int length) {
+            if (_buffer.length != _prefix.length + length)
+                _buffer = Arrays.copyOf(_prefix, _prefix.length + length);
+            return _buffer;
+        }
+
+        // @post The clause in  b  (see buffer) is added (copied, as  b  is reused)
+        private void addBuffer(int[] b) {
+            ++_nClauses;
+            if (_formula != null)
+                _formula.addClause(b);
+            else if (_clauses != null)
+                _clauses.add(Arrays.copyOfRange(b, _prefix.length, b.length));
+        }
+    }
+
+    /// @returns The encoding of At-Most-k (At-Least-k if \p atLeast) of \p n literals with fewest
+    ///          clauses, then fewest auxiliary variables
+    public static Encoding choose(int n, int k, boolean atLeast) {
+        long key = ((long) n << 32) | ((long) (k & 0x7fffffff) << 1) | (atLeast ? 1 : 0);
+        Encoding e = _chosen.get(key);
+        if (e == null) {
+            e = Encoding.BINOMIAL;
+            long bestClauses = clauses(e, n, k, atLeast);
+            int bestAux = 0;
+            for (Encoding c : Encoding.values()) {
+                if (c == Encoding.BINOMIAL)
+                    continue;
+                Sink s = new Sink(null, null);
+                encode(c, k, new int[n], atLeast, s);
+                if (s._nClauses < bestClauses || (s._nClauses == bestClauses && s._nAux < bestAux)) {
+                    e = c;
+                    bestClauses = s._nClauses;
+                    bestAux = s._nAux;
+                }
+            }
+            _chosen.put(key, e);
+        }
+        return e;
+    }
+
+    /// @returns Number of clauses of At-Most-k (At-Least-k if \p atLeast) of \p n literals with encoding \p e
+    public static long clauses(Encoding e, int n, int k, boolean atLeast) {
+        if (e == Encoding.BINOMIAL) {
+            if (trivial(n, k, atLeast))
+                return atLeast ? (k > n || k == 1 ? 1 : k == n ? n : 0) : (k == 0 ? n : 0);
+            return binomialCoefficient(n, atLeast ? n - k + 1 : k + 1);
+        }
+        Sink s = new Sink(null, null);
+        encode(e, k, new int[n], atLeast, s);
+        return s._nClauses;
+    }
+
+    /// @returns Number of auxiliary variables of At-Most-k (At-Least-k if \p atLeast) of \p n literals with encoding \p e
+    public static int auxiliaries(Encoding e, int n, int k, boolean atLeast) {
+        if (e == Encoding.BINOMIAL)
+            return 0;
+        Sink s = new Sink(null, null);
+        encode(e, k, new int[n], atLeast, s);
+        return s._nAux;
+    }
+
+    /// @returns Number of auxiliary variables of At-Most-k (At-Least-k if \p atLeast) of \p n literals
+    ///          with the encoding chosen for them
+    public static int auxiliaries(int n, int k, boolean atLeast) {
+        return auxiliaries(choose(n, k, atLeast), n, k, atLeast);
+    }
+
+    /// @post Block \p prefix of the auxiliary variables of At-Most-k (At-Least-k if \p atLeast) of
+    ///       \p n literals, with the encoding chosen for them, is declared in \p v
+    public static void declare(VariableRegistry v, String prefix, int n, int k, boolean atLeast) {
+        int nAux = auxiliaries(n, k, atLeast);
+        v.declareBlock(prefix, nAux > 0 ? 1 : 0, nAux);
+    }
+
+    /// @returns "At-Most-k(lits)" with encoding \p e, auxiliary variable number  i  (from 1) being \p aux(i)
+    public static List<int[]> atMost(Encoding e, int k, int[] lits, IntUnaryOperator aux) {
+        Sink s = new Sink(aux, new ArrayList<>());
+        encode(e, k, lits, false, s);
+        return s._clauses;
+    }
+
+    /// @returns "At-Least-k(lits)" with encoding \p e, auxiliary variable number  i  (from 1) being \p aux(i)
+    public static List<int[]> atLeast(Encoding e, int k, int[] lits, IntUnaryOperator aux) {
+        Sink s = new Sink(aux, new ArrayList<>());
+        encode(e, k, lits, true, s);
+        return s._clauses;
+    }
+
+    // @returns var_{i_1}^time, ..., var_{i_n}^time for i_1, ..., i_n in indexes
+    private static int[] literals(VariableRegistry.Family var, Collection<Integer> indexes, int time) {
+        int[] lits = new int[indexes.size()];
+        int j = 0;
+        for (Integer i : indexes)
+            lits[j++] = var.at(i, time);
+        return lits;
+    }
+
+    // @returns the auxiliary variables of block aux (see declare) at time
+    private static IntUnaryOperator block(VariableRegistry.Family aux, int time) {
+        return aux == null ? null : i -> aux.at(1, i, time);
+    }
+
+    /// @post The clauses of "At-Most-k(var_{i_1}^time, ..., var_{i_n}^time)" for i_1, ..., i_n in \p indexes
+    ///       (binomial encoding), each preceded by the literals \p prefix, belong to \p f
+    public static void atMost(int k, VariableRegistry.Family var, List<Integer> indexes, int time, int[] prefix, DIMACSFormula f) {
+        encode(Encoding.BINOMIAL, k, literals(var, indexes, time), false, new Sink(null, null, f, prefix));
+    }
+
+    /// @post The clauses of "At-Least-k(var_{i_1}^time, ..., var_{i_n}^time)" for i_1, ..., i_n in \p indexes
+    ///       (binomial encoding), each preceded by the literals \p prefix, belong to \p f
+    public static void atLeast(int k, VariableRegistry.Family var, List<Integer> indexes, int time, int[] prefix, DIMACSFormula f) {
+        encode(Encoding.BINOMIAL, k, literals(var, indexes, time), true, new Sink(null, null, f, prefix));
+    }
+
+    /// @post The clauses of "Exactly-k(var_{i_1}^time, ..., var_{i_n}^time)" for i_1, ..., i_n in \p indexes
+    ///       (binomial encoding), each preceded by the literals \p prefix, belong to \p f
+    public static void exactly(int k, VariableRegistry.Family var, List<Integer> indexes, int time, int[] prefix, DIMACSFormula f) {
+        int[] lits = literals(var, indexes, time);
+        encode(Encoding.BINOMIAL, k, lits, false, new Sink(null, null, f, prefix));
+        encode(Encoding.BINOMIAL, k, lits, true, new Sink(null, null, f, prefix));
+    }
+
+    /// @pre \p aux has been declared for n = indexes.size() and \p k (see declare)
+    /// @returns "At-Most-k(var_{i_1}^time, ..., var_{i_n}^time)" for i_1, ..., i_n in \p indexes, with the
+    ///          encoding chosen for n and k
+    public static List<int[]> atMost(int k, VariableRegistry.Family var, List<Integer> indexes, int time, VariableRegistry.Family aux) {
+        return atMost(choose(indexes.size(), k, false), k, literals(var, indexes, time), block(aux, time));
+    }
+
+    /// @pre \p aux has been declared for n = indexes.size() and \p k (see declare)
+    /// @returns "At-Least-k(var_{i_1}^time, ..., var_{i_n}^time)" for i_1, ..., i_n in \p indexes, with the
+    ///          encoding chosen for n and k
+    public static List<int[]> atLeast(int k, VariableRegistry.Family var, List<Integer> indexes, int time, VariableRegistry.Family aux) {
+        return atLeast(choose(indexes.size(), k, true), k, literals(var, indexes, time), block(aux, time));
+    }
+
+    /// @pre \p auxAtMost and \p auxAtLeast have been declared for n = indexes.size() and \p k (see declare;
+    ///      either may be null if no auxiliary variables are needed, e.g., \p auxAtLeast if k = 1)
+    /// @returns "Exactly-k(var_{i_1}^time, ..., var_{i_n}^time)" for i_1, ..., i_n in \p indexes
+    public static List<int[]> exactly(int k, VariableRegistry.Family var, List<Integer> indexes, int time, VariableRegistry.Family auxAtMost, VariableRegistry.Family auxAtLeast) {
+        List<int[]> l = atMost(k, var, indexes, time, auxAtMost);
+        l.addAll(atLeast(k, var, indexes, time, auxAtLeast));
+        return l;
+    }
+
+    /// @returns Number of clauses of At-Most-1 of \p n literals with encoding \p e
+    public static long clauses(AtMostOne e, int n) {
+        if (e == AtMostOne.PAIRWISE)
+            return (long) n * (n - 1) / 2;
+        Sink s = new Sink(null, null);
+        encode(e, new int[n], s);
+        return s._nClauses;
+    }
+
+    /// @returns Number of auxiliary variables of At-Most-1 of \p n literals with encoding \p e
+    public static int auxiliaries(AtMostOne e, int n) {
+        if (e == AtMostOne.PAIRWISE)
+            return 0;
+        Sink s = new Sink(null, null);
+        encode(e, new int[n], s);
+        return s._nAux;
+    }
+
+    /// @post Block \p prefix of the auxiliary variables of At-Most-1 of \p n literals, with
+    ///       encoding \p e (the one chosen for n and k = 1 if null), is declared in \p v
+    public static void declare(VariableRegistry v, String prefix, AtMostOne e, int n) {
+        int nAux = e == null ? auxiliaries(n, 1, false) : auxiliaries(e, n);
+        v.declareBlock(prefix, nAux > 0 ? 1 : 0, nAux);
+    }
+
+    /// @returns "At-Most-1(lits)" with encoding \p e, auxiliary variable number  i  (from 1) being \p aux(i)
+    public static List<int[]> atMostOne(AtMostOne e, int[] lits, IntUnaryOperator aux) {
+        Sink s = new Sink(aux, new ArrayList<>());
+        encode(e, lits, s);
+        return s._clauses;
+    }
+
+    /// @pre \p aux has been declared for \p e and n = indexes.size() (see declare)
+    /// @returns "At-Most-1(var_{i_1}^time, ..., var_{i_n}^time)" for i_1, ..., i_n in \p indexes, with encoding \p e
+    ///          (the one chosen for n and k = 1 if null)
+    public static List<int[]> atMostOne(AtMostOne e, VariableRegistry.Family var, Collection<Integer> indexes, int time, VariableRegistry.Family aux) {
+        return atMostOne(e, literals(var, indexes, time), time, aux);
+    }
+
+    /// @pre \p aux has been declared for \p e and n = indexes.size() (see declare)
+    /// @returns "Exactly-1(var_{i_1}^time, ..., var_{i_n}^time)" for i_1, ..., i_n in \p indexes, with encoding \p e
+    ///          (the one chosen for n and k = 1 if null) for At-Most-1
+    public static List<int[]> exactlyOne(AtMostOne e, VariableRegistry.Family var, Collection<Integer> indexes, int time, VariableRegistry.Family aux) {
+        int[] lits = literals(var, indexes, time);
+        List<int[]> l = atMostOne(e, lits, time, aux);
+        l.add(lits);
+        return l;
+    }
+
+    private static List<int[]> atMostOne(AtMostOne e, int[] lits, int time, VariableRegistry.Family aux) {
+        if (e == null)
+            return atMost(choose(lits.length, 1, false), 1, lits, block(aux, time));
+        return atMostOne(e, lits, block(aux, time));
+    }
+
+    /// @returns Table of the clauses and auxiliary variables of At-Most-1 of \p n literals with each
+    ///          encoding, \p e being marked
+    public static String statistics(AtMostOne e, int n) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("At-Most-1 of %d literals: %12s %12s%n", n, "clauses", "auxiliaries"));
+        for (AtMostOne c : AtMostOne.values())
+            sb.append(String.format("%s %-24s %12d %12d%n", c == e ? "*" : " ", c.name().toLowerCase(), clauses(c, n), auxiliaries(c, n)));
+        return sb.toString();
+    }
+
+    // @returns whether the bound needs no encoding (all or none of the literals, a single clause, or nothing)
+    private static boolean trivial(int n, int k, boolean atLeast) {
+        return atLeast ? k <= 1 || k >= n : k <= 0 || k >= n;
+    }
+
+    private static void encode(Encoding e, int k, int[] lits, boolean atLeast, Sink s) {
+        int n = lits.length;
+        if (trivial(n, k, atLeast)) {
+            if (atLeast && k > n)
+                s.add(new int[0]);
+            else if (atLeast && k == 1)
+                s.add(lits.clone());
+            else if ((atLeast && k > 0) || (!atLeast && k == 0))
+                for (int x : lits)
+                    s.add(atLeast ? x : -x);
+            return;
+        }
+        switch (e) {
+        case BINOMIAL:
+            // At-Least-k = At-Most-(n - k) of the negated literals
+            binomial(atLeast ? n - k + 1 : k + 1, lits, atLeast, s);
+            break;
+        case SEQUENTIAL:
+            if (atLeast)
+                sequential(n - k, negated(lits), s);
+            else
+                sequential(k, lits, s);
+            break;
+        case TOTALIZER: {
+            int[] count = totalizer(lits, 0, n, atLeast ? k : k + 1, atLeast, s);
+            s.add(atLeast ? count[k - 1] : -count[k]);
+            break;
+        }
+        case MODULO_TOTALIZER:
+            if (atLeast)
+                moduloTotalizer(n - k, negated(lits), s);
+            else
+                moduloTotalizer(k, lits, s);
+            break;
+        case CARDINALITY_NETWORK: {
+            int[] sorted = sort(lits, atLeast ? k : k + 1, atLeast, s);
+            s.add(atLeast ? sorted[k - 1] : -sorted[k]);
+            break;
+        }
+        }
+    }
+
+    private static void encode(AtMostOne e, int[] x, Sink s) {
+        if (x.length <= 1)
+            return;
+        switch (e) {
+        case PAIRWISE:
+            pairwise(x, s);
+            break;
+        case LADDER:
+            sequential(1, x, s);
+            break;
+        case COMMANDER:
+            commander(x, s);
+            break;
+        case PRODUCT:
+            product(x, s);
+            break;
+        case BIMANDER:
+            bimander(x, s);
+            break;
+        }
+    }
+
+    // At-Most-1(x), a clause per pair of literals
+    private static void pairwise(int[] x, Sink s) {
+        for (int i = 0; i < x.length; ++i)
+            for (int j = i + 1; j < x.length; ++j)
+                s.add(-x[i], -x[j]);
+    }
+
+    // At-Most-1(x) (Commander Encoding by Klieber and Kwon): groups of 3 literals, pairwise within each
+    // group, each group implying a commander variable, and At-Most-1 of the commanders recursively
+    private static void commander(int[] x, Sink s) {
+        if (x.length < 6) {
+            pairwise(x, s);
+            return;
+        }
+        int[] c = new int[(x.length + 2) / 3];
+        for (int g = 0; g < c.length; ++g) {
+            int[] group = Arrays.copyOfRange(x, 3 * g, Math.min(3 * g + 3, x.length));
+            if (group.length == 1) { // A single literal commands itself
+                c[g] = group[0];
+                continue;
+            }
+            c[g] = s.fresh();
+            pairwise(group, s);
+            for (int y : group)
+                s.add(-y, c[g]);
+        }
+        commander(c, s);
+    }
+
+    // At-Most-1(x) (Product Encoding by Chen): literals in a p x q grid, each one implying its row and
+    // its column, and At-Most-1 of the rows and of the columns recursively
+    private static void product(int[] x, Sink s) {
+        int n = x.length;
+        if (n < 7) {
+            pairwise(x, s);
+            return;
+        }
+        int q = (int) Math.ceil(Math.sqrt(n)), p = (n + q - 1) / q;
+        int[] u = new int[p], v = new int[q];
+        for (int i = 0; i < p; ++i)
+            u[i] = s.fresh();
+        for (int j = 0; j < q; ++j)
+            v[j] = s.fresh();
+        for (int i = 0; i < n; ++i) {
+            s.add(-x[i], u[i / q]);
+            s.add(-x[i], v[i % q]);
+        }
+        product(u, s);
+        product(v, s);
+    }
+
+    // At-Most-1(x) (Bimander Encoding by Nguyen and Mai): groups of 2 literals, pairwise within each group,
+    // and each literal implying the binary number of its group, on ceil(log2(number of groups)) variables
+    private static void bimander(int[] x, Sink s) {
+        int m = (x.length + 1) / 2;
+        int[] b = new int[32 - Integer.numberOfLeadingZeros(m - 1)];
+        for (int j = 0; j < b.length; ++j)
+            b[j] = s.fresh();
+        for (int g = 0; g < m; ++g) {
+            int[] group = Arrays.copyOfRange(x, 2 * g, Math.min(2 * g + 2, x.length));
+            pairwise(group, s);
+            for (int y : group)
+                for (int j = 0; j < b.length; ++j)
+                    s.add(-y, ((g >> j) & 1) == 1 ? b[j] : -b[j]);
+        }
+    }
+
+    private static int[] negated(int[] lits) {
+        int[] r = new int[lits.length];
+        for (int i = 0; i < lits.length; ++i)
+            r[i] = -lits[i];
+        return r;
+    }
+
+    // @returns n choose r, or Long.MAX_VALUE if larger
+    private static long binomialCoefficient(int n, int r) {
+        r = Math.min(r, n - r);
+        long c = 1;
+        for (int i = 1; i <= r; ++i) {
+            if (c > Long.MAX_VALUE / (n - r + i))
+                return Long.MAX_VALUE;
+            c = c * (n - r + i) / i;
+        }
+        return c;
+    }
+
+    // A clause per subset of  r  of the literals x (negated unless positive), 0 < r <= n, the subsets being
+    // enumerated in lexicographic order on an array of their indexes, and built in a single array
+    private static void binomial(int r, int[] x, boolean positive, Sink s) {
+        int n = x.length;
+        int[] index = new int[r];
+        for (int i = 0; i < r; ++i)
+            index[i] = i;
+        int[] clause = s.buffer(r);
+        int start = clause.length - r;
+        for (;;) {
+            for (int i = 0; i < r; ++i)
+                clause[start + i] = positive ? x[index[i]] : -x[index[i]];
+            s.addBuffer(clause);
+            // Next subset: increase the last index that can be, and restart the following ones after it
+            int i = r - 1;
+            while (i >= 0 && index[i] == n - r + i)
+                --i;
+            if (i < 0)
+                return;
+            ++index[i];
+            for (int j = i + 1; j < r; ++j)
+                index[j] = index[j - 1] + 1;
+        }
+    }
+
+    // At-Most-k(x), 0 < k < n (Sequential Counter Encoding by Sinz), with (n - 1) x k auxiliary variables
+    // r_{i,j} (at least j of x_1 .. x_i), numbered row by row
+    private static void sequential(int k, int[] x, Sink s) {
+        int n = x.length;
+        int[][] r = new int[n][k + 1];
+        for (int i = 1; i < n; ++i)
+            for (int j = 1; j <= k; ++j)
+                r[i][j] = s.fresh();
+
+        s.add(-x[0], r[1][1]);
+        for (int j = 2; j <= k; ++j)
+            s.add(-r[1][j]);
+        for (int i = 2; i < n; ++i) {
+            s.add(-x[i - 1], r[i][1]);
+            s.add(-r[i - 1][1], r[i][1]);
+            for (int j = 2; j <= k; ++j) {
+                s.add(-x[i - 1], -r[i - 1][j - 1], r[i][j]);
+                s.add(-r[i - 1][j], r[i][j]);
+            }
+            s.add(-x[i - 1], -r[i - 1][k]);
+        }
+        s.add(-x[n - 1], -r[n - 1][k]);
+    }
+
+    // @returns the outputs of a totalizer of x[from .. to - 1] capped at  cap : output  j  (from 0) means that
+    //          at least j + 1 literals hold, and is implied by them (implies them if atLeast)
+    private static int[] totalizer(int[] x, int from, int to, int cap, boolean atLeast, Sink s) {
+        if (to - from == 1)
+            return new int[] {x[from]};
+        int mid = (from + to) / 2;
+        int[] a = totalizer(x, from, mid, cap, atLeast, s);
+        int[] b = totalizer(x, mid, to, cap, atLeast, s);
+        int[] r = new int[Math.min(a.length + b.length, cap)];
+        for (int j = 0; j < r.length; ++j)
+            r[j] = s.fresh();
+        for (int i = 0; i <= a.length; ++i)
+            for (int j = 0; j <= b.length; ++j) {
+                if (!atLeast && i + j >= 1 && i + j <= r.length) {
+                    // a_i & b_j -> r_{i+j}
+                    int[] clause = new int[] {i > 0 ? -a[i - 1] : 0, j > 0 ? -b[j - 1] : 0, r[i + j - 1]};
+                    s.add(compact(clause));
+                }
+                else if (atLeast && i + j < r.length) {
+                    // r_{i+j+1} -> a_{i+1} | b_{j+1}
+                    int[] clause = new int[] {-r[i + j], i < a.length ? a[i] : 0, j < b.length ? b[j] : 0};
+                    s.add(compact(clause));
+                }
+            }
+        return r;
+    }
+
+    // At-Most-k(x), 0 < k < n (Modulo Totalizer by Ogawa et al.), with modulo  m = ceil(sqrt(k + 1))
+    private static void moduloTotalizer(int k, int[] x, Sink s) {
+        int m = Math.max(2, (int) Math.ceil(Math.sqrt(k + 1)));
+        int q = (k + 1) / m, rem = (k + 1) % m;
+        int[][] root = moduloTotalizer(x, 0, x.length, m, rem == 0 ? q : q + 1, s);
+        int[] lower = root[0], upper = root[1];
+        // Not (upper >= q + 1 or (upper >= q and lower >= rem))
+        if (rem == 0)
+            s.add(-upper[q - 1]);
+        else {
+            if (upper.length > q)
+                s.add(-upper[q]);
+            s.add(q > 0 ? new int[] {-upper[q - 1], -lower[rem - 1]} : new int[] {-lower[rem - 1]});
+        }
+    }
+
+    // @returns the lower (count mod m, unary) and upper (count div m, unary, capped at  cap) outputs of
+    //          a modulo totalizer of x[from .. to - 1]
+    private static int[][] moduloTotalizer(int[] x, int from, int to, int m, int cap, Sink s) {
+        if (to - from == 1)
+            return new int[][] {{x[from]}, {}};
+        int mid = (from + to) / 2;
+        int[][] a = moduloTotalizer(x, from, mid, m, cap, s);
+        int[][] b = moduloTotalizer(x, mid, to, m, cap, s);
+        int[] la = a[0], ua = a[1], lb = b[0], ub = b[1];
+        int upperMax = (to - from) / m; // Uncapped number of upper outputs
+        int[] lower = new int[Math.min(m - 1, to - from)];
+        for (int j = 0; j < lower.length; ++j)
+            lower[j] = s.fresh();
+        int carry = la.length + lb.length >= m ? s.fresh() : 0;
+        int[] upper = new int[Math.min(upperMax, cap)];
+        for (int j = 0; j < upper.length; ++j)
+            upper[j] = s.fresh();
+
+        // Lower digits: la_i & lb_j -> carry | lower_{i+j} if i + j < m, else carry & lower_{i+j-m}
+        for (int i = 0; i <= la.length; ++i)
+            for (int j = 0; j <= lb.length; ++j) {
+                int ai = i > 0 ? -la[i - 1] : 0, bj = j > 0 ? -lb[j - 1] : 0;
+                if (i + j == 0)
+                    continue;
+                if (i + j < m)
+                    s.add(compact(new int[] {ai, bj, carry, lower[i + j - 1]}));
+                else {
+                    s.add(compact(new int[] {ai, bj, carry}));
+                    if (i + j > m)
+                        s.add(compact(new int[] {ai, bj, lower[i + j - m - 1]}));
+                }
+            }
+        // Upper digits: ua_i & ub_j -> upper_{i+j}, and ua_i & ub_j & carry -> upper_{i+j+1}
+        for (int i = 0; i <= ua.length; ++i)
+            for (int j = 0; j <= ub.length; ++j) {
+                int ai = i > 0 ? -ua[i - 1] : 0, bj = j > 0 ? -ub[j - 1] : 0;
+                if (i + j > 0)
+                    s.add(compact(new int[] {ai, bj, upperOutput(upper, upperMax, i + j)}));
+                if (carry != 0)
+                    s.add(compact(new int[] {ai, bj, -carry, upperOutput(upper, upperMax, i + j + 1)}));
+            }
+        return new int[][] {lower, upper};
+    }
+
+    // @returns the literal for  upper >= t  (saturated at the cap), or 0 (none) if the node cannot count that far
+    private static int upperOutput(int[] upper, int upperMax, int t) {
+        return t > upperMax ? 0 : upper[Math.min(t, upper.length) - 1];
+    }
+
+    // @returns the first min(m, n) outputs of an odd-even merge sorting network of x (true first): they
+    //          are implied by the inputs (imply them if atLeast)
+    private static int[] sort(int[] x, int m, boolean atLeast, Sink s) {
+        if (x.length <= 1)
+            return Arrays.copyOf(x, Math.min(m, x.length));
+        int half = x.length / 2;
+        return merge(sort(Arrays.copyOfRange(x, 0, half), m, atLeast, s),
+                     sort(Arrays.copyOfRange(x, half, x.length), m, atLeast, s), m, atLeast, s);
+    }
+
+    // @returns the first min(m, |a| + |b|) outputs of the odd-even merge of the sorted a and b
+    private static int[] merge(int[] a, int[] b, int m, boolean atLeast, Sink s) {
+        int len = Math.min(m, a.length + b.length);
+        if (a.length == 0)
+            return Arrays.copyOf(b, len);
+        if (b.length == 0)
+            return Arrays.copyOf(a, len);
+        if (a.length == 1 && b.length == 1)
+            return comparator(a[0], b[0], len, atLeast, s);
+        int[] v = merge(everyOther(a, 0), everyOther(b, 0), len / 2 + 1, atLeast, s);
+        int[] w = merge(everyOther(a, 1), everyOther(b, 1), len / 2, atLeast, s);
+        int[] r = new int[len];
+        r[0] = v[0];
+        for (int i = 0, o = 1; o < len; ++i) {
+            if (i < w.length && i + 1 < v.length) {
+                int[] c = comparator(w[i], v[i + 1], Math.min(2, len - o), atLeast, s);
+                System.arraycopy(c, 0, r, o, c.length);
+                o += c.length;
+            }
+            else
+                r[o++] = i < w.length ? w[i] : v[i + 1];
+        }
+        return r;
+    }
+
+    private static int[] everyOther(int[] a, int from) {
+        int[] r = new int[(a.length - from + 1) / 2];
+        for (int i = 0; i < r.length; ++i)
+            r[i] = a[from + 2 * i];
+        return r;
+    }
+
+    // @returns the first  len  (1 or 2) outputs of a comparator of x and y: max = x | y, min = x & y
+    //          (only the implications from the inputs, or to them if atLeast)
+    private static int[] comparator(int x, int y, int len, boolean atLeast, Sink s) {
+        int[] r = new int[len];
+        r[0] = s.fresh();
+        if (atLeast)
+            s.add(-r[0], x, y);
+        else {
+            s.add(-x, r[0]);
+            s.add(-y, r[0]);
+        }
+        if (len > 1) {
+            r[1] = s.fresh();
+            if (atLeast) {
+                s.add(-r[1], x);
+                s.add(-r[1], y);
+            }
+            else
+                s.add(-x, -y, r[1]);
+        }
+        return r;
+    }
+
+    // @returns clause without its 0 (absent) literals
+    private static int[] compact(int[] clause) {
+        int k = 0;
+        for (int l : clause)
+            if (l != 0)
+                clause[k++] = l;
+        return k == clause.length ? clause : Arrays.copyOf(clause, k);
+    }
+
+}
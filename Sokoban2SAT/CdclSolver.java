@@ -0,0 +1,730 @@
+/**
+ * @class CdclSolver
+ * @author Miquel Bofill
+ * @version 1.1
+ * @date 2023-07-08
+ * @brief A conflict-driven clause-learning SAT solver running in the JVM
+ *
+ * Clauses are given as DIMACS literals, or taken from a DIMACSFormula as they are
+ * (see addClauses), so that formulas need not be written as text nor a solver be
+ * installed. Unit propagation watches two literals per clause (with a blocking
+ * literal), decisions follow VSIDS activities with phase saving, conflicts are
+ * analysed up to their first unique implication point and the learnt clauses are
+ * minimised, restarts follow the Luby sequence, and learnt clauses are periodically
+ * deleted, keeping those of lowest LBD (number of decision levels of their literals).
+ *
+ * Clauses can be added between calls to solve, which can be given assumptions (as
+ * the goal activation literals of Encoder), for incremental solving. As a SatSolver,
+ * it solves a DIMACS file with a new instance, so that it can be shared by threads.
+*/
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+public class CdclSolver implements SatSolver {
+
+    private static final double VAR_DECAY = 0.95;
+    private static final double CLAUSE_DECAY = 0.999;
+    private static final int RESTART_UNIT = 100;   ///< conflicts per unit of the Luby sequence
+    private static final int REDUCE_FIRST = 2000;  ///< conflicts before the first deletion of learnt clauses
+    private static final int REDUCE_INC = 300;     ///< increment of the conflicts between deletions
+
+    // Literals are numbered internally as 2 * variable (positive) and 2 * variable + 1 (negative)
+
+    private static final class Clause {
+        final int[] lits; ///< the two first literals are watched (the first one is implied, if a reason)
+        final boolean learnt;
+        int lbd;
+        double activity;
+        boolean deleted;
+
+        Clause(int[] lits, boolean learnt) {
+            this.lits = lits;
+            this.learnt = learnt;
+        }
+    }
+
+    private int _nVars;
+    private byte[] _assigns;     ///< value of each variable: 1 true, -1 false, 0 unassigned
+    private int[] _level;        ///< decision level of each assigned variable
+    private Clause[] _reason;    ///< clause implying each assigned variable (null if decided)
+    private boolean[] _phase;    ///< last value of each variable (phase saving)
+    private boolean[] _seen;     ///< marks of conflict analysis
+    private double[] _activity;  ///< VSIDS activity of each variable
+    private double _varInc = 1;
+    private double _clauseInc = 1;
+
+    private int[] _heap;         ///< variables by decreasing activity (binary heap)
+    private int[] _heapIndex;    ///< position of each variable in _heap (-1 if not there)
+    private int _heapSize;
+
+    private Clause[][] _watches; ///< clauses watching each literal
+    private int[][] _blockers;   ///< a literal of each of those clauses, whose truth satisfies it
+    private int[] _nWatches;
+
+    private int[] _trail = new int[16]; ///< assigned literals, in order
+    private int _trailSize;
+    private int _qhead;          ///< next literal of _trail to propagate
+    private int[] _trailLim = new int[16]; ///< position in _trail of each decision
+    private int _nLevels;
+
+    private final ArrayList<Clause> _clauses = new ArrayList<>();
+    private final ArrayList<Clause> _learnts = new ArrayList<>();
+    private boolean _ok = true;  ///< false once the clauses are unsatisfiable
+    private boolean[] _model;    ///< value of each variable in the last model (null if none)
+
+    private long _conflicts;
+    private long _nextReduce = REDUCE_FIRST;
+    private int _nReductions;
+
+    private int[] _learnt = new int[16]; ///< clause being learnt
+    private int _learntSize;
+    private int[] _cleared = new int[16]; ///< literals marked as seen by minimisation, to be unmarked
+    private int _nCleared;
+    private int[] _stack = new int[16];   ///< literals to follow by minimisation
+    private int[] _levelStamp = new int[16]; ///< for LBD computation
+    private int _stamp;
+
+    public CdclSolver() {
+        grow(0);
+    }
+
+    /// @returns The number of variables (highest variable number seen)
+    public int nVars() {
+        return _nVars;
+    }
+
+    /// @returns The number of conflicts so far
+    public long conflicts() {
+        return _conflicts;
+    }
+
+    // @post Room for the variables up to  n
+    private void grow(int n) {
+        if (_assigns != null && n < _assigns.length)
+            return;
+        int capacity = Math.max(16, Math.max(n + 1, _assigns == null ? 0 : 2 * _assigns.length));
+        int old = _assigns == null ? 0 : _assigns.length;
+        _assigns = _assigns == null ? new byte[capacity] : Arrays.copyOf(_assigns, capacity);
+        _level = _level == null ? new int[capacity] : Arrays.copyOf(_level, capacity);
+        _reason = _reason == null ? new Clause[capacity] : Arrays.copyOf(_reason, capacity);
+        _phase = _phase == null ? new boolean[capacity] : Arrays.copyOf(_phase, capacity);
+        _seen = _seen == null ? new boolean[capacity] : Arrays.copyOf(_seen, capacity);
+        _activity = _activity == null ? new double[capacity] : Arrays.copyOf(_activity, capacity);
+        _heap = _heap == null ? new int[capacity] : Arrays.copyOf(_heap, capacity);
+        _heapIndex = _heapIndex == null ? new int[capacity] : Arrays.copyOf(_heapIndex, capacity);
+        Arrays.fill(_heapIndex, old, capacity, -1);
+        _watches = _watches == null ? new Clause[2 * capacity][] : Arrays.copyOf(_watches, 2 * capacity);
+        _blockers = _blockers == null ? new int[2 * capacity][] : Arrays.copyOf(_blockers, 2 * capacity);
+        _nWatches = _nWatches == null ? new int[2 * capacity] : Arrays.copyOf(_nWatches, 2 * capacity);
+        for (int lit = 2 * old; lit < 2 * capacity; ++lit) {
+            _watches[lit] = new Clause[4];
+            _blockers[lit] = new int[4];
+        }
+        if (_trail.length < capacity)
+            _trail = Arrays.copyOf(_trail, capacity);
+    }
+
+    // @post Variables up to  n  exist (and are candidates for decisions)
+    private void ensureVars(int n) {
+        if (n <= _nVars)
+            return;
+        grow(n);
+        for (int v = _nVars + 1; v <= n; ++v)
+            heapInsert(v);
+        _nVars = n;
+    }
+
+    private static int internal(int literal) {
+        return literal > 0 ? 2 * literal : -2 * literal + 1;
+    }
+
+    private int value(int lit) {
+        int a = _assigns[lit >> 1];
+        return (lit & 1) == 0 ? a : -a;
+    }
+
+    /// @brief Adds a clause of DIMACS literals (an empty one makes the formula unsatisfiable)
+    public void addClause(int... clause) {
+        if (!_ok)
+            return;
+        int max = 0;
+        for (int literal : clause)
+            max = Math.max(max, Math.abs(literal));
+        ensureVars(max);
+        int[] lits = new int[clause.length];
+        for (int k = 0; k < clause.length; ++k)
+            lits[k] = internal(clause[k]);
+        Arrays.sort(lits);
+        int n = 0;
+        for (int k = 0; k < lits.length; ++k) {
+            int lit = lits[k];
+            if (n > 0 && lits[n - 1] == lit)
+                continue; // Repeated
+            if (n > 0 && lits[n - 1] == (lit ^ 1))
+                return; // Tautology
+            if (value(lit) == 1)
+                return; // Satisfied at level 0
+            if (value(lit) == -1)
+                continue; // False at level 0
+            lits[n++] = lit;
+        }
+        if (n == 0)
+            _ok = false;
+        else if (n == 1) {
+            enqueue(lits[0], null);
+            if (propagate() != null)
+                _ok = false;
+        }
+        else {
+            Clause c = new Clause(Arrays.copyOf(lits, n), false);
+            _clauses.add(c);
+            attach(c);
+        }
+    }
+
+    /// @brief Adds the clauses of \p f, as they are kept in memory
+    /// @pre \p f is not in streaming mode
+    public void addClauses(DIMACSFormula f) {
+        for (int i = 0; i < f.nClauses(); ++i)
+            addClause(f.clause(i));
+    }
+
+    /// @returns SAT if the clauses are satisfiable with the literals \p assumptions true, or UNSAT
+    /// @post The clauses are kept, together with the learnt ones, for later calls; the model is available
+    ///       with SAT (see model and print)
+    /// @post If the calling thread is interrupted, solving is abandoned by throwing InterruptedException
+    public int solve(int... assumptions) throws InterruptedException {
+        _model = null;
+        if (!_ok)
+            return UNSAT;
+        int max = 0;
+        for (int literal : assumptions)
+            max = Math.max(max, Math.abs(literal));
+        ensureVars(max);
+        int[] assume = new int[assumptions.length];
+        for (int k = 0; k < assumptions.length; ++k)
+            assume[k] = internal(assumptions[k]);
+        try {
+            for (int restart = 0; ; ++restart) {
+                int result = search(RESTART_UNIT * luby(restart), assume);
+                if (result != 0)
+                    return result;
+            }
+        }
+        finally {
+            cancelUntil(0);
+        }
+    }
+
+    /// @pre The last call to solve returned SAT
+    /// @returns The value of variable \p v in the model
+    public boolean model(int v) {
+        return v < _model.length && _model[v];
+    }
+
+    /// @pre The last call to solve returned SAT
+    /// @returns The variables true in the model
+    public BitSet model() {
+        BitSet model = new BitSet(_model.length);
+        for (int v = 1; v < _model.length; ++v)
+            if (_model[v])
+                model.set(v);
+        return model;
+    }
+
+    /// @post Writes \p result (SAT or UNSAT) as SAT solvers do, with the model (if SAT) as
+    ///       a line  v literals 0
+    public void print(int result, PrintStream out) {
+        if (result != SAT) {
+            out.println("s UNSATISFIABLE");
+            return;
+        }
+        out.println("s SATISFIABLE");
+        StringBuilder line = new StringBuilder("v");
+        for (int v = 1; v < _model.length; ++v) {
+            line.append(' ').append(_model[v] ? v : -v);
+            if (line.length() > 4000) {
+                out.println(line);
+                line = new StringBuilder("v");
+            }
+        }
+        out.println(line.append(" 0"));
+    }
+
+    /// @returns SAT or UNSAT for the CNF in file \p cnf, solved by a new instance; the result and
+    ///          the model (if SAT) are written to file \p out
+    @Override
+    public int solve(File cnf, File out) throws Exception {
+        CdclSolver solver = new CdclSolver();
+        try (InputStream in = new BufferedInputStream(new FileInputStream(cnf), 1 << 16)) {
+            solver.read(in);
+        }
+        int result = solver.solve();
+        try (PrintStream o = new PrintStream(out)) {
+            solver.print(result, o);
+        }
+        return result;
+    }
+
+    // @post The clauses of the DIMACS CNF in  in  are added (comment and header lines skipped)
+    private void read(InputStream in) throws IOException {
+        int[] clause = new int[16];
+        int size = 0;
+        int c = in.read();
+        while (c != -1) {
+            if (c == 'c' || c == 'p') {
+                while (c != -1 && c != '\n')
+                    c = in.read();
+                continue;
+            }
+            if (c == '-' || (c >= '0' && c <= '9')) {
+                int sign = 1, literal = 0;
+                if (c == '-') {
+                    sign = -1;
+                    c = in.read();
+                }
+                while (c >= '0' && c <= '9') {
+                    literal = 10 * literal + (c - '0');
+                    c = in.read();
+                }
+                if (literal == 0) {
+                    addClause(Arrays.copyOf(clause, size));
+                    size = 0;
+                }
+                else {
+                    if (size == clause.length)
+                        clause = Arrays.copyOf(clause, 2 * size);
+                    clause[size++] = sign * literal;
+                }
+                continue;
+            }
+            c = in.read();
+        }
+        if (size > 0)
+            addClause(Arrays.copyOf(clause, size));
+    }
+
+    // @returns SAT, UNSAT, or 0 if  budget  conflicts are reached (restart)
+    private int search(long budget, int[] assume) throws InterruptedException {
+        long conflicts = 0;
+        while (true) {
+            Clause conflict = propagate();
+            if (conflict != null) {
+                ++conflicts;
+                ++_conflicts;
+                if (_nLevels == 0) {
+                    _ok = false;
+                    return UNSAT;
+                }
+                int backtrack = analyze(conflict);
+                int[] lits = Arrays.copyOf(_learnt, _learntSize);
+                int lbd = lbd(lits);
+                cancelUntil(backtrack);
+                if (lits.length == 1)
+                    enqueue(lits[0], null);
+                else {
+                    Clause c = new Clause(lits, true);
+                    c.lbd = lbd;
+                    _learnts.add(c);
+                    attach(c);
+                    bumpClause(c);
+                    enqueue(lits[0], c);
+                }
+                _varInc /= VAR_DECAY;
+                _clauseInc /= CLAUSE_DECAY;
+                if ((_conflicts & 255) == 0 && Thread.interrupted())
+                    throw new InterruptedException();
+            }
+            else {
+                if (conflicts >= budget) {
+                    cancelUntil(0);
+                    return 0;
+                }
+                if (_conflicts >= _nextReduce) {
+                    _nextReduce = _conflicts + REDUCE_FIRST + (long) REDUCE_INC * ++_nReductions;
+                    reduce();
+                }
+                int next = -1;
+                while (_nLevels < assume.length) {
+                    int p = assume[_nLevels];
+                    if (value(p) == 1)
+                        newLevel(); // Already true: a level of its own, to keep the order
+                    else if (value(p) == -1)
+                        return UNSAT; // Under the assumptions
+                    else {
+                        next = p;
+                        break;
+                    }
+                }
+                if (next == -1) {
+                    int v = pickBranch();
+                    if (v == 0) {
+                        _model = new boolean[_nVars + 1];
+                        for (int u = 1; u <= _nVars; ++u)
+                            _model[u] = _assigns[u] == 1;
+                        return SAT;
+                    }
+                    next = _phase[v] ? 2 * v : 2 * v + 1;
+                }
+                if (Thread.interrupted()) // Also here, as decisions may go on long with few conflicts
+                    throw new InterruptedException();
+                newLevel();
+                enqueue(next, null);
+            }
+        }
+    }
+
+    private void newLevel() {
+        if (_nLevels == _trailLim.length)
+            _trailLim = Arrays.copyOf(_trailLim, 2 * _nLevels);
+        _trailLim[_nLevels++] = _trailSize;
+    }
+
+    private void enqueue(int lit, Clause reason) {
+        int v = lit >> 1;
+        _assigns[v] = (byte) ((lit & 1) == 0 ? 1 : -1);
+        _level[v] = _nLevels;
+        _reason[v] = reason;
+        _trail[_trailSize++] = lit;
+    }
+
+    private void cancelUntil(int level) {
+        if (_nLevels <= level)
+            return;
+        for (int k = _trailSize - 1; k >= _trailLim[level]; --k) {
+            int v = _trail[k] >> 1;
+            _phase[v] = _assigns[v] == 1;
+            _assigns[v] = 0;
+            _reason[v] = null;
+            if (_heapIndex[v] < 0)
+                heapInsert(v);
+        }
+        _trailSize = _trailLim[level];
+        _qhead = Math.min(_qhead, _trailSize);
+        _nLevels = level;
+    }
+
+    // @returns An unassigned variable of highest activity, or 0 if none
+    private int pickBranch() {
+        while (_heapSize > 0) {
+            int v = heapRemoveMax();
+            if (_assigns[v] == 0)
+                return v;
+        }
+        return 0;
+    }
+
+    private void attach(Clause c) {
+        watch(c.lits[0], c, c.lits[1]);
+        watch(c.lits[1], c, c.lits[0]);
+    }
+
+    private void watch(int lit, Clause c, int blocker) {
+        int n = _nWatches[lit];
+        if (n == _watches[lit].length) {
+            _watches[lit] = Arrays.copyOf(_watches[lit], 2 * n);
+            _blockers[lit] = Arrays.copyOf(_blockers[lit], 2 * n);
+        }
+        _watches[lit][n] = c;
+        _blockers[lit][n] = blocker;
+        _nWatches[lit] = n + 1;
+    }
+
+    // @returns A clause made false by propagating the trail, or null if none
+    private Clause propagate() {
+        while (_qhead < _trailSize) {
+            int falseLit = _trail[_qhead++] ^ 1;
+            Clause[] ws = _watches[falseLit];
+            int[] bs = _blockers[falseLit];
+            int n = _nWatches[falseLit], i = 0, j = 0;
+            Clause conflict = null;
+            while (i < n) {
+                Clause c = ws[i];
+                int blocker = bs[i++];
+                if (value(blocker) == 1) {
+                    ws[j] = c;
+                    bs[j++] = blocker;
+                    continue;
+                }
+                int[] lits = c.lits;
+                if (lits[0] == falseLit) {
+                    lits[0] = lits[1];
+                    lits[1] = falseLit;
+                }
+                int first = lits[0];
+                if (value(first) == 1) {
+                    ws[j] = c;
+                    bs[j++] = first;
+                    continue;
+                }
+                boolean moved = false;
+                for (int k = 2; k < lits.length; ++k)
+                    if (value(lits[k]) != -1) {
+                        lits[1] = lits[k];
+                        lits[k] = falseLit;
+                        watch(lits[1], c, first);
+                        moved = true;
+                        break;
+                    }
+                if (moved)
+                    continue;
+                ws[j] = c;
+                bs[j++] = first;
+                if (value(first) == -1) {
+                    conflict = c;
+                    _qhead = _trailSize;
+                    while (i < n) {
+                        ws[j] = ws[i];
+                        bs[j++] = bs[i++];
+                    }
+                }
+                else
+                    enqueue(first, c);
+            }
+            _nWatches[falseLit] = j;
+            if (conflict != null)
+                return conflict;
+        }
+        return null;
+    }
+
+    // @post The clause learnt from  conflict  is in  _learnt  (asserting literal first, and a
+    //       literal of the backtrack level second)
+    // @returns The backtrack level
+    private int analyze(Clause conflict) {
+        _learntSize = 1; // Room for the asserting literal
+        int pathCount = 0, p = -1, index = _trailSize - 1;
+        Clause c = conflict;
+        do {
+            if (c.learnt)
+                bumpClause(c);
+            for (int k = p == -1 ? 0 : 1; k < c.lits.length; ++k) {
+                int q = c.lits[k], v = q >> 1;
+                if (!_seen[v] && _level[v] > 0) {
+                    _seen[v] = true;
+                    bumpVar(v);
+                    if (_level[v] >= _nLevels)
+                        ++pathCount;
+                    else
+                        addLearnt(q);
+                }
+            }
+            while (!_seen[_trail[index] >> 1])
+                --index;
+            p = _trail[index--];
+            c = _reason[p >> 1];
+            _seen[p >> 1] = false;
+            --pathCount;
+        } while (pathCount > 0);
+        _learnt[0] = p ^ 1;
+
+        // Minimisation: literals implied by other literals of the clause (through their reasons) are left out
+        int size = _learntSize, kept = 1, levels = 0;
+        _cleared = Arrays.copyOf(_learnt, Math.max(size, _cleared.length));
+        _nCleared = size;
+        for (int k = 1; k < size; ++k)
+            levels |= abstractLevel(_learnt[k] >> 1);
+        for (int k = 1; k < size; ++k) {
+            int q = _learnt[k];
+            if (_reason[q >> 1] == null || !redundant(q, levels))
+                _learnt[kept++] = q;
+        }
+        for (int k = 0; k < _nCleared; ++k)
+            _seen[_cleared[k] >> 1] = false;
+        _learntSize = kept;
+
+        if (kept == 1)
+            return 0;
+        int best = 1;
+        for (int k = 2; k < kept; ++k)
+            if (_level[_learnt[k] >> 1] > _level[_learnt[best] >> 1])
+                best = k;
+        int swap = _learnt[1];
+        _learnt[1] = _learnt[best];
+        _learnt[best] = swap;
+        return _level[_learnt[1] >> 1];
+    }
+
+    private int abstractLevel(int v) {
+        return 1 << (_level[v] & 31);
+    }
+
+    // @returns Whether  lit , of the clause being learnt, is implied by its other literals, following
+    //          reasons only through the decision levels in  levels  (as given by abstractLevel)
+    // @post The literals found implied on the way are marked as seen, and added to  _cleared
+    private boolean redundant(int lit, int levels) {
+        int top = _nCleared, stack = 0;
+        _stack = push(_stack, stack++, lit);
+        while (stack > 0) {
+            Clause r = _reason[_stack[--stack] >> 1];
+            for (int m = 1; m < r.lits.length; ++m) {
+                int q = r.lits[m], u = q >> 1;
+                if (_seen[u] || _level[u] == 0)
+                    continue;
+                if (_reason[u] == null || (abstractLevel(u) & levels) == 0) {
+                    for (int k = top; k < _nCleared; ++k)
+                        _seen[_cleared[k] >> 1] = false;
+                    _nCleared = top;
+                    return false;
+                }
+                _seen[u] = true;
+                _stack = push(_stack, stack++, q);
+                _cleared = push(_cleared, _nCleared++, q);
+            }
+        }
+        return true;
+    }
+
+    // @returns  a  (or a larger copy) with  lit  at position  i
+    private static int[] push(int[] a, int i, int lit) {
+        if (i == a.length)
+            a = Arrays.copyOf(a, 2 * i);
+        a[i] = lit;
+        return a;
+    }
+
+    private void addLearnt(int lit) {
+        if (_learntSize == _learnt.length)
+            _learnt = Arrays.copyOf(_learnt, 2 * _learntSize);
+        _learnt[_learntSize++] = lit;
+    }
+
+    // @returns The number of decision levels of  lits
+    private int lbd(int[] lits) {
+        if (_levelStamp.length <= _nLevels)
+            _levelStamp = Arrays.copyOf(_levelStamp, 2 * (_nLevels + 1));
+        ++_stamp;
+        int n = 0;
+        for (int lit : lits) {
+            int level = _level[lit >> 1];
+            if (_levelStamp[level] != _stamp) {
+                _levelStamp[level] = _stamp;
+                ++n;
+            }
+        }
+        return n;
+    }
+
+    // @post About half of the learnt clauses are deleted: those of highest LBD (and least activity),
+    //       but for those of LBD 2 at most and the reasons of assigned literals
+    private void reduce() {
+        _learnts.sort((a, b) -> a.lbd != b.lbd ? Integer.compare(b.lbd, a.lbd) : Double.compare(a.activity, b.activity));
+        int limit = _learnts.size() / 2;
+        ArrayList<Clause> kept = new ArrayList<>(_learnts.size() - limit);
+        for (int k = 0; k < _learnts.size(); ++k) {
+            Clause c = _learnts.get(k);
+            int first = c.lits[0];
+            boolean locked = _reason[first >> 1] == c && value(first) == 1;
+            if (k < limit && c.lbd > 2 && !locked)
+                c.deleted = true;
+            else
+                kept.add(c);
+        }
+        _learnts.clear();
+        _learnts.addAll(kept);
+        for (int lit = 2; lit < 2 * (_nVars + 1); ++lit) {
+            Clause[] ws = _watches[lit];
+            int[] bs = _blockers[lit];
+            int j = 0;
+            for (int i = 0; i < _nWatches[lit]; ++i)
+                if (!ws[i].deleted) {
+                    ws[j] = ws[i];
+                    bs[j++] = bs[i];
+                }
+            Arrays.fill(ws, j, _nWatches[lit], null);
+            _nWatches[lit] = j;
+        }
+    }
+
+    private void bumpVar(int v) {
+        if ((_activity[v] += _varInc) > 1e100) {
+            for (int u = 1; u <= _nVars; ++u)
+                _activity[u] *= 1e-100;
+            _varInc *= 1e-100;
+        }
+        if (_heapIndex[v] >= 0)
+            heapUp(_heapIndex[v]);
+    }
+
+    private void bumpClause(Clause c) {
+        if ((c.activity += _clauseInc) > 1e20) {
+            for (Clause d : _learnts)
+                d.activity *= 1e-20;
+            _clauseInc *= 1e-20;
+        }
+    }
+
+    // @returns Element  i  of the Luby sequence 1, 1, 2, 1, 1, 2, 4, ...
+    private static int luby(int i) {
+        int size = 1, exponent = 0;
+        while (size < i + 1) {
+            ++exponent;
+            size = 2 * size + 1;
+        }
+        while (size - 1 != i) {
+            size = (size - 1) >> 1;
+            --exponent;
+            i %= size;
+        }
+        return 1 << exponent;
+    }
+
+    private void heapInsert(int v) {
+        _heapIndex[v] = _heapSize;
+        _heap[_heapSize++] = v;
+        heapUp(_heapSize - 1);
+    }
+
+    private int heapRemoveMax() {
+        int v = _heap[0];
+        _heapIndex[v] = -1;
+        int last = _heap[--_heapSize];
+        if (_heapSize > 0) {
+            _heap[0] = last;
+            _heapIndex[last] = 0;
+            heapDown(0);
+        }
+        return v;
+    }
+
+    private void heapUp(int i) {
+        int v = _heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >> 1;
+            if (_activity[_heap[parent]] >= _activity[v])
+                break;
+            _heap[i] = _heap[parent];
+            _heapIndex[_heap[i]] = i;
+            i = parent;
+        }
+        _heap[i] = v;
+        _heapIndex[v] = i;
+    }
+
+    private void heapDown(int i) {
+        int v = _heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= _heapSize)
+                break;
+            if (child + 1 < _heapSize && _activity[_heap[child + 1]] > _activity[_heap[child]])
+                ++child;
+            if (_activity[_heap[child]] <= _activity[v])
+                break;
+            _heap[i] = _heap[child];
+            _heapIndex[_heap[i]] = i;
+            i = child;
+        }
+        _heap[i] = v;
+        _heapIndex[v] = i;
+    }
+
+}
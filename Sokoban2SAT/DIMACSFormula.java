@@ -1,35 +1,110 @@
 /**
  * @class DIMACSFormula
  * @author Miquel Bofill
- * @version 1.1
- * @date 2022-11-15
+ * @version 1.8
+ * @date 2023-07-05
  * @brief A DIMACS formula with atom names
+ *
+ * Atoms are either given by name (see addClause(List<String>)), or numbered by a
+ * VariableRegistry (see addClause(int...)), in which case names are only generated
+ * when printing. Clauses are kept in a ClauseArena, or, in streaming mode, written
+ * to a temporary file as they are added; the comments and the header are then
+ * prepended when printing, so that memory is proportional to the number of atoms.
+ * Output is formatted by a DIMACSWriter, and comments can be omitted. The formula
+ * can also be printed by blocks of an iCNF file (see printBlock), for incremental solving.
+ * Literals known in advance can be fixed (see fix), so that the clauses added afterwards
+ * are simplified by them. Clauses in memory can be read back as integers (see clause),
+ * for a solver in the same JVM (see CdclSolver).
 */
 
 import java.util.List;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.BitSet;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
 
 public class DIMACSFormula {
 
     private ArrayList<String> _names; ///< atom names (position 0 not used)
     private HashMap<String,Integer> _numbers; ///< variable number for each name
-    private ArrayList<LinkedList<Integer>> _formula; ///< DIMACS Formula
+    private VariableRegistry _registry; ///< numbering of the atoms (null if atoms are given by name)
+    private BitSet _used; ///< atoms occurring in the formula (when numbered by the registry)
+    private int _nVars; ///< highest atom number
+    private ClauseArena _formula; ///< DIMACS Formula (null in streaming mode)
+    private File _spool; ///< clauses written so far (streaming mode)
+    private FileChannel _spoolChannel; ///< channel on _spool (streaming mode)
+    private DIMACSWriter _spoolOut; ///< writer on _spoolChannel (streaming mode)
+    private int _nClauses; ///< number of clauses written to _spool (streaming mode)
+    private BitSet _fixed; ///< fixed literals, bit 2 * atom for positive and 2 * atom + 1 for negative ones (null if none)
 
     public DIMACSFormula() {
         _names = new ArrayList<>();
         _names.add("void"); // Position 0 not used
         _numbers = new HashMap<>();
-        _formula = new ArrayList<>();
+        _formula = new ClauseArena();
+    }
+
+    /// @brief A formula whose atoms are numbered by \p registry
+    public DIMACSFormula(VariableRegistry registry) {
+        _registry = registry;
+        _registry.freeze();
+        _used = new BitSet();
+        _formula = new ClauseArena();
+    }
+
+    /// @brief A formula whose atoms are numbered by \p registry, whose clauses are
+    ///        written to a temporary file as they are added if \p streaming
+    public DIMACSFormula(VariableRegistry registry, boolean streaming) throws IOException {
+        this(registry);
+        if (streaming) {
+            _formula = null;
+            _spool = File.createTempFile("dimacs", ".cnf");
+            _spool.deleteOnExit();
+            openSpool();
+        }
+    }
+
+    private void openSpool() throws IOException {
+        _spoolChannel = new FileOutputStream(_spool).getChannel();
+        _spoolOut = new DIMACSWriter(_spoolChannel);
+        _nClauses = 0;
+    }
+
+    private void closeSpool() throws IOException {
+        _spoolOut.flush();
+        _spoolChannel.close();
+    }
+
+    public boolean streaming() {
+        return _spool != null;
+    }
+
+    public VariableRegistry registry() {
+        return _registry;
+    }
+
+    /// @returns The number of variables (highest atom number)
+    public int nVars() {
+        return _nVars;
+    }
+
+    /// @returns The number of clauses
+    public int nClauses() {
+        return streaming() ? _nClauses : _formula.size();
     }
 
     /// @brief The name for a variable
     /// @returns The name for atom number \p i
     private String name(int i) {
-        return _names.get(i);
+        return _registry == null ? _names.get(i) : _registry.name(i);
     }
 
     /// @brief The number for a variable
@@ -42,8 +117,9 @@ public class DIMACSFormula {
     /// @pre \p clause not empty and negated literals begin with !
     /// @post \p clause belongs to the formula
     public void addClause(List<String> clause) {
+        if (_registry != null)
+            throw new IllegalStateException("Atoms of this formula are numbered by a registry");
         if (clause != null && !clause.isEmpty()) {
-            LinkedList<Integer> iclause = new LinkedList<>();
             for (String literal : clause) {
                 int sign = 1;
                 String atom = literal;
@@ -58,65 +134,239 @@ public class DIMACSFormula {
                     _numbers.put(atom, number);
                     _names.add(atom);
                 }
-                iclause.add(sign * number);
+                _formula.push(sign * number);
+            }
+            _nVars = _names.size() - 1;
+            _formula.endClause();
+        }
+    }
+
+    /// @brief Adds a clause of DIMACS literals
+    /// @pre \p clause not empty and atoms numbered by the registry of the formula
+    /// @post \p clause belongs to the formula, unless some literal of it is fixed; literals
+    ///       whose negation is fixed are left out of it, unless none would be left
+    public void addClause(int... clause) {
+        if (_fixed != null) {
+            clause = simplified(clause);
+            if (clause == null)
+                return;
+        }
+        append(clause);
+    }
+
+    /// @brief Fixes a literal
+    /// @pre Atom of \p literal numbered by the registry of the formula
+    /// @post Unit clause \p literal belongs to the formula (once), and simplifies the clauses added afterwards
+    public void fix(int literal) {
+        if (_fixed == null)
+            _fixed = new BitSet();
+        if (!fixed(literal)) {
+            _fixed.set(bit(literal));
+            append(literal);
+        }
+    }
+
+    private static int bit(int literal) {
+        return literal > 0 ? 2 * literal : -2 * literal + 1;
+    }
+
+    private boolean fixed(int literal) {
+        return _fixed.get(bit(literal));
+    }
+
+    // @returns null if some literal of  clause  is fixed, else  clause  without the literals
+    //          whose negation is fixed (clause  itself if there are none, or if all of them are)
+    private int[] simplified(int[] clause) {
+        int nFalse = 0;
+        for (int literal : clause) {
+            if (fixed(literal))
+                return null;
+            if (fixed(-literal))
+                ++nFalse;
+        }
+        if (nFalse == 0 || nFalse == clause.length)
+            return clause;
+        int[] rest = new int[clause.length - nFalse];
+        int k = 0;
+        for (int literal : clause)
+            if (!fixed(-literal))
+                rest[k++] = literal;
+        return rest;
+    }
+
+    private void append(int... clause) {
+        if (clause.length != 0) {
+            for (int literal : clause) {
+                int v = Math.abs(literal);
+                if (v > _nVars)
+                    _nVars = v;
+                if (_used != null)
+                    _used.set(v);
+            }
+            if (streaming()) {
+                try {
+                    for (int literal : clause)
+                        _spoolOut.literal(literal);
+                    _spoolOut.endClause();
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                ++_nClauses;
             }
-            _formula.add(iclause);
+            else
+                _formula.add(clause);
         }
     }
     
     //CRISTINA: used when using optilog for incremental solving
-    public ArrayList<LinkedList<Integer>> getClauses(){
-    	return _formula;
+    // @returns a read-only view of the clauses (see ClauseArena)
+    // @pre not in streaming mode
+    public List<List<Integer>> getClauses(){
+    	if (streaming())
+    		throw new IllegalStateException("Clauses of a streaming formula are not kept in memory");
+    	return _formula.asList();
+    }
+    // @returns the literals of clause  i  (a copy), for solvers taking them as integers
+    // @pre not in streaming mode, 0 <= i < nClauses()
+    public int[] clause(int i) {
+    	if (streaming())
+    		throw new IllegalStateException("Clauses of a streaming formula are not kept in memory");
+    	return _formula.clause(i);
     }
     public void clear(){
-    	_formula.clear();
+    	if (streaming()) {
+    		try {
+    			closeSpool();
+    			openSpool();
+    		}
+    		catch (IOException e) {
+    			throw new UncheckedIOException(e);
+    		}
+    	}
+    	else
+    		_formula.clear();
     }
     //end-CRISTINA
+    // Fixed literals are kept by clear (the solver keeps their unit clauses)
 
     // Too slow
     // Use print (see below)
+    // @pre not in streaming mode
     @Override
     public String toString() {
+        if (streaming())
+            throw new IllegalStateException("Clauses of a streaming formula are not kept in memory");
         String s = "";
 
         // Comments
-        int i = 0;
-        Iterator<String> it = _names.iterator();
-        it.next(); // Skip position 0
-        while (it.hasNext())
-            s += "c " + (++i) + " " + it.next() + "\n";
+        for (int i = 1; i <= _nVars; ++i)
+            if (_used == null || _used.get(i))
+                s += "c " + i + " " + name(i) + "\n";
 
         // p cnf <variables> <clauses>
-        s += "p cnf " + i + " " + _formula.size() + "\n";
+        s += "p cnf " + _nVars + " " + nClauses() + "\n";
 
         // Clauses
-        for (List<Integer> clause : _formula) {
-            for (Integer literal : clause)
-                s += literal + " ";
+        for (int i = 0; i < _formula.size(); ++i) {
+            for (int k = 0; k < _formula.length(i); ++k)
+                s += _formula.literal(i, k) + " ";
             s += "0\n";
         }
 
         return s;
     }
 
-    public void print(PrintStream out) {
+    public void print(PrintStream out) throws IOException {
+        print(out, true);
+    }
+
+    /// @brief Prints the formula, with the name of each atom in a comment line if \p comments
+    public void print(PrintStream out, boolean comments) throws IOException {
+        out.flush();
+        print(Channels.newChannel(out), comments, DIMACSWriter.DEFAULT_BUFFER_SIZE);
+        out.flush();
+    }
+
+    /// @brief Prints the formula to \p out through a buffer of \p bufferSize bytes,
+    ///        with the name of each atom in a comment line if \p comments
+    /// @post In streaming mode, the temporary file is deleted and the formula cannot be used anymore
+    public void print(WritableByteChannel out, boolean comments, int bufferSize) throws IOException {
+        if (streaming())
+            closeSpool();
+        DIMACSWriter w = new DIMACSWriter(out, bufferSize);
+
         // Comments
-        int i = 0;
-        Iterator<String> it = _names.iterator();
-        it.next(); // Skip position 0
-        while (it.hasNext())
-            out.println("c " + (++i) + " " + it.next());
+        if (comments)
+            for (int i = 1; i <= _nVars; ++i)
+                if (_used == null || _used.get(i)) {
+                    w.write("c ");
+                    w.write(i);
+                    w.write(' ');
+                    w.write(name(i));
+                    w.write('\n');
+                }
 
         // p cnf <variables> <clauses>
-        out.println("p cnf " + i + " " + _formula.size());
+        w.write("p cnf ");
+        w.write(_nVars);
+        w.write(' ');
+        w.write(nClauses());
+        w.write('\n');
 
         // Clauses
-        for (List<Integer> clause : _formula) {
-            for (Integer literal : clause)
-                out.print(literal + " ");
-            out.println("0");
+        printClauses(w, out);
+        if (streaming())
+            Files.delete(_spool.toPath());
+
+    }
+
+    /// @brief Prints the clauses through \p w, whose channel is \p out
+    /// @pre In streaming mode, the temporary file is closed
+    private void printClauses(DIMACSWriter w, WritableByteChannel out) throws IOException {
+        if (streaming()) {
+            w.flush();
+            try (FileChannel spool = FileChannel.open(_spool.toPath())) {
+                long position = 0, size = spool.size();
+                while (position < size)
+                    position += spool.transferTo(position, size - position, out);
+            }
+        }
+        else {
+            for (int i = 0; i < _formula.size(); ++i) {
+                for (int k = 0; k < _formula.length(i); ++k)
+                    w.literal(_formula.literal(i, k));
+                w.endClause();
+            }
+            w.flush();
         }
+    }
+
+    /// @brief Prints the clauses of the formula followed by the line  a assumptions 0 , as
+    ///        a block of an iCNF file (preceded by the header  p inccnf  if \p header)
+    /// @post The formula is cleared, so that the next block only has the clauses added afterwards
+    public void printBlock(WritableByteChannel out, boolean header, int... assumptions) throws IOException {
+        if (streaming())
+            closeSpool();
+        DIMACSWriter w = new DIMACSWriter(out);
+
+        if (header)
+            w.write("p inccnf\n");
+
+        // Clauses
+        printClauses(w, out);
+
+        // a <assumptions> 0
+        w.write("a ");
+        for (int literal : assumptions)
+            w.literal(literal);
+        w.endClause();
+        w.flush();
 
+        if (streaming())
+            openSpool();
+        else
+            _formula.clear();
     }
 
 }
@@ -0,0 +1,62 @@
+/**
+ * @class DeadSquares
+ * @author Miquel Bofill
+ * @version 1.0
+ * @date 2023-07-01
+ * @brief Simple deadlock squares of a Sokoban grid
+ *
+ * A ball on a dead square can never be pushed to a hole, whatever the other balls
+ * and the character do, so that no plan puts a ball there. Live squares are found
+ * backwards, pulling a ball from every hole: a ball at q can be pulled to the square
+ * p next to it if the square after p, where the character ends, is free as well.
+ * Dead squares are the free ones left, i.e., corners out of holes but also, e.g.,
+ * squares along a wall with no hole on it.
+*/
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+public class DeadSquares {
+
+    private static final int[][] DIRECTIONS = {{-1, 0}, {1, 0}, {0, 1}, {0, -1}}; ///< N, S, E, W as (row, column) offsets
+
+    /// @pre \p grid is rectangular, '#' stands for a wall in it, and '.', '*' and '+' for a hole
+    /// @returns Free locations of \p grid (numbered from 1, row by row) from which a ball cannot
+    ///          reach any hole, in increasing order
+    public static List<Integer> of(char[][] grid) {
+        int nRows = grid.length;
+        int nCols = grid[0].length;
+        boolean[][] live = new boolean[nRows][nCols];
+        ArrayDeque<int[]> queue = new ArrayDeque<>();
+        for (int i = 0; i < nRows; ++i)
+            for (int j = 0; j < nCols; ++j)
+                if (grid[i][j] == '.' || grid[i][j] == '*' || grid[i][j] == '+') {
+                    live[i][j] = true;
+                    queue.add(new int[] {i, j});
+                }
+
+        while (!queue.isEmpty()) {
+            int[] q = queue.poll();
+            for (int[] d : DIRECTIONS) {
+                int pi = q[0] + d[0], pj = q[1] + d[1]; // Ball after the pull
+                if (free(grid, pi, pj) && !live[pi][pj] && free(grid, pi + d[0], pj + d[1])) {
+                    live[pi][pj] = true;
+                    queue.add(new int[] {pi, pj});
+                }
+            }
+        }
+
+        List<Integer> dead = new ArrayList<>();
+        for (int i = 0; i < nRows; ++i)
+            for (int j = 0; j < nCols; ++j)
+                if (grid[i][j] != '#' && !live[i][j])
+                    dead.add(i * nCols + j + 1);
+        return dead;
+    }
+
+    private static boolean free(char[][] grid, int i, int j) {
+        return i >= 0 && i < grid.length && j >= 0 && j < grid[i].length && grid[i][j] != '#';
+    }
+
+}
@@ -0,0 +1,39 @@
+/**
+ * @class ExternalSolver
+ * @author Miquel Bofill
+ * @version 1.0
+ * @date 2023-06-22
+ * @brief A SAT solver run as an external process, as in  command file.cnf
+*/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.io.File;
+
+public class ExternalSolver implements SatSolver {
+
+    private final List<String> _command; ///< executable and options
+
+    /// @param command Executable followed by its options, separated by blanks
+    public ExternalSolver(String command) {
+        _command = Arrays.asList(command.trim().split("\\s+"));
+    }
+
+    /// @returns The exit code of the solver
+    /// @post The process is killed if the calling thread is interrupted
+    @Override
+    public int solve(File cnf, File out) throws Exception {
+        List<String> cmd = new ArrayList<>(_command);
+        cmd.add(cnf.getPath());
+        Process p = new ProcessBuilder(cmd).redirectErrorStream(true).redirectOutput(out).start();
+        try {
+            return p.waitFor();
+        }
+        finally {
+            if (p.isAlive())
+                p.destroyForcibly();
+        }
+    }
+
+}
@@ -0,0 +1,204 @@
+/**
+ * @class Geometry
+ * @author Miquel Bofill
+ * @version 1.1
+ * @date 2023-07-02
+ * @brief Neighbourhood of the locations of a rectangular grid
+ *
+ * Locations are numbered from 1, row by row. For each direction (N, S, E, W) and
+ * location, tables give the location next to it and the one next to the next, or
+ * -1 if out of the grid, so that the encodings do not build nor look up any key
+ * in their loops. Flags of walls one and two steps ahead, and the valid neighbours
+ * of each location, are also precomputed.
+ *
+ * Distances in pushes of a ball alone on the grid, and in moves of the character,
+ * bound where they can be after a number of time steps (see pushDistances and
+ * walkDistances).
+*/
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+public class Geometry {
+
+    public static final int N = 0, S = 1, E = 2, W = 3;
+
+    public static final int UNREACHABLE = Integer.MAX_VALUE; ///< distance to a location that cannot be reached
+
+    private final int _nLocs;
+    private final boolean[] _valid;        ///< valid locations, indexed by location
+    private final int[][] _next;           ///< location next to each location, indexed [direction][location]
+    private final int[][] _next2;          ///< next to the next (in the same direction)
+    private final boolean[][] _wall;       ///< valid locations with a wall next to them, indexed [direction][location]
+    private final boolean[][] _wall2;      ///< valid locations with a wall two steps ahead
+    private final List<List<Integer>> _validNeighbours; ///< valid locations next to each valid location, in order N, S, E, W
+
+    /// @pre \p grid is rectangular, '#' stands for a wall in it, and \p validLocations are
+    ///      numbered from 1, row by row, and are not walls
+    public Geometry(char[][] grid, LocationSet validLocations) {
+        int nRows = grid.length;
+        int nCols = grid[0].length;
+        _nLocs = nRows * nCols;
+        _valid = new boolean[_nLocs + 1];
+        _next = new int[4][_nLocs + 1];
+        _next2 = new int[4][_nLocs + 1];
+        _wall = new boolean[4][_nLocs + 1];
+        _wall2 = new boolean[4][_nLocs + 1];
+        _validNeighbours = new ArrayList<>(Collections.nCopies(_nLocs + 1, (List<Integer>) null));
+
+        for (int d = 0; d < 4; ++d) {
+            Arrays.fill(_next[d], -1);
+            Arrays.fill(_next2[d], -1);
+        }
+        int loc = 1;
+        for (int i = 0; i < nRows; ++i) {
+            for (int j = 1; j <= nCols; ++j, ++loc) {
+                _valid[loc] = validLocations.contains(loc);
+                if (loc > nCols) // Not first row
+                    _next[N][loc] = loc - nCols;
+                if (loc <= nCols * (nRows - 1)) // Not last row
+                    _next[S][loc] = loc + nCols;
+                if (loc % nCols != 1) // Not first column
+                    _next[W][loc] = loc - 1;
+                if (loc % nCols != 0) // Not last column
+                    _next[E][loc] = loc + 1;
+            }
+        }
+        for (int d = 0; d < 4; ++d)
+            for (loc = 1; loc <= _nLocs; ++loc)
+                if (_next[d][loc] != -1)
+                    _next2[d][loc] = _next[d][_next[d][loc]];
+
+        for (loc = 1; loc <= _nLocs; ++loc) {
+            if (!_valid[loc])
+                continue;
+            List<Integer> neighbours = new ArrayList<>(4);
+            for (int d = 0; d < 4; ++d) {
+                int j = _next[d][loc];
+                int j2 = _next2[d][loc];
+                _wall[d][loc] = j != -1 && wall(grid, j);
+                _wall2[d][loc] = j2 != -1 && wall(grid, j2);
+                if (j != -1 && _valid[j])
+                    neighbours.add(j);
+            }
+            _validNeighbours.set(loc, Collections.unmodifiableList(neighbours));
+        }
+    }
+
+    private static boolean wall(char[][] grid, int loc) {
+        int nCols = grid[0].length;
+        return grid[(loc - 1) / nCols][(loc - 1) % nCols] == '#';
+    }
+
+    /// @returns The direction named \p d ("n", "s", "e" or "w")
+    public static int direction(String d) {
+        switch (d) {
+        case "n":
+            return N;
+        case "s":
+            return S;
+        case "e":
+            return E;
+        case "w":
+            return W;
+        default:
+            throw new IllegalArgumentException("Unknown direction " + d);
+        }
+    }
+
+    /// @returns The direction opposite to \p d
+    public static int opposite(int d) {
+        return d ^ 1;
+    }
+
+    /// @returns Number of locations of the grid
+    public int nLocs() {
+        return _nLocs;
+    }
+
+    public boolean valid(int loc) {
+        return _valid[loc];
+    }
+
+    /// @returns Location next to each location in each direction (-1 if none), indexed
+    ///          [direction][location] (shared, not to be modified)
+    public int[][] next() {
+        return _next;
+    }
+
+    /// @returns Location next to the next of each location in each direction (-1 if none),
+    ///          indexed [direction][location] (shared, not to be modified)
+    public int[][] next2() {
+        return _next2;
+    }
+
+    /// @returns Flags of the valid locations with a wall next to them in direction \p d,
+    ///          indexed by location (shared, not to be modified)
+    public boolean[] wall(int d) {
+        return _wall[d];
+    }
+
+    /// @returns Flags of the valid locations with a wall two steps ahead in direction \p d,
+    ///          indexed by location (shared, not to be modified)
+    public boolean[] wall2(int d) {
+        return _wall2[d];
+    }
+
+    /// @returns Valid locations next to each valid location, in order N, S, E, W, indexed
+    ///          by location (null for walls; read-only)
+    public List<List<Integer>> validNeighbours() {
+        return _validNeighbours;
+    }
+
+    /// @returns Least number of pushes taking a ball alone on the grid from any of the valid locations
+    ///          \p from to each location, or, if \p backwards, from each location to any of \p from,
+    ///          indexed by location (UNREACHABLE if none). A ball is pushed to the next location in a
+    ///          direction by the character at the location before it, both valid
+    public int[] pushDistances(Collection<Integer> from, boolean backwards) {
+        int[] dist = new int[_nLocs + 1];
+        Arrays.fill(dist, UNREACHABLE);
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int p : from)
+            if (_valid[p] && dist[p] != 0) {
+                dist[p] = 0;
+                queue.add(p);
+            }
+        while (!queue.isEmpty()) {
+            int p = queue.poll();
+            for (int d = 0; d < 4; ++d) {
+                // Pushed from p in direction d, or else pulled from p, the character ending beyond q
+                int q = _next[d][p];
+                int c = backwards ? _next2[d][p] : _next[opposite(d)][p];
+                if (q != -1 && _valid[q] && c != -1 && _valid[c] && dist[q] == UNREACHABLE) {
+                    dist[q] = dist[p] + 1;
+                    queue.add(q);
+                }
+            }
+        }
+        return dist;
+    }
+
+    /// @returns Least number of moves taking the character alone on the grid from valid location \p from
+    ///          to each location, indexed by location (UNREACHABLE if none)
+    public int[] walkDistances(int from) {
+        int[] dist = new int[_nLocs + 1];
+        Arrays.fill(dist, UNREACHABLE);
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        dist[from] = 0;
+        queue.add(from);
+        while (!queue.isEmpty()) {
+            int p = queue.poll();
+            for (int q : _validNeighbours.get(p))
+                if (dist[q] == UNREACHABLE) {
+                    dist[q] = dist[p] + 1;
+                    queue.add(q);
+                }
+        }
+        return dist;
+    }
+
+}
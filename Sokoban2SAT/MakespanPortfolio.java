@@ -0,0 +1,152 @@
+/**
+ * @class MakespanPortfolio
+ * @author Miquel Bofill
+ * @version 1.1
+ * @date 2023-07-06
+ * @brief Encoding and solving of several numbers of time steps of an instance at once
+ *
+ * Numbers of steps min, min + step, min + 2 * step, ... up to max are encoded and
+ * solved by a bounded pool of threads, in increasing order. As soon as some number
+ * of steps is found satisfiable, the jobs for larger numbers are cancelled (killing
+ * their solvers), while smaller ones go on, since they may still be satisfiable.
+ *
+ * With step > 1 the result is only the least satisfiable number of steps tried;
+ * this is what is wanted for parallel plans, or with noop actions (descending
+ * encodings), where a plan for n steps also has at most n actual steps.
+ *
+ * With a PipedSolver, the CNFs are printed straight into the standard input of the
+ * solvers instead of files, and the model of the least satisfiable number of steps is
+ * kept in memory (see model).
+*/
+
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.io.File;
+import java.io.PrintStream;
+
+public class MakespanPortfolio {
+
+    private final Encoder _encoder;
+    private final SatSolver _solver;
+    private final PipedSolver _piped; ///< the solver, if given the CNFs through pipes instead of files (else null)
+    private final int _threads;
+    private final Map<Integer,BitSet> _models = new ConcurrentHashMap<>(); ///< by number of steps, with _piped
+    private BitSet _model;
+
+    /// @pre \p threads >= 1
+    public MakespanPortfolio(Encoder encoder, SatSolver solver, int threads) {
+        this(encoder, solver, null, threads);
+    }
+
+    /// @pre \p threads >= 1
+    /// @post The CNFs are printed into the standard input of \p solver instead of files
+    public MakespanPortfolio(Encoder encoder, PipedSolver solver, int threads) {
+        this(encoder, solver, solver, threads);
+    }
+
+    private MakespanPortfolio(Encoder encoder, SatSolver solver, PipedSolver piped, int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("Number of threads " + threads);
+        _encoder = encoder;
+        _solver = solver;
+        _piped = piped;
+        _threads = threads;
+        // Variable numbers are computed once, before the registry is shared by the threads
+        _encoder.registry().freeze();
+    }
+
+    /// @pre 0 <= \p min <= \p max and \p step >= 1
+    /// @post For every number of steps n tried, file <tt> prefix_n.cnf </tt> (unless piped; and <tt> prefix_n.vmap </tt>
+    ///       if \p map) has been written with the options \p stream and \p comments of Encoder.encode,
+    ///       and file <tt> prefix_n.out </tt> with the output of the solver, unless the job was cancelled;
+    ///       a line with the result of each job is written to \p log as it finishes
+    /// @returns The least satisfiable number of steps among min, min + step, ... <= max, or -1 if none
+    public int run(int min, int max, int step, String prefix, boolean stream, boolean comments, boolean map, PrintStream log) throws Exception {
+		if (min < 0 || min > max || step < 1)
+			throw new IllegalArgumentException("No numbers of steps from " + min + " to " + max + " by " + step);
+		ExecutorService pool = Executors.newFixedThreadPool(_threads);
+		CompletionService<long[]> jobs = new ExecutorCompletionService<>(pool);
+		TreeMap<Integer,Future<long[]>> pending = new TreeMap<>(); // Jobs not finished nor cancelled, by number of steps
+		int best = -1;
+		try {
+			for (int n = min; n <= max; n += step) {
+				final int nSteps = n;
+				pending.put(n, jobs.submit(() -> solve(nSteps, prefix, stream, comments, map)));
+			}
+			while (!pending.isEmpty()) {
+				long[] r;
+				try {
+					r = jobs.take().get();
+				}
+				catch (CancellationException e) {
+					continue;
+				}
+				catch (ExecutionException e) {
+					throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+				}
+				int n = (int) r[0], code = (int) r[1];
+				pending.remove(n);
+				String result = code == SatSolver.SAT ? "SAT" : code == SatSolver.UNSAT ? "UNSAT" : "UNKNOWN (exit code " + code + ")";
+				log.println(n + " " + prefix + "_" + n + (_piped == null ? ".cnf " : " (pipe) ") + r[2] + " ms " + result + " " + r[3] + " ms");
+				if (code == SatSolver.SAT && (best < 0 || n < best)) {
+					best = n;
+					// Larger numbers of steps are not needed anymore
+					Map<Integer,Future<long[]>> larger = pending.tailMap(n, false);
+					for (Future<long[]> job : larger.values())
+						job.cancel(true);
+					larger.clear();
+				}
+			}
+		}
+		finally {
+			pool.shutdownNow();
+		}
+		_model = best < 0 ? null : _models.get(best);
+		return best;
+    }
+
+    /// @returns The variables true in the model of the least satisfiable number of steps found by the last
+    ///          run, if the CNFs were piped (null otherwise, or if none)
+    public BitSet model() {
+        return _model;
+    }
+
+    /// @returns { nSteps, result of the solver, encoding time (ms), solving time (ms) }
+    /// @post When piped, the encoding time is until the solver has read the whole CNF, and the model is
+    ///       kept in _models if SAT
+    private long[] solve(int nSteps, String prefix, boolean stream, boolean comments, boolean map) throws Exception {
+		String name = prefix + "_" + nSteps;
+		File cnf = new File(name + ".cnf");
+		long start = System.currentTimeMillis();
+		if (_piped != null) {
+			long[] sent = new long[1];
+			BitSet model = new BitSet();
+			int code = _piped.solve(out -> {
+				_encoder.encode(nSteps, out, stream, comments, map ? name + ".vmap" : null);
+				out.flush();
+				sent[0] = System.currentTimeMillis();
+			}, new File(name + ".out"), model);
+			if (code == SatSolver.SAT)
+				_models.put(nSteps, model);
+			return new long[] {nSteps, code, sent[0] - start, System.currentTimeMillis() - sent[0]};
+		}
+		try (PrintStream out = new PrintStream(cnf)) {
+			_encoder.encode(nSteps, out, stream, comments, map ? name + ".vmap" : null);
+		}
+		if (Thread.interrupted())
+			throw new InterruptedException();
+		long encoded = System.currentTimeMillis();
+		int code = _solver.solve(cnf, new File(name + ".out"));
+		return new long[] {nSteps, code, encoded - start, System.currentTimeMillis() - encoded};
+    }
+
+}
@@ -0,0 +1,103 @@
+/**
+ * @class PipedSolver
+ * @author Miquel Bofill
+ * @version 1.0
+ * @date 2023-07-06
+ * @brief A SAT solver run as an external process, reading the CNF from its standard input
+ *
+ * The formula is printed straight into the pipe to the solver (e.g. by Encoder.encode,
+ * whose clauses go through the byte buffers of DIMACSWriter), so that no CNF file is
+ * written nor read back. The output of the solver is read at the same time, in another
+ * thread: its  s  line gives the result, and its  v  lines the model, which is kept as
+ * the set of variables that are true. Any solver reading DIMACS from its standard input
+ * when given no file name can be used, e.g.  kissat -q ,  cadical -q  or  minisat .
+*/
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+public class PipedSolver implements SatSolver {
+
+    /// @brief A CNF, printed in DIMACS format on demand
+    public interface Formula {
+        void print(PrintStream out) throws Exception;
+    }
+
+    private final List<String> _command; ///< executable and options
+
+    /// @param command Executable followed by its options, separated by blanks
+    public PipedSolver(String command) {
+        _command = Arrays.asList(command.trim().split("\\s+"));
+    }
+
+    /// @returns SAT or UNSAT for the CNF in file \p cnf, copied to the standard input of the solver
+    ///          (see solve(Formula, File, BitSet))
+    @Override
+    public int solve(File cnf, File out) throws Exception {
+        return solve(in -> Files.copy(cnf.toPath(), in), out, null);
+    }
+
+    /// @returns SAT or UNSAT as given by the  s  line of the solver (or else its exit code) for the CNF
+    ///          printed by \p formula into its standard input
+    /// @post The output of the solver is copied to file \p out (unless null), and the variables true
+    ///       in its model, if SAT, are set in \p model (unless null)
+    /// @post The process is killed if the calling thread is interrupted
+    public int solve(Formula formula, File out, BitSet model) throws Exception {
+        Process p = new ProcessBuilder(_command).redirectErrorStream(true).start();
+        Exception[] failure = new Exception[2]; // of the writer and of the reader
+        int[] status = new int[1];              // from the  s  line (0 if none)
+        Thread writer = new Thread(() -> {
+            try (PrintStream in = new PrintStream(new BufferedOutputStream(p.getOutputStream(), 1 << 16))) {
+                formula.print(in);
+                if (in.checkError())
+                    throw new IOException("The CNF could not be written to " + String.join(" ", _command));
+            }
+            catch (Exception e) {
+                failure[0] = e;
+            }
+        });
+        Thread reader = new Thread(() -> {
+            try (BufferedReader r = new BufferedReader(new InputStreamReader(p.getInputStream()));
+                 PrintStream copy = out == null ? null : new PrintStream(out)) {
+                String line;
+                while ((line = r.readLine()) != null) {
+                    if (copy != null)
+                        copy.println(line);
+                    if (line.startsWith("s "))
+                        status[0] = line.contains("UNSATISFIABLE") ? UNSAT : line.contains("SATISFIABLE") ? SAT : 0;
+                    else if (model != null)
+                        SatSolver.addModel(line, model);
+                }
+            }
+            catch (Exception e) {
+                failure[1] = e;
+            }
+        });
+        writer.setDaemon(true);
+        reader.setDaemon(true);
+        writer.start();
+        reader.start();
+        try {
+            int code = p.waitFor();
+            writer.join();
+            reader.join();
+            for (Exception e : failure)
+                if (e != null)
+                    throw e;
+            return status[0] != 0 ? status[0] : code;
+        }
+        finally {
+            if (p.isAlive())
+                p.destroyForcibly();
+        }
+    }
+
+}
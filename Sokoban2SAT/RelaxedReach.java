@@ -0,0 +1,159 @@
+/**
+ * @class RelaxedReach
+ * @author Miquel Bofill
+ * @version 1.2
+ * @date 2023-07-08
+ * @brief Locations out of reach of the balls (and of the character) at each time step of a Sokoban plan
+ *
+ * Like the layers of a relaxed planning graph, ignoring every other object on the grid:
+ * a time step moves a ball one location at most, so that at time t no ball is farther
+ * than t pushes from every initial ball, nor, in a plan of n time steps, farther than
+ * n - t pushes from every hole (see Geometry.pushDistances). Likewise, if the character
+ * walks one location per time step, it is not farther than t moves from where it starts.
+ * The variables of #b (and #c) at such locations are fixed to false (see Encoder.Pruning),
+ * as well as those of the actions pushing a ball from there, if the encoding has any per location.
+ * Locations from which no hole can be reached are left to DeadSquares.
+ *
+ * The same relaxation bounds the number of time steps of a plan from below (see
+ * minSteps): each ball must be pushed to a different hole, one push per time step
+ * in a sequential plan, or all of them at once in a parallel one, after the character,
+ * if walking, gets behind some ball.
+*/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class RelaxedReach implements Encoder.Pruning {
+
+    private static final String[] DIRECTIONS = {"n", "s", "e", "w"}; ///< in the order of Geometry.N, S, E, W
+
+    private final VariableRegistry _registry;
+    private final LocationSet _locations;
+    private final int[] _fromBalls;     ///< pushes from the initial balls, indexed by location
+    private final int[] _toHoles;       ///< pushes to the holes, indexed by location
+    private final int[] _fromCharacter; ///< moves from the initial character, indexed by location (null if not walking)
+    private final int[][] _pushes;      ///< pushes from each initial ball to each hole
+    private final int _firstPush;       ///< moves of the character to push some ball (0 if not walking)
+    private final int[][] _next;        ///< location next to each location, indexed [direction][location]
+    private final String[] _moves;      ///< prefixes of the location families of the actions pushing a ball
+    private volatile VariableRegistry.Family[] _families; ///< #b, #c, then the moves by prefix and direction; looked up on first use, not to freeze the registry before, and published once all are set, as encodings may prune from several threads
+
+    /// @pre \p grid is the Sokoban grid of \p geo, whose valid locations are \p l, numbered by \p v,
+    ///      and the variable of each prefix in \p moves followed by the name of a direction (n, s, e or w)
+    ///      at a location and time step only holds if a ball is next to it in that direction then
+    /// @post The character is also pruned if \p walking, i.e., it moves one location per time step
+    public RelaxedReach(char[][] grid, LocationSet l, Geometry geo, VariableRegistry v, boolean walking, String... moves) {
+        _registry = v;
+        _locations = l;
+        _next = geo.next();
+        _moves = moves;
+        List<Integer> balls = new ArrayList<>(), holes = new ArrayList<>();
+        int character = -1;
+        int nCols = grid[0].length;
+        for (int i = 0; i < grid.length; ++i)
+            for (int j = 0; j < nCols; ++j) {
+                int loc = i * nCols + j + 1;
+                char x = grid[i][j];
+                if (x == '$' || x == '*')
+                    balls.add(loc);
+                if (x == '.' || x == '*' || x == '+')
+                    holes.add(loc);
+                if (x == '@' || x == '+')
+                    character = loc;
+            }
+        _fromBalls = geo.pushDistances(balls, false);
+        _toHoles = geo.pushDistances(holes, true);
+        _fromCharacter = walking && character != -1 ? geo.walkDistances(character) : null;
+        _pushes = new int[balls.size()][holes.size()];
+        for (int j = 0; j < holes.size(); ++j) {
+            int[] toHole = geo.pushDistances(List.of(holes.get(j)), true);
+            for (int i = 0; i < balls.size(); ++i)
+                _pushes[i][j] = toHole[balls.get(i)];
+        }
+        int firstPush = _fromCharacter == null ? 0 : Geometry.UNREACHABLE;
+        for (int d = 0; d < 4 && firstPush != 0; ++d)
+            for (int ball : balls) {
+                int q = _next[d][ball], behind = _next[Geometry.opposite(d)][ball];
+                if (q != -1 && l.contains(q) && behind != -1 && l.contains(behind))
+                    firstPush = Math.min(firstPush, _fromCharacter[behind]);
+            }
+        _firstPush = firstPush;
+    }
+
+    /// @pre There are as many balls as holes
+    /// @returns A lower bound on the number of time steps of a plan: the least total number of pushes
+    ///          taking each ball to a different hole, or, if \p parallel (several balls pushed at each
+    ///          time step), the least largest one, plus the moves of the character, if walking, to get
+    ///          behind a ball (Geometry.UNREACHABLE if no plan exists)
+    public int minSteps(boolean parallel) {
+        int pushes = parallel ? Assignment.minMax(_pushes) : Assignment.minSum(_pushes);
+        if (pushes == 0 || pushes == Geometry.UNREACHABLE)
+            return pushes;
+        return _firstPush == Geometry.UNREACHABLE ? Geometry.UNREACHABLE : pushes + _firstPush;
+    }
+
+    /// @returns Negations of the balls (and of the character) farther than \p t from where they start,
+    ///          and of the moves of time step \p t - 1 pushing a ball from farther than \p t - 1 (as the
+    ///          moves of the last time step of a plan are not in its formula)
+    @Override
+    public int[] reached(int t) {
+        VariableRegistry.Family[] fams = families();
+        int[] literals = new int[fams.length * _locations.size()];
+        int n = 0;
+        for (int loc : _locations) {
+            if (_fromBalls[loc] > t)
+                literals[n++] = -fams[0].at(loc, t);
+            if (_fromCharacter != null && _fromCharacter[loc] > t)
+                literals[n++] = -fams[1].at(loc, t);
+            for (int d = 0; d < 4; ++d) {
+                int q = _next[d][loc];
+                if (q != -1 && _locations.contains(q) && _fromBalls[q] > t - 1)
+                    for (int m = 0; m < _moves.length; ++m)
+                        literals[n++] = -fams[2 + 4 * m + d].at(loc, t - 1);
+            }
+        }
+        return Arrays.copyOf(literals, n);
+    }
+
+    /// @returns Negations of the balls farther than \p nSteps - \p t from the holes (if they can reach them),
+    ///          and of the moves pushing a ball from there
+    @Override
+    public int[] reaching(int t, int nSteps) {
+        VariableRegistry.Family[] fams = families();
+        int[] literals = new int[fams.length * _locations.size()];
+        int n = 0;
+        for (int loc : _locations) {
+            if (farFromHoles(loc, nSteps - t))
+                literals[n++] = -fams[0].at(loc, t);
+            for (int d = 0; d < 4 && t < nSteps; ++d) {
+                int q = _next[d][loc];
+                if (q != -1 && _locations.contains(q) && farFromHoles(q, nSteps - t))
+                    for (int m = 0; m < _moves.length; ++m)
+                        literals[n++] = -fams[2 + 4 * m + d].at(loc, t);
+            }
+        }
+        return Arrays.copyOf(literals, n);
+    }
+
+    // @returns whether holes can be reached from  loc , but not within  pushes
+    private boolean farFromHoles(int loc, int pushes) {
+        return _toHoles[loc] != Geometry.UNREACHABLE && _toHoles[loc] > pushes;
+    }
+
+    // @returns the families #b and #c, and those of the moves
+    private VariableRegistry.Family[] families() {
+        VariableRegistry.Family[] cached = _families;
+        if (cached == null) {
+            cached = new VariableRegistry.Family[2 + 4 * _moves.length];
+            cached[0] = _registry.locations("#b");
+            cached[1] = _registry.locations("#c");
+            for (int m = 0; m < _moves.length; ++m)
+                for (int d = 0; d < 4; ++d)
+                    cached[2 + 4 * m + d] = _registry.locations(_moves[m] + DIRECTIONS[d]);
+            _families = cached;
+        }
+        return cached;
+    }
+
+}
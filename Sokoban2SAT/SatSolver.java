@@ -0,0 +1,50 @@
+/**
+ * @interface SatSolver
+ * @author Miquel Bofill
+ * @version 1.1
+ * @date 2023-07-07
+ * @brief A SAT solver of CNF files in DIMACS format
+ *
+ * Results follow the usual exit codes of SAT solvers, so that an external
+ * executable (see ExternalSolver) and a solver running in the JVM can be used
+ * interchangeably. Models are read back from the  v  lines of their output as the
+ * set of variables that are true (see model).
+*/
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.BitSet;
+
+public interface SatSolver {
+
+    int SAT = 10;
+    int UNSAT = 20;
+
+    /// @returns SAT or UNSAT for the CNF in file \p cnf, or any other code if unknown;
+    ///          the output of the solver (e.g. the model) is written to file \p out
+    /// @post If the calling thread is interrupted, solving is abandoned by throwing InterruptedException
+    int solve(File cnf, File out) throws Exception;
+
+    /// @returns The variables true in the model written by a SAT solver to file \p out (none if no model)
+    static BitSet model(File out) throws IOException {
+        BitSet model = new BitSet();
+        try (BufferedReader r = Files.newBufferedReader(out.toPath())) {
+            String line;
+            while ((line = r.readLine()) != null)
+                addModel(line, model);
+        }
+        return model;
+    }
+
+    /// @post If \p line is a  v  line of the output of a SAT solver, its positive literals are set in \p model
+    static void addModel(String line, BitSet model) {
+        if (!line.startsWith("v ") && !line.equals("v"))
+            return;
+        for (String literal : line.substring(1).trim().split("\\s+"))
+            if (!literal.isEmpty() && literal.charAt(0) != '-' && !literal.equals("0"))
+                model.set(Integer.parseInt(literal));
+    }
+
+}
@@ -0,0 +1,175 @@
+/**
+ * @class SokobanPlan
+ * @author Miquel Bofill
+ * @version 1.1
+ * @date 2023-07-08
+ * @brief A Sokoban plan, decoded from a model of any of the encodings
+ *
+ * The state at each time step is read from the true variables of families #b (balls)
+ * and #c (character), as numbered by the VariableRegistry of the encoding (e.g. read
+ * back from a variable map), so that only the true variables are visited, each of them
+ * in time logarithmic in the number of families (to find its family), and no atom names
+ * are built nor parsed. The moves of each time step
+ * are the differences between consecutive states: each ball leaving a location is matched
+ * with one arriving at a neighbouring location. Jumps of the character are read from the
+ * variables jump_<loc>_<t> of the encodings with reachability, where the character is
+ * not located after time 0 (then it is not drawn). Walls and holes are taken from the
+ * grid of the instance.
+*/
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+public class SokobanPlan {
+
+    private final char[][] _grid;    ///< grid of the instance without balls nor character
+    private final int _nCols;
+    private final List<BitSet> _balls = new ArrayList<>(); ///< locations of the balls at each time step
+    private int[] _character = new int[1]; ///< location of the character at each time step (0 if unknown)
+    private int[] _jump = new int[1];      ///< location the character jumps to at each time step (0 if none)
+
+    /// @pre \p grid is the Sokoban grid (see readGrid) of the instance whose variables are numbered by \p v,
+    ///      and \p model the variables true in a model of one of its encodings
+    public SokobanPlan(char[][] grid, VariableRegistry v, BitSet model) {
+        _nCols = grid[0].length;
+        _grid = new char[grid.length][];
+        for (int i = 0; i < grid.length; ++i) {
+            _grid[i] = grid[i].clone();
+            for (int j = 0; j < _nCols; ++j) {
+                char x = grid[i][j];
+                _grid[i][j] = x == '$' || x == '@' ? ' ' : x == '*' || x == '+' ? '.' : x;
+            }
+        }
+        for (int x = model.nextSetBit(1); x >= 0; x = model.nextSetBit(x + 1)) {
+            VariableRegistry.Family fam = v.familyOf(x);
+            String prefix = fam.prefix();
+            int t = v.time(x), loc = v.location(fam, x);
+            if (prefix.equals("#b"))
+                balls(t).set(loc);
+            else if (prefix.equals("#c"))
+                _character = set(_character, t, loc);
+            else if (prefix.equals("jump") && loc != -1)
+                _jump = set(_jump, t, loc);
+        }
+    }
+
+    /// @returns The number of time steps of the plan
+    public int nSteps() {
+        return _balls.size() - 1;
+    }
+
+    /// @post Writes the plan to \p out: the initial grid, and then, for each time step, its moves and
+    ///       the resulting grid
+    public void print(PrintStream out) {
+        out.println("Time 0");
+        printGrid(0, out);
+        for (int t = 1; t <= nSteps(); ++t) {
+            List<String> moves = moves(t - 1);
+            out.println("Time " + t + ": " + (moves.isEmpty() ? "no moves" : String.join(", ", moves)));
+            printGrid(t, out);
+        }
+    }
+
+    // @returns the moves from time  t  to time  t + 1
+    private List<String> moves(int t) {
+        List<String> moves = new ArrayList<>();
+        BitSet left = (BitSet) balls(t).clone(), arrived = (BitSet) balls(t + 1).clone();
+        left.andNot(balls(t + 1));
+        arrived.andNot(balls(t));
+        for (int p = left.nextSetBit(0); p >= 0; p = left.nextSetBit(p + 1))
+            for (int q : new int[] {p - _nCols, p + _nCols, p + 1, p - 1})
+                if (q > 0 && arrived.get(q)) {
+                    moves.add("ball " + p + " -> " + q + " " + direction(p, q));
+                    left.clear(p);
+                    arrived.clear(q);
+                    break;
+                }
+        for (int p = left.nextSetBit(0); p >= 0; p = left.nextSetBit(p + 1))
+            moves.add("ball leaves " + p);
+        for (int q = arrived.nextSetBit(0); q >= 0; q = arrived.nextSetBit(q + 1))
+            moves.add("ball reaches " + q);
+        int from = at(_character, t), to = at(_character, t + 1), jump = at(_jump, t);
+        if (jump != 0)
+            moves.add("character jumps to " + jump);
+        else if (from != 0 && to != 0 && from != to)
+            moves.add("character " + from + " -> " + to + (Math.abs(to - from) == 1 || Math.abs(to - from) == _nCols ? " " + direction(from, to) : ""));
+        return moves;
+    }
+
+    // @returns n, s, e or w for neighbouring locations  p  and  q
+    private String direction(int p, int q) {
+        return q == p - _nCols ? "n" : q == p + _nCols ? "s" : q == p + 1 ? "e" : "w";
+    }
+
+    private void printGrid(int t, PrintStream out) {
+        char[][] g = new char[_grid.length][];
+        for (int i = 0; i < g.length; ++i)
+            g[i] = _grid[i].clone();
+        BitSet balls = balls(t);
+        for (int loc = balls.nextSetBit(1); loc >= 0; loc = balls.nextSetBit(loc + 1)) {
+            char[] row = g[(loc - 1) / _nCols];
+            int j = (loc - 1) % _nCols;
+            row[j] = row[j] == '.' ? '*' : '$';
+        }
+        int c = at(_character, t);
+        if (c != 0) {
+            char[] row = g[(c - 1) / _nCols];
+            int j = (c - 1) % _nCols;
+            row[j] = row[j] == '.' ? '+' : '@';
+        }
+        for (char[] row : g)
+            out.println(new String(row));
+    }
+
+    // @returns the balls at time  t , added as empty up to  t  if not there yet
+    private BitSet balls(int t) {
+        while (_balls.size() <= t)
+            _balls.add(new BitSet());
+        return _balls.get(t);
+    }
+
+    // @returns  a  (or a larger copy) with  value  at position  t
+    private static int[] set(int[] a, int t, int value) {
+        if (t >= a.length)
+            a = Arrays.copyOf(a, Math.max(t + 1, 2 * a.length));
+        a[t] = value;
+        return a;
+    }
+
+    private static int at(int[] a, int t) {
+        return t < a.length ? a[t] : 0;
+    }
+
+    /// @post Reads the description of the initial state and returns it, completed with walls
+    ///       as the translators do, so that locations are numbered the same way
+    public static char[][] readGrid(InputStream in) throws Exception {
+		BufferedReader buffer = new BufferedReader(new InputStreamReader(in));
+		List<String> l = new ArrayList<>();
+		String line = buffer.readLine();
+		int nColumns = line.length();
+		while (line != null && line.length() != 0) {
+			l.add(line);
+			nColumns = Math.max(line.length(), nColumns);
+			line = buffer.readLine();
+		}
+		// Completes the grid replacing the white spaces out of walls with #
+		char[][] grid = new char[l.size()][];
+		for (int i = 0; i < l.size(); ++i) {
+			String s = l.get(i);
+			int first = s.indexOf('#'), last = s.lastIndexOf('#');
+			if (i == 0 || i == l.size() - 1)
+				s = "#".repeat(nColumns);
+			else
+				s = "#".repeat(Math.max(first, 0)) + s.substring(first, last + 1) + "#".repeat(nColumns - last - 1);
+			grid[i] = s.toCharArray();
+		}
+		return grid;
+    }
+
+}
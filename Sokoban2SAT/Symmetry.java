@@ -0,0 +1,55 @@
+/**
+ * @class Symmetry
+ * @author Miquel Bofill
+ * @version 1.0
+ * @date 2023-07-04
+ * @brief Symmetry breaking among interchangeable copies of a choice of location
+ *
+ * Some encodings have several copies of the same constraints, each of them choosing
+ * exactly one location at each time step (e.g. the target of the reachability path
+ * of a ball action), with nothing telling the copies apart, so that any permutation
+ * of the copies in a solution is another solution. Requiring the chosen locations to
+ * be in non-decreasing order from each copy to the next one keeps a single solution
+ * of each class, which shortens unsatisfiability proofs. The order is encoded with a
+ * ladder of variables prefix<k>_<loc>_<t> for copy k, stating that it chooses loc or
+ * an earlier location, i.e., O(|V|) variables and clauses per pair of consecutive
+ * copies and time step.
+*/
+
+import java.util.Collection;
+
+public class Symmetry {
+
+    /// @post The ladder families for \p nCopies copies, prefix<k> with k = 1 .. nCopies - 1, are declared in \p v
+    public static void declare(VariableRegistry v, String prefix, int nCopies) {
+        for (int k = 1; k < nCopies; ++k)
+            v.declareLocations(prefix + k);
+    }
+
+    /// @pre Each of the families \p copies chooses exactly one of \p locations (in increasing order) at
+    ///      time \p t, and the ladder families are declared with \p prefix (see declare)
+    /// @post Clauses stating that, at time \p t, the location chosen by each copy is not after the one
+    ///       chosen by the next copy belong to \p f
+    public static void nonDecreasing(VariableRegistry.Family[] copies, Collection<Integer> locations, int t, String prefix, DIMACSFormula f) {
+        VariableRegistry v = f.registry();
+        for (int k = 1; k < copies.length; ++k) {
+            VariableRegistry.Family x = copies[k - 1], y = copies[k], le = v.locations(prefix + k);
+            int previous = 0; // Ladder variable of the previous location (none yet)
+            for (int loc : locations) {
+                int current = le.at(loc, t);
+                // current  <->  previous | x at loc
+                f.addClause(-x.at(loc, t), current);
+                if (previous == 0)
+                    f.addClause(-current, x.at(loc, t));
+                else {
+                    f.addClause(-previous, current);
+                    f.addClause(-current, previous, x.at(loc, t));
+                }
+                // y at loc  ->  x at loc or before
+                f.addClause(-y.at(loc, t), current);
+                previous = current;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,359 @@
+/**
+ * @class VariableRegistry
+ * @author Miquel Bofill
+ * @version 1.4
+ * @date 2023-07-08
+ * @brief Typed variables of an encoding, numbered arithmetically
+ *
+ * Variables are grouped in families sharing a name prefix. Families are laid out
+ * time step by time step: all time-independent families come first, then one block
+ * of <tt>stride()</tt> variables per time step. Hence the DIMACS number of a variable
+ * is computed from its kind, location(s) and time, and atom names are only built
+ * when asked for.
+ *
+ * The layout can be saved as a variable map (see write) and read back (see read), so
+ * that models can be decoded without the atom names in the CNF (see familyOf, time
+ * and location, which need no names either). The map is a text
+ * file with lines
+ *
+ *   p vmap <nLocs> <nValid>
+ *   l <loc_1> ... <loc_nValid>
+ *   f <kind> <rows> <cols> <prefix>
+ *
+ * where families are listed in numbering order, and <kind> is one of
+ * <tt>initial</tt>, <tt>locations</tt>, <tt>pairs</tt>, <tt>steps</tt> or <tt>block</tt>.
+*/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Scanner;
+import java.util.Set;
+import java.io.InputStream;
+import java.io.PrintStream;
+
+public class VariableRegistry {
+
+    private static final int LOCATIONS = 0; ///< prefix_<loc>_<t>
+    private static final int PAIRS = 1;     ///< prefix_<loc>_<loc>_<t>
+    private static final int STEPS = 2;     ///< prefix_<t>
+    private static final int BLOCK = 3;     ///< prefix_<i>_<j>_<t>, 1 <= i <= rows, 1 <= j <= cols
+    private static final String[] KIND_NAMES = {"locations", "pairs", "steps", "block"};
+
+    /// @brief A family of variables sharing a name prefix
+    public class Family {
+        private final String _prefix;
+        private final int _kind;
+        private final boolean _layered; ///< one copy per time step
+        private final int _cols;        ///< second dimension (pairs and blocks)
+        private final int _size;        ///< number of variables per time step
+        private final int _offset;      ///< position within the prelude or the time step
+        private int _base;              ///< number of the first variable at time 0
+
+        private Family(String prefix, int kind, boolean layered, int cols, int size, int offset) {
+            _prefix = prefix;
+            _kind = kind;
+            _layered = layered;
+            _cols = cols;
+            _size = size;
+            _offset = offset;
+        }
+
+        public String prefix() {
+            return _prefix;
+        }
+
+        // @returns the kind of the family as written in variable maps
+        private String kindName() {
+            return _kind == LOCATIONS && !_layered ? "initial" : KIND_NAMES[_kind];
+        }
+
+        /// @returns The variable for location \p loc at time \p t
+        /// @pre \p loc is a valid location
+        public int at(int loc, int t) {
+            assert _kind == LOCATIONS && _index[loc] >= 0 && (_layered || t == 0) : _prefix + "_" + loc + "_" + t;
+            return base(t) + _index[loc];
+        }
+
+        /// @returns The variable for locations \p p and \p q (or block position <tt>(p, q)</tt>) at time \p t
+        public int at(int p, int q, int t) {
+            if (_kind == PAIRS) {
+                assert _index[p] >= 0 && _index[q] >= 0 : _prefix + "_" + p + "_" + q + "_" + t;
+                return base(t) + _index[p] * _cols + _index[q];
+            }
+            assert _kind == BLOCK && p >= 1 && q >= 1 && q <= _cols && (p - 1) * _cols + q <= _size : _prefix + "_" + p + "_" + q + "_" + t;
+            return base(t) + (p - 1) * _cols + (q - 1);
+        }
+
+        /// @returns The variable of a step family at time \p t
+        public int at(int t) {
+            assert _kind == STEPS : _prefix + "_" + t;
+            return base(t);
+        }
+
+        // @returns the number of the first variable of the family at time  t
+        private int base(int t) {
+            if (t > _maxTime)
+                throw new IllegalArgumentException("Variable " + _prefix + " at time " + t + " beyond the largest DIMACS number " + Integer.MAX_VALUE);
+            return _base + t * _stride;
+        }
+
+        private String name(int offset, int t) {
+            switch (_kind) {
+            case LOCATIONS:
+                return _prefix + "_" + _locations[offset] + "_" + t;
+            case PAIRS:
+                return _prefix + "_" + _locations[offset / _cols] + "_" + _locations[offset % _cols] + "_" + t;
+            case BLOCK:
+                return _prefix + "_" + (offset / _cols + 1) + "_" + (offset % _cols + 1) + "_" + t;
+            default:
+                return _prefix + "_" + t;
+            }
+        }
+    }
+
+    private int[] _index;     ///< dense index of each location (-1 if not valid)
+    private int[] _locations; ///< location for each dense index
+    private int _nValid;      ///< number of valid locations
+    private int _prelude;     ///< number of time-independent variables
+    private int _stride;      ///< number of variables per time step
+    private int _maxTime;     ///< last time step whose variables can be numbered (set when frozen)
+    private boolean _frozen;  ///< no more families can be declared
+    private ArrayList<Family> _fixed;   ///< time-independent families, by offset
+    private ArrayList<Family> _layered; ///< time-indexed families, by offset
+    private HashMap<String,Family> _families; ///< families by kind and prefix
+
+    /// @param nLocs Number of locations of the grid (locations are numbered from 1)
+    /// @param validLocations Locations variables can refer to
+    public VariableRegistry(int nLocs, Set<Integer> validLocations) {
+        _index = new int[nLocs + 1];
+        Arrays.fill(_index, -1);
+        _locations = new int[validLocations.size()];
+        for (Integer loc : validLocations) {
+            _index[loc] = _nValid;
+            _locations[_nValid++] = loc;
+        }
+        _fixed = new ArrayList<>();
+        _layered = new ArrayList<>();
+        _families = new HashMap<>();
+    }
+
+    private Family declare(String prefix, int kind, boolean layered, int cols, long size) {
+        if (_frozen)
+            throw new IllegalStateException("Variable family " + prefix + " declared after numbering started");
+        if (_prelude + _stride + size >= Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Variable family " + prefix + " beyond the largest DIMACS number " + Integer.MAX_VALUE);
+        String key = kind + prefix;
+        if (_families.containsKey(key))
+            throw new IllegalArgumentException("Variable family " + prefix + " declared twice");
+        Family fam = new Family(prefix, kind, layered, cols, (int) size, layered ? _stride : _prelude);
+        if (layered) {
+            _stride += size;
+            _layered.add(fam);
+        }
+        else {
+            _prelude += size;
+            _fixed.add(fam);
+        }
+        _families.put(key, fam);
+        return fam;
+    }
+
+    /// @brief Declares families <tt>prefix_<loc>_<t></tt>, for every valid location and time step
+    public void declareLocations(String... prefixes) {
+        for (String prefix : prefixes)
+            declare(prefix, LOCATIONS, true, 0, _nValid);
+    }
+
+    /// @brief Declares families <tt>prefix_<loc>_0</tt>, only defined for the initial state
+    public void declareInitial(String... prefixes) {
+        for (String prefix : prefixes)
+            declare(prefix, LOCATIONS, false, 0, _nValid);
+    }
+
+    /// @brief Declares families <tt>prefix_<p>_<q>_<t></tt>, for every pair of valid locations and time step
+    ///        (relations between neighbours only, such as edges, take a location family per direction instead)
+    public void declarePairs(String... prefixes) {
+        for (String prefix : prefixes)
+            declare(prefix, PAIRS, true, _nValid, (long) _nValid * _nValid);
+    }
+
+    /// @brief Declares families <tt>prefix_<t></tt>, one variable per time step
+    public void declareSteps(String... prefixes) {
+        for (String prefix : prefixes)
+            declare(prefix, STEPS, true, 0, 1);
+    }
+
+    /// @brief Declares family <tt>prefix_<i>_<j>_<t></tt> of <tt>rows * cols</tt> (auxiliary) variables per time step
+    public void declareBlock(String prefix, int rows, int cols) {
+        declare(prefix, BLOCK, true, Math.max(cols, 1), (long) Math.max(rows, 0) * Math.max(cols, 1));
+    }
+
+    private Family family(int kind, String prefix) {
+        Family fam = _families.get(kind + prefix);
+        if (fam == null)
+            throw new IllegalArgumentException("Undeclared variable family " + prefix);
+        if (!_frozen)
+            freeze();
+        return fam;
+    }
+
+    public Family locations(String prefix) {
+        return family(LOCATIONS, prefix);
+    }
+
+    public Family pairs(String prefix) {
+        return family(PAIRS, prefix);
+    }
+
+    public Family steps(String prefix) {
+        return family(STEPS, prefix);
+    }
+
+    public Family block(String prefix) {
+        return family(BLOCK, prefix);
+    }
+
+    /// @post No more families can be declared, and variable numbers are final
+    public void freeze() {
+        if (!_frozen) {
+            _frozen = true;
+            for (Family fam : _fixed)
+                fam._base = 1 + fam._offset;
+            for (Family fam : _layered)
+                fam._base = 1 + _prelude + fam._offset;
+            _maxTime = _stride == 0 ? Integer.MAX_VALUE : (Integer.MAX_VALUE - _prelude) / _stride - 1;
+        }
+    }
+
+    /// @returns Number of variables of each time step
+    public int stride() {
+        return _stride;
+    }
+
+    /// @returns Number of time-independent variables (numbered before those of time step 0)
+    public int prelude() {
+        return _prelude;
+    }
+
+    /// @returns Number of valid locations
+    public int nValid() {
+        return _nValid;
+    }
+
+    /// @returns Highest variable number up to time step \p t (included)
+    public int lastVariable(int t) {
+        if (_frozen && t > _maxTime)
+            throw new IllegalArgumentException("Time step " + t + " beyond the largest DIMACS number " + Integer.MAX_VALUE);
+        return _prelude + (t + 1) * _stride;
+    }
+
+    /// @brief Writes the variable map (see the class description) to \p out
+    public void write(PrintStream out) {
+        out.println("p vmap " + (_index.length - 1) + " " + _nValid);
+        StringBuilder sb = new StringBuilder("l");
+        for (int loc : _locations)
+            sb.append(' ').append(loc);
+        out.println(sb);
+        for (ArrayList<Family> fams : Arrays.asList(_fixed, _layered))
+            for (Family fam : fams)
+                if (fam._kind == BLOCK)
+                    out.println("f block " + (fam._size / fam._cols) + " " + fam._cols + " " + fam._prefix);
+                else
+                    out.println("f " + fam.kindName() + " 0 0 " + fam._prefix);
+    }
+
+    /// @returns The registry described by the variable map in \p in (frozen)
+    public static VariableRegistry read(InputStream in) {
+        Scanner sc = new Scanner(in);
+        if (!sc.next().equals("p") || !sc.next().equals("vmap"))
+            throw new IllegalArgumentException("Not a variable map");
+        int nLocs = sc.nextInt();
+        int nValid = sc.nextInt();
+        if (!sc.next().equals("l"))
+            throw new IllegalArgumentException("Missing locations in variable map");
+        Set<Integer> locations = new LinkedHashSet<>(); // Same dense indexes as the written registry
+        for (int i = 0; i < nValid; ++i)
+            locations.add(sc.nextInt());
+        VariableRegistry r = new VariableRegistry(nLocs, locations);
+        while (sc.hasNext()) {
+            if (!sc.next().equals("f"))
+                throw new IllegalArgumentException("Bad family in variable map");
+            String kind = sc.next();
+            int rows = sc.nextInt();
+            int cols = sc.nextInt();
+            String prefix = sc.next();
+            switch (kind) {
+            case "initial":
+                r.declareInitial(prefix);
+                break;
+            case "locations":
+                r.declareLocations(prefix);
+                break;
+            case "pairs":
+                r.declarePairs(prefix);
+                break;
+            case "steps":
+                r.declareSteps(prefix);
+                break;
+            case "block":
+                r.declareBlock(prefix, rows, cols);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown family kind " + kind + " in variable map");
+            }
+        }
+        r.freeze();
+        return r;
+    }
+
+    /// @brief The name for a variable
+    /// @returns The name for atom number \p v
+    /// @pre \p v > 0 and the registry is frozen
+    public String name(int v) {
+        Family fam = familyOf(v);
+        return fam.name(offset(v) - fam._offset, time(v));
+    }
+
+    /// @returns The family of atom number \p v, by binary search over the families
+    /// @pre \p v > 0 and the registry is frozen
+    public Family familyOf(int v) {
+        ArrayList<Family> fams = v - 1 < _prelude ? _fixed : _layered;
+        int r = offset(v);
+        // Last family starting at or before offset r (empty families are skipped this way)
+        int lo = 0, hi = fams.size() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) / 2;
+            if (fams.get(mid)._offset <= r)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        return fams.get(lo);
+    }
+
+    /// @returns The time step of atom number \p v (0 if time-independent)
+    public int time(int v) {
+        return v - 1 < _prelude ? 0 : (v - 1 - _prelude) / _stride;
+    }
+
+    /// @returns The location of atom number \p v (the first one, of a pair), or -1 if its family has no locations
+    /// @pre \p v > 0 and the registry is frozen
+    public int location(int v) {
+        return location(familyOf(v), v);
+    }
+
+    /// @returns The location of atom number \p v of family \p fam (see familyOf), in constant time
+    /// @pre \p v > 0 belongs to \p fam and the registry is frozen
+    public int location(Family fam, int v) {
+        int offset = offset(v) - fam._offset;
+        return fam._kind == LOCATIONS ? _locations[offset] : fam._kind == PAIRS ? _locations[offset / fam._cols] : -1;
+    }
+
+    // @returns position of atom number  v  within the prelude or its time step
+    private int offset(int v) {
+        return v - 1 < _prelude ? v - 1 : (v - 1 - _prelude) % _stride;
+    }
+
+}
@@ -7,21 +7,21 @@
 */
 
 import java.util.List;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
-import java.util.Map;
-import java.util.TreeMap;
 import java.util.Set; 
-import java.util.TreeSet;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.BufferedReader;
-import java.io.PrintStream;
 
 public class sokoban2sat_forbiddenPositions_reachability_counting_cnf {
 
     /// @pre Program has been called with argument <tt> n </tt> where n >= 0 is the
-    ///      number of time steps of the desired plan
+    ///      number of time steps of the desired plan, optionally followed by <tt> -stream </tt>
+    ///      to write clauses to a temporary file as they are generated (see DIMACSFormula),
+    ///      <tt> -nocomments </tt> to omit the comment lines naming the atoms,
+    ///      <tt> -map file </tt> to write the variable map to  file  instead (see VariableRegistry),
+    ///      and <tt> -icnf m </tt> to output an iCNF for n .. m time steps instead (see Encoder)
     ///
     ///      A problem instance is available in the standard input with the format:
     ///
@@ -63,15 +63,44 @@ public class sokoban2sat_forbiddenPositions_reachability_counting_cnf {
     ///       State variables are prefixed by #
     public static void main(String[] args) throws Exception {
 		int nSteps = 0;
+		boolean stream = false;
+		boolean comments = true;
+		String map = null;
+		int last = -1;
+		Cardinality.AtMostOne amo = null;
 		try {
 			nSteps = Integer.parseInt(args[0]);
 			assert nSteps >= 0;
+			for (int i = 1; i < args.length; ++i)
+				if (args[i].equals("-stream"))
+					stream = true;
+				else if (args[i].equals("-nocomments"))
+					comments = false;
+				else if (args[i].equals("-map") && i + 1 < args.length) {
+					map = args[++i];
+					comments = false;
+				}
+				else if (args[i].equals("-icnf") && i + 1 < args.length) {
+					last = Integer.parseInt(args[++i]);
+					if (last < nSteps)
+						throw new IllegalArgumentException(args[i]);
+				}
+				else if (args[i].equals("-amo") && i + 1 < args.length)
+					amo = Cardinality.AtMostOne.valueOf(args[++i].toUpperCase());
+				else
+					throw new IllegalArgumentException(args[i]);
 		}
 		catch (Exception e) {
-			System.err.println("The program needs an integer n >= 0 as argument denoting the number of steps of the desired plan.");
+			System.err.println("The program needs an integer n >= 0 as argument denoting the number of steps of the desired plan (options: -stream, -nocomments, -map file, -icnf m, -amo pairwise|ladder|commander|product|bimander).");
 			System.exit(0);
 		}
-		translate(System.in, System.out, nSteps);
+		Encoder e = encoder(System.in, amo);
+		if (last >= 0)
+			e.encodeIncremental(nSteps, last, System.out, stream, map);
+		else {
+			System.out.println("c "+nSteps);
+			e.encode(nSteps, System.out, stream, comments, map);
+		}
     }
 
     
@@ -118,71 +147,35 @@ public class sokoban2sat_forbiddenPositions_reachability_counting_cnf {
 		return grid;
     }
     
-    //If loc (position [i,j] in the grid) is included in lforbidden if it is a forbidden position (corner) for a ball
-    //pre: i neither first nor last row, j neither first nor last column (due to: loc contains @,$ or ' ')
-    private static void check_forbidden(int loc, int i, int j, List<Integer> lforbidden, char[][] grid){
-    	boolean upP = grid[i-1][j] == '#';
-    	boolean downP = grid[i+1][j] == '#';
-    	boolean leftP = grid[i][j-1] == '#';
-    	boolean rightP = grid[i][j+1] == '#';
-    	if ((upP && leftP) || (upP && rightP) || (downP && leftP) || (downP && rightP))
-    		lforbidden.add(loc);
-    }
-    
-    // Returns <number of holes = balls, assertions for the initial state>
+    // Returns <forbidden positions for a ball (see DeadSquares), number of holes = balls>
     // assumed there can be only one player
-    // c for character, h for hole, b for ball  
-    private static Pair<List<Integer>,String> initialState(char[][] grid) throws Exception {
-    		List<Integer> lforbidden = new LinkedList<>();
+    private static Pair<List<Integer>,Integer> initialState(char[][] grid) throws Exception {
 		int nRows = grid.length;
 		int nCols = grid[0].length;
 		int nChar = 0; // Number of characters (players)
 		int nBalls = 0; // Number of balls
 		int nHoles = 0; // Number of holes
-		String s = ""; // = "\n;; Initial state\n";
 		for (int i = 0; i < nRows; ++i) {
 			for (int j = 0; j < nCols; ++j) {
-				int loc = i * nCols + j + 1;
 				switch (grid[i][j]) {
 				case '#':
 					break;
 				case '@':   
 					nChar++;
-					s += "#c_" + loc + "_0 & ";
-					s += "!#b_" + loc + "_0 & ";
-					s += "!#h_" + loc + "_0 & ";
-					check_forbidden(loc, i, j, lforbidden, grid);
 					break;
 				case '$':  
 					nBalls++;
-					s += "!#c_" + loc + "_0 & ";
-					s += "#b_" + loc + "_0 & ";
-					s += "!#h_" + loc + "_0 & ";
-					check_forbidden(loc, i, j, lforbidden, grid);
 					break;
 				case '.':
 					nHoles++;
-					s += "!#c_" + loc + "_0 & ";
-					s += "!#b_" + loc + "_0 & ";
-					s += "#h_" + loc + "_0 & ";
 					break;
 				case '*':
 					nHoles++; nBalls++;
-					s += "!#c_" + loc + "_0 & ";
-					s += "#b_" + loc + "_0 & ";
-					s += "#h_" + loc + "_0 & ";
 					break;
 				case '+':
 					nHoles++; nChar++;
-					s += "#c_" + loc + "_0 & ";
-					s += "!#b_" + loc + "_0 & ";
-					s += "#h_" + loc + "_0 & ";
 					break;
 				case ' ':
-					s += "!#c_" + loc + "_0 & ";
-					s += "!#b_" + loc + "_0 & ";
-					s += "!#h_" + loc + "_0 & ";
-					check_forbidden(loc, i, j, lforbidden, grid);
 					break;
 				default:
 					throw new Exception("Symbol '" + grid[i][j] + "' invalid in grid");
@@ -200,224 +193,95 @@ public class sokoban2sat_forbiddenPositions_reachability_counting_cnf {
 			throw new Exception("There must be at least one ball and one hole");
 	
 	
-		return new Pair<List<Integer>,String>(lforbidden, s);
+		return new Pair<List<Integer>,Integer>(DeadSquares.of(grid), nBalls);
     }
 
-    // Key = d + l where  d  is a direction ('n', 's', 'e', 'w') and  l  is the number of the location; Value is the number of the location next to  l  in the direction  d
-    private static Map<String,Integer> computeNextRelation(int nRows, int nCols) {
-		TreeMap<String,Integer> m = new TreeMap<>();
-		int loc = 1;
-		for (int i = 0; i < nRows; ++i) {
-			for (int j = 1; j <= nCols; ++j, ++loc) {
-				if (loc > nCols) // Not first row
-					m.put("n" + loc, loc - nCols);
-				if (loc <= nCols * (nRows - 1)) // Not last row
-					m.put("s" + loc, loc + nCols);
-				if (loc % nCols != 1) // Not first column
-					m.put("w" + loc, loc - 1);
-				if (loc % nCols != 0) // Not last column
-					m.put("e" + loc, loc + 1);
-			}
-		}
-		return m;
-    }
-
-    // Next to the next (in the same direction)
-    private static Map<String,Integer> computeNext2Relation(Map<String,Integer> next) {
-		TreeMap<String,Integer> m = new TreeMap<>();
-		for (Map.Entry<String,Integer> e : next.entrySet()) {
-			String k = e.getKey();
-			Integer j = next.get(k.substring(0,1) + e.getValue());
-			if (j != null)
-				m.put(k, j);
-		}
-		return m;
-    }
-
-    private static void	computeSetsNext2Wall(Set<Integer> l, Set<Integer> ln, Set<Integer> lnn, String d, Map<String,Integer> next, Map<String,Integer> next2, char[][] grid) {
+    // Assertions for the initial state
+    // c for character, h for hole, b for ball
+    private static void initialStateClauses(char[][] grid, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family c = v.locations("#c");
+		VariableRegistry.Family b = v.locations("#b");
+		VariableRegistry.Family h = v.locations("#h");
 		int nCols = grid[0].length;
-		for(Integer i : l)
-			if (grid[(i - 1) / nCols][(i - 1) % nCols] != '#') {
-				Integer j = next.get(d + i);
-				Integer k = next2.get(d + i);
-				if (j != null && grid[(j - 1) / nCols][(j - 1) % nCols] == '#')
-					ln.add(i);
-				if (k != null && grid[(k - 1) / nCols][(k - 1) % nCols] == '#')
-					lnn.add(i);
+		for (int i = 0; i < grid.length; ++i) {
+			for (int j = 0; j < nCols; ++j) {
+				int loc = i * nCols + j + 1;
+				char x = grid[i][j];
+				if (x != '#') {
+					f.addClause((x == '@' || x == '+') ? c.at(loc, 0) : -c.at(loc, 0));
+					f.addClause((x == '$' || x == '*') ? b.at(loc, 0) : -b.at(loc, 0));
+					f.addClause((x == '.' || x == '*' || x == '+') ? h.at(loc, 0) : -h.at(loc, 0));
+				}
 			}
-    }
-
-	private static void exactlyOneAction(int nSteps, DIMACSFormula f) {
-		for (int i = 0; i < nSteps; ++i) {
-			f.addClause(List.of("n_" + i, "s_" + i, "e_" + i, "w_" + i));
-			f.addClause(List.of("!n_" + i, "!s_" + i));
-			f.addClause(List.of("!n_" + i, "!e_" + i));
-			f.addClause(List.of("!n_" + i, "!w_" + i));
-			f.addClause(List.of("!s_" + i, "!e_" + i));
-			f.addClause(List.of("!s_" + i, "!w_" + i));
-			f.addClause(List.of("!e_" + i, "!w_" + i));
 		}
-	}
-
-	/// @pre \p antecedent denotes a disjunction of literals, \p consequent denotes a conjunction of literals
-	/// @returns corresponding CNF
-	private static List<List<String>> implication2cnf(List<String> antecedent, List<String> consequent) {
-		List<List<String>> cnf = new LinkedList<>();
-		for (String a : antecedent)
-			for (String c : consequent) {
-				List<String> clause = new LinkedList<>();
-				if (a.charAt(0) == '!')
-					clause.add(a);
-				else
-					clause.add("!" + a);
-				clause.add(c);
-				cnf.add(clause);
-			}
-		return cnf;
-	}
-
-	private static void add2DIMACSFormula(List<List<String>> cnf, DIMACSFormula f) {
-		for (List<String> clause : cnf)
-			f.addClause(clause);
-	}
+    }
 
-	private static Map<Integer,List<Integer>> computeValidNeighbours(Set<Integer> validLocations, Map<String,Integer> next) {
-		TreeMap<Integer,List<Integer>> r = new TreeMap<>();
-		for (Integer p : validLocations) {
-			ArrayList<Integer> validNeighbours = new ArrayList<>();
-			Integer n1 = next.get("n" + p);
-			Integer n2 = next.get("s" + p);
-			Integer n3 = next.get("e" + p);
-			Integer n4 = next.get("w" + p);
-			if (validLocations.contains(n1))
-				validNeighbours.add(n1);
-			if (validLocations.contains(n2))
-				validNeighbours.add(n2);
-			if (validLocations.contains(n3))
-				validNeighbours.add(n3);
-			if (validLocations.contains(n4))
-				validNeighbours.add(n4);
-			r.put(p,validNeighbours);
+	private static void exactlyOneAction(int first, int nSteps, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family n = v.steps("n"), s = v.steps("s"), e = v.steps("e"), w = v.steps("w");
+		for (int i = first; i < nSteps; ++i) {
+			f.addClause(n.at(i), s.at(i), e.at(i), w.at(i));
+			f.addClause(-n.at(i), -s.at(i));
+			f.addClause(-n.at(i), -e.at(i));
+			f.addClause(-n.at(i), -w.at(i));
+			f.addClause(-s.at(i), -e.at(i));
+			f.addClause(-s.at(i), -w.at(i));
+			f.addClause(-e.at(i), -w.at(i));
 		}
-		return r;
-	}
-
-	private static String literal(String lit, Integer index, int time) {
-		return lit + "_" + index + "_" + time;
 	}
 
-	// @returns "At-Most-k(var_{i_1}^time, ..., var_{i_n}^time)" for i_1, ..., i_n in indexes
-	private static List<List<String>> at_most(int k, String var, List<Integer> indexes, Integer time) {
-		return at_most(k, var, indexes, time, false);
+	private static int[] concat(int[] a, int... b) {
+		int[] c = Arrays.copyOf(a, a.length + b.length);
+		System.arraycopy(b, 0, c, a.length, b.length);
+		return c;
 	}
 
-	// @returns "At-Least-k(var_{i_1}^time, ..., var_{i_n}^time)" for i_1, ..., i_n in indexes
-	private static List<List<String>> at_least(int k, String var, List<Integer> indexes, Integer time) {
-		return at_most(indexes.size() - k, var, indexes, time, true);
-	}
-
-	// @returns list of lists of literals
-	private static List<List<String>> at_most(int k, String var, List<Integer> indexes, Integer time, boolean negated) {
-		LinkedList<List<String>> r = new LinkedList<>();
-		String neg = (negated? "" : "!");
-		List<List<Integer>> ll = lists(k + 1, indexes);
-		for (List<Integer> l : ll) {
-			LinkedList<String> r1 = new LinkedList<>();
-			for (Integer i : l)
-				r1.add(literal(neg + var, i, time));
-			r.add(r1);
-		}
-		return r;
+	/// @pre \p antecedent denotes a disjunction of literals, \p consequent denotes a conjunction of literals
+	/// @post corresponding CNF belongs to \p f
+	private static void implication2cnf(int[] antecedent, int[] consequent, DIMACSFormula f) {
+		for (int a : antecedent)
+			for (int c : consequent)
+				f.addClause(-a, c);
 	}
 
-    // @returns the list of subsets of  k  elements of  l
-	private static List<List<Integer>> lists(int k, List<Integer> l) {
-		List<List<Integer>> ll = new LinkedList<List<Integer>>();
-		if (k == 0)
-			ll.add(new LinkedList<>());
-		else if (l.size() >= k) {
-			List<Integer> lr = l.subList(1,l.size());
-			List<List<Integer>> lm = lists(k - 1, lr);
-			for (List<Integer> m : lm) {
-				LinkedList<Integer> lt = new LinkedList<>();
-				lt.add(l.get(0));
-				lt.addAll(m);
-				ll.add(lt);
-			}
-			ll.addAll(lists(k,lr));
-		}
-		return ll;
-	}
-	
-	private static void forbiddenPositions(int nSteps, List<Integer> forbiddenLocs, DIMACSFormula f){
-		for (int i = 0; i < nSteps; ++i) 
+	private static void forbiddenPositions(int first, int nSteps, List<Integer> forbiddenLocs, DIMACSFormula f){
+		VariableRegistry.Family b = f.registry().locations("#b");
+		for (int i = first; i < nSteps; ++i) 
 			for (Integer loc : forbiddenLocs)
-				f.addClause(List.of("!#b_" + loc + "_" + i)); 
+				f.addClause(-b.at(loc, i)); 
 	}
 
-	private static void reachabilityConstraints(PrintStream out, int nSteps, Set<Integer> validLocations, Map<Integer, List<Integer>> validNeighbours, DIMACSFormula f) {
+	private static void reachabilityConstraints(int first, int nSteps, LocationSet validLocations, List<List<Integer>> validNeighbours, DIMACSFormula f) {
+
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family b = v.locations("#b"), c = v.locations("#c"), path = v.locations("p");
 
 		for (Integer l : validLocations) {
 			List<Integer> neighbours = validNeighbours.get(l);
-			for (int t = 0; t < nSteps; ++t) {
+			for (int t = first; t < nSteps; ++t) {
 				int t1 = t + 1;
 
 				// Ball not in path
-				f.addClause(List.of(literal("!#b", l, t), literal("!p", l, t1))); 
+				f.addClause(-b.at(l, t), -path.at(l, t1)); 
 
 
 			        // Path constraints
-				f.addClause(List.of(literal("!#c", l, t), literal("p", l, t1)));
-				f.addClause(List.of(literal("!#c", l, t1), literal("p", l, t1)));
-
-				List<String> antecedent1 = new LinkedList<>();
-				List<String> antecedent2 = new LinkedList<>();
-				List<String> clause = new LinkedList<>();
-				String l1 = literal("#c", l, t);
-				String l2 = literal("#c", l, t1);
-				antecedent1.add("!" + l1);
-				antecedent1.add(l2);
-				antecedent2.add(l1);
-				antecedent2.add("!" + l2);
-				for (List<String> succedent : at_least(1, "p", neighbours, t1)) {
-					clause.clear();
-					clause.addAll(antecedent1);
-					clause.addAll(succedent);
-					f.addClause(clause);
-					clause.clear();
-					clause.addAll(antecedent2);
-					clause.addAll(succedent);
-					f.addClause(clause);
-				}
-				for (List<String> succedent : at_most(1, "p", neighbours, t1)) {
-					clause.clear();
-					clause.addAll(antecedent1);
-					clause.addAll(succedent);
-					f.addClause(clause);
-					clause.clear();
-					clause.addAll(antecedent2);
-					clause.addAll(succedent);
-					f.addClause(clause);
-				}
+				f.addClause(-c.at(l, t), path.at(l, t1));
+				f.addClause(-c.at(l, t1), path.at(l, t1));
 
+				int[] antecedent1 = {-c.at(l, t), c.at(l, t1)};
+				int[] antecedent2 = {c.at(l, t), -c.at(l, t1)};
+				Cardinality.atLeast(1, path, neighbours, t1, antecedent1, f);
+				Cardinality.atLeast(1, path, neighbours, t1, antecedent2, f);
+				Cardinality.atMost(1, path, neighbours, t1, antecedent1, f);
+				Cardinality.atMost(1, path, neighbours, t1, antecedent2, f);
 
-				antecedent1.clear();
-				antecedent1.add(literal("#c", l, t));
-				antecedent1.add(literal("#c", l, t1));
-				antecedent1.add(literal("!p", l, t1));
+
+				antecedent1 = new int[] {c.at(l, t), c.at(l, t1), -path.at(l, t1)};
 				if (neighbours.size() >= 2) {
-					for (List<String> succedent : at_least(2, "p", neighbours, t1)) {
-						clause.clear();
-						clause.addAll(antecedent1);
-						clause.addAll(succedent);
-						f.addClause(clause);
-					}
-					for (List<String> succedent : at_most(2, "p", neighbours, t1)) {
-						clause.clear();
-						clause.addAll(antecedent1);
-						clause.addAll(succedent);
-						f.addClause(clause);
-					}
+					Cardinality.atLeast(2, path, neighbours, t1, antecedent1, f);
+					Cardinality.atMost(2, path, neighbours, t1, antecedent1, f);
 				}
 				else
 					f.addClause(antecedent1);
@@ -428,37 +292,43 @@ public class sokoban2sat_forbiddenPositions_reachability_counting_cnf {
 	}
 
 
-	private static void actionTransitions(int nSteps, Set<Integer> l, Set<Integer> lwall, Set<Integer> lwall2, String d, Map<String,Integer> next, Map<String,Integer> next2, DIMACSFormula f) {
-		for (int i = 0; i < nSteps; ++i) {
-			String t = "_" + i; String t1 = "_" + (i + 1);
+	private static void actionTransitions(int first, int nSteps, LocationSet l, boolean[] lwall, boolean[] lwall2, String d, int[][] next, int[][] next2, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family action = v.steps(d), b = v.locations("#b"), c = v.locations("#c");
+		int dir = Geometry.direction(d);
+		for (int i = first; i < nSteps; ++i) {
+			int t = i, t1 = i + 1;
 
 			// No action allowed
-			for (Integer j : lwall)
-				f.addClause(List.of("!#c_" + j + t1, "!" + d + t));
+			for (Integer j : l)
+				if (lwall[j])
+					f.addClause(-c.at(j, t1), -action.at(t));
 
 			// No action allowed
-			for (Integer j : lwall2)
-				if (!lwall.contains(j)){
-					f.addClause(List.of("!#c_" + j + t1, "!" + d + t));
+			for (Integer j : l)
+				if (lwall2[j] && !lwall[j]) {
+					f.addClause(-c.at(j, t1), -action.at(t));
 				}
 					
 			// roll
 			for (Integer j : l)
-				if (!lwall.contains(j) && !lwall2.contains(j)) {
-					String lj = "_" + j;
-					String ljn = "_" + next.get(d + j);
-					String ljnn = "_" + next2.get(d + j);
-					f.addClause(List.of("!#c" + lj + t1, "!" + d + t, "#b" + ljn + t));
-					f.addClause(List.of("!#c" + lj + t1, "!" + d + t, "!#b" + ljn + t1));
-					f.addClause(List.of("!#c" + lj + t1, "!" + d + t, "!#b" + ljnn + t));
-					f.addClause(List.of("!#c" + lj + t1, "!" + d + t, "#b" + ljnn + t1));
+				if (!lwall[j] && !lwall2[j]) {
+					int jn = next[dir][j];
+					int jnn = next2[dir][j];
+					f.addClause(-c.at(j, t1), -action.at(t), b.at(jn, t));
+					f.addClause(-c.at(j, t1), -action.at(t), -b.at(jn, t1));
+					f.addClause(-c.at(j, t1), -action.at(t), -b.at(jnn, t));
+					f.addClause(-c.at(j, t1), -action.at(t), b.at(jnn, t1));
 				}
 		}
 	}
 
-    private static void frameAxioms(int nSteps, Set<Integer> l, DIMACSFormula f) {
+    private static void frameAxioms(int first, int nSteps, LocationSet l, Cardinality.AtMostOne amo, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family aux = v.block("amo_c");
+		VariableRegistry.Family b = v.locations("#b"), c = v.locations("#c");
     	/*
-		for (int i = 0; i < nSteps; ++i) {
+		for (int i = first; i < nSteps; ++i) {
 			String t = "_" + i; String t1 = "_" + (i + 1);
 
 			for (Integer j : l) {
@@ -472,80 +342,74 @@ public class sokoban2sat_forbiddenPositions_reachability_counting_cnf {
 		}
 	*/
 		// Character at most in one place
-		for (int i = 1; i <= nSteps; ++i) {
-			String t = "_" + i;
-			for (int j : l)
-				for (int k : l)
-					if (j < k)
-						f.addClause(List.of("!#c_" + j + t, "!#c_" + k + t));
+		for (int i = first + 1; i <= nSteps; ++i) {
+			for (int[] clause : Cardinality.atMostOne(amo, c, l, i, aux))
+				f.addClause(clause);
 		}
 
     }
 
-    // returns k such that next.get(d + k) is j
-    private static Integer inext(char d, Integer j, Map<String,Integer> next) {
-		Integer k = null;
-		for (Map.Entry<String,Integer> e : next.entrySet()) {
-			if (e.getValue().equals(j)) {
-				String key = e.getKey();
-				if (key.charAt(0) == d)
-					return Integer.parseInt(key.substring(1));
-			}
-		}
-		return k;
-    }
-
-    private static void frameAxioms(int nSteps, Set<Integer> l, String d, Map<String,Integer> next, Map<String,Integer> next2, DIMACSFormula f) {
-		for (int i = 0; i < nSteps; ++i) {
-			String t = "_" + i; String t1 = "_" + (i + 1);
+    private static void frameAxioms(int first, int nSteps, LocationSet l, String d, int[][] next, int[][] next2, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family action = v.steps(d), b = v.locations("#b"), c = v.locations("#c");
+		int dir = Geometry.direction(d);
+		for (int i = first; i < nSteps; ++i) {
+			int t = i, t1 = i + 1;
 	    
 			for (Integer j : l) {
-				Integer jo = inext(d.charAt(0), j, next);
-				Integer joo = inext(d.charAt(0), j, next2);
-				String lj = "_" + j;
-				String ljo = "_" + jo;
-				String ljoo = "_" + joo;
+				int jo = next[Geometry.opposite(dir)][j];
+				int joo = next2[Geometry.opposite(dir)][j];
 
 
 				// Axioms
 
-				if (jo != null && l.contains(jo)) {
+				if (jo != -1 && l.contains(jo)) {
 
-					f.addClause(List.of("!#b" + lj + t, "#b" + lj + t1, "!" + d + t, "#c" + ljo + t1));
+					f.addClause(-b.at(j, t), b.at(j, t1), -action.at(t), c.at(jo, t1));
 
-					if (joo != null && l.contains(joo)) {
+					if (joo != -1 && l.contains(joo)) {
 
-						f.addClause(List.of("#b" + lj + t, "!#b" + lj + t1, "!" + d + t, "#c" + ljoo + t1));
-						f.addClause(List.of("#b" + lj + t, "!#b" + lj + t1, "!" + d + t, "#b" + ljo + t));
+						f.addClause(b.at(j, t), -b.at(j, t1), -action.at(t), c.at(joo, t1));
+						f.addClause(b.at(j, t), -b.at(j, t1), -action.at(t), b.at(jo, t));
 					}
 					else {
-						f.addClause(List.of("#b" + lj + t, "!#b" + lj + t1, "!" + d + t));
+						f.addClause(b.at(j, t), -b.at(j, t1), -action.at(t));
 					}
 				}
 				else {
-					f.addClause(List.of("!#b" + lj + t, "#b" + lj + t1, "!" + d + t));
-					f.addClause(List.of("#b" + lj + t, "!#b" + lj + t1, "!" + d + t));
+					f.addClause(-b.at(j, t), b.at(j, t1), -action.at(t));
+					f.addClause(b.at(j, t), -b.at(j, t1), -action.at(t));
 					
 				}
 			}
 		}
 	}
 
-    private static void goal(int nSteps, Set<Integer> validLocations, DIMACSFormula f) {
+    private static void goal(int nSteps, LocationSet validLocations, int guard, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		int[] g = guard == 0 ? new int[0] : new int[] {-guard};
+		VariableRegistry.Family b = v.locations("#b"), h = v.locations("#h");
 		for (Integer loc : validLocations) {
-			f.addClause(List.of("!#b_" + loc + "_" + nSteps, "#h_" + loc + "_0" ));
-			f.addClause(List.of("#b_" + loc + "_" + nSteps, "!#h_" + loc + "_0" ));
+			f.addClause(concat(g, -b.at(loc, nSteps), h.at(loc, 0)));
+			f.addClause(concat(g, b.at(loc, nSteps), -h.at(loc, 0)));
 		}
     }
     
-    private static void translate(InputStream in, PrintStream out, int nSteps) throws Exception {
-		DIMACSFormula f = new DIMACSFormula();
+    /// @returns An encoder of the instance available in \p in, for any number of time steps
+    public static Encoder encoder(InputStream in) throws Exception {
+		return encoder(in, null);
+    }
+
+    /// @returns An encoder of the instance available in \p in, for any number of time steps, with encoding
+    ///          \p amo of the at-most-one constraints over the locations (if null, pairwise for
+    ///          the character)
+    public static Encoder encoder(InputStream in, Cardinality.AtMostOne amo) throws Exception {
 		char[][] grid = readGrid(in);
 	
 		int nRows = grid.length;
 		int nCols = grid[0].length;
 		int nLocs = nRows * nCols;
-		Set<Integer> l = new TreeSet<>(); // Set of valid locations
+		LocationSet l = new LocationSet(nLocs); // Set of valid locations
 
 		int loc = 1;
 		for (int i = 0; i < nRows; i++) {
@@ -556,55 +420,65 @@ public class sokoban2sat_forbiddenPositions_reachability_counting_cnf {
 		}
 
 
-		Map<String,Integer> next = computeNextRelation(nRows, nCols); // Key = d + l where  d  is a direction ('n', 's', 'e', 'w') and  l  is the number of the location; Value is the number of the location next to  l  in the direction  d
-		Map<String,Integer> next2 = computeNext2Relation(next); // Next to the next (in the same direction)
-		Set<Integer> ln = new TreeSet<>(); // Set of valid positions with a wall in the north
-		Set<Integer> lnn = new TreeSet<>(); // Set of valid positions with a wall two steps ahead in the north
-		Set<Integer> ls = new TreeSet<>(); // Set of valid positions with a wall in the south
-		Set<Integer> lss = new TreeSet<>(); // Set of valid positions with a wall two steps ahead in the south
-		Set<Integer> le = new TreeSet<>(); // Set of valid positions with a wall in the east
-		Set<Integer> lee = new TreeSet<>(); // Set of valid positions with a wall two steps ahead in the east
-		Set<Integer> lw = new TreeSet<>(); // Set of valid positions with a wall in the west
-		Set<Integer> lww = new TreeSet<>(); // Set of valid positions with a wall two steps ahead in the west
-
-		computeSetsNext2Wall(l, ln, lnn, "n", next, next2, grid);
-		computeSetsNext2Wall(l, ls, lss, "s", next, next2, grid);
-		computeSetsNext2Wall(l, le, lee, "e", next, next2, grid);
-		computeSetsNext2Wall(l, lw, lww, "w", next, next2, grid);
+		Geometry geo = new Geometry(grid, l);
+		int[][] next = geo.next(); // next[d][l] is the number of the location next to  l  in the direction  d  (Geometry.N, S, E, W), or -1
+		int[][] next2 = geo.next2(); // Next to the next (in the same direction)
+		boolean[] ln = geo.wall(Geometry.N); // Valid positions with a wall in the north
+		boolean[] lnn = geo.wall2(Geometry.N); // Valid positions with a wall two steps ahead in the north
+		boolean[] ls = geo.wall(Geometry.S); // Valid positions with a wall in the south
+		boolean[] lss = geo.wall2(Geometry.S); // Valid positions with a wall two steps ahead in the south
+		boolean[] le = geo.wall(Geometry.E); // Valid positions with a wall in the east
+		boolean[] lee = geo.wall2(Geometry.E); // Valid positions with a wall two steps ahead in the east
+		boolean[] lw = geo.wall(Geometry.W); // Valid positions with a wall in the west
+		boolean[] lww = geo.wall2(Geometry.W); // Valid positions with a wall two steps ahead in the west
 
-		Pair<List<Integer>,String> p  = initialState(grid);
+		Pair<List<Integer>,Integer> p  = initialState(grid);
 		List<Integer> lForbiddenPos = p.first;  //CRISTINA: posicions on no pot anar ball perquè seria unsat
 
-	 	// Initial state to CNF
-		String ini[] = p.second.split(" & ");
-		for (String s : ini)
-			f.addClause(List.of(s));
-		// Forbidden Positions for a ball
-		forbiddenPositions(nSteps, lForbiddenPos, f); 
-		// Exactly one action per time step
-		exactlyOneAction(nSteps, f); 
-
-		// Reachability constraints
-		Map<Integer,List<Integer>> validNeighbours = computeValidNeighbours(l, next);
-		reachabilityConstraints(out, nSteps, l, validNeighbours, f); 
-
-		// Action transitions  
-		actionTransitions(nSteps, l, ln, lnn, "n", next, next2, f);
-		actionTransitions(nSteps, l, ls, lss, "s", next, next2, f);
-		actionTransitions(nSteps, l, le, lee, "e", next, next2, f);
-		actionTransitions(nSteps, l, lw, lww, "w", next, next2, f);
-
-		// Frame axioms
-		frameAxioms(nSteps, l, f);
-		frameAxioms(nSteps, l, "n", next, next2, f);
-		frameAxioms(nSteps, l, "s", next, next2, f);
-		frameAxioms(nSteps, l, "e", next, next2, f);
-		frameAxioms(nSteps, l, "w", next, next2, f);
-
-		// Goal
-		goal(nSteps, l, f);
-		System.out.println("c "+nSteps);
-		f.print(out);
+		// Variables
+		VariableRegistry v = new VariableRegistry(nLocs, l);
+		v.declareInitial("#h");
+		v.declareLocations("#c", "#b", "p");
+		v.declareSteps("n", "s", "e", "w");
+		Cardinality.AtMostOne amoC = amo == null ? Cardinality.AtMostOne.PAIRWISE : amo; // Character at most in one location
+		Cardinality.declare(v, "amo_c", amoC, l.size());
+		if (amo != null)
+			System.err.print(Cardinality.statistics(amo, l.size()));
+
+		RelaxedReach reach = new RelaxedReach(grid, l, geo, v, false); // Locations out of reach, and least number of steps
+
+		// Clauses of the initial state (if first == 0), of time steps first .. nSteps - 1,
+		// and of the goal at time nSteps (guarded by  guard  if not 0), with the balls
+		// out of reach at each time step fixed to false (see RelaxedReach)
+		return new Encoder(v, (f, first, nSteps, guard) -> {
+		 	// Initial state to CNF
+			if (first == 0)
+				initialStateClauses(grid, f);
+			// Forbidden Positions for a ball
+			forbiddenPositions(first, nSteps, lForbiddenPos, f); 
+			// Exactly one action per time step
+			exactlyOneAction(first, nSteps, f); 
+
+			// Reachability constraints
+			List<List<Integer>> validNeighbours = geo.validNeighbours();
+			reachabilityConstraints(first, nSteps, l, validNeighbours, f); 
+
+			// Action transitions  
+			actionTransitions(first, nSteps, l, ln, lnn, "n", next, next2, f);
+			actionTransitions(first, nSteps, l, ls, lss, "s", next, next2, f);
+			actionTransitions(first, nSteps, l, le, lee, "e", next, next2, f);
+			actionTransitions(first, nSteps, l, lw, lww, "w", next, next2, f);
+
+			// Frame axioms
+			frameAxioms(first, nSteps, l, amoC, f);
+			frameAxioms(first, nSteps, l, "n", next, next2, f);
+			frameAxioms(first, nSteps, l, "s", next, next2, f);
+			frameAxioms(first, nSteps, l, "e", next, next2, f);
+			frameAxioms(first, nSteps, l, "w", next, next2, f);
+
+			// Goal
+			goal(nSteps, l, guard, f);
+		}, reach, reach.minSteps(false));
     }
 
 }
@@ -0,0 +1,691 @@
+/**
+ * @class sokoban2sat_forbiddenPositions_reachability_distance_cnf_parallel
+ * @author Miquel Bofill and Cristina Borralleras
+ * @version 1.0
+ * @date 2023-06-25
+ * @brief Translation of "Sokoban" instance to CNF, with reachability (without move actions) using a tree of parents ranked by binary distance labels, parallel version
+*/
+
+import java.util.List;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Set; 
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.BufferedReader;
+
+public class sokoban2sat_forbiddenPositions_reachability_distance_cnf_parallel {
+
+    /// @pre Program has been called with argument <tt> n </tt> where n >= 0 is the
+    ///      number of time steps of the desired plan, optionally followed by <tt> -stream </tt>
+    ///      to write clauses to a temporary file as they are generated (see DIMACSFormula),
+    ///      <tt> -nocomments </tt> to omit the comment lines naming the atoms,
+    ///      <tt> -map file </tt> to write the variable map to  file  instead (see VariableRegistry),
+    ///      and <tt> -icnf m </tt> to output an iCNF for n .. m time steps instead (see Encoder)
+    ///
+    ///      A problem instance is available in the standard input with the format:
+    ///
+    /// ## ####
+    /// ####  ####
+    ///  # $ $.  #
+    /// ## #  .$ #
+    /// #   ##.###
+    /// #  $  . #
+    /// # @ #   #
+    /// #  ######
+    /// ####
+    ///
+    ///      where 
+    ///
+    ///       [white space] : free cell
+    ///       # : wall 
+    ///       @ : character
+    ///       $ : ball
+    ///       . : hole
+    ///       * : ball in a hole
+    ///       
+    ///
+    ///       The grid is assumed to be rectangular and closed with possible cells out of walls
+    ///	      The input is transformed filling the cells out of walls with walls (#) 
+    ///
+    /// ##########
+    /// ####  ####
+    /// ## $ $.  #
+    /// ## #  .$ #
+    /// #   ##.###
+    /// #  $  . ##
+    /// # @ #   ##
+    /// #  #######
+    /// ##########
+    
+      
+    /// @post Outputs a CNF for the problem instance described by the input
+    ///       State variables are prefixed by #
+    public static void main(String[] args) throws Exception {
+		int nSteps = 0;
+		boolean stream = false;
+		boolean comments = true;
+		String map = null;
+		int last = -1;
+		Cardinality.AtMostOne amo = null;
+		try {
+			nSteps = Integer.parseInt(args[0]);
+			assert nSteps >= 0;
+			for (int i = 1; i < args.length; ++i)
+				if (args[i].equals("-stream"))
+					stream = true;
+				else if (args[i].equals("-nocomments"))
+					comments = false;
+				else if (args[i].equals("-map") && i + 1 < args.length) {
+					map = args[++i];
+					comments = false;
+				}
+				else if (args[i].equals("-icnf") && i + 1 < args.length) {
+					last = Integer.parseInt(args[++i]);
+					if (last < nSteps)
+						throw new IllegalArgumentException(args[i]);
+				}
+				else if (args[i].equals("-amo") && i + 1 < args.length)
+					amo = Cardinality.AtMostOne.valueOf(args[++i].toUpperCase());
+				else
+					throw new IllegalArgumentException(args[i]);
+		}
+		catch (Exception e) {
+			System.err.println("The program needs an integer n >= 0 as argument denoting the number of steps of the desired plan (options: -stream, -nocomments, -map file, -icnf m, -amo pairwise|ladder|commander|product|bimander).");
+			System.exit(0);
+		}
+		Encoder e = encoder(System.in, amo);
+		if (last >= 0)
+			e.encodeIncremental(nSteps, last, System.out, stream, map);
+		else {
+			System.out.println("c "+nSteps);
+			e.encode(nSteps, System.out, stream, comments, map);
+		}
+    }
+
+    
+    // @post completes the grid replacing the white spaces out of walls with # 
+    private static LinkedList<String> completeGrid(LinkedList<String> l, int nColumns) {
+    		LinkedList<String> newl = new LinkedList<String>();
+    		String first_last_Line = "#".repeat(nColumns); 	
+    		newl.add(first_last_Line); 
+    		for (int num = 1; num<l.size()-1; num++) {
+	    	  String s = l.get(num);
+	    	  int first = s.indexOf('#');
+	    	  int last = s.lastIndexOf('#'); 
+	    	  String firstPart = "";
+	    	  if (first>0) firstPart = "#".repeat(first);
+	    	  String lastPart = "";
+	    	  if (last < nColumns-1) lastPart = "#".repeat(nColumns-last-1);
+	    	  s = firstPart+s.substring(first,last+1)+lastPart;
+		  newl.add(s);
+	      	}
+	      	newl.add(first_last_Line);
+	      	return newl;
+    }
+
+    /// @post Reads the description of the initial state and returns it
+    private static char[][] readGrid(InputStream in) throws Exception {
+		BufferedReader buffer = new BufferedReader(new InputStreamReader(in));
+		LinkedList<String> l = new LinkedList<String>();
+		String line = buffer.readLine();
+		int nColumns = line.length();
+	    	l.add(line);
+	    	line = buffer.readLine();
+	    	while (line != null && line.length() != 0) {
+			l.add(line);
+			nColumns = Math.max(line.length(),nColumns);
+			line = buffer.readLine();
+	    	}
+	    	l = completeGrid(l,nColumns); 
+		char[][] grid = new char[l.size()][];
+		int i = 0;
+		for (String s : l){
+			//System.out.println(s);
+			grid[i++] = s.toCharArray();
+		} 
+		return grid;
+    }
+    
+    // Returns <forbidden positions for a ball (see DeadSquares), number of holes = balls>
+    // assumed there can be only one player
+    private static Pair<List<Integer>,Integer> initialState(char[][] grid) throws Exception {
+		int nRows = grid.length;
+		int nCols = grid[0].length;
+		int nChar = 0; // Number of characters (players)
+		int nBalls = 0; // Number of balls
+		int nHoles = 0; // Number of holes
+		for (int i = 0; i < nRows; ++i) {
+			for (int j = 0; j < nCols; ++j) {
+				switch (grid[i][j]) {
+				case '#':
+					break;
+				case '@':   
+					nChar++;
+					break;
+				case '$':  
+					nBalls++;
+					break;
+				case '.':
+					nHoles++;
+					break;
+				case '*':
+					nHoles++; nBalls++;
+					break;
+				case '+':
+					nHoles++; nChar++;
+					break;
+				case ' ':
+					break;
+				default:
+					throw new Exception("Symbol '" + grid[i][j] + "' invalid in grid");
+				}
+			}
+		}
+
+		if (nChar != 1)
+			throw new Exception("There must be one and only one character");
+
+		if (nBalls != nHoles)
+			throw new Exception("Found " + nBalls + " balls and " + nHoles + "holes. They should coincide");
+
+		if (nBalls == 0)
+			throw new Exception("There must be at least one ball and one hole");
+	
+		return new Pair<List<Integer>,Integer>(DeadSquares.of(grid), nBalls);
+    }
+
+    // Assertions for the initial state
+    // c for character, h for hole, b for ball
+    private static void initialStateClauses(char[][] grid, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family c = v.locations("#c");
+		VariableRegistry.Family b = v.locations("#b");
+		VariableRegistry.Family h = v.locations("#h");
+		int nCols = grid[0].length;
+		for (int i = 0; i < grid.length; ++i) {
+			for (int j = 0; j < nCols; ++j) {
+				int loc = i * nCols + j + 1;
+				char x = grid[i][j];
+				if (x != '#') {
+					f.addClause((x == '@' || x == '+') ? c.at(loc, 0) : -c.at(loc, 0));
+					f.addClause((x == '$' || x == '*') ? b.at(loc, 0) : -b.at(loc, 0));
+					f.addClause((x == '.' || x == '*' || x == '+') ? h.at(loc, 0) : -h.at(loc, 0));
+				}
+			}
+		}
+    }
+
+	
+	private static int[] concat(int[] a, int... b) {
+		int[] c = Arrays.copyOf(a, a.length + b.length);
+		System.arraycopy(b, 0, c, a.length, b.length);
+		return c;
+	}
+
+	private static void atMostOneAction(int first, int nSteps, LocationSet l, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family n = v.locations("n"), s = v.locations("s"), e = v.locations("e"), w = v.locations("w");
+		for (int i = first; i < nSteps; ++i)
+			for (Integer loc: l) {
+				f.addClause(-n.at(loc, i), -s.at(loc, i));
+				f.addClause(-n.at(loc, i), -e.at(loc, i));
+				f.addClause(-n.at(loc, i), -w.at(loc, i));
+				f.addClause(-s.at(loc, i), -e.at(loc, i));
+				f.addClause(-s.at(loc, i), -w.at(loc, i));
+				f.addClause(-e.at(loc, i), -w.at(loc, i));
+			}
+	}
+
+
+	/// @pre \p antecedent denotes a disjunction of literals, \p consequent denotes a conjunction of literals
+	/// @post corresponding CNF belongs to \p f
+	private static void implication2cnf(int[] antecedent, int[] consequent, DIMACSFormula f) {
+		for (int a : antecedent)
+			for (int c : consequent)
+				f.addClause(-a, c);
+	}
+
+	private static void forbiddenPositions(int first, int nSteps, List<Integer> forbiddenLocs, DIMACSFormula f){
+		VariableRegistry.Family b = f.registry().locations("#b");
+		for (int i = first; i < nSteps; ++i) 
+			for (Integer loc : forbiddenLocs)
+				f.addClause(-b.at(loc, i)); 
+	}
+//distance-version
+
+	// There is a ball at location  l  at time  t (or  t+1, if  next)
+    private static int[] ball_now_or_next(Integer l, int t, boolean next, LocationSet validLocations, int[][] next2, VariableRegistry v) {
+		int[] ls = new int[5];
+		int k = 0;
+		ls[k++] = v.locations("#b").at(l, t);
+		if (next) {
+			int lnn = next2[Geometry.N][l];
+			int lss = next2[Geometry.S][l];
+			int lee = next2[Geometry.E][l];
+			int lww = next2[Geometry.W][l];
+			if (lnn != -1 && validLocations.contains(lnn))
+				ls[k++] = v.locations("s").at(lnn, t);
+			if (lss != -1 && validLocations.contains(lss))
+				ls[k++] = v.locations("n").at(lss, t);
+			if (lee != -1 && validLocations.contains(lee))
+				ls[k++] = v.locations("w").at(lee, t);
+			if (lww != -1 && validLocations.contains(lww))
+				ls[k++] = v.locations("e").at(lww, t);
+		}
+		return Arrays.copyOf(ls, k);
+    }
+
+	// bis = reachability considering next ball positions as occupied as well
+	private static void reachabilityConstraints(boolean bis, int first, int nSteps, LocationSet validLocations, int[][] next, int[][] next2, BinaryRanks ranks, DIMACSFormula f) {
+
+		String suffix = bis? "bis" : "";
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family ball = v.locations("ball" + suffix);
+		VariableRegistry.Family reach = v.locations("r" + suffix);
+		VariableRegistry.Family[] parent = new VariableRegistry.Family[4]; // Indexed by direction (Geometry.N, S, E, W)
+		parent[Geometry.N] = v.locations("par" + suffix + "_n");
+		parent[Geometry.S] = v.locations("par" + suffix + "_s");
+		parent[Geometry.E] = v.locations("par" + suffix + "_e");
+		parent[Geometry.W] = v.locations("par" + suffix + "_w");
+		BinaryRanks.Comparators rank = ranks.comparators(v);
+		VariableRegistry.Family c = v.locations("#c");
+		int[] ls;
+
+		for (Integer p : validLocations) {
+
+			for (int i = first; i < nSteps; ++i) {
+
+				// Definition of  ball  variable
+				ls = ball_now_or_next(p, i, bis, validLocations, next2, v);
+				implication2cnf(ls, new int[] {ball.at(p, i)}, f);
+				f.addClause(concat(ls, -ball.at(p, i)));
+
+				// Character starts reachability path
+				f.addClause(-c.at(p, i), reach.at(p, i));
+
+				// Balls unreachable
+				f.addClause(-ball.at(p, i), -reach.at(p, i));
+
+				// Location reachable only if character in it or reached from some neighbour (its parent)
+				ls = new int[] {c.at(p, i), -reach.at(p, i)};
+				for (int d = 0; d < 4; ++d) {
+					int q = next[d][p];
+					if (validLocations.contains(q)) {
+						ls = concat(ls, parent[d].at(p, i));
+
+						// Parent reachable, and of smaller rank (hence parents form a tree rooted at the character)
+						f.addClause(-parent[d].at(p, i), reach.at(q, i));
+						rank.less(parent[d].at(p, i), q, p, d, i, f);
+
+						// Force reachability of non-ball neighbours
+						f.addClause(-reach.at(p, i), ball.at(q, i), reach.at(q, i));
+					}
+				}
+				f.addClause(ls);
+
+			}
+		}
+    }
+
+
+//end distance-version
+
+
+
+	private static void actionTransitions(int first, int nSteps, int nBalls, LocationSet l, boolean[] lwall, boolean[] lwall2, String d, int[][] next, int[][] next2, DIMACSFormula f) {
+
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family action = v.locations(d);
+		int dir = Geometry.direction(d);
+		VariableRegistry.Family roll = v.locations("roll_" + d);
+		VariableRegistry.Family roll_ball = v.locations("roll_ball_" + d);
+		VariableRegistry.Family n = v.locations("n"), s = v.locations("s"), e = v.locations("e"), w = v.locations("w");
+		VariableRegistry.Family r = v.locations("r"), rbis = v.locations("rbis");
+		VariableRegistry.Family jump = v.locations("jump"), jumpStep = v.steps("jump");
+		VariableRegistry.Family ball = v.locations("ball"), b = v.locations("#b");
+		
+		// No action allowed
+		for (Integer j : l)
+			if (lwall[j])
+				for (int i = first; i < nSteps; ++i)
+					f.addClause(-action.at(j, i));
+
+		// No action allowed
+		for (Integer j : l)
+			if (lwall2[j] && !lwall[j])
+				for (int i = first; i < nSteps; ++i)
+					f.addClause(-action.at(j, i));
+
+
+		for (Integer j : l) {		
+			for (int i = first; i < nSteps; ++i) {
+				// Actions require reachability
+				f.addClause(r.at(j, i), -jump.at(j, i));
+				f.addClause(rbis.at(j, i), -n.at(j, i));
+				f.addClause(rbis.at(j, i), -s.at(j, i));
+				f.addClause(rbis.at(j, i), -e.at(j, i));
+				f.addClause(rbis.at(j, i), -w.at(j, i));
+
+				// Jumping is an exclusive action
+				f.addClause(-jump.at(j, i), jumpStep.at(i));
+			}	
+				
+			// Rest of preconditions and effects of ball roll actions	
+			if (!lwall[j] && !lwall2[j]) {
+				int jn = next[dir][j];
+				int jnn = next2[dir][j];
+				for (int i = first; i < nSteps; ++i) {
+					f.addClause(-roll.at(j, i), action.at(j, i));
+					f.addClause(roll.at(j, i), -action.at(j, i));
+					f.addClause(-action.at(j, i), -jumpStep.at(i));
+
+					implication2cnf(new int[] {roll.at(j, i)}, new int[] {-ball.at(jn, i + 1), -ball.at(jnn, i), roll_ball.at(j, i)}, f);
+					implication2cnf(new int[] {roll_ball.at(j, i)}, new int[] {b.at(jn, i), b.at(jnn, i + 1)}, f);
+				}				
+			}
+		}
+	}
+
+
+	private static void uselessJumps(int first, int nSteps, LocationSet l,
+									 boolean[] ln, boolean[] lnn,
+									 boolean[] ls, boolean[] lss,
+									 boolean[] le, boolean[] lee,
+									 boolean[] lw, boolean[] lww,
+									 int[][] next,
+									 int[][] next2,
+									 List<List<Integer>> validNeighbours,
+									 DIMACSFormula f) {
+
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family jump = v.locations("jump");
+
+		for (Integer j : l) {
+			for (int i = first; i < nSteps; ++i) {
+				if ((ln[j] || lnn[j]) &&
+					(ls[j] || lss[j]) &&
+					(le[j] || lee[j]) &&
+					(lw[j] || lww[j]))
+					f.addClause(-jump.at(j, i));
+				else {
+					// Other useless jumps due to ball locations can be identified. Incomplete list:
+
+					// Location is no next to a ball
+					List<Integer> vn = validNeighbours.get(j); // There is at least one valid neighbour location
+					int[] lits = new int[0];
+					for (Integer k : vn)
+						lits = concat(lits, ball_now_or_next(k, i, false, l, next2, v));
+					f.addClause(concat(lits, -jump.at(j, i)));
+
+				}
+			}
+		}
+
+	}
+
+	private static int[] surroundingActions(Integer loc, LocationSet l, int[][] next, int t, VariableRegistry v) {
+		int north = next[Geometry.N][loc];
+		int south = next[Geometry.S][loc];
+		int east = next[Geometry.E][loc];
+		int west = next[Geometry.W][loc];
+		int[] lits = new int[4];
+		int k = 0;
+		if (north != -1 && l.contains(north)) lits[k++] = v.locations("s").at(north, t);
+		if (south != -1 && l.contains(south)) lits[k++] = v.locations("n").at(south, t);
+		if (east != -1 && l.contains(east)) lits[k++] = v.locations("w").at(east, t);
+		if (west != -1 && l.contains(west)) lits[k++] = v.locations("e").at(west, t);
+		return Arrays.copyOf(lits, k);
+	}
+
+
+
+   	private static void frameAxioms(int first, int nSteps, LocationSet l,  int[][] next, int[][] next2, Cardinality.AtMostOne amo, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family aux = v.block("amo_c");
+		VariableRegistry.Family b = v.locations("#b"), c = v.locations("#c");
+		VariableRegistry.Family r = v.locations("r"), rbis = v.locations("rbis");
+		VariableRegistry.Family jump = v.locations("jump");
+		for (int i = first; i < nSteps; ++i) {
+			for (Integer j : l) {			
+// old:f.addClause(List.of("!#c_" + j + t1, "r_" + j + t));					
+				// Changes in balls require action
+				int[] s1 = surroundingActions(j, l, next, i, v);
+				int[] s2 = surroundingActions(j, l, next2, i, v);
+				f.addClause(concat(new int[] {-b.at(j, i), b.at(j, i + 1)}, s1));
+				if (s2.length != 0) { // There exists some valid position at distance 2
+					f.addClause(concat(new int[] {b.at(j, i), -b.at(j, i + 1)}, s2));
+				}
+				else { // No ball can appear
+					f.addClause(b.at(j, i), -b.at(j, i + 1));
+				}
+				// Reachability bis only if reachability
+				f.addClause(r.at(j, i), -rbis.at(j, i));
+			}
+		}
+	
+		for (int i = first + 1; i <= nSteps; ++i) {
+			// Character at most in one location
+			for (int[] clause : Cardinality.atMostOne(amo, c, l, i, aux))
+				f.addClause(clause);
+			for (int j : l) {
+				// Character only moves when jumping
+				f.addClause(-c.at(j, i), jump.at(j, i - 1), c.at(j, i - 1));
+			}
+
+			// Character at least in one location
+			//f.addClause(ls);
+		}
+
+    }
+
+
+   	private static void mutexes(Integer l, VariableRegistry.Family n, VariableRegistry.Family s, List<Integer> ln, int t, DIMACSFormula f) {
+		for (Integer p : ln)
+			f.addClause(-n.at(l, t), -s.at(p, t));
+   	}
+	
+	
+	private static void incompatibilities(int first, int nSteps, LocationSet validLocations, String n, String s, String e, String w, int[][] next, int[][] next2, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family an = v.locations(n), as = v.locations(s), ae = v.locations(e), aw = v.locations(w);
+		int dn = Geometry.direction(n), de = Geometry.direction(e), dw = Geometry.direction(w);
+		for (Integer l : validLocations) {
+			List<Integer> ln = new LinkedList<>();
+			List<Integer> le = new LinkedList<>();
+			List<Integer> lw = new LinkedList<>();
+			int lball = next[dn][l];
+			if (lball != -1 && validLocations.contains(lball)) {
+				int lnn = next[dn][lball];
+				if (lnn != -1 && validLocations.contains(lnn)) {
+					int next_n_lnn = next[dn][lnn];
+					int next_e_lnn = next[de][lnn];
+					int next_w_lnn = next[dw][lnn];
+					int next2_n_lnn = next2[dn][lnn];
+					int next2_e_lnn = next2[de][lnn];
+					int next2_w_lnn = next2[dw][lnn];
+					int next_e_lball = next[de][lball];
+					int next_w_lball = next[dw][lball];
+					int next2_e_lball = next2[de][lball];
+					int next2_w_lball = next2[dw][lball];
+					ln.add(lnn);
+					if (next_n_lnn != -1 && validLocations.contains(next_n_lnn))
+						ln.add(next_n_lnn);
+					if (next2_n_lnn != -1 && validLocations.contains(next2_n_lnn))
+						ln.add(next2_n_lnn);
+					if (next_w_lball != -1 && validLocations.contains(next_w_lball))
+						lw.add(next_w_lball);
+					if (next2_w_lball != -1 && validLocations.contains(next2_w_lball))
+						lw.add(next2_w_lball);
+					if (next_w_lnn != -1 && validLocations.contains(next_w_lnn))
+						lw.add(next_w_lnn);
+					if (next2_w_lnn != -1 && validLocations.contains(next2_w_lnn))
+						lw.add(next2_w_lnn);
+					if (next_e_lball != -1 && validLocations.contains(next_e_lball))
+						le.add(next_e_lball);
+					if (next2_e_lball != -1 && validLocations.contains(next2_e_lball))
+						le.add(next2_e_lball);
+					if (next_e_lnn != -1 && validLocations.contains(next_e_lnn))
+						le.add(next_e_lnn);
+					if (next2_e_lnn != -1 && validLocations.contains(next2_e_lnn))
+						le.add(next2_e_lnn);
+					for (int i = first; i < nSteps; ++i) {
+						mutexes(l, an, as, ln, i, f);
+						mutexes(l, an, ae, lw, i, f);
+						mutexes(l, an, aw, le, i, f);
+					}
+				} // otherwise action not possible
+			} // otherwise action not possible
+		}
+	}
+	
+	
+/*
+    private static void frameAxioms(int first, int nSteps, LocationSet l, String d, int[][] next, int[][] next2, DIMACSFormula f) {
+		for (int i = first; i < nSteps; ++i) {
+			String t = "_" + i; String t1 = "_" + (i + 1);
+	    
+			for (Integer j : l) {
+				int jo = next[Geometry.opposite(dir)][j];
+				int joo = next2[Geometry.opposite(dir)][j];
+				String lj = "_" + j;
+				String ljo = "_" + jo;
+				String ljoo = "_" + joo;
+
+
+				// Axioms
+
+				if (jo != -1 && l.contains(jo)) {
+
+					f.addClause(List.of("!#b" + lj + t, "#b" + lj + t1, "!" + d + t, "#c" + ljo + t1));
+
+					if (joo != -1 && l.contains(joo)) {
+
+						f.addClause(List.of("#b" + lj + t, "!#b" + lj + t1, "!" + d + t, "#c" + ljoo + t1));
+						f.addClause(List.of("#b" + lj + t, "!#b" + lj + t1, "!" + d + t, "#b" + ljo + t));
+					}
+					else {
+						f.addClause(List.of("#b" + lj + t, "!#b" + lj + t1, "!" + d + t));
+					}
+				}
+				else {
+					f.addClause(List.of("!#b" + lj + t, "#b" + lj + t1, "!" + d + t));
+					f.addClause(List.of("#b" + lj + t, "!#b" + lj + t1, "!" + d + t));
+					
+				}
+			}
+		}
+	}
+*/
+    private static void goal(int nSteps, LocationSet validLocations, int guard, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		int[] g = guard == 0 ? new int[0] : new int[] {-guard};
+		VariableRegistry.Family b = v.locations("#b"), h = v.locations("#h");
+		for (Integer loc : validLocations) {
+			f.addClause(concat(g, -b.at(loc, nSteps), h.at(loc, 0)));
+			f.addClause(concat(g, b.at(loc, nSteps), -h.at(loc, 0)));
+		}
+    }
+    
+    /// @returns An encoder of the instance available in \p in, for any number of time steps
+    public static Encoder encoder(InputStream in) throws Exception {
+		return encoder(in, null);
+    }
+
+    /// @returns An encoder of the instance available in \p in, for any number of time steps, with encoding
+    ///          \p amo of the at-most-one constraints over the locations (if null, pairwise for
+    ///          the character)
+    public static Encoder encoder(InputStream in, Cardinality.AtMostOne amo) throws Exception {
+		char[][] grid = readGrid(in);
+	
+		int nRows = grid.length;
+		int nCols = grid[0].length;
+		int nLocs = nRows * nCols;
+		LocationSet l = new LocationSet(nLocs); // Set of valid locations
+
+		int loc = 1;
+		for (int i = 0; i < nRows; i++) {
+			for (int j = 0; j < nCols; j++, ++loc) {
+				if (grid[i][j] != '#')
+					l.add(loc);
+			}
+		}
+
+
+		Geometry geo = new Geometry(grid, l);
+		int[][] next = geo.next(); // next[d][l] is the number of the location next to  l  in the direction  d  (Geometry.N, S, E, W), or -1
+		int[][] next2 = geo.next2(); // Next to the next (in the same direction)
+		boolean[] ln = geo.wall(Geometry.N); // Valid positions with a wall in the north
+		boolean[] lnn = geo.wall2(Geometry.N); // Valid positions with a wall two steps ahead in the north
+		boolean[] ls = geo.wall(Geometry.S); // Valid positions with a wall in the south
+		boolean[] lss = geo.wall2(Geometry.S); // Valid positions with a wall two steps ahead in the south
+		boolean[] le = geo.wall(Geometry.E); // Valid positions with a wall in the east
+		boolean[] lee = geo.wall2(Geometry.E); // Valid positions with a wall two steps ahead in the east
+		boolean[] lw = geo.wall(Geometry.W); // Valid positions with a wall in the west
+		boolean[] lww = geo.wall2(Geometry.W); // Valid positions with a wall two steps ahead in the west
+
+		Pair<List<Integer>,Integer> p  = initialState(grid);
+		List<Integer> lForbiddenPos = p.first;  //CRISTINA: posicions on no pot anar ball perquè seria unsat
+		int nBalls = p.second;
+
+		// Variables
+		VariableRegistry v = new VariableRegistry(nLocs, l);
+		v.declareInitial("#h");
+		v.declareLocations("#c", "#b", "n", "s", "e", "w", "jump", "ball", "ballbis", "r", "rbis");
+		v.declareLocations("roll_n", "roll_s", "roll_e", "roll_w", "roll_ball_n", "roll_ball_s", "roll_ball_e", "roll_ball_w");
+		v.declareLocations("par_n", "par_s", "par_e", "par_w", "parbis_n", "parbis_s", "parbis_e", "parbis_w");
+		// Ranks of the locations in the reachability trees (with auxiliary variables of their comparators)
+		BinaryRanks ranks = new BinaryRanks("rk", l.size()), ranksbis = new BinaryRanks("rkbis", l.size());
+		ranks.declare(v);
+		ranksbis.declare(v);
+		v.declareSteps("jump");
+		Cardinality.AtMostOne amoC = amo == null ? Cardinality.AtMostOne.PAIRWISE : amo; // Character at most in one location
+		Cardinality.declare(v, "amo_c", amoC, l.size());
+		if (amo != null)
+			System.err.print(Cardinality.statistics(amo, l.size()));
+
+		RelaxedReach reach = new RelaxedReach(grid, l, geo, v, false, "", "roll_", "roll_ball_"); // Locations out of reach, and least number of steps
+
+		// Clauses of the initial state (if first == 0), of time steps first .. nSteps - 1,
+		// and of the goal at time nSteps (guarded by  guard  if not 0), with the balls
+		// out of reach at each time step, and the pushes of them, fixed to false (see RelaxedReach)
+		return new Encoder(v, (f, first, nSteps, guard) -> {
+		 	// Initial state to CNF
+			if (first == 0)
+				initialStateClauses(grid, f);
+			// Forbidden Positions for a ball
+			forbiddenPositions(first, nSteps, lForbiddenPos, f); 
+		
+			// At most one action per location
+			// 	atMostOneAction(first, nSteps, l, f);
+		
+			// Incompatibilities
+			incompatibilities(first, nSteps, l, "n", "s", "e", "w", next, next2, f);
+			incompatibilities(first, nSteps, l, "s", "n", "e", "w", next, next2, f);
+			incompatibilities(first, nSteps, l, "e", "w", "n", "s", next, next2, f);
+			incompatibilities(first, nSteps, l, "w", "e", "n", "s", next, next2, f);
+
+			// Reachability constraints
+			List<List<Integer>> validNeighbours = geo.validNeighbours();
+			reachabilityConstraints(false, first, nSteps, l, next, next2, ranks, f); 
+			reachabilityConstraints(true, first, nSteps, l, next, next2, ranksbis, f); 
+
+			// Action transitions  
+			actionTransitions(first, nSteps, nBalls, l, ln, lnn, "n", next, next2, f);
+			actionTransitions(first, nSteps, nBalls, l, ls, lss, "s", next, next2, f);
+			actionTransitions(first, nSteps, nBalls, l, le, lee, "e", next, next2, f);
+			actionTransitions(first, nSteps, nBalls, l, lw, lww, "w", next, next2, f);
+
+			// Useless jumps
+			uselessJumps(first, nSteps, l, ln, lnn, ls, lss, le, lee, lw, lww, next, next2, validNeighbours, f);
+
+			// Frame axioms
+			frameAxioms(first, nSteps, l, next, next2, amoC, f);
+
+
+			// Goal
+			goal(nSteps, l, guard, f);
+		}, reach, reach.minSteps(true));
+    }
+
+}
@@ -7,21 +7,21 @@
 */
 
 import java.util.List;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
-import java.util.Map;
-import java.util.TreeMap;
 import java.util.Set; 
-import java.util.TreeSet;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.BufferedReader;
-import java.io.PrintStream;
 
 public class sokoban2sat_forbiddenPositions_reachability_ordering_cnf_parallel {
 
     /// @pre Program has been called with argument <tt> n </tt> where n >= 0 is the
-    ///      number of time steps of the desired plan
+    ///      number of time steps of the desired plan, optionally followed by <tt> -stream </tt>
+    ///      to write clauses to a temporary file as they are generated (see DIMACSFormula),
+    ///      <tt> -nocomments </tt> to omit the comment lines naming the atoms,
+    ///      <tt> -map file </tt> to write the variable map to  file  instead (see VariableRegistry),
+    ///      and <tt> -icnf m </tt> to output an iCNF for n .. m time steps instead (see Encoder)
     ///
     ///      A problem instance is available in the standard input with the format:
     ///
@@ -64,15 +64,44 @@ public class sokoban2sat_forbiddenPositions_reachability_ordering_cnf_parallel {
     ///       State variables are prefixed by #
     public static void main(String[] args) throws Exception {
 		int nSteps = 0;
+		boolean stream = false;
+		boolean comments = true;
+		String map = null;
+		int last = -1;
+		Cardinality.AtMostOne amo = null;
 		try {
 			nSteps = Integer.parseInt(args[0]);
 			assert nSteps >= 0;
+			for (int i = 1; i < args.length; ++i)
+				if (args[i].equals("-stream"))
+					stream = true;
+				else if (args[i].equals("-nocomments"))
+					comments = false;
+				else if (args[i].equals("-map") && i + 1 < args.length) {
+					map = args[++i];
+					comments = false;
+				}
+				else if (args[i].equals("-icnf") && i + 1 < args.length) {
+					last = Integer.parseInt(args[++i]);
+					if (last < nSteps)
+						throw new IllegalArgumentException(args[i]);
+				}
+				else if (args[i].equals("-amo") && i + 1 < args.length)
+					amo = Cardinality.AtMostOne.valueOf(args[++i].toUpperCase());
+				else
+					throw new IllegalArgumentException(args[i]);
 		}
 		catch (Exception e) {
-			System.err.println("The program needs an integer n >= 0 as argument denoting the number of steps of the desired plan.");
+			System.err.println("The program needs an integer n >= 0 as argument denoting the number of steps of the desired plan (options: -stream, -nocomments, -map file, -icnf m, -amo pairwise|ladder|commander|product|bimander).");
 			System.exit(0);
 		}
-		translate(System.in, System.out, nSteps);
+		Encoder e = encoder(System.in, amo);
+		if (last >= 0)
+			e.encodeIncremental(nSteps, last, System.out, stream, map);
+		else {
+			System.out.println("c "+nSteps);
+			e.encode(nSteps, System.out, stream, comments, map);
+		}
     }
 
     
@@ -119,71 +148,35 @@ public class sokoban2sat_forbiddenPositions_reachability_ordering_cnf_parallel {
 		return grid;
     }
     
-    //If loc (position [i,j] in the grid) is included in lforbidden if it is a forbidden position (corner) for a ball
-    //pre: i neither first nor last row, j neither first nor last column (due to: loc contains @,$ or ' ')
-    private static void check_forbidden(int loc, int i, int j, List<Integer> lforbidden, char[][] grid){
-    	boolean upP = grid[i-1][j] == '#';
-    	boolean downP = grid[i+1][j] == '#';
-    	boolean leftP = grid[i][j-1] == '#';
-    	boolean rightP = grid[i][j+1] == '#';
-    	if ((upP && leftP) || (upP && rightP) || (downP && leftP) || (downP && rightP))
-    		lforbidden.add(loc);
-    }
-    
-    // Returns <number of holes = balls, assertions for the initial state>
+    // Returns <forbidden positions for a ball (see DeadSquares), number of holes = balls>
     // assumed there can be only one player
-    // c for character, h for hole, b for ball  
-    private static Pair<List<Integer>,Pair<Integer,String>> initialState(char[][] grid) throws Exception {
-    		List<Integer> lforbidden = new LinkedList<>();
+    private static Pair<List<Integer>,Integer> initialState(char[][] grid) throws Exception {
 		int nRows = grid.length;
 		int nCols = grid[0].length;
 		int nChar = 0; // Number of characters (players)
 		int nBalls = 0; // Number of balls
 		int nHoles = 0; // Number of holes
-		String s = ""; // = "\n;; Initial state\n";
 		for (int i = 0; i < nRows; ++i) {
 			for (int j = 0; j < nCols; ++j) {
-				int loc = i * nCols + j + 1;
 				switch (grid[i][j]) {
 				case '#':
 					break;
 				case '@':   
 					nChar++;
-					s += "#c_" + loc + "_0 & ";
-					s += "!#b_" + loc + "_0 & ";
-					s += "!#h_" + loc + "_0 & ";
-					check_forbidden(loc, i, j, lforbidden, grid);
 					break;
 				case '$':  
 					nBalls++;
-					s += "!#c_" + loc + "_0 & ";
-					s += "#b_" + loc + "_0 & ";
-					s += "!#h_" + loc + "_0 & ";
-					check_forbidden(loc, i, j, lforbidden, grid);
 					break;
 				case '.':
 					nHoles++;
-					s += "!#c_" + loc + "_0 & ";
-					s += "!#b_" + loc + "_0 & ";
-					s += "#h_" + loc + "_0 & ";
 					break;
 				case '*':
 					nHoles++; nBalls++;
-					s += "!#c_" + loc + "_0 & ";
-					s += "#b_" + loc + "_0 & ";
-					s += "#h_" + loc + "_0 & ";
 					break;
 				case '+':
 					nHoles++; nChar++;
-					s += "#c_" + loc + "_0 & ";
-					s += "!#b_" + loc + "_0 & ";
-					s += "#h_" + loc + "_0 & ";
 					break;
 				case ' ':
-					s += "!#c_" + loc + "_0 & ";
-					s += "!#b_" + loc + "_0 & ";
-					s += "!#h_" + loc + "_0 & ";
-					check_forbidden(loc, i, j, lforbidden, grid);
 					break;
 				default:
 					throw new Exception("Symbol '" + grid[i][j] + "' invalid in grid");
@@ -200,338 +193,244 @@ public class sokoban2sat_forbiddenPositions_reachability_ordering_cnf_parallel {
 		if (nBalls == 0)
 			throw new Exception("There must be at least one ball and one hole");
 	
-		Pair <Integer,String> pns = new Pair<Integer,String>(nBalls, s);
-		return new Pair<List<Integer>,Pair<Integer,String>>(lforbidden, pns);
-    }
-
-
-    // Key = d + l where  d  is a direction ('n', 's', 'e', 'w') and  l  is the number of the location; Value is the number of the location next to  l  in the direction  d
-    private static Map<String,Integer> computeNextRelation(int nRows, int nCols) {
-		TreeMap<String,Integer> m = new TreeMap<>();
-		int loc = 1;
-		for (int i = 0; i < nRows; ++i) {
-			for (int j = 1; j <= nCols; ++j, ++loc) {
-				if (loc > nCols) // Not first row
-					m.put("n" + loc, loc - nCols);
-				if (loc <= nCols * (nRows - 1)) // Not last row
-					m.put("s" + loc, loc + nCols);
-				if (loc % nCols != 1) // Not first column
-					m.put("w" + loc, loc - 1);
-				if (loc % nCols != 0) // Not last column
-					m.put("e" + loc, loc + 1);
-			}
-		}
-		return m;
-    }
-
-    // Next to the next (in the same direction)
-    private static Map<String,Integer> computeNext2Relation(Map<String,Integer> next) {
-		TreeMap<String,Integer> m = new TreeMap<>();
-		for (Map.Entry<String,Integer> e : next.entrySet()) {
-			String k = e.getKey();
-			Integer j = next.get(k.substring(0,1) + e.getValue());
-			if (j != null)
-				m.put(k, j);
-		}
-		return m;
+		return new Pair<List<Integer>,Integer>(DeadSquares.of(grid), nBalls);
     }
 
-    private static void	computeSetsNext2Wall(Set<Integer> l, Set<Integer> ln, Set<Integer> lnn, String d, Map<String,Integer> next, Map<String,Integer> next2, char[][] grid) {
+    // Assertions for the initial state
+    // c for character, h for hole, b for ball
+    private static void initialStateClauses(char[][] grid, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family c = v.locations("#c");
+		VariableRegistry.Family b = v.locations("#b");
+		VariableRegistry.Family h = v.locations("#h");
 		int nCols = grid[0].length;
-		for(Integer i : l)
-			if (grid[(i - 1) / nCols][(i - 1) % nCols] != '#') {
-				Integer j = next.get(d + i);
-				Integer k = next2.get(d + i);
-				if (j != null && grid[(j - 1) / nCols][(j - 1) % nCols] == '#')
-					ln.add(i);
-				if (k != null && grid[(k - 1) / nCols][(k - 1) % nCols] == '#')
-					lnn.add(i);
+		for (int i = 0; i < grid.length; ++i) {
+			for (int j = 0; j < nCols; ++j) {
+				int loc = i * nCols + j + 1;
+				char x = grid[i][j];
+				if (x != '#') {
+					f.addClause((x == '@' || x == '+') ? c.at(loc, 0) : -c.at(loc, 0));
+					f.addClause((x == '$' || x == '*') ? b.at(loc, 0) : -b.at(loc, 0));
+					f.addClause((x == '.' || x == '*' || x == '+') ? h.at(loc, 0) : -h.at(loc, 0));
+				}
 			}
+		}
     }
 
 
-	private static String literal(String lit, Integer index, int time) {
-		return lit + "_" + index + "_" + time;
-	}
 
-	private static void atMostOneAction(int nSteps, Set<Integer> l, DIMACSFormula f) {
-		for (int i = 0; i < nSteps; ++i)
+	private static void atMostOneAction(int first, int nSteps, LocationSet l, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family n = v.locations("n"), s = v.locations("s"), e = v.locations("e"), w = v.locations("w");
+		for (int i = first; i < nSteps; ++i)
 			for (Integer loc: l) {
-				f.addClause(List.of(literal("!n", loc, i), literal("!s", loc, i)));
-				f.addClause(List.of(literal("!n", loc, i), literal("!e", loc, i)));
-				f.addClause(List.of(literal("!n", loc, i), literal("!w", loc, i)));
-				f.addClause(List.of(literal("!s", loc, i), literal("!e", loc, i)));
-				f.addClause(List.of(literal("!s", loc, i), literal("!w", loc, i)));
-				f.addClause(List.of(literal("!e", loc, i), literal("!w", loc, i)));
+				f.addClause(-n.at(loc, i), -s.at(loc, i));
+				f.addClause(-n.at(loc, i), -e.at(loc, i));
+				f.addClause(-n.at(loc, i), -w.at(loc, i));
+				f.addClause(-s.at(loc, i), -e.at(loc, i));
+				f.addClause(-s.at(loc, i), -w.at(loc, i));
+				f.addClause(-e.at(loc, i), -w.at(loc, i));
 			}
 	}
 
 
-	/// @pre \p antecedent denotes a disjunction of literals, \p consequent denotes a conjunction of literals
-	/// @returns corresponding CNF
-	private static List<List<String>> implication2cnf(List<String> antecedent, List<String> consequent) {
-		List<List<String>> cnf = new LinkedList<>();
-		for (String a : antecedent)
-			for (String c : consequent) {
-				List<String> clause = new LinkedList<>();
-				if (a.charAt(0) == '!')
-					clause.add(a);
-				else
-					clause.add("!" + a);
-				clause.add(c);
-				cnf.add(clause);
-			}
-		return cnf;
+	private static int[] concat(int[] a, int... b) {
+		int[] c = Arrays.copyOf(a, a.length + b.length);
+		System.arraycopy(b, 0, c, a.length, b.length);
+		return c;
 	}
 
-	private static void add2DIMACSFormula(List<List<String>> cnf, DIMACSFormula f) {
-		for (List<String> clause : cnf)
-			f.addClause(clause);
+	/// @pre \p antecedent denotes a disjunction of literals, \p consequent denotes a conjunction of literals
+	/// @post corresponding CNF belongs to \p f
+	private static void implication2cnf(int[] antecedent, int[] consequent, DIMACSFormula f) {
+		for (int a : antecedent)
+			for (int c : consequent)
+				f.addClause(-a, c);
 	}
 
-
 	// There is a ball at location  l  at time  t (or  t+1, if  next)
-    	private static List<String> ball_now_or_next(Integer l, int t, boolean next, Set<Integer> validLocations, Map<String,Integer> next2) {
-		List<String> ls = new LinkedList<>();
-		ls.add("#b_" + l + "_" + t);
+    	private static int[] ball_now_or_next(Integer l, int t, boolean next, LocationSet validLocations, int[][] next2, VariableRegistry v) {
+		int[] ls = new int[5];
+		int k = 0;
+		ls[k++] = v.locations("#b").at(l, t);
 		if (next) {
-			Integer lnn = next2.get("n" + l);
-			Integer lss = next2.get("s" + l);
-			Integer lee = next2.get("e" + l);
-			Integer lww = next2.get("w" + l);
-			if (lnn != null && validLocations.contains(lnn))
-				ls.add("s_" + lnn + "_" + t);
-			if (lss != null && validLocations.contains(lss))
-				ls.add("n_" + lss + "_" + t);
-			if (lee != null && validLocations.contains(lee))
-				ls.add("w_" + lee + "_" + t);
-			if (lww != null && validLocations.contains(lww))
-				ls.add("e_" + lww + "_" + t);
+			int lnn = next2[Geometry.N][l];
+			int lss = next2[Geometry.S][l];
+			int lee = next2[Geometry.E][l];
+			int lww = next2[Geometry.W][l];
+			if (lnn != -1 && validLocations.contains(lnn))
+				ls[k++] = v.locations("s").at(lnn, t);
+			if (lss != -1 && validLocations.contains(lss))
+				ls[k++] = v.locations("n").at(lss, t);
+			if (lee != -1 && validLocations.contains(lee))
+				ls[k++] = v.locations("w").at(lee, t);
+			if (lww != -1 && validLocations.contains(lww))
+				ls[k++] = v.locations("e").at(lww, t);
 		}
-		return ls;
+		return Arrays.copyOf(ls, k);
     }
 
-	private static Map<Integer,List<Integer>> computeValidNeighbours(Set<Integer> validLocations, Map<String,Integer> next) {
-		TreeMap<Integer,List<Integer>> r = new TreeMap<>();
-		for (Integer p : validLocations) {
-			ArrayList<Integer> validNeighbours = new ArrayList<>();
-			Integer n1 = next.get("n" + p);
-			Integer n2 = next.get("s" + p);
-			Integer n3 = next.get("e" + p);
-			Integer n4 = next.get("w" + p);
-			if (validLocations.contains(n1))
-				validNeighbours.add(n1);
-			if (validLocations.contains(n2))
-				validNeighbours.add(n2);
-			if (validLocations.contains(n3))
-				validNeighbours.add(n3);
-			if (validLocations.contains(n4))
-				validNeighbours.add(n4);
-			r.put(p,validNeighbours);
-		}
-		return r;
-	}
-	
-
-	// @returns "At-Most-k(var_{i_1}^time, ..., var_{i_n}^time)" for i_1, ..., i_n in indexes
-	private static List<List<String>> at_most(int k, String var, List<Integer> indexes, Integer time) {
-		return at_most(k, var, indexes, time, false);
-	}
-
-	// @returns "At-Least-k(var_{i_1}^time, ..., var_{i_n}^time)" for i_1, ..., i_n in indexes
-	private static List<List<String>> at_least(int k, String var, List<Integer> indexes, Integer time) {
-		return at_most(indexes.size() - k, var, indexes, time, true);
-	}
-	
-	// @returns "Exactly-k(var_{i_1}^time, ..., var_{i_n}^time)" for i_1, ..., i_n in indexes
-	private static List<List<String>> exactly(int k, String var, List<Integer> indexes, Integer time) {
-		List<List<String>> l = new LinkedList<>();
-		l.addAll(at_most(k, var, indexes, time));
-		l.addAll(at_least(k, var, indexes, time));
-		return l;
-	}
 
-	// @returns list of lists of literals
-	private static List<List<String>> at_most(int k, String var, List<Integer> indexes, Integer time, boolean negated) {
-		LinkedList<List<String>> r = new LinkedList<>();
-		String neg = (negated? "" : "!");
-		List<List<Integer>> ll = lists(k + 1, indexes);
-		for (List<Integer> l : ll) {
-			LinkedList<String> r1 = new LinkedList<>();
-			for (Integer i : l)
-				r1.add(literal(neg + var, i, time));
-			r.add(r1);
-		}
-		return r;
-	}
-
-    // @returns the list of subsets of  k  elements of  l
-	private static List<List<Integer>> lists(int k, List<Integer> l) {
-		List<List<Integer>> ll = new LinkedList<List<Integer>>();
-		if (k == 0)
-			ll.add(new LinkedList<>());
-		else if (l.size() >= k) {
-			List<Integer> lr = l.subList(1,l.size());
-			List<List<Integer>> lm = lists(k - 1, lr);
-			for (List<Integer> m : lm) {
-				LinkedList<Integer> lt = new LinkedList<>();
-				lt.add(l.get(0));
-				lt.addAll(m);
-				ll.add(lt);
-			}
-			ll.addAll(lists(k,lr));
-		}
-		return ll;
-	}
-	
-	private static void forbiddenPositions(int nSteps, List<Integer> forbiddenLocs, DIMACSFormula f){
-		for (int i = 0; i < nSteps; ++i) 
+	private static void forbiddenPositions(int first, int nSteps, List<Integer> forbiddenLocs, DIMACSFormula f){
+		VariableRegistry.Family b = f.registry().locations("#b");
+		for (int i = first; i < nSteps; ++i) 
 			for (Integer loc : forbiddenLocs)
-				f.addClause(List.of("!#b_" + loc + "_" + i)); 
+				f.addClause(-b.at(loc, i)); 
 	}
 
-	private static void ballVariables(boolean bis, int nSteps, Set<Integer> validLocations, Map<String,Integer> next2, DIMACSFormula f) {
+	private static void ballVariables(boolean bis, int first, int nSteps, LocationSet validLocations, int[][] next2, DIMACSFormula f) {
 
 		String suffix = bis? "bis" : "";
-		String ball = "ball" + suffix;
-		List<String> ls;
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family ball = v.locations("ball" + suffix);
+		int[] ls;
 
 		for (Integer l : validLocations) {
-			for (int t = 0; t < nSteps; ++t) {
+			for (int t = first; t < nSteps; ++t) {
 				// Definition of  ball  variable
-				ls = ball_now_or_next(l, t, bis, validLocations, next2);
-				String b = ball + "_" + l + "_" + t;
-				add2DIMACSFormula(implication2cnf(ls, List.of(b)), f);
-				ls.add("!" + b);
-				f.addClause(ls);
+				ls = ball_now_or_next(l, t, bis, validLocations, next2, v);
+				int b = ball.at(l, t);
+				implication2cnf(ls, new int[] {b}, f);
+				f.addClause(concat(ls, -b));
 			}
 		}
 	}
 
 	// bis = reachability considering next ball positions as occupied as well
-	private static void reachabilityConstraints(boolean bis, int nSteps, Set<Integer> validLocations,  Map<Integer, List<Integer>> validNeighbours, DIMACSFormula f) {
+	private static void reachabilityConstraints(boolean bis, int first, int nSteps, LocationSet validLocations, int[][] next, List<List<Integer>> validNeighbours, DIMACSFormula f) {
 
 		String suffix = bis? "bis" : "";
-		String ball = "ball" + suffix + "_";
-		List<String> ls = new LinkedList<>();
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family ball = v.locations("ball" + suffix);
+		VariableRegistry.Family r = v.locations("r" + suffix);
+		VariableRegistry.Family[] e = new VariableRegistry.Family[4]; // Edge into a location from its neighbour, indexed by direction (Geometry.N, S, E, W)
+		e[Geometry.N] = v.locations("edge" + suffix + "_n");
+		e[Geometry.S] = v.locations("edge" + suffix + "_s");
+		e[Geometry.E] = v.locations("edge" + suffix + "_e");
+		e[Geometry.W] = v.locations("edge" + suffix + "_w");
+		VariableRegistry.Family a = v.pairs("a" + suffix);
+		VariableRegistry.Family c = v.locations("#c");
 
 		for (Integer p : validLocations) {
 
 			List<Integer> neighbours = validNeighbours.get(p);
 
-			for (int i = 0; i < nSteps; ++i) {
-				String t = "_" + i;
+			for (int t = first; t < nSteps; ++t) {
 
 				// Position  p  reachable only if source or reached from some neighbour  q
-				ls.clear();
-				ls.add("!r" + suffix + "_" + p + t);
-				ls.add("#c_" + p + t);
-				if (!neighbours.isEmpty())
-					for (Integer q : neighbours)
-						ls.add("e" + suffix + "_" + q + "_" + p + t);
+				int[] ls = new int[] {-r.at(p, t), c.at(p, t)};
+				for (int d = 0; d < 4; ++d)
+					if (validLocations.contains(next[d][p]))
+						ls = concat(ls, e[d].at(p, t));
 				f.addClause(ls);
 
 				// Balls unreachable
-				add2DIMACSFormula(implication2cnf(List.of(ball + p + t), List.of("!r" + suffix + "_" + p + t)), f);
-
-				// Locations in the path are reachable and topologically ordered
-				for (Integer q : neighbours)
-					add2DIMACSFormula(implication2cnf(List.of("e" + suffix + "_" + p + "_" + q + t), List.of("r" + suffix + "_" + p + t, "a" + suffix + "_" + p + "_" + q + t)), f);
+				f.addClause(-ball.at(p, t), -r.at(p, t));
+
+				// Locations in the path are reachable and topologically ordered (the edge from  p  into  q  is
+				// the one into  q  from the opposite direction)
+				for (int d = 0; d < 4; ++d) {
+					int q = next[d][p];
+					if (validLocations.contains(q))
+						implication2cnf(new int[] {e[Geometry.opposite(d)].at(q, t)}, new int[] {r.at(p, t), a.at(p, q, t)}, f);
+				}
 
 				// Variables  a_{p,q}^i  define a strict partial order
-				f.addClause(List.of("!a" + suffix + "_" + p + "_" + p + t));
+				f.addClause(-a.at(p, p, t));
 				for (Integer q : neighbours)
-					for (Integer r : validLocations)
-						if (!q.equals(r))
-							f.addClause(List.of("!a" + suffix + "_" + p + "_" + q + t, "!a" + suffix + "_" + q + "_" + r + t, "a" + suffix + "_" + p + "_" + r + t));
+					for (Integer q2 : validLocations)
+						if (!q.equals(q2))
+							f.addClause(-a.at(p, q, t), -a.at(q, q2, t), a.at(p, q2, t));
 			}
 
 		}
 	}
 
 
-	private static void actionTransitions(int nSteps, int nBalls, Set<Integer> l, Set<Integer> lwall, Set<Integer> lwall2, String d, Map<String,Integer> next, Map<String,Integer> next2, DIMACSFormula f) {
+	private static void actionTransitions(int first, int nSteps, int nBalls, LocationSet l, boolean[] lwall, boolean[] lwall2, String d, int[][] next, int[][] next2, DIMACSFormula f) {
+
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family action = v.locations(d);
+		int dir = Geometry.direction(d);
+		VariableRegistry.Family roll = v.locations("roll_" + d);
+		VariableRegistry.Family roll_ball = v.locations("roll_ball_" + d);
+		VariableRegistry.Family n = v.locations("n"), s = v.locations("s"), e = v.locations("e"), w = v.locations("w");
+		VariableRegistry.Family r = v.locations("r"), rbis = v.locations("rbis");
+		VariableRegistry.Family jump = v.locations("jump"), jumpStep = v.steps("jump");
+		VariableRegistry.Family ball = v.locations("ball"), b = v.locations("#b");
 		
 		// No action allowed
-		for (Integer j : lwall) {
-			String s = "!" + d + "_" + j + "_";
-			for (int i = 0; i < nSteps; ++i)
-				f.addClause(List.of(s + i));
-		}
+		for (Integer j : l)
+			if (lwall[j])
+				for (int i = first; i < nSteps; ++i)
+					f.addClause(-action.at(j, i));
 
 		// No action allowed
-		for (Integer j : lwall2)
-			if (!lwall.contains(j)) {
-				String s = "!" + d + "_" + j + "_";
-				for (int i = 0; i < nSteps; ++i)
-					f.addClause(List.of(s + i));
-			}
+		for (Integer j : l)
+			if (lwall2[j] && !lwall[j])
+				for (int i = first; i < nSteps; ++i)
+					f.addClause(-action.at(j, i));
 
-					
-		for (Integer j : l) {
-			List<String> ls = new LinkedList<>();
 
-			for (int i = 0; i < nSteps; ++i) {
-				String s = j + "_" + i;
-				// Actions require reachability	
-				f.addClause(List.of("r_" + s, "!jump_" + s));
-				f.addClause(List.of("rbis_" + s, "!n_" + s));
-				f.addClause(List.of("rbis_" + s, "!s_" + s));
-				f.addClause(List.of("rbis_" + s, "!e_" + s));
-				f.addClause(List.of("rbis_" + s, "!w_" + s));
+		for (Integer j : l) {		
+			for (int i = first; i < nSteps; ++i) {
+				// Actions require reachability
+				f.addClause(r.at(j, i), -jump.at(j, i));
+				f.addClause(rbis.at(j, i), -n.at(j, i));
+				f.addClause(rbis.at(j, i), -s.at(j, i));
+				f.addClause(rbis.at(j, i), -e.at(j, i));
+				f.addClause(rbis.at(j, i), -w.at(j, i));
 
 				// Jumping is an exclusive action
-				f.addClause(List.of("!jump_" + s, "jump_" + i));					
-			}
-			// Rest of preconditions and effects of ball movement actions (ROLL)
-			if (!lwall.contains(j) && !lwall2.contains(j)) {
-				for (int i = 0; i < nSteps; ++i) {
-					String t = "_" + i;
-					String t1 = "_" + (i + 1);
-					String lj = "_" + j;
-					String ljn = "_" + next.get(d + j);
-					String ljnn = "_" + next2.get(d + j);
-					
-					f.addClause(List.of("!roll_" + d + lj + t, d + lj + t));
-					f.addClause(List.of("roll_" + d + lj + t, "!" + d + lj + t));
-					f.addClause(List.of("!" + d + lj + t, "!jump" + t));
-
-					add2DIMACSFormula(implication2cnf(List.of("roll_" + d + lj + t), List.of("!ball" + ljn + t1, "!ball" + ljnn + t, "roll_ball_" + d + lj + t)), f);
-					add2DIMACSFormula(implication2cnf(List.of("roll_ball_" + d + lj + t), List.of("#b" + ljn + t, "#b" + ljnn + t1)), f);
+				f.addClause(-jump.at(j, i), jumpStep.at(i));
+			}	
+				
+			// Rest of preconditions and effects of ball roll actions	
+			if (!lwall[j] && !lwall2[j]) {
+				int jn = next[dir][j];
+				int jnn = next2[dir][j];
+				for (int i = first; i < nSteps; ++i) {
+					f.addClause(-roll.at(j, i), action.at(j, i));
+					f.addClause(roll.at(j, i), -action.at(j, i));
+					f.addClause(-action.at(j, i), -jumpStep.at(i));
+
+					implication2cnf(new int[] {roll.at(j, i)}, new int[] {-ball.at(jn, i + 1), -ball.at(jnn, i), roll_ball.at(j, i)}, f);
+					implication2cnf(new int[] {roll_ball.at(j, i)}, new int[] {b.at(jn, i), b.at(jnn, i + 1)}, f);
 				}				
 			}
 		}
 	}
 
 
-	private static void uselessJumps(int nSteps, Set<Integer> l,
-									 Set<Integer> ln, Set<Integer> lnn,
-									 Set<Integer> ls, Set<Integer> lss,
-									 Set<Integer> le, Set<Integer> lee,
-									 Set<Integer> lw, Set<Integer> lww,
-									 Map<String,Integer> next,
-									 Map<String,Integer> next2,
-									 Map<Integer, List<Integer>> validNeighbours,
+	private static void uselessJumps(int first, int nSteps, LocationSet l,
+									 boolean[] ln, boolean[] lnn,
+									 boolean[] ls, boolean[] lss,
+									 boolean[] le, boolean[] lee,
+									 boolean[] lw, boolean[] lww,
+									 int[][] next,
+									 int[][] next2,
+									 List<List<Integer>> validNeighbours,
 									 DIMACSFormula f) {
 
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family jump = v.locations("jump");
+
 		for (Integer j : l) {
-			for (int i = 0; i < nSteps; ++i) {
-				String t = "_" + i;
-				if ((ln.contains(j) || lnn.contains(j)) &&
-					(ls.contains(j) || lss.contains(j)) &&
-					(le.contains(j) || lee.contains(j)) &&
-					(lw.contains(j) || lww.contains(j)))
-					f.addClause(List.of("!jump_" + j + t));
+			for (int i = first; i < nSteps; ++i) {
+				if ((ln[j] || lnn[j]) &&
+					(ls[j] || lss[j]) &&
+					(le[j] || lee[j]) &&
+					(lw[j] || lww[j]))
+					f.addClause(-jump.at(j, i));
 				else {
 					// Other useless jumps due to ball locations can be identified. Incomplete list:
 
 					// Location is no next to a ball
 					List<Integer> vn = validNeighbours.get(j); // There is at least one valid neighbour location
-					List<String> lits = new LinkedList<>();
+					int[] lits = new int[0];
 					for (Integer k : vn)
-						lits.addAll(ball_now_or_next(k, i, false, l, next2));
-					lits.add("!jump_" + j + t);
-					f.addClause(lits);
+						lits = concat(lits, ball_now_or_next(k, i, false, l, next2, v));
+					f.addClause(concat(lits, -jump.at(j, i)));
 
 				}
 			}
@@ -540,58 +439,52 @@ public class sokoban2sat_forbiddenPositions_reachability_ordering_cnf_parallel {
 	}
 
 
-	private static List<String> surroundingActions(Integer loc, Set<Integer> l, Map<String,Integer> next, int t) {
-		Integer north = next.get("n" + loc);
-		Integer south = next.get("s" + loc);
-		Integer east = next.get("e" + loc);
-		Integer west = next.get("w" + loc);
-		List<String> lits = new LinkedList<>();
-		if (north != null && l.contains(north)) lits.add("s_" + north + "_" + t);
-		if (south != null && l.contains(south)) lits.add("n_" + south + "_" + t);
-		if (east != null && l.contains(east)) lits.add("w_" + east + "_" + t);
-		if (west != null && l.contains(west)) lits.add("e_" + west + "_" + t);
-		return lits;
+	private static int[] surroundingActions(Integer loc, LocationSet l, int[][] next, int t, VariableRegistry v) {
+		int north = next[Geometry.N][loc];
+		int south = next[Geometry.S][loc];
+		int east = next[Geometry.E][loc];
+		int west = next[Geometry.W][loc];
+		int[] lits = new int[4];
+		int k = 0;
+		if (north != -1 && l.contains(north)) lits[k++] = v.locations("s").at(north, t);
+		if (south != -1 && l.contains(south)) lits[k++] = v.locations("n").at(south, t);
+		if (east != -1 && l.contains(east)) lits[k++] = v.locations("w").at(east, t);
+		if (west != -1 && l.contains(west)) lits[k++] = v.locations("e").at(west, t);
+		return Arrays.copyOf(lits, k);
 	}
 
 
-    	private static void frameAxioms(int nSteps, Set<Integer> l,  Map<String,Integer> next, Map<String,Integer> next2, DIMACSFormula f) {
-    		LinkedList<String> ls = new LinkedList<>();
-		for (int i = 0; i < nSteps; ++i) {
-			String t = "_" + i; String t1 = "_" + (i + 1);
+   	private static void frameAxioms(int first, int nSteps, LocationSet l,  int[][] next, int[][] next2, Cardinality.AtMostOne amo, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family aux = v.block("amo_c");
+		VariableRegistry.Family b = v.locations("#b"), c = v.locations("#c");
+		VariableRegistry.Family r = v.locations("r"), rbis = v.locations("rbis");
+		VariableRegistry.Family jump = v.locations("jump");
+		for (int i = first; i < nSteps; ++i) {
 			for (Integer j : l) {			
 // old:f.addClause(List.of("!#c_" + j + t1, "r_" + j + t));					
 				// Changes in balls require action
-				List<String> s1 = surroundingActions(j, l, next, i);
-				List<String> s2 = surroundingActions(j, l, next2, i);
-				ls.clear();
-				ls.add("!#b_" + j + t); ls.add("#b_" + j + t1); ls.addAll(s1);
-				f.addClause(ls);
-				if (!s2.isEmpty()) { // There exists some valid position at distance 2
-					ls.clear();
-					ls.add("#b_" + j + t); ls.add("!#b_" + j + t1); ls.addAll(s2);
-					f.addClause(ls);
+				int[] s1 = surroundingActions(j, l, next, i, v);
+				int[] s2 = surroundingActions(j, l, next2, i, v);
+				f.addClause(concat(new int[] {-b.at(j, i), b.at(j, i + 1)}, s1));
+				if (s2.length != 0) { // There exists some valid position at distance 2
+					f.addClause(concat(new int[] {b.at(j, i), -b.at(j, i + 1)}, s2));
 				}
 				else { // No ball can appear
-					f.addClause(List.of("#b_" + j + t, "!#b_" + j + t1));
+					f.addClause(b.at(j, i), -b.at(j, i + 1));
 				}
 				// Reachability bis only if reachability
-				f.addClause(List.of("r_" + j + t, "!rbis_" + j + t));
-
+				f.addClause(r.at(j, i), -rbis.at(j, i));
 			}
 		}
 	
-		for (int i = 1; i <= nSteps; ++i) {
-			String t = "_" + i;
-			String t0 = "_" + (i - 1);
+		for (int i = first + 1; i <= nSteps; ++i) {
 			// Character at most in one location
-			//ls.clear();
+			for (int[] clause : Cardinality.atMostOne(amo, c, l, i, aux))
+				f.addClause(clause);
 			for (int j : l) {
-				//ls.add("#c_" + j + t);
-				for (int k : l)
-					if (j < k)
-						f.addClause(List.of("!#c_" + j + t, "!#c_" + k + t));
 				// Character only moves when jumping
-				f.addClause(List.of("!#c_" + j + t, "jump_" + j + t0, "#c_" + j + t0));
+				f.addClause(-c.at(j, i), jump.at(j, i - 1), c.at(j, i - 1));
 			}
 
 			// Character at least in one location
@@ -601,61 +494,59 @@ public class sokoban2sat_forbiddenPositions_reachability_ordering_cnf_parallel {
     }
 
 
-   	private static void mutexes(Integer l, String n, String s, List<Integer> ln, int t, DIMACSFormula f) {
+   	private static void mutexes(Integer l, VariableRegistry.Family n, VariableRegistry.Family s, List<Integer> ln, int t, DIMACSFormula f) {
 		for (Integer p : ln)
-			f.addClause(List.of(literal("!" + n, l, t),  literal("!" + s, p, t)));
+			f.addClause(-n.at(l, t), -s.at(p, t));
    	}
 	
 	
-	private static void incompatibilities(int nSteps, Set<Integer> validLocations, String n, String s, String e, String w, Map<String,Integer> next, Map<String,Integer> next2, DIMACSFormula f) {
+	private static void incompatibilities(int first, int nSteps, LocationSet validLocations, String n, String s, String e, String w, int[][] next, int[][] next2, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		VariableRegistry.Family an = v.locations(n), as = v.locations(s), ae = v.locations(e), aw = v.locations(w);
+		int dn = Geometry.direction(n), de = Geometry.direction(e), dw = Geometry.direction(w);
 		for (Integer l : validLocations) {
 			List<Integer> ln = new LinkedList<>();
 			List<Integer> le = new LinkedList<>();
 			List<Integer> lw = new LinkedList<>();
-			Integer lball = next.get(n+l);
-			if (lball != null && validLocations.contains(lball)) {
-				Integer lnn = next.get(n+lball);
-				if (lnn != null && validLocations.contains(lnn)) {
-					String n_lnn = n + lnn;
-					String e_lnn = e + lnn;
-					String w_lnn = w + lnn;
-					String e_lball = e + lball;
-					String w_lball = w + lball;
-					Integer next_n_lnn = next.get(n_lnn);
-					Integer next_e_lnn = next.get(e_lnn);
-					Integer next_w_lnn = next.get(w_lnn);
-					Integer next2_n_lnn = next2.get(n_lnn);
-					Integer next2_e_lnn = next2.get(e_lnn);
-					Integer next2_w_lnn = next2.get(w_lnn);
-					Integer next_e_lball = next.get(e_lball);
-					Integer next_w_lball = next.get(w_lball);
-					Integer next2_e_lball = next2.get(e_lball);
-					Integer next2_w_lball = next2.get(w_lball);
+			int lball = next[dn][l];
+			if (lball != -1 && validLocations.contains(lball)) {
+				int lnn = next[dn][lball];
+				if (lnn != -1 && validLocations.contains(lnn)) {
+					int next_n_lnn = next[dn][lnn];
+					int next_e_lnn = next[de][lnn];
+					int next_w_lnn = next[dw][lnn];
+					int next2_n_lnn = next2[dn][lnn];
+					int next2_e_lnn = next2[de][lnn];
+					int next2_w_lnn = next2[dw][lnn];
+					int next_e_lball = next[de][lball];
+					int next_w_lball = next[dw][lball];
+					int next2_e_lball = next2[de][lball];
+					int next2_w_lball = next2[dw][lball];
 					ln.add(lnn);
-					if (next_n_lnn != null && validLocations.contains(next_n_lnn))
+					if (next_n_lnn != -1 && validLocations.contains(next_n_lnn))
 						ln.add(next_n_lnn);
-					if (next2_n_lnn != null && validLocations.contains(next2_n_lnn))
+					if (next2_n_lnn != -1 && validLocations.contains(next2_n_lnn))
 						ln.add(next2_n_lnn);
-					if (next_w_lball != null && validLocations.contains(next_w_lball))
+					if (next_w_lball != -1 && validLocations.contains(next_w_lball))
 						lw.add(next_w_lball);
-					if (next2_w_lball != null && validLocations.contains(next2_w_lball))
+					if (next2_w_lball != -1 && validLocations.contains(next2_w_lball))
 						lw.add(next2_w_lball);
-					if (next_w_lnn != null && validLocations.contains(next_w_lnn))
+					if (next_w_lnn != -1 && validLocations.contains(next_w_lnn))
 						lw.add(next_w_lnn);
-					if (next2_w_lnn != null && validLocations.contains(next2_w_lnn))
+					if (next2_w_lnn != -1 && validLocations.contains(next2_w_lnn))
 						lw.add(next2_w_lnn);
-					if (next_e_lball != null && validLocations.contains(next_e_lball))
+					if (next_e_lball != -1 && validLocations.contains(next_e_lball))
 						le.add(next_e_lball);
-					if (next2_e_lball != null && validLocations.contains(next2_e_lball))
+					if (next2_e_lball != -1 && validLocations.contains(next2_e_lball))
 						le.add(next2_e_lball);
-					if (next_e_lnn != null && validLocations.contains(next_e_lnn))
+					if (next_e_lnn != -1 && validLocations.contains(next_e_lnn))
 						le.add(next_e_lnn);
-					if (next2_e_lnn != null && validLocations.contains(next2_e_lnn))
+					if (next2_e_lnn != -1 && validLocations.contains(next2_e_lnn))
 						le.add(next2_e_lnn);
-					for (int i = 0; i < nSteps; ++i) {
-						mutexes(l, n, s, ln, i, f);
-						mutexes(l, n, e, lw, i, f);
-						mutexes(l, n, w, le, i, f);
+					for (int i = first; i < nSteps; ++i) {
+						mutexes(l, an, as, ln, i, f);
+						mutexes(l, an, ae, lw, i, f);
+						mutexes(l, an, aw, le, i, f);
 					}
 				} // otherwise action not possible
 			} // otherwise action not possible
@@ -664,21 +555,31 @@ public class sokoban2sat_forbiddenPositions_reachability_ordering_cnf_parallel {
 	
 	
 
-    private static void goal(int nSteps, Set<Integer> validLocations, DIMACSFormula f) {
+    private static void goal(int nSteps, LocationSet validLocations, int guard, DIMACSFormula f) {
+		VariableRegistry v = f.registry();
+		int[] g = guard == 0 ? new int[0] : new int[] {-guard};
+		VariableRegistry.Family b = v.locations("#b"), h = v.locations("#h");
 		for (Integer loc : validLocations) {
-			f.addClause(List.of("!#b_" + loc + "_" + nSteps, "#h_" + loc + "_0" ));
-			f.addClause(List.of("#b_" + loc + "_" + nSteps, "!#h_" + loc + "_0" ));
+			f.addClause(concat(g, -b.at(loc, nSteps), h.at(loc, 0)));
+			f.addClause(concat(g, b.at(loc, nSteps), -h.at(loc, 0)));
 		}
     }
     
-    private static void translate(InputStream in, PrintStream out, int nSteps) throws Exception {
-		DIMACSFormula f = new DIMACSFormula();
+    /// @returns An encoder of the instance available in \p in, for any number of time steps
+    public static Encoder encoder(InputStream in) throws Exception {
+		return encoder(in, null);
+    }
+
+    /// @returns An encoder of the instance available in \p in, for any number of time steps, with encoding
+    ///          \p amo of the at-most-one constraints over the locations (if null, pairwise for
+    ///          the character)
+    public static Encoder encoder(InputStream in, Cardinality.AtMostOne amo) throws Exception {
 		char[][] grid = readGrid(in);
 	
 		int nRows = grid.length;
 		int nCols = grid[0].length;
 		int nLocs = nRows * nCols;
-		Set<Integer> l = new TreeSet<>(); // Set of valid locations
+		LocationSet l = new LocationSet(nLocs); // Set of valid locations
 
 		int loc = 1;
 		for (int i = 0; i < nRows; i++) {
@@ -689,68 +590,82 @@ public class sokoban2sat_forbiddenPositions_reachability_ordering_cnf_parallel {
 		}
 
 
-		Map<String,Integer> next = computeNextRelation(nRows, nCols); // Key = d + l where  d  is a direction ('n', 's', 'e', 'w') and  l  is the number of the location; Value is the number of the location next to  l  in the direction  d
-		Map<String,Integer> next2 = computeNext2Relation(next); // Next to the next (in the same direction)
-		Set<Integer> ln = new TreeSet<>(); // Set of valid positions with a wall in the north
-		Set<Integer> lnn = new TreeSet<>(); // Set of valid positions with a wall two steps ahead in the north
-		Set<Integer> ls = new TreeSet<>(); // Set of valid positions with a wall in the south
-		Set<Integer> lss = new TreeSet<>(); // Set of valid positions with a wall two steps ahead in the south
-		Set<Integer> le = new TreeSet<>(); // Set of valid positions with a wall in the east
-		Set<Integer> lee = new TreeSet<>(); // Set of valid positions with a wall two steps ahead in the east
-		Set<Integer> lw = new TreeSet<>(); // Set of valid positions with a wall in the west
-		Set<Integer> lww = new TreeSet<>(); // Set of valid positions with a wall two steps ahead in the west
-
-		computeSetsNext2Wall(l, ln, lnn, "n", next, next2, grid);
-		computeSetsNext2Wall(l, ls, lss, "s", next, next2, grid);
-		computeSetsNext2Wall(l, le, lee, "e", next, next2, grid);
-		computeSetsNext2Wall(l, lw, lww, "w", next, next2, grid);
+		Geometry geo = new Geometry(grid, l);
+		int[][] next = geo.next(); // next[d][l] is the number of the location next to  l  in the direction  d  (Geometry.N, S, E, W), or -1
+		int[][] next2 = geo.next2(); // Next to the next (in the same direction)
+		boolean[] ln = geo.wall(Geometry.N); // Valid positions with a wall in the north
+		boolean[] lnn = geo.wall2(Geometry.N); // Valid positions with a wall two steps ahead in the north
+		boolean[] ls = geo.wall(Geometry.S); // Valid positions with a wall in the south
+		boolean[] lss = geo.wall2(Geometry.S); // Valid positions with a wall two steps ahead in the south
+		boolean[] le = geo.wall(Geometry.E); // Valid positions with a wall in the east
+		boolean[] lee = geo.wall2(Geometry.E); // Valid positions with a wall two steps ahead in the east
+		boolean[] lw = geo.wall(Geometry.W); // Valid positions with a wall in the west
+		boolean[] lww = geo.wall2(Geometry.W); // Valid positions with a wall two steps ahead in the west
 
-		Pair<List<Integer>,Pair<Integer,String>> p  = initialState(grid);
+		Pair<List<Integer>,Integer> p  = initialState(grid);
 		List<Integer> lForbiddenPos = p.first;  //CRISTINA: posicions on no pot anar ball perquè seria unsat
-		int nBalls = p.second.first;
-	 	// Initial state to CNF
-		String ini[] = p.second.second.split(" & ");
-		for (String s : ini)
-			f.addClause(List.of(s));
-		// Forbidden Positions for a ball
-		forbiddenPositions(nSteps, lForbiddenPos, f); 
+		int nBalls = p.second;
+
+		// Variables
+		VariableRegistry v = new VariableRegistry(nLocs, l);
+		v.declareInitial("#h");
+		v.declareLocations("#c", "#b", "n", "s", "e", "w", "jump", "ball", "ballbis", "r", "rbis");
+		v.declareLocations("roll_n", "roll_s", "roll_e", "roll_w", "roll_ball_n", "roll_ball_s", "roll_ball_e", "roll_ball_w");
+		v.declareLocations("edge_n", "edge_s", "edge_e", "edge_w", "edgebis_n", "edgebis_s", "edgebis_e", "edgebis_w");
+		v.declarePairs("a", "abis");
+		v.declareSteps("jump");
+		Cardinality.AtMostOne amoC = amo == null ? Cardinality.AtMostOne.PAIRWISE : amo; // Character at most in one location
+		Cardinality.declare(v, "amo_c", amoC, l.size());
+		if (amo != null)
+			System.err.print(Cardinality.statistics(amo, l.size()));
+
+		RelaxedReach reach = new RelaxedReach(grid, l, geo, v, false, "", "roll_", "roll_ball_"); // Locations out of reach, and least number of steps
+
+		// Clauses of the initial state (if first == 0), of time steps first .. nSteps - 1,
+		// and of the goal at time nSteps (guarded by  guard  if not 0), with the balls
+		// out of reach at each time step, and the pushes of them, fixed to false (see RelaxedReach)
+		return new Encoder(v, (f, first, nSteps, guard) -> {
+		 	// Initial state to CNF
+			if (first == 0)
+				initialStateClauses(grid, f);
+			// Forbidden Positions for a ball
+			forbiddenPositions(first, nSteps, lForbiddenPos, f); 
 		
-		// At most one action per location
-		// 	atMostOneAction(nSteps, l, f);
+			// At most one action per location
+			// 	atMostOneAction(first, nSteps, l, f);
 		
-		// Incompatibilities
-		incompatibilities(nSteps, l, "n", "s", "e", "w", next, next2, f);
-		incompatibilities(nSteps, l, "s", "n", "e", "w", next, next2, f);
-		incompatibilities(nSteps, l, "e", "w", "n", "s", next, next2, f);
-		incompatibilities(nSteps, l, "w", "e", "n", "s", next, next2, f);
+			// Incompatibilities
+			incompatibilities(first, nSteps, l, "n", "s", "e", "w", next, next2, f);
+			incompatibilities(first, nSteps, l, "s", "n", "e", "w", next, next2, f);
+			incompatibilities(first, nSteps, l, "e", "w", "n", "s", next, next2, f);
+			incompatibilities(first, nSteps, l, "w", "e", "n", "s", next, next2, f);
 
-		// Ball variables
-		ballVariables(false, nSteps, l, next2, f);
-		ballVariables(true, nSteps, l, next2, f);
+			// Ball variables
+			ballVariables(false, first, nSteps, l, next2, f);
+			ballVariables(true, first, nSteps, l, next2, f);
 
-		// Reachability constraints
-		Map<Integer,List<Integer>> validNeighbours = computeValidNeighbours(l, next);
-		reachabilityConstraints(false, nSteps, l, validNeighbours, f);
-		reachabilityConstraints(true, nSteps, l, validNeighbours, f);
+			// Reachability constraints
+			List<List<Integer>> validNeighbours = geo.validNeighbours();
+			reachabilityConstraints(false, first, nSteps, l, next, validNeighbours, f);
+			reachabilityConstraints(true, first, nSteps, l, next, validNeighbours, f);
 
-		// Action transitions  
-		actionTransitions(nSteps, nBalls, l, ln, lnn, "n", next, next2, f);
-		actionTransitions(nSteps, nBalls, l, ls, lss, "s", next, next2, f);
-		actionTransitions(nSteps, nBalls, l, le, lee, "e", next, next2, f);
-		actionTransitions(nSteps, nBalls, l, lw, lww, "w", next, next2, f);
+			// Action transitions  
+			actionTransitions(first, nSteps, nBalls, l, ln, lnn, "n", next, next2, f);
+			actionTransitions(first, nSteps, nBalls, l, ls, lss, "s", next, next2, f);
+			actionTransitions(first, nSteps, nBalls, l, le, lee, "e", next, next2, f);
+			actionTransitions(first, nSteps, nBalls, l, lw, lww, "w", next, next2, f);
 
-		// Useless jumps
-		uselessJumps(nSteps, l, ln, lnn, ls, lss, le, lee, lw, lww, next, next2, validNeighbours, f);
+			// Useless jumps
+			uselessJumps(first, nSteps, l, ln, lnn, ls, lss, le, lee, lw, lww, next, next2, validNeighbours, f);
 
 
-		// Frame axioms
-		frameAxioms(nSteps, l, next, next2, f);
+			// Frame axioms
+			frameAxioms(first, nSteps, l, next, next2, amoC, f);
 
 
-		// Goal
-		goal(nSteps, l, f);
-		System.out.println("c "+nSteps);
-		f.print(out);
+			// Goal
+			goal(nSteps, l, guard, f);
+		}, reach, reach.minSteps(true));
     }
     
 
@@ -0,0 +1,222 @@
+/**
+ * @class sokoban2sat_makespans
+ * @author Miquel Bofill and Cristina Borralleras
+ * @version 1.6
+ * @date 2023-07-07
+ * @brief Translation of a "Sokoban" instance to CNF for a range of numbers of time steps, in a single process
+ *
+ * The instance is read (and preprocessed) only once. For each number of steps, the
+ * CNF is written to a file and, optionally, solved with an external SAT solver,
+ * stopping at the first satisfiable one (iterative deepening). Several numbers of
+ * steps can be solved at once, by a pool of threads (see MakespanPortfolio).
+ * They can also be solved in the same process, by an embedded SAT solver taking
+ * the clauses as they are generated, incrementally (see CdclSolver), so that a
+ * plan is found with no external solver nor intermediate files. An external solver
+ * can also be given the CNFs through its standard input (see PipedSolver), so that
+ * no CNF file is written either. The plan found can be printed (see SokobanPlan).
+ * Numbers of steps below a lower bound given by the encoding, for which no plan
+ * exists, are skipped.
+*/
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.BitSet;
+
+public class sokoban2sat_makespans {
+
+    /// @pre Program has been called with arguments <tt> encoding min max </tt> where
+    ///      encoding is one of
+    ///
+    ///       basic               : sokoban2sat_forbiddenPositions_cnf
+    ///       counting            : sokoban2sat_forbiddenPositions_reachability_counting_cnf
+    ///       counting_descending : sokoban2sat_forbiddenPositions_reachability_counting_cnf_descending
+    ///       counting_parallel   : sokoban2sat_forbiddenPositions_reachability_counting_cnf_parallel
+    ///       ordering            : sokoban2sat_forbiddenPositions_reachability_ordering_cnf_parallel
+    ///       tree                : sokoban2sat_forbiddenPositions_reachability_tree_cnf_parallel
+    ///       distance            : sokoban2sat_forbiddenPositions_reachability_distance_cnf_parallel
+    ///       rank                : sokoban2sat_forbiddenPositions_reachability_rank_cnf_parallel
+    ///
+    ///      and 0 <= min <= max are the numbers of time steps to try, optionally followed by
+    ///      <tt> -o prefix </tt> (default: the encoding name) for the names of the files,
+    ///      <tt> -solve command </tt> to run  command file  on each CNF file (exit code 10 meaning
+    ///      satisfiable, and 20 unsatisfiable), <tt> -threads k </tt> to solve up to k numbers
+    ///      of steps at once and <tt> -step s </tt> to only try  min, min + s, min + 2s, ...  (with -solve),
+    ///      <tt> -cdcl </tt> to solve them with the embedded solver instead, incrementally (also with -step),
+    ///      or, with -threads, from their CNF files as with -solve, <tt> -pipe </tt> to print each CNF into
+    ///      the standard input of the solver instead of a file (with -solve; command must then read it from there),
+    ///      <tt> -plan </tt> to print the plan of the first satisfiable number of steps (with -solve or -cdcl),
+    ///      <tt> -nobound </tt> to start from min even if no plan can be that short (see Encoder.minSteps),
+    ///      and the options of the encodings
+    ///      <tt> -stream </tt>, <tt> -nocomments </tt>, <tt> -amo e </tt>, <tt> -sym </tt> (counting_parallel only)
+    ///      and <tt> -map </tt> (no file name), or
+    ///      <tt> -icnf </tt> to write a single iCNF file for the whole range instead (see Encoder)
+    ///
+    ///      A problem instance is available in the standard input (see the encodings)
+
+    /// @post Writes files <tt> prefix_n.cnf </tt> (unless -pipe; and <tt> prefix_n.vmap </tt> with -map,
+    ///       and <tt> prefix_n.out </tt> with the output of the solver with -solve) for
+    ///       n = min .. max (min raised to the lower bound on the number of steps, unless -nobound),
+    ///       stopping at the first satisfiable one with -solve (cancelling the
+    ///       jobs of larger ones, with -threads); with -cdcl alone, writes only <tt> prefix_n.out </tt>
+    ///       (and <tt> prefix_n.vmap </tt> with -map) for the first satisfiable n; with -icnf, writes
+    ///       <tt> prefix_min_max.icnf </tt> (and <tt> prefix_min_max.vmap </tt> with -map) instead
+    public static void main(String[] args) throws Exception {
+		String encoding = null;
+		int min = 0, max = 0;
+		String prefix = null;
+		String solver = null;
+		boolean stream = false;
+		boolean comments = true;
+		boolean map = false;
+		boolean icnf = false;
+		boolean cdcl = false;
+		boolean pipe = false;
+		boolean plan = false;
+		int threads = 1;
+		int step = 1;
+		boolean bound = true;
+		boolean symmetry = false;
+		Cardinality.AtMostOne amo = null;
+		try {
+			encoding = args[0];
+			min = Integer.parseInt(args[1]);
+			max = Integer.parseInt(args[2]);
+			if (min < 0 || min > max)
+				throw new IllegalArgumentException(min + " " + max);
+			for (int i = 3; i < args.length; ++i)
+				if (args[i].equals("-o") && i + 1 < args.length)
+					prefix = args[++i];
+				else if (args[i].equals("-solve") && i + 1 < args.length)
+					solver = args[++i];
+				else if (args[i].equals("-threads") && i + 1 < args.length)
+					threads = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-step") && i + 1 < args.length)
+					step = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-stream"))
+					stream = true;
+				else if (args[i].equals("-nocomments"))
+					comments = false;
+				else if (args[i].equals("-icnf"))
+					icnf = true;
+				else if (args[i].equals("-cdcl"))
+					cdcl = true;
+				else if (args[i].equals("-pipe"))
+					pipe = true;
+				else if (args[i].equals("-plan"))
+					plan = true;
+				else if (args[i].equals("-nobound"))
+					bound = false;
+				else if (args[i].equals("-sym"))
+					symmetry = true;
+				else if (args[i].equals("-amo") && i + 1 < args.length)
+					amo = Cardinality.AtMostOne.valueOf(args[++i].toUpperCase());
+				else if (args[i].equals("-map")) {
+					map = true;
+					comments = false;
+				}
+				else
+					throw new IllegalArgumentException(args[i]);
+			if (icnf && (solver != null || cdcl))
+				throw new IllegalArgumentException("-icnf");
+			if (cdcl && solver != null)
+				throw new IllegalArgumentException("-cdcl");
+			if (pipe && solver == null)
+				throw new IllegalArgumentException("-pipe");
+			if (plan && solver == null && !cdcl)
+				throw new IllegalArgumentException("-plan");
+			if (threads < 1 || step < 1 || (solver == null && !cdcl && (threads > 1 || step > 1)))
+				throw new IllegalArgumentException(threads + " " + step);
+		}
+		catch (Exception e) {
+			System.err.println("The program needs an encoding and integers 0 <= min <= max as arguments denoting the range of numbers of steps of the desired plan (options: -o prefix, -solve command, -threads k, -step s, -cdcl, -pipe, -plan, -nobound, -stream, -nocomments, -amo e, -sym, -map, -icnf).");
+			System.exit(0);
+		}
+		if (prefix == null)
+			prefix = encoding;
+
+		byte[] level = System.in.readAllBytes(); // Read again for the plan
+		Encoder e = encoder(encoding, new ByteArrayInputStream(level), amo, symmetry);
+		if (bound && e.minSteps() > min) {
+			if (e.minSteps() > max) {
+				System.err.println("No plan of at most " + max + " steps" + (e.minSteps() == Geometry.UNREACHABLE ? "" : " (at least " + e.minSteps() + " are needed)"));
+				return;
+			}
+			min = e.minSteps();
+		}
+		if (icnf) {
+			String name = prefix + "_" + min + "_" + max;
+			long start = System.currentTimeMillis();
+			try (PrintStream out = new PrintStream(name + ".icnf")) {
+				e.encodeIncremental(min, max, out, stream, map ? name + ".vmap" : null);
+			}
+			System.out.println(min + ".." + max + " " + name + ".icnf " + (System.currentTimeMillis() - start) + " ms");
+			return;
+		}
+		if (cdcl && threads == 1) {
+			CdclSolver s = new CdclSolver();
+			int n = e.solveIncremental(s, min, max, step, System.out);
+			if (n != -1) {
+				try (PrintStream out = new PrintStream(prefix + "_" + n + ".out")) {
+					s.print(SatSolver.SAT, out);
+				}
+				if (map)
+					try (PrintStream m = new PrintStream(prefix + "_" + n + ".vmap")) {
+						e.registry().write(m);
+					}
+				if (plan)
+					new SokobanPlan(SokobanPlan.readGrid(new ByteArrayInputStream(level)), e.registry(), s.model()).print(System.out);
+			}
+			return;
+		}
+		if (solver == null && !cdcl)
+			for (int n = min; n <= max; ++n) {
+				String cnf = prefix + "_" + n + ".cnf";
+				long start = System.currentTimeMillis();
+				try (PrintStream out = new PrintStream(cnf)) {
+					e.encode(n, out, stream, comments, map ? prefix + "_" + n + ".vmap" : null);
+				}
+				System.out.println(n + " " + cnf + " " + (System.currentTimeMillis() - start) + " ms");
+			}
+		else {
+			MakespanPortfolio portfolio = pipe ? new MakespanPortfolio(e, new PipedSolver(solver), threads)
+				: new MakespanPortfolio(e, cdcl ? new CdclSolver() : new ExternalSolver(solver), threads);
+			int n = portfolio.run(min, max, step, prefix, stream, comments, map, System.out);
+			if (plan && n != -1) {
+				BitSet model = pipe ? portfolio.model() : SatSolver.model(new File(prefix + "_" + n + ".out"));
+				if (model.isEmpty())
+					System.err.println("No model in " + prefix + "_" + n + ".out");
+				else
+					new SokobanPlan(SokobanPlan.readGrid(new ByteArrayInputStream(level)), e.registry(), model).print(System.out);
+			}
+		}
+    }
+
+    /// @returns The encoder named \p name of the instance available in \p in, with encoding \p amo of
+    ///          the at-most-one constraints over the locations (if not null; see the encodings), and
+    ///          symmetry breaking if \p symmetry (for counting_parallel only)
+    private static Encoder encoder(String name, InputStream in, Cardinality.AtMostOne amo, boolean symmetry) throws Exception {
+		switch (name) {
+		case "basic":
+			return sokoban2sat_forbiddenPositions_cnf.encoder(in, amo);
+		case "counting":
+			return sokoban2sat_forbiddenPositions_reachability_counting_cnf.encoder(in, amo);
+		case "counting_descending":
+			return sokoban2sat_forbiddenPositions_reachability_counting_cnf_descending.encoder(in, amo);
+		case "counting_parallel":
+			return sokoban2sat_forbiddenPositions_reachability_counting_cnf_parallel.encoder(in, amo, symmetry);
+		case "ordering":
+			return sokoban2sat_forbiddenPositions_reachability_ordering_cnf_parallel.encoder(in, amo);
+		case "tree":
+			return sokoban2sat_forbiddenPositions_reachability_tree_cnf_parallel.encoder(in, amo);
+		case "distance":
+			return sokoban2sat_forbiddenPositions_reachability_distance_cnf_parallel.encoder(in, amo);
+		case "rank":
+			return sokoban2sat_forbiddenPositions_reachability_rank_cnf_parallel.encoder(in, amo);
+		default:
+			throw new IllegalArgumentException("Unknown encoding " + name);
+		}
+    }
+
+}